@@ -134,6 +134,15 @@ class BookDbHelper(private val mContext: Context) :
         }
     }
 
+    /**
+     * Enables write-ahead logging, so that reading the books does not wait for writes to the books table
+     * @param db Book database
+     */
+    override fun onConfigure(db: SQLiteDatabase) {
+        super.onConfigure(db)
+        db.enableWriteAheadLogging()
+    }
+
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         //nothing to see here yet, move along
     }
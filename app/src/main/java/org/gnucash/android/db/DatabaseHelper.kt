@@ -48,9 +48,29 @@ class DatabaseHelper
         createDatabaseTables(db)
     }
 
+    /**
+     * Configures every connection of the database.
+     *
+     * Write-ahead logging lets the platform keep a pool of read-only connections next to the single
+     * writer connection, so that loaders and background tasks querying the database from other threads
+     * do not wait for long write transactions such as imports or scheduled action runs.
+     * @param db Database instance
+     */
+    override fun onConfigure(db: SQLiteDatabase) {
+        super.onConfigure(db)
+        db.enableWriteAheadLogging()
+    }
+
+    /**
+     * Enables the foreign key constraints once the database has been created or upgraded.
+     *
+     * The migrations rebuild tables by renaming and dropping them, which must not cascade to the rows
+     * referencing those tables, so the constraints are only enforced after [onUpgrade] has run.
+     * @param db Database instance
+     */
     override fun onOpen(db: SQLiteDatabase) {
         super.onOpen(db)
-        db.execSQL("PRAGMA foreign_keys=ON")
+        db.setForeignKeyConstraintsEnabled(true)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -110,7 +130,7 @@ class DatabaseHelper
         db.execSQL(SPLITS_TABLE_CREATE)
         db.execSQL(SCHEDULED_ACTIONS_TABLE_CREATE)
         db.execSQL(COMMODITIES_TABLE_CREATE)
-        db.execSQL(PRICES_TABLE_CREATE)
+        createPricesTable(db)
         db.execSQL(RECURRENCE_TABLE_CREATE)
         db.execSQL(BUDGETS_TABLE_CREATE)
         db.execSQL(BUDGET_AMOUNTS_TABLE_CREATE)
@@ -141,6 +161,14 @@ class DatabaseHelper
         db.execSQL(createBudgetUidIndex)
         db.execSQL(createRecurrenceUidIndex)
         db.execSQL(createBudgetAmountUidIndex)
+        createSecondaryIndexes(db)
+        createSplitRowIdKeys(db)
+        createAccountBalancesTable(db)
+        createAccountClosureTable(db)
+        createTransactionSummariesTable(db)
+        createTransactionSplitAccountView(db)
+        createBookChangesTable(db)
+        createBalanceSnapshotsTable(db)
         try {
             MigrationHelper.importCommodities(db)
         } catch (e: SAXException) {
@@ -222,6 +250,8 @@ class DatabaseHelper
                 + SplitEntry.COLUMN_QUANTITY_DENOM + " integer not null, "
                 + SplitEntry.COLUMN_ACCOUNT_UID + " varchar(255) not null, "
                 + SplitEntry.COLUMN_TRANSACTION_UID + " varchar(255) not null, "
+                + SplitEntry.COLUMN_ACCOUNT_ID + " integer, "
+                + SplitEntry.COLUMN_TRANSACTION_ID + " integer, "
                 + SplitEntry.COLUMN_RECONCILE_STATE + " varchar(1) not null default 'n', "
                 + SplitEntry.COLUMN_RECONCILE_DATE + " timestamp not null default current_timestamp, "
                 + SplitEntry.COLUMN_CREATED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
@@ -280,7 +310,6 @@ class DatabaseHelper
                 + PriceEntry.COLUMN_VALUE_DENOM + " integer not null, "
                 + PriceEntry.COLUMN_CREATED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                 + PriceEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
-                + "UNIQUE (" + PriceEntry.COLUMN_COMMODITY_UID + ", " + PriceEntry.COLUMN_CURRENCY_UID + ") ON CONFLICT REPLACE, "
                 + "FOREIGN KEY (" + PriceEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                 + "FOREIGN KEY (" + PriceEntry.COLUMN_CURRENCY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE "
                 + ");" + createUpdatedAtTrigger(PriceEntry.TABLE_NAME))
@@ -320,6 +349,788 @@ class DatabaseHelper
                 + RecurrenceEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP); "
                 + createUpdatedAtTrigger(RecurrenceEntry.TABLE_NAME))
 
+        /**
+         * Creates the indexes on the foreign key and filter columns used by the joins of the adapters.
+         *
+         * The split indexes include the other side of the join, so that looking up the transactions
+         * of an account (or the accounts of a transaction) does not need to read the split rows.
+         * The timestamp leads the transaction index since almost all transactions are not templates.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createSecondaryIndexes(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + SplitEntry.INDEX_ACCOUNT_UID + " ON " + SplitEntry.TABLE_NAME
+                        + " (" + SplitEntry.COLUMN_ACCOUNT_UID + ", " + SplitEntry.COLUMN_TRANSACTION_UID + ")"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + SplitEntry.INDEX_TRANSACTION_UID + " ON " + SplitEntry.TABLE_NAME
+                        + " (" + SplitEntry.COLUMN_TRANSACTION_UID + ", " + SplitEntry.COLUMN_ACCOUNT_UID + ")"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + TransactionEntry.INDEX_TIMESTAMP_TEMPLATE + " ON "
+                        + TransactionEntry.TABLE_NAME + " (" + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                        + TransactionEntry.COLUMN_TEMPLATE + ")"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + AccountEntry.INDEX_PARENT_ACCOUNT_UID + " ON "
+                        + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ")"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + PriceEntry.INDEX_COMMODITY_CURRENCY_DATE + " ON "
+                        + PriceEntry.TABLE_NAME + " (" + PriceEntry.COLUMN_COMMODITY_UID + ", "
+                        + PriceEntry.COLUMN_CURRENCY_UID + ", " + PriceEntry.COLUMN_DATE + ")"
+            )
+        }
+
+        /**
+         * Returns the SQL expression for the quantity of a split as it affects the account balance,
+         * i.e. positive for debits and negative for credits
+         * @param alias Table name or trigger row alias (NEW, OLD) of the split
+         */
+        private fun signedSplitQuantity(alias: String): String {
+            return ("CASE WHEN " + alias + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + alias + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + alias + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END")
+        }
+
+        /**
+         * Returns the SQL condition which is true if the split belongs to a non-template transaction
+         * @param alias Table name or trigger row alias (NEW, OLD) of the split
+         */
+        private fun isNonTemplateSplit(alias: String): String {
+            return ("EXISTS ( SELECT 1 FROM " + TransactionEntry.TABLE_NAME
+                    + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                    + " = " + alias + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                    + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0 )")
+        }
+
+        /**
+         * SQL statements which add the quantity of the split `alias` to the balance of its account
+         */
+        private fun addSplitToBalance(alias: String): String {
+            return ("INSERT OR IGNORE INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                    + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+                    + AccountBalanceEntry.COLUMN_COMMODITY_UID + " , "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " ) "
+                    + " SELECT " + alias + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COMMODITY_UID + " , "
+                    + alias + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " FROM " + AccountEntry.TABLE_NAME
+                    + " WHERE " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID
+                    + " = " + alias + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " AND " + isNonTemplateSplit(alias) + "; "
+                    + "UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " = " + AccountBalanceEntry.COLUMN_QUANTITY_NUM
+                    + " + ( " + signedSplitQuantity(alias) + " ) , "
+                    + AccountBalanceEntry.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                    + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = " + alias + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " AND " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = " + alias + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " AND " + isNonTemplateSplit(alias) + "; ")
+        }
+
+        /**
+         * SQL statement which removes the quantity of the split `alias` from the balance of its account
+         */
+        private fun subtractSplitFromBalance(alias: String): String {
+            return ("UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                    + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " = " + AccountBalanceEntry.COLUMN_QUANTITY_NUM
+                    + " - ( " + signedSplitQuantity(alias) + " ) , "
+                    + AccountBalanceEntry.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                    + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = " + alias + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " AND " + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " = " + alias + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " AND " + isNonTemplateSplit(alias) + "; ")
+        }
+
+        /**
+         * Creates the account balances table and the triggers which keep it in sync with the splits table.
+         *
+         * The balances only account for splits of non-template transactions.
+         * Since the REPLACE statements used by the adapters do not fire delete triggers,
+         * the replaced split (or the splits of a replaced transaction) are removed from the balance
+         * by BEFORE INSERT triggers. Splits of a deleted transaction are deleted before the transaction
+         * itself, so that their balance can still be resolved.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createAccountBalancesTable(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS " + AccountBalanceEntry.TABLE_NAME + " ("
+                        + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " varchar(255) not null, "
+                        + AccountBalanceEntry.COLUMN_COMMODITY_UID + " varchar(255) not null, "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " integer not null default 0, "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " integer not null, "
+                        + AccountBalanceEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                        + "PRIMARY KEY (" + AccountBalanceEntry.COLUMN_ACCOUNT_UID + ", "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + ") )"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_split_replace"
+                        + " BEFORE INSERT ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " WHEN EXISTS ( SELECT 1 FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID + " )"
+                        + " BEGIN "
+                        + "UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " = " + AccountBalanceEntry.COLUMN_QUANTITY_NUM
+                        + " - ( SELECT " + signedSplitQuantity(SplitEntry.TABLE_NAME) + " FROM " + SplitEntry.TABLE_NAME
+                        + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID + " ) , "
+                        + AccountBalanceEntry.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                        + " WHERE EXISTS ( SELECT 1 FROM " + SplitEntry.TABLE_NAME
+                        + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID
+                        + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = "
+                        + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                        + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " = "
+                        + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM
+                        + " AND " + isNonTemplateSplit(SplitEntry.TABLE_NAME) + " ); "
+                        + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_split_insert"
+                        + " AFTER INSERT ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + addSplitToBalance("NEW") + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_split_delete"
+                        + " AFTER DELETE ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + subtractSplitFromBalance("OLD") + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_split_update"
+                        + " AFTER UPDATE OF " + SplitEntry.COLUMN_TYPE + " , " + SplitEntry.COLUMN_QUANTITY_NUM + " , "
+                        + SplitEntry.COLUMN_QUANTITY_DENOM + " , " + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + subtractSplitFromBalance("OLD") + addSplitToBalance("NEW") + " END"
+            )
+            //splits are deleted before their transaction, so that the split triggers can still tell templates apart
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_transaction_delete"
+                        + " BEFORE DELETE ON " + TransactionEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " = OLD." + TransactionEntry.COLUMN_UID + "; END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_transaction_replace"
+                        + " BEFORE INSERT ON " + TransactionEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " WHEN EXISTS ( SELECT 1 FROM " + TransactionEntry.TABLE_NAME + " WHERE "
+                        + TransactionEntry.COLUMN_UID + " = NEW." + TransactionEntry.COLUMN_UID + " )"
+                        + " BEGIN DELETE FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " = NEW." + TransactionEntry.COLUMN_UID + "; END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_transaction_template"
+                        + " AFTER UPDATE OF " + TransactionEntry.COLUMN_TEMPLATE + " ON " + TransactionEntry.TABLE_NAME
+                        + " FOR EACH ROW WHEN OLD." + TransactionEntry.COLUMN_TEMPLATE
+                        + " <> NEW." + TransactionEntry.COLUMN_TEMPLATE
+                        + " BEGIN "
+                        + "INSERT OR IGNORE INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                        + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+                        + AccountBalanceEntry.COLUMN_COMMODITY_UID + " , "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " ) "
+                        + " SELECT " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COMMODITY_UID + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                        + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " = "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " = NEW." + TransactionEntry.COLUMN_UID + "; "
+                        + "UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                        + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " = " + AccountBalanceEntry.COLUMN_QUANTITY_NUM
+                        + " + ( CASE WHEN NEW." + TransactionEntry.COLUMN_TEMPLATE + " = 0 THEN 1 ELSE -1 END )"
+                        + " * ( SELECT IFNULL ( SUM ( " + signedSplitQuantity(SplitEntry.TABLE_NAME) + " ) , 0 )"
+                        + " FROM " + SplitEntry.TABLE_NAME
+                        + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " = NEW." + TransactionEntry.COLUMN_UID
+                        + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = "
+                        + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_ACCOUNT_UID
+                        + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " = "
+                        + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " ) , "
+                        + AccountBalanceEntry.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
+                        + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " IN ( SELECT "
+                        + SplitEntry.COLUMN_ACCOUNT_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " = NEW." + TransactionEntry.COLUMN_UID + " ); "
+                        + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_account_delete"
+                        + " AFTER DELETE ON " + AccountEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + AccountBalanceEntry.TABLE_NAME + " WHERE "
+                        + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = OLD." + AccountEntry.COLUMN_UID + "; END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_balance_account_commodity"
+                        + " AFTER UPDATE OF " + AccountEntry.COLUMN_COMMODITY_UID + " ON " + AccountEntry.TABLE_NAME
+                        + " FOR EACH ROW BEGIN UPDATE " + AccountBalanceEntry.TABLE_NAME + " SET "
+                        + AccountBalanceEntry.COLUMN_COMMODITY_UID + " = NEW." + AccountEntry.COLUMN_COMMODITY_UID
+                        + " WHERE " + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " = NEW." + AccountEntry.COLUMN_UID + "; END"
+            )
+        }
+
+        /**
+         * Recomputes the account balances table from scratch using the splits in the database.
+         *
+         * The triggers keep the table current, so this is only needed when the table is first created
+         * or to recover from an inconsistent state.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun rebuildAccountBalances(db: SQLiteDatabase) {
+            db.beginTransaction()
+            try {
+                db.delete(AccountBalanceEntry.TABLE_NAME, null, null)
+                db.delete(BalanceSnapshotEntry.TABLE_NAME, null, null)
+                db.execSQL(
+                    "INSERT INTO " + AccountBalanceEntry.TABLE_NAME + " ( "
+                            + AccountBalanceEntry.COLUMN_ACCOUNT_UID + " , "
+                            + AccountBalanceEntry.COLUMN_COMMODITY_UID + " , "
+                            + AccountBalanceEntry.COLUMN_QUANTITY_DENOM + " , "
+                            + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " ) "
+                            + " SELECT " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                            + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COMMODITY_UID + " , "
+                            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                            + " SUM ( " + signedSplitQuantity(SplitEntry.TABLE_NAME) + " )"
+                            + " FROM " + SplitEntry.TABLE_NAME
+                            + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                            + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                            + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                            + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " = "
+                            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                            + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                            + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                )
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+
+        /**
+         * Returns the SQL statements which link the subtree of the account `NEW` to its parent
+         * and to all ancestors of its parent, removing links to any former ancestors.
+         *
+         * Sub-accounts which were inserted before the account (e.g. out of order during import)
+         * are linked to it as well.
+         */
+        private fun linkAccountToParent(): String {
+            val subtree = ("SELECT " + AccountClosureEntry.COLUMN_DESCENDANT_UID + " FROM " + AccountClosureEntry.TABLE_NAME
+                    + " WHERE " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = NEW." + AccountEntry.COLUMN_UID)
+            return ("INSERT OR IGNORE INTO " + AccountClosureEntry.TABLE_NAME + " ( "
+                    + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , "
+                    + AccountClosureEntry.COLUMN_DESCENDANT_UID + " , "
+                    + AccountClosureEntry.COLUMN_DEPTH + " ) "
+                    + " VALUES ( NEW." + AccountEntry.COLUMN_UID + " , NEW." + AccountEntry.COLUMN_UID + " , 0 ); "
+                    + "DELETE FROM " + AccountClosureEntry.TABLE_NAME
+                    + " WHERE " + AccountClosureEntry.COLUMN_DESCENDANT_UID + " IN ( " + subtree + " )"
+                    + " AND " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " NOT IN ( " + subtree + " ); "
+                    + "INSERT OR IGNORE INTO " + AccountClosureEntry.TABLE_NAME + " ( "
+                    + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , "
+                    + AccountClosureEntry.COLUMN_DESCENDANT_UID + " , "
+                    + AccountClosureEntry.COLUMN_DEPTH + " ) "
+                    + " SELECT p." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , s." + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                    + " , p." + AccountClosureEntry.COLUMN_DEPTH + " + s." + AccountClosureEntry.COLUMN_DEPTH + " + 1"
+                    + " FROM " + AccountClosureEntry.TABLE_NAME + " p , " + AccountClosureEntry.TABLE_NAME + " s"
+                    + " WHERE p." + AccountClosureEntry.COLUMN_DESCENDANT_UID + " = NEW." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                    + " AND s." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = NEW." + AccountEntry.COLUMN_UID + "; "
+                    + "INSERT OR IGNORE INTO " + AccountClosureEntry.TABLE_NAME + " ( "
+                    + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , "
+                    + AccountClosureEntry.COLUMN_DESCENDANT_UID + " , "
+                    + AccountClosureEntry.COLUMN_DEPTH + " ) "
+                    + " SELECT p." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , s." + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                    + " , p." + AccountClosureEntry.COLUMN_DEPTH + " + s." + AccountClosureEntry.COLUMN_DEPTH + " + 1"
+                    + " FROM " + AccountClosureEntry.TABLE_NAME + " p , " + AccountEntry.TABLE_NAME + " c , "
+                    + AccountClosureEntry.TABLE_NAME + " s"
+                    + " WHERE p." + AccountClosureEntry.COLUMN_DESCENDANT_UID + " = NEW." + AccountEntry.COLUMN_UID
+                    + " AND c." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = NEW." + AccountEntry.COLUMN_UID
+                    + " AND s." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = c." + AccountEntry.COLUMN_UID + "; ")
+        }
+
+        /**
+         * Creates the account closure table and the triggers which keep it in sync with the account hierarchy.
+         *
+         * Since the REPLACE statements used by the adapters do not fire delete triggers,
+         * the insert trigger also handles replaced accounts by moving their subtree to the new parent.
+         * When an account is deleted, its sub-accounts are detached from its ancestors.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createAccountClosureTable(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS " + AccountClosureEntry.TABLE_NAME + " ("
+                        + AccountClosureEntry.COLUMN_ANCESTOR_UID + " varchar(255) not null, "
+                        + AccountClosureEntry.COLUMN_DESCENDANT_UID + " varchar(255) not null, "
+                        + AccountClosureEntry.COLUMN_DEPTH + " integer not null, "
+                        + "PRIMARY KEY (" + AccountClosureEntry.COLUMN_ANCESTOR_UID + ", "
+                        + AccountClosureEntry.COLUMN_DESCENDANT_UID + ") )"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + AccountClosureEntry.INDEX_DESCENDANT + " ON "
+                        + AccountClosureEntry.TABLE_NAME + " (" + AccountClosureEntry.COLUMN_DESCENDANT_UID + ", "
+                        + AccountClosureEntry.COLUMN_DEPTH + ")"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_closure_insert"
+                        + " AFTER INSERT ON " + AccountEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + linkAccountToParent() + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_closure_reparent"
+                        + " AFTER UPDATE OF " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " ON " + AccountEntry.TABLE_NAME
+                        + " FOR EACH ROW WHEN OLD." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                        + " IS NOT NEW." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                        + " BEGIN " + linkAccountToParent() + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS account_closure_delete"
+                        + " AFTER DELETE ON " + AccountEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + AccountClosureEntry.TABLE_NAME
+                        + " WHERE " + AccountClosureEntry.COLUMN_DESCENDANT_UID + " IN ( SELECT "
+                        + AccountClosureEntry.COLUMN_DESCENDANT_UID + " FROM " + AccountClosureEntry.TABLE_NAME
+                        + " WHERE " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = OLD." + AccountEntry.COLUMN_UID + " )"
+                        + " AND " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " IN ( SELECT "
+                        + AccountClosureEntry.COLUMN_ANCESTOR_UID + " FROM " + AccountClosureEntry.TABLE_NAME
+                        + " WHERE " + AccountClosureEntry.COLUMN_DESCENDANT_UID + " = OLD." + AccountEntry.COLUMN_UID + " ); END"
+            )
+        }
+
+        /**
+         * Recomputes the account closure table from scratch using the parent links of the accounts.
+         *
+         * The closure is built one level at a time, starting with the links of every account to itself.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun rebuildAccountClosure(db: SQLiteDatabase) {
+            db.beginTransaction()
+            try {
+                db.delete(AccountClosureEntry.TABLE_NAME, null, null)
+                var linkCount = db.compileStatement(
+                    "INSERT INTO " + AccountClosureEntry.TABLE_NAME + " ( "
+                            + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , "
+                            + AccountClosureEntry.COLUMN_DESCENDANT_UID + " , "
+                            + AccountClosureEntry.COLUMN_DEPTH + " ) "
+                            + " SELECT " + AccountEntry.COLUMN_UID + " , " + AccountEntry.COLUMN_UID + " , 0"
+                            + " FROM " + AccountEntry.TABLE_NAME
+                ).executeUpdateDelete()
+                val extendLinks = db.compileStatement(
+                    "INSERT OR IGNORE INTO " + AccountClosureEntry.TABLE_NAME + " ( "
+                            + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , "
+                            + AccountClosureEntry.COLUMN_DESCENDANT_UID + " , "
+                            + AccountClosureEntry.COLUMN_DEPTH + " ) "
+                            + " SELECT p." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " , c." + AccountEntry.COLUMN_UID
+                            + " , p." + AccountClosureEntry.COLUMN_DEPTH + " + 1"
+                            + " FROM " + AccountClosureEntry.TABLE_NAME + " p INNER JOIN " + AccountEntry.TABLE_NAME + " c"
+                            + " ON c." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = p." + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                            + " WHERE p." + AccountClosureEntry.COLUMN_DEPTH + " = ?"
+                )
+                // the number of levels can not exceed the number of accounts, even with broken parent links
+                val maxDepth = linkCount
+                var depth = 0
+                while (linkCount > 0 && depth < maxDepth) {
+                    extendLinks.bindLong(1, depth.toLong())
+                    linkCount = extendLinks.executeUpdateDelete()
+                    depth++
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+
+        /**
+         * Creates the view combining transactions, splits and accounts, which is used by many queries.
+         *
+         * Each column is named after its table and column, e.g. `splits_memo`.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createTransactionSplitAccountView(db: SQLiteDatabase) {
+            //todo: would it be useful to add the split reconciled_state and reconciled_date to this view?
+            db.execSQL(
+                "CREATE VIEW IF NOT EXISTS trans_split_acct AS SELECT "
+                        + TransactionEntry.TABLE_NAME + "." + CommonColumns.COLUMN_MODIFIED_AT + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + CommonColumns.COLUMN_MODIFIED_AT + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_DESCRIPTION + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_NOTES + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_NOTES + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_CURRENCY + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_EXPORTED + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_EXPORTED + " , "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " AS "
+                        + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TEMPLATE + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_UID + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_TYPE + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_NUM + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_VALUE_NUM + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_DENOM + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_VALUE_DENOM + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_NUM + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_MEMO + " AS "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_MEMO + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_NAME + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_NAME + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_CURRENCY + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PLACEHOLDER + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_PLACEHOLDER + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COLOR_CODE + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_COLOR_CODE + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FAVORITE + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_FAVORITE + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FULL_NAME + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_FULL_NAME + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_TYPE + " , "
+                        + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + " AS "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
+                        + " FROM " + TransactionEntry.TABLE_NAME + " , " + SplitEntry.TABLE_NAME + " ON "
+                        + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + "=" + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_ID
+                        + " , " + AccountEntry.TABLE_NAME + " ON "
+                        + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_ID + "=" + AccountEntry.TABLE_NAME + "." + AccountEntry._ID
+            )
+        }
+
+        /**
+         * Returns the SQL statement which computes the summaries of the transactions
+         * whose GUID satisfies the condition from their splits
+         * @param transactionUidCondition SQL condition on the transaction GUID without the column, e.g. `= NEW.transaction_uid`
+         */
+        private fun insertTransactionSummaries(transactionUidCondition: String): String {
+            // the account of a split without memo is chosen if possible, in the following manner:
+            //   if the split memo is null or empty string, attach an 'a' in front of the split account uid,
+            //   if not, attach a 'b' to the split account uid
+            //   pick the minimal value of the modified account uid (one of the ones begins with 'a', if exists)
+            //   use substr to get account uid
+            //the multiplication by 1.0 is to cause sqlite to handle the value as REAL and not to round off
+            return ("INSERT INTO " + TransactionSummaryEntry.TABLE_NAME + " ( "
+                    + TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " , "
+                    + TransactionSummaryEntry.COLUMN_MAIN_ACCOUNT_UID + " , "
+                    + TransactionSummaryEntry.COLUMN_IMBALANCE + " , "
+                    + TransactionSummaryEntry.COLUMN_CURRENCY_COUNT + " , "
+                    + TransactionSummaryEntry.COLUMN_SPLIT_COUNT + " ) "
+                    + " SELECT s." + SplitEntry.COLUMN_TRANSACTION_UID + " , "
+                    + " SUBSTR ( MIN ( ( CASE WHEN IFNULL ( s." + SplitEntry.COLUMN_MEMO + " , '' ) == '' THEN 'a' ELSE 'b' END )"
+                    + " || s." + SplitEntry.COLUMN_ACCOUNT_UID + " ) , 2 ) , "
+                    + " TOTAL ( CASE WHEN s." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN s." + SplitEntry.COLUMN_VALUE_NUM
+                    + " ELSE - s." + SplitEntry.COLUMN_VALUE_NUM + " END ) * 1.0 / s." + SplitEntry.COLUMN_VALUE_DENOM + " , "
+                    + " COUNT ( DISTINCT a." + AccountEntry.COLUMN_CURRENCY + " ) , COUNT (*)"
+                    + " FROM " + SplitEntry.TABLE_NAME + " s INNER JOIN " + AccountEntry.TABLE_NAME + " a"
+                    + " ON a." + AccountEntry.COLUMN_UID + " = s." + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " WHERE s." + SplitEntry.COLUMN_TRANSACTION_UID + " " + transactionUidCondition
+                    + " GROUP BY s." + SplitEntry.COLUMN_TRANSACTION_UID)
+        }
+
+        /**
+         * Returns the SQL statements which recompute the summaries of the transactions
+         * whose GUID satisfies the condition
+         * @param transactionUidCondition SQL condition on the transaction GUID without the column
+         */
+        private fun refreshTransactionSummaries(transactionUidCondition: String): String {
+            return ("DELETE FROM " + TransactionSummaryEntry.TABLE_NAME
+                    + " WHERE " + TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " " + transactionUidCondition + "; "
+                    + insertTransactionSummaries(transactionUidCondition) + "; ")
+        }
+
+        /**
+         * Creates the prices table, which keeps the history of the prices of each commodity / currency pair.
+         *
+         * There is at most one price per pair and day: a price replaces the prices of the pair stored for the same day.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createPricesTable(db: SQLiteDatabase) {
+            db.execSQL(PRICES_TABLE_CREATE)
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS price_one_per_day"
+                        + " BEFORE INSERT ON " + PriceEntry.TABLE_NAME + " FOR EACH ROW BEGIN"
+                        + " DELETE FROM " + PriceEntry.TABLE_NAME
+                        + " WHERE " + PriceEntry.COLUMN_COMMODITY_UID + " = NEW." + PriceEntry.COLUMN_COMMODITY_UID
+                        + " AND " + PriceEntry.COLUMN_CURRENCY_UID + " = NEW." + PriceEntry.COLUMN_CURRENCY_UID
+                        + " AND SUBSTR ( " + PriceEntry.COLUMN_DATE + " , 1 , 10 ) = SUBSTR ( NEW."
+                        + PriceEntry.COLUMN_DATE + " , 1 , 10 ); END"
+            )
+        }
+
+        /**
+         * Returns the SQL statement which deletes the balance checkpoints of an account which include
+         * splits dated at or after a timestamp
+         * @param accountUidExpression SQL expression of the account GUID
+         * @param timestampExpression SQL expression of the timestamp. If it is null, e.g. for a split whose
+         * transaction is not stored yet, all the checkpoints of the account are deleted
+         */
+        private fun deleteBalanceSnapshotsAfter(accountUidExpression: String, timestampExpression: String): String {
+            return ("DELETE FROM " + BalanceSnapshotEntry.TABLE_NAME
+                    + " WHERE " + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " = " + accountUidExpression
+                    + " AND " + BalanceSnapshotEntry.COLUMN_PERIOD_START
+                    + " > IFNULL ( " + timestampExpression + " , " + Long.MIN_VALUE + " ); ")
+        }
+
+        /**
+         * Returns the SQL expression of the timestamp of the transaction of the split `alias`
+         */
+        private fun splitTimestamp(alias: String): String {
+            return ("( SELECT " + TransactionEntry.COLUMN_TIMESTAMP + " FROM " + TransactionEntry.TABLE_NAME
+                    + " WHERE " + TransactionEntry.COLUMN_UID + " = " + alias + "." + SplitEntry.COLUMN_TRANSACTION_UID + " )")
+        }
+
+        /**
+         * Creates the balance snapshots table and the triggers which delete the checkpoints
+         * made out of date by writes to the splits, transactions and accounts.
+         *
+         * The checkpoints themselves are created by [org.gnucash.android.db.adapter.SplitsDbAdapter.updateBalanceCheckpoints]
+         * when the scheduled actions are run
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createBalanceSnapshotsTable(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS " + BalanceSnapshotEntry.TABLE_NAME + " ("
+                        + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " varchar(255) not null, "
+                        + BalanceSnapshotEntry.COLUMN_PERIOD_START + " integer not null, "
+                        + BalanceSnapshotEntry.COLUMN_COMMODITY_UID + " varchar(255) not null, "
+                        + BalanceSnapshotEntry.COLUMN_QUANTITY_NUM + " integer not null default 0, "
+                        + BalanceSnapshotEntry.COLUMN_QUANTITY_DENOM + " integer not null, "
+                        + "PRIMARY KEY (" + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + ", "
+                        + BalanceSnapshotEntry.COLUMN_PERIOD_START + ", "
+                        + BalanceSnapshotEntry.COLUMN_QUANTITY_DENOM + ") )"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_split_replace"
+                        + " BEFORE INSERT ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " WHEN EXISTS ( SELECT 1 FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID + " )"
+                        + " BEGIN " + deleteBalanceSnapshotsAfter(
+                    "( SELECT " + SplitEntry.COLUMN_ACCOUNT_UID + " FROM " + SplitEntry.TABLE_NAME
+                            + " WHERE " + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID + " )",
+                    "( SELECT " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP
+                            + " FROM " + TransactionEntry.TABLE_NAME + " INNER JOIN " + SplitEntry.TABLE_NAME + " ON "
+                            + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                            + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                            + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID + " )"
+                ) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_split_insert"
+                        + " AFTER INSERT ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + deleteBalanceSnapshotsAfter(
+                    "NEW." + SplitEntry.COLUMN_ACCOUNT_UID, splitTimestamp("NEW")
+                ) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_split_delete"
+                        + " AFTER DELETE ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + deleteBalanceSnapshotsAfter(
+                    "OLD." + SplitEntry.COLUMN_ACCOUNT_UID, splitTimestamp("OLD")
+                ) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_split_update"
+                        + " AFTER UPDATE OF " + SplitEntry.COLUMN_TYPE + " , " + SplitEntry.COLUMN_QUANTITY_NUM + " , "
+                        + SplitEntry.COLUMN_QUANTITY_DENOM + " , " + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN "
+                        + deleteBalanceSnapshotsAfter("OLD." + SplitEntry.COLUMN_ACCOUNT_UID, splitTimestamp("OLD"))
+                        + deleteBalanceSnapshotsAfter("NEW." + SplitEntry.COLUMN_ACCOUNT_UID, splitTimestamp("NEW"))
+                        + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_transaction_update"
+                        + " AFTER UPDATE OF " + TransactionEntry.COLUMN_TIMESTAMP + " , " + TransactionEntry.COLUMN_TEMPLATE
+                        + " ON " + TransactionEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + BalanceSnapshotEntry.TABLE_NAME
+                        + " WHERE " + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " IN ( SELECT "
+                        + SplitEntry.COLUMN_ACCOUNT_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " = NEW." + TransactionEntry.COLUMN_UID + " )"
+                        + " AND " + BalanceSnapshotEntry.COLUMN_PERIOD_START + " > MIN ( OLD."
+                        + TransactionEntry.COLUMN_TIMESTAMP + " , NEW." + TransactionEntry.COLUMN_TIMESTAMP + " ); END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_account_delete"
+                        + " AFTER DELETE ON " + AccountEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + BalanceSnapshotEntry.TABLE_NAME + " WHERE "
+                        + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " = OLD." + AccountEntry.COLUMN_UID + "; END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS balance_snapshot_account_commodity"
+                        + " AFTER UPDATE OF " + AccountEntry.COLUMN_COMMODITY_UID + " ON " + AccountEntry.TABLE_NAME
+                        + " FOR EACH ROW BEGIN DELETE FROM " + BalanceSnapshotEntry.TABLE_NAME + " WHERE "
+                        + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " = NEW." + AccountEntry.COLUMN_UID + "; END"
+            )
+        }
+
+        /**
+         * Creates the book changes table with its single row. Its counter is incremented by the database adapters
+         * once per call writing to the tables the reports are computed from, see
+         * [org.gnucash.android.db.adapter.DatabaseAdapter.onTableWritten]
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createBookChangesTable(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS " + BookChangeEntry.TABLE_NAME + " ("
+                        + BookChangeEntry.COLUMN_CHANGE_COUNT + " integer not null default 0 )"
+            )
+            db.execSQL(
+                "INSERT INTO " + BookChangeEntry.TABLE_NAME + " ( " + BookChangeEntry.COLUMN_CHANGE_COUNT + " )"
+                        + " SELECT 0 WHERE NOT EXISTS ( SELECT 1 FROM " + BookChangeEntry.TABLE_NAME + " )"
+            )
+        }
+
+        /**
+         * Creates the transaction summaries table and the triggers which keep it in sync with the splits.
+         *
+         * The summary of a transaction is recomputed from its splits whenever one of them is written,
+         * and the summaries of the transactions of an account when the account currency changes.
+         * Splits of a deleted or replaced transaction are deleted by the foreign key cascade, which removes the summary.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createTransactionSummariesTable(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS " + TransactionSummaryEntry.TABLE_NAME + " ("
+                        + TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " varchar(255) primary key, "
+                        + TransactionSummaryEntry.COLUMN_MAIN_ACCOUNT_UID + " varchar(255) not null, "
+                        + TransactionSummaryEntry.COLUMN_IMBALANCE + " real not null default 0, "
+                        + TransactionSummaryEntry.COLUMN_CURRENCY_COUNT + " integer not null default 0, "
+                        + TransactionSummaryEntry.COLUMN_SPLIT_COUNT + " integer not null default 0 )"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_split_insert"
+                        + " AFTER INSERT ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + refreshTransactionSummaries("= NEW." + SplitEntry.COLUMN_TRANSACTION_UID) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_split_update"
+                        + " AFTER UPDATE OF " + SplitEntry.COLUMN_MEMO + " , " + SplitEntry.COLUMN_TYPE + " , "
+                        + SplitEntry.COLUMN_VALUE_NUM + " , " + SplitEntry.COLUMN_VALUE_DENOM + " , "
+                        + SplitEntry.COLUMN_ACCOUNT_UID + " , " + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + refreshTransactionSummaries(
+                    "IN ( OLD." + SplitEntry.COLUMN_TRANSACTION_UID + " , NEW." + SplitEntry.COLUMN_TRANSACTION_UID + " )"
+                ) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_split_delete"
+                        + " AFTER DELETE ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + refreshTransactionSummaries("= OLD." + SplitEntry.COLUMN_TRANSACTION_UID) + " END"
+            )
+            val accountTransactions = ("IN ( SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME
+                    + " WHERE " + SplitEntry.COLUMN_ACCOUNT_UID + " = NEW." + AccountEntry.COLUMN_UID + " )")
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_account_insert"
+                        + " AFTER INSERT ON " + AccountEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN " + refreshTransactionSummaries(accountTransactions) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_account_currency"
+                        + " AFTER UPDATE OF " + AccountEntry.COLUMN_CURRENCY + " ON " + AccountEntry.TABLE_NAME
+                        + " FOR EACH ROW WHEN OLD." + AccountEntry.COLUMN_CURRENCY + " IS NOT NEW." + AccountEntry.COLUMN_CURRENCY
+                        + " BEGIN " + refreshTransactionSummaries(accountTransactions) + " END"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS transaction_summary_transaction_delete"
+                        + " AFTER DELETE ON " + TransactionEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " BEGIN DELETE FROM " + TransactionSummaryEntry.TABLE_NAME
+                        + " WHERE " + TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " = OLD." + TransactionEntry.COLUMN_UID + "; END"
+            )
+        }
+
+        /**
+         * Recomputes the summaries of all transactions from their splits
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun rebuildTransactionSummaries(db: SQLiteDatabase) {
+            db.beginTransaction()
+            try {
+                db.delete(TransactionSummaryEntry.TABLE_NAME, null, null)
+                db.execSQL(insertTransactionSummaries("IS NOT NULL"))
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+
+        /**
+         * Returns the SQL expression which looks up the row ID of the record with the GUID
+         * @param tableName Table of the record
+         * @param uidExpression SQL expression of the GUID, e.g. a column or `?`
+         */
+        @JvmStatic
+        fun rowIdOf(tableName: String, uidExpression: String): String {
+            return ("( SELECT " + CommonColumns._ID + " FROM " + tableName
+                    + " WHERE " + CommonColumns.COLUMN_UID + " = " + uidExpression + " )")
+        }
+
+        /**
+         * Creates the indexes on the integer account and transaction keys of the splits,
+         * and the trigger which keeps the keys in sync with the GUID columns.
+         *
+         * The adapters write the keys together with the GUIDs, after the account and transaction of the split,
+         * and a replaced account or transaction keeps its row ID. The trigger covers splits whose GUID columns
+         * are updated directly.
+         *
+         * Only the joins use the integer keys. The filters on an account or transaction GUID and the foreign key
+         * cascades still use the GUID columns, so the GUID indexes of the splits are kept and the database
+         * does not get smaller.
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun createSplitRowIdKeys(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + SplitEntry.INDEX_ACCOUNT_ID + " ON " + SplitEntry.TABLE_NAME
+                        + " (" + SplitEntry.COLUMN_ACCOUNT_ID + ", " + SplitEntry.COLUMN_TRANSACTION_ID + ")"
+            )
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + SplitEntry.INDEX_TRANSACTION_ID + " ON " + SplitEntry.TABLE_NAME
+                        + " (" + SplitEntry.COLUMN_TRANSACTION_ID + ", " + SplitEntry.COLUMN_ACCOUNT_ID + ")"
+            )
+            db.execSQL(
+                "CREATE TRIGGER IF NOT EXISTS split_row_id_keys_update"
+                        + " AFTER UPDATE OF " + SplitEntry.COLUMN_ACCOUNT_UID + " , " + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " ON " + SplitEntry.TABLE_NAME + " FOR EACH ROW"
+                        + " WHEN OLD." + SplitEntry.COLUMN_ACCOUNT_UID + " IS NOT NEW." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " OR OLD." + SplitEntry.COLUMN_TRANSACTION_UID + " IS NOT NEW." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " BEGIN UPDATE " + SplitEntry.TABLE_NAME + " SET "
+                        + SplitEntry.COLUMN_ACCOUNT_ID + " = "
+                        + rowIdOf(AccountEntry.TABLE_NAME, "NEW." + SplitEntry.COLUMN_ACCOUNT_UID) + " , "
+                        + SplitEntry.COLUMN_TRANSACTION_ID + " = "
+                        + rowIdOf(TransactionEntry.TABLE_NAME, "NEW." + SplitEntry.COLUMN_TRANSACTION_UID)
+                        + " WHERE " + SplitEntry._ID + " = NEW." + SplitEntry._ID + "; END"
+            )
+        }
+
+        /**
+         * Fills in the integer account and transaction keys of all splits from their GUID columns
+         * @param db SQLite database
+         */
+        @JvmStatic
+        fun rebuildSplitRowIdKeys(db: SQLiteDatabase) {
+            db.execSQL(
+                "UPDATE " + SplitEntry.TABLE_NAME + " SET "
+                        + SplitEntry.COLUMN_ACCOUNT_ID + " = "
+                        + rowIdOf(AccountEntry.TABLE_NAME, SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID) + " , "
+                        + SplitEntry.COLUMN_TRANSACTION_ID + " = "
+                        + rowIdOf(TransactionEntry.TABLE_NAME, SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID)
+            )
+        }
+
         /**
          * Creates an update trigger to update the updated_at column for all records in the database.
          * This has to be run per table, and is currently appended to the create table statement.
@@ -41,7 +41,7 @@ public class DatabaseSchema {
      * Version number of database containing accounts and transactions info.
      * With any change to the database schema, this number must increase
      */
-    public static final int DATABASE_VERSION = 15;
+    public static final int DATABASE_VERSION = 23;
 
     /**
      * Name of the database
@@ -94,6 +94,7 @@ public class DatabaseSchema {
         public static final String COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID = "default_transfer_account_uid";
 
         public static final String INDEX_UID                    = "account_uid_index";
+        public static final String INDEX_PARENT_ACCOUNT_UID     = "account_parent_uid_index";
     }
 
     /**
@@ -120,6 +121,7 @@ public class DatabaseSchema {
         public static final String COLUMN_SCHEDX_ACTION_UID     = "scheduled_action_uid";
 
         public static final String INDEX_UID                    = "transaction_uid_index";
+        public static final String INDEX_TIMESTAMP_TEMPLATE     = "transaction_timestamp_template_index";
     }
 
     /**
@@ -144,11 +146,21 @@ public class DatabaseSchema {
         public static final String COLUMN_MEMO                  = "memo";
         public static final String COLUMN_ACCOUNT_UID           = "account_uid";
         public static final String COLUMN_TRANSACTION_UID       = "transaction_uid";
+        /**
+         * Row IDs of the account and transaction of the split, kept in sync with the GUID columns.
+         * The joins of the adapters use these integer keys, the GUIDs remain the external identifiers
+         */
+        public static final String COLUMN_ACCOUNT_ID            = "account_id";
+        public static final String COLUMN_TRANSACTION_ID        = "transaction_id";
 
         public static final String COLUMN_RECONCILE_STATE       = "reconcile_state";
         public static final String COLUMN_RECONCILE_DATE        = "reconcile_date";
 
         public static final String INDEX_UID                    = "split_uid_index";
+        public static final String INDEX_ACCOUNT_UID            = "split_account_uid_index";
+        public static final String INDEX_TRANSACTION_UID        = "split_transaction_uid_index";
+        public static final String INDEX_ACCOUNT_ID             = "split_account_id_index";
+        public static final String INDEX_TRANSACTION_ID         = "split_transaction_id_index";
     }
 
     public static abstract class ScheduledActionEntry implements CommonColumns {
@@ -236,6 +248,7 @@ public class DatabaseSchema {
         public static final String COLUMN_VALUE_DENOM   = "value_denom";
 
         public static final String INDEX_UID = "prices_uid_index";
+        public static final String INDEX_COMMODITY_CURRENCY_DATE = "prices_commodity_currency_date_index";
 
     }
 
@@ -276,4 +289,81 @@ public class DatabaseSchema {
 
         public static final String INDEX_UID = "recurrence_uid_index";
     }
+
+    /**
+     * Running balance of the splits of each account, maintained by database triggers.
+     * <p>The quantity numerator is the signed sum (debits positive) of the quantities of all
+     * non-template splits of the account having the same quantity denominator.</p>
+     */
+    public static abstract class AccountBalanceEntry {
+        public static final String TABLE_NAME           = "account_balances";
+
+        public static final String COLUMN_ACCOUNT_UID   = "account_uid";
+        public static final String COLUMN_COMMODITY_UID = "commodity_uid";
+        public static final String COLUMN_QUANTITY_NUM  = "quantity_num";
+        public static final String COLUMN_QUANTITY_DENOM = "quantity_denom";
+        public static final String COLUMN_MODIFIED_AT   = "modified_at";
+    }
+
+    /**
+     * Monthly checkpoints of the account balances, for computing the balance of an account at a date
+     * from the checkpoint before it and the splits after the checkpoint.
+     * <p>A checkpoint holds the sum of the non-template splits of the account dated before its period start,
+     * per quantity denominator, like {@link AccountBalanceEntry}. Checkpoints for every month up to the current one
+     * are created in the background, and deleted by database triggers from the month of a split which is written,
+     * or whose transaction date changes, forward.</p>
+     */
+    public static abstract class BalanceSnapshotEntry {
+        public static final String TABLE_NAME           = "balance_snapshots";
+
+        public static final String COLUMN_ACCOUNT_UID   = "account_uid";
+        public static final String COLUMN_PERIOD_START  = "period_start";
+        public static final String COLUMN_COMMODITY_UID = "commodity_uid";
+        public static final String COLUMN_QUANTITY_NUM  = "quantity_num";
+        public static final String COLUMN_QUANTITY_DENOM = "quantity_denom";
+    }
+
+    /**
+     * Transitive closure of the account hierarchy, maintained by database triggers.
+     * <p>Every account is linked to itself with depth 0, to its parent with depth 1,
+     * to its grand-parent with depth 2 and so on up to the root account.</p>
+     */
+    public static abstract class AccountClosureEntry {
+        public static final String TABLE_NAME           = "account_closure";
+
+        public static final String COLUMN_ANCESTOR_UID  = "ancestor_uid";
+        public static final String COLUMN_DESCENDANT_UID = "descendant_uid";
+        public static final String COLUMN_DEPTH         = "depth";
+
+        public static final String INDEX_DESCENDANT     = "account_closure_descendant_index";
+    }
+
+    /**
+     * Per-transaction aggregates of the splits, maintained by database triggers.
+     * <p>The main account is the account of a split without memo if there is one, and is used
+     * to group transactions by account, e.g. in QIF exports. The imbalance is the signed sum
+     * (debits positive) of the split values, in units of the transaction currency.</p>
+     */
+    public static abstract class TransactionSummaryEntry {
+        public static final String TABLE_NAME           = "transaction_summaries";
+
+        public static final String COLUMN_TRANSACTION_UID = "transaction_uid";
+        public static final String COLUMN_MAIN_ACCOUNT_UID = "main_account_uid";
+        public static final String COLUMN_IMBALANCE     = "imbalance";
+        public static final String COLUMN_CURRENCY_COUNT = "currency_count";
+        public static final String COLUMN_SPLIT_COUNT   = "split_count";
+    }
+
+    /**
+     * Single-row table holding a counter of the changes to the book, maintained by the database adapters.
+     * <p>The counter is incremented once by every call which writes to the accounts, transactions,
+     * splits, commodities or prices, in the same transaction as the writes, so results computed from the book
+     * can be cached along with the counter value they were computed at, and reused as long as the counter
+     * did not change.</p>
+     */
+    public static abstract class BookChangeEntry {
+        public static final String TABLE_NAME           = "book_changes";
+
+        public static final String COLUMN_CHANGE_COUNT  = "change_count";
+    }
 }
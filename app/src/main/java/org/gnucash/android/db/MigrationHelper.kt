@@ -1643,4 +1643,251 @@ object MigrationHelper {
         rescheduleServiceAlarm()
         return dbVersion
     }
-}
\ No newline at end of file
+
+    /**
+     * Upgrades the database to version 16.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the account balances table, with the triggers which keep it current, and fills
+     * it from the existing splits
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 16 if migration succeeds, 15 otherwise
+     */
+    fun upgradeDbToVersion16(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 16")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            DatabaseHelper.createAccountBalancesTable(db)
+            DatabaseHelper.rebuildAccountBalances(db)
+            db.setTransactionSuccessful()
+            16
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 17.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the account closure table, with the triggers which keep it current, and fills
+     * it from the existing account hierarchy
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 17 if migration succeeds, 16 otherwise
+     */
+    fun upgradeDbToVersion17(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 17")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            DatabaseHelper.createAccountClosureTable(db)
+            DatabaseHelper.rebuildAccountClosure(db)
+            db.setTransactionSuccessful()
+            17
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 18.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds indexes on the split account and transaction, transaction timestamp and template,
+     * account parent and price commodity/currency/date columns
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 18 if migration succeeds, 17 otherwise
+     */
+    fun upgradeDbToVersion18(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 18")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            DatabaseHelper.createSecondaryIndexes(db)
+            db.setTransactionSuccessful()
+            18
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 19.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the integer account and transaction keys to the splits, filled in from the GUID columns
+     *  * Adds indexes and a trigger for the new keys
+     *  * Drops the views joining splits to their accounts and transactions, so that they are recreated
+     * joined on the new keys
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 19 if migration succeeds, 18 otherwise
+     */
+    fun upgradeDbToVersion19(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 19")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            db.execSQL(
+                "ALTER TABLE " + SplitEntry.TABLE_NAME
+                        + " ADD COLUMN " + SplitEntry.COLUMN_ACCOUNT_ID + " integer"
+            )
+            db.execSQL(
+                "ALTER TABLE " + SplitEntry.TABLE_NAME
+                        + " ADD COLUMN " + SplitEntry.COLUMN_TRANSACTION_ID + " integer"
+            )
+            DatabaseHelper.rebuildSplitRowIdKeys(db)
+            DatabaseHelper.createSplitRowIdKeys(db)
+            db.execSQL("DROP VIEW IF EXISTS trans_extra_info")
+            db.execSQL("DROP VIEW IF EXISTS trans_split_acct")
+            db.setTransactionSuccessful()
+            19
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 20.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the transaction summaries table, with the triggers which keep it current, and fills
+     * it from the existing splits. It replaces the trans_extra_info view
+     *  * Creates the trans_split_acct view as part of the schema instead of on opening the database adapters
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 20 if migration succeeds, 19 otherwise
+     */
+    fun upgradeDbToVersion20(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 20")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            db.execSQL("DROP VIEW IF EXISTS trans_extra_info")
+            DatabaseHelper.createTransactionSummariesTable(db)
+            DatabaseHelper.rebuildTransactionSummaries(db)
+            DatabaseHelper.createTransactionSplitAccountView(db)
+            db.setTransactionSuccessful()
+            20
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 21.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Keeps the history of the prices: the prices table allowed only one price per commodity / currency pair,
+     * it now keeps one price per pair and day
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 21 if migration succeeds, 20 otherwise
+     */
+    fun upgradeDbToVersion21(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 21")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            val columns = (PriceEntry._ID + " , "
+                    + PriceEntry.COLUMN_UID + " , "
+                    + PriceEntry.COLUMN_COMMODITY_UID + " , "
+                    + PriceEntry.COLUMN_CURRENCY_UID + " , "
+                    + PriceEntry.COLUMN_TYPE + " , "
+                    + PriceEntry.COLUMN_DATE + " , "
+                    + PriceEntry.COLUMN_SOURCE + " , "
+                    + PriceEntry.COLUMN_VALUE_NUM + " , "
+                    + PriceEntry.COLUMN_VALUE_DENOM + " , "
+                    + PriceEntry.COLUMN_CREATED_AT + " , "
+                    + PriceEntry.COLUMN_MODIFIED_AT)
+            db.execSQL("ALTER TABLE " + PriceEntry.TABLE_NAME + " RENAME TO " + PriceEntry.TABLE_NAME + "_bak")
+            DatabaseHelper.createPricesTable(db)
+            db.execSQL(
+                "INSERT INTO " + PriceEntry.TABLE_NAME + " ( " + columns + " ) SELECT " + columns
+                        + " FROM " + PriceEntry.TABLE_NAME + "_bak ORDER BY " + PriceEntry._ID
+            )
+            db.execSQL("DROP TABLE " + PriceEntry.TABLE_NAME + "_bak")
+            db.execSQL(
+                "CREATE UNIQUE INDEX '" + PriceEntry.INDEX_UID + "' ON "
+                        + PriceEntry.TABLE_NAME + "(" + PriceEntry.COLUMN_UID + ")"
+            )
+            DatabaseHelper.createSecondaryIndexes(db)
+            db.setTransactionSuccessful()
+            21
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 22.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the book changes table, whose counter is incremented by the adapters on every write to the book
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 22 if migration succeeds, 21 otherwise
+     */
+    fun upgradeDbToVersion22(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 22")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            DatabaseHelper.createBookChangesTable(db)
+            db.setTransactionSuccessful()
+            22
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+
+    /**
+     * Upgrades the database to version 23.
+     *
+     * This migration makes the following changes to the database:
+     *
+     *  * Adds the balance snapshots table, with monthly checkpoints of the account balances
+     *
+     *
+     * @param db SQLite database to be upgraded
+     * @return New database version, 23 if migration succeeds, 22 otherwise
+     */
+    fun upgradeDbToVersion23(db: SQLiteDatabase): Int {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 23")
+        val dbVersion: Int
+        db.beginTransaction()
+        dbVersion = try {
+            DatabaseHelper.createBalanceSnapshotsTable(db)
+            db.setTransactionSuccessful()
+            23
+        } finally {
+            db.endTransaction()
+        }
+        return dbVersion
+    }
+}
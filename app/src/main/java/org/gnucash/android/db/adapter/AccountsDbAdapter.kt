@@ -20,22 +20,28 @@ package org.gnucash.android.db.adapter
 import android.content.ContentValues
 import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteQueryBuilder
 import android.database.sqlite.SQLiteStatement
 import android.graphics.Color
 import android.text.TextUtils
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import org.gnucash.android.R
 import org.gnucash.android.app.GnuCashApplication
 import org.gnucash.android.db.DatabaseSchema
+import org.gnucash.android.db.DatabaseSchema.AccountClosureEntry
 import org.gnucash.android.db.DatabaseSchema.AccountEntry
 import org.gnucash.android.db.DatabaseSchema.SplitEntry
 import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionSummaryEntry
 import org.gnucash.android.model.*
 import org.gnucash.android.model.Commodity.Companion.getInstance
+import org.gnucash.android.model.GroupInterval
 import org.gnucash.android.model.Money.Companion.createZeroInstance
 import org.gnucash.android.model.Money
 import org.gnucash.android.model.Transaction.Companion.typeForBalance
 import org.gnucash.android.util.TimestampHelper
+import org.joda.time.LocalDateTime
 import java.math.BigDecimal
 import java.sql.Timestamp
 import java.util.*
@@ -203,7 +209,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
     fun markAsExported(accountUID: String): Int {
         val contentValues = ContentValues()
         contentValues.put(TransactionEntry.COLUMN_EXPORTED, 1)
-        return mDb.update(
+        val updated = mDb.update(
             TransactionEntry.TABLE_NAME,
             contentValues,
             TransactionEntry.COLUMN_UID + " IN ( " +
@@ -217,6 +223,8 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
                     AccountEntry.COLUMN_UID + " = ? "
                     + " ) ", arrayOf(accountUID)
         )
+        onTableWritten(TransactionEntry.TABLE_NAME)
+        return updated
     }
 
     /**
@@ -235,7 +243,9 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         } else {
             contentValues.put(columnKey, newValue)
         }
-        return mDb.update(AccountEntry.TABLE_NAME, contentValues, null, null)
+        val updated = mDb.update(AccountEntry.TABLE_NAME, contentValues, null, null)
+        onTableWritten(AccountEntry.TABLE_NAME)
+        return updated
     }
 
     /**
@@ -259,8 +269,11 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         val descendantAccountUIDs: List<String?> = getDescendantAccountUIDs(accountUID, null, null)
         if (descendantAccountUIDs.isNotEmpty()) {
             val descendantAccounts = getSimpleAccountList(
-                AccountEntry.COLUMN_UID + " IN ('" + TextUtils.join("','", descendantAccountUIDs) + "')",
-                null,
+                AccountEntry.COLUMN_UID + " IN ( SELECT " + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                        + " FROM " + AccountClosureEntry.TABLE_NAME
+                        + " WHERE " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = ? AND "
+                        + AccountClosureEntry.COLUMN_DEPTH + " > 0 )",
+                arrayOf(accountUID),
                 null
             )
             val mapAccounts = HashMap<String?, Account>()
@@ -302,6 +315,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
                     )
                 }
             }
+            onTableWritten(AccountEntry.TABLE_NAME)
         }
     }
 
@@ -333,9 +347,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         mDb.beginTransaction()
         return try {
             descendantAccountUIDs.add(accountUID) //add account to descendants list just for convenience
-            for (descendantAccountUID in descendantAccountUIDs) {
-                mTransactionsAdapter.deleteTransactionsForAccount(descendantAccountUID!!)
-            }
+            mTransactionsAdapter.deleteTransactionsForAccountSubtree(accountUID)
             val accountUIDList = "'" + TextUtils.join("','", descendantAccountUIDs) + "'"
 
             // delete accounts
@@ -359,7 +371,8 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
             mDb.setTransactionSuccessful()
             true
         } finally {
-            mDb.endTransaction()
+            onTableWritten(AccountEntry.TABLE_NAME)
+            endTransaction()
         }
     }
 
@@ -412,21 +425,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return DB record UID of the parent account, null if the account has no parent
      */
     fun getParentAccountUID(uid: String): String? {
-        val cursor = mDb.query(
-            AccountEntry.TABLE_NAME, arrayOf(AccountEntry.COLUMN_PARENT_ACCOUNT_UID),
-            AccountEntry.COLUMN_UID + " = ?", arrayOf(uid),
-            null, null, null, null
-        )
-        return try {
-            if (cursor.moveToFirst()) {
-                Log.d(LOG_TAG, "Found parent account UID, returning value")
-                cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_PARENT_ACCOUNT_UID))
-            } else {
-                null
-            }
-        } finally {
-            cursor.close()
-        }
+        return getAccountMetadata(uid)?.parentAccountUID
     }
 
     /**
@@ -571,9 +570,15 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * unique ID of the last account (at bottom) of the hierarchy is returned
      * @param fullName Fully qualified name of the account
      * @param accountType Type to assign to all accounts created
+     * @param commodity Commodity of all accounts created
      * @return String unique ID of the account at bottom of hierarchy
      */
-    fun createAccountHierarchy(fullName: String, accountType: AccountType?): String? {
+    @JvmOverloads
+    fun createAccountHierarchy(
+        fullName: String,
+        accountType: AccountType?,
+        commodity: Commodity = Commodity.DEFAULT_COMMODITY
+    ): String? {
         require("" != fullName) { "fullName cannot be empty" }
         val tokens = fullName.trim { it <= ' ' }
             .split(ACCOUNT_NAME_SEPARATOR.toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
@@ -586,7 +591,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
             if (parentUID != null) { //the parent account exists, don't recreate
                 uid = parentUID
             } else {
-                val account = Account(token)
+                val account = Account(token, commodity)
                 account.mAccountType = accountType!!
                 account.mParentAccountUID = uid //set its parent
                 account.mFullName = parentName
@@ -780,30 +785,19 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return Money balance of the account types
      */
     fun getAccountBalance(accountTypes: List<AccountType>, start: Long, end: Long): Money {
-        var balance = createZeroInstance(GnuCashApplication.defaultCurrencyCode!!)
+        val balance = MoneyAccumulator()
         for (accountType in accountTypes) {
-            balance = balance.add(getAccountBalance(accountType, start, end))
+            balance.add(getAccountBalance(accountType, start, end))
         }
-        return balance
+        return balance.getMoney(GnuCashApplication.defaultCurrencyCode!!)
     }
 
     private fun computeBalance(accountUID: String, startTimestamp: Long, endTimestamp: Long): Money {
         Log.d(LOG_TAG, "Computing account balance for account ID $accountUID")
         val currencyCode = mTransactionsAdapter.getAccountCurrencyCode(accountUID)
         val hasDebitNormalBalance = getAccountType(accountUID).hasDebitNormalBalance()
-        val accountsList: MutableList<String?> = getDescendantAccountUIDs(
+        return mTransactionsAdapter.splitDbAdapter.computeSubtreeSplitBalance(
             accountUID,
-            null, null
-        )
-        accountsList.add(0, accountUID)
-        Log.d(LOG_TAG, "all account list : " + accountsList.size)
-        val splitsDbAdapter = mTransactionsAdapter.splitDbAdapter
-        return if (startTimestamp == -1L && endTimestamp == -1L) splitsDbAdapter.computeSplitBalance(
-            accountsList,
-            currencyCode,
-            hasDebitNormalBalance
-        ) else splitsDbAdapter.computeSplitBalance(
-            accountsList,
             currencyCode,
             hasDebitNormalBalance,
             startTimestamp,
@@ -839,6 +833,70 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         return balance.add(splitSum)
     }
 
+    /**
+     * Returns the balances of the accounts in each of consecutive calendar periods, computed with one query.
+     *
+     * The balance of an account in a period is the same as [getAccountsBalance] of the account alone
+     * over the period. The default currency takes as base currency.
+     * @param accountUIDs GUIDs of the accounts
+     * @param groupInterval Length of the periods
+     * @param start Date within the first period
+     * @param periodCount Number of periods
+     * @return Balances of the accounts per period
+     */
+    fun getBalanceMatrix(
+        accountUIDs: Collection<String>,
+        groupInterval: GroupInterval,
+        start: LocalDateTime,
+        periodCount: Int
+    ): BalanceMatrixQuery.Result {
+        val periodStarts = BalanceMatrixQuery.getPeriodStarts(groupInterval, start, periodCount)
+        return BalanceMatrixQuery(
+            mDb, mTransactionsAdapter.splitDbAdapter, GnuCashApplication.defaultCurrencyCode!!,
+            periodStarts.copyOf(periodStarts.size - 1), periodStarts[periodStarts.size - 1] - 1
+        ).execute(accountUIDs)
+    }
+
+    /**
+     * Returns the balances of the accounts within the specified time range, computed with one query.
+     * The default currency takes as base currency.
+     * @param accountUIDs GUIDs of the accounts
+     * @param startTimestamp the start timestamp of the time range, -1 for no lower bound
+     * @param endTimestamp the end timestamp of the time range, -1 for no upper bound
+     * @return Balances of the accounts in the single period 0
+     */
+    fun getBalanceMatrix(
+        accountUIDs: Collection<String>,
+        startTimestamp: Long,
+        endTimestamp: Long
+    ): BalanceMatrixQuery.Result {
+        return BalanceMatrixQuery(
+            mDb, mTransactionsAdapter.splitDbAdapter, GnuCashApplication.defaultCurrencyCode!!,
+            longArrayOf(if (startTimestamp == -1L) Long.MIN_VALUE else startTimestamp),
+            if (endTimestamp == -1L) Long.MAX_VALUE else endTimestamp
+        ).execute(accountUIDs)
+    }
+
+    /**
+     * Returns the cash flow of the account types per period, computed with one ordered scan of their splits.
+     * Only the accounts in the commodity which are not placeholders are included.
+     * @param accountTypes Types of the accounts
+     * @param commodity Commodity of the accounts
+     * @param groupInterval Length of the periods
+     * @param startTimestamp Start of the series, -1 to start at the period of the earliest split
+     * @param endTimestamp End of the series, -1 to end at the period of the latest split
+     * @return Totals of the account types per period
+     */
+    fun getCashFlowSeries(
+        accountTypes: Collection<AccountType>,
+        commodity: Commodity,
+        groupInterval: GroupInterval,
+        startTimestamp: Long,
+        endTimestamp: Long
+    ): CashFlowSeriesQuery.Result {
+        return CashFlowSeriesQuery(mDb, commodity, groupInterval).execute(accountTypes, startTimestamp, endTimestamp)
+    }
+
     /**
      * Retrieve all descendant accounts of an account
      * Note, in filtering, once an account is filtered out, all its descendants
@@ -853,41 +911,45 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         where: String?,
         whereArgs: Array<String?>?
     ): MutableList<String?> {
-        // accountsList will hold accountUID with all descendant accounts.
-        // accountsListLevel will hold descendant accounts of the same level
+        val selectionArgs = arrayOf<String?>(accountUID) + (whereArgs ?: arrayOf())
         val accountsList = ArrayList<String?>()
-        val accountsListLevel = ArrayList<String?>()
-        accountsListLevel.add(accountUID)
-        while (true) {
-            val cursor = mDb.query(
-                AccountEntry.TABLE_NAME, arrayOf(AccountEntry.COLUMN_UID),
-                AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IN ( '" + TextUtils.join(
-                    "' , '",
-                    accountsListLevel
-                ) + "' )" +
-                        if (where == null) "" else " AND $where",
-                whereArgs, null, null, null
-            )
-            accountsListLevel.clear()
-            if (cursor != null) {
-                try {
-                    val columnIndex = cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_UID)
-                    while (cursor.moveToNext()) {
-                        accountsListLevel.add(cursor.getString(columnIndex))
-                    }
-                } finally {
-                    cursor.close()
-                }
-            }
-            if (accountsListLevel.size > 0) {
-                accountsList.addAll(accountsListLevel)
-            } else {
-                break
+        val cursor = mDb.rawQuery(descendantAccountsSql(where), selectionArgs)
+        try {
+            while (cursor.moveToNext()) {
+                accountsList.add(cursor.getString(0))
             }
+        } finally {
+            cursor.close()
         }
         return accountsList
     }
 
+    /**
+     * Returns the SQL query of [getDescendantAccountUIDs]. Its parameters are the account GUID,
+     * followed by those of `where`
+     * @param where Condition to filter accounts
+     */
+    @VisibleForTesting
+    fun descendantAccountsSql(where: String?): String {
+        // a descendant is only kept if neither it nor any account between it and accountUID is filtered out.
+        // Ordering by depth returns parents before their children
+        var selection = (AccountClosureEntry.COLUMN_ANCESTOR_UID + " = ? AND "
+                + AccountClosureEntry.COLUMN_DEPTH + " > 0")
+        if (where != null) {
+            selection += (" AND NOT EXISTS ( SELECT 1 FROM " + AccountClosureEntry.TABLE_NAME + " path"
+                    + " WHERE path." + AccountClosureEntry.COLUMN_DESCENDANT_UID + " = "
+                    + AccountClosureEntry.TABLE_NAME + "." + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                    + " AND path." + AccountClosureEntry.COLUMN_DEPTH + " < "
+                    + AccountClosureEntry.TABLE_NAME + "." + AccountClosureEntry.COLUMN_DEPTH
+                    + " AND path." + AccountClosureEntry.COLUMN_ANCESTOR_UID + " NOT IN ( SELECT "
+                    + AccountEntry.COLUMN_UID + " FROM " + AccountEntry.TABLE_NAME + " WHERE " + where + " ) )")
+        }
+        return SQLiteQueryBuilder.buildQueryString(
+            false, AccountClosureEntry.TABLE_NAME, arrayOf(AccountClosureEntry.COLUMN_DESCENDANT_UID),
+            selection, null, null, AccountClosureEntry.COLUMN_DEPTH + " ASC", null
+        )
+    }
+
     /**
      * Returns a cursor to the dataset containing sub-accounts of the account with record ID `accoundId`
      * @param accountUID GUID of the parent account
@@ -989,6 +1051,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
             contentValues.put(AccountEntry.COLUMN_COMMODITY_UID, getCommodityUID(defaultCurrencyCode!!))
             Log.i(LOG_TAG, "Creating ROOT account")
             mDb.insert(AccountEntry.TABLE_NAME, null, contentValues)
+            onTableWritten(AccountEntry.TABLE_NAME)
             return rootAccount.mUID
         }
 
@@ -999,15 +1062,22 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      */
     fun getSubAccountCount(accountUID: String): Int {
         //TODO: at some point when API level 11 and above only is supported, use DatabaseUtils.queryNumEntries
-        val queryCount = ("SELECT COUNT(*) FROM " + AccountEntry.TABLE_NAME + " WHERE "
-                + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = ?")
-        val cursor = mDb.rawQuery(queryCount, arrayOf(accountUID))
+        val cursor = mDb.rawQuery(subAccountCountSql(), arrayOf(accountUID))
         cursor.moveToFirst()
         val count = cursor.getInt(0)
         cursor.close()
         return count
     }
 
+    /**
+     * Returns the SQL query of [getSubAccountCount], whose parameter is the GUID of the parent account
+     */
+    @VisibleForTesting
+    fun subAccountCountSql(): String {
+        return ("SELECT COUNT(*) FROM " + AccountEntry.TABLE_NAME + " WHERE "
+                + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = ?")
+    }
+
     /**
      * Returns currency code of account with database ID `id`
      * @param uid GUID of the account
@@ -1025,7 +1095,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @see .getFullyQualifiedAccountName
      */
     fun getAccountName(accountUID: String?): String {
-        return getAttribute(accountUID!!, AccountEntry.COLUMN_NAME)
+        return requireAccountMetadata(accountUID!!).name
     }
 
     /**
@@ -1074,19 +1144,9 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return full name registered in DB
      */
     fun getAccountFullName(accountUID: String): String {
-        val cursor = mDb.query(
-            AccountEntry.TABLE_NAME, arrayOf(AccountEntry.COLUMN_FULL_NAME),
-            AccountEntry.COLUMN_UID + " = ?", arrayOf(accountUID),
-            null, null, null
-        )
-        try {
-            if (cursor.moveToFirst()) {
-                return cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_FULL_NAME))
-            }
-        } finally {
-            cursor.close()
-        }
-        throw IllegalArgumentException("account UID: $accountUID does not exist")
+        val account = getAccountMetadata(accountUID)
+            ?: throw IllegalArgumentException("account UID: $accountUID does not exist")
+        return account.fullName!!
     }
 
     /**
@@ -1095,8 +1155,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return `true` if the account is a placeholder account, `false` otherwise
      */
     fun isPlaceholderAccount(accountUID: String?): Boolean {
-        val isPlaceholder = getAttribute(accountUID!!, AccountEntry.COLUMN_PLACEHOLDER)
-        return isPlaceholder.toInt() == 1
+        return requireAccountMetadata(accountUID!!).isPlaceholder
     }
 
     /**
@@ -1105,8 +1164,7 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return `true` if the account is hidden, `false` otherwise
      */
     fun isHiddenAccount(accountUID: String?): Boolean {
-        val isHidden = getAttribute(accountUID!!, AccountEntry.COLUMN_HIDDEN)
-        return isHidden.toInt() == 1
+        return requireAccountMetadata(accountUID!!).isHidden
     }
 
     /**
@@ -1115,8 +1173,16 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
      * @return `true` if the account is a favorite account, `false` otherwise
      */
     fun isFavoriteAccount(accountUID: String?): Boolean {
-        val isFavorite = getAttribute(accountUID!!, AccountEntry.COLUMN_FAVORITE)
-        return isFavorite.toInt() == 1
+        return requireAccountMetadata(accountUID!!).isFavorite
+    }
+
+    /**
+     * Returns the cached attributes of the account
+     * @throws IllegalArgumentException if the account does not exist in the database
+     */
+    private fun requireAccountMetadata(accountUID: String): BookMetadataCache.AccountMetadata {
+        return getAccountMetadata(accountUID)
+            ?: throw IllegalArgumentException(String.format("Record with GUID %s does not exist in the db", accountUID))
     }
 
     /**
@@ -1203,7 +1269,10 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
         mDb.delete(DatabaseSchema.BudgetAmountEntry.TABLE_NAME, null, null)
         mDb.delete(DatabaseSchema.BudgetEntry.TABLE_NAME, null, null)
         mDb.delete(DatabaseSchema.RecurrenceEntry.TABLE_NAME, null, null)
-        return mDb.delete(AccountEntry.TABLE_NAME, null, null)
+        val deleted = mDb.delete(AccountEntry.TABLE_NAME, null, null)
+        onTableWritten(AccountEntry.TABLE_NAME)
+        onTableWritten(DatabaseSchema.PriceEntry.TABLE_NAME)
+        return deleted
     }
 
     override fun deleteRecord(uid: String): Boolean {
@@ -1215,15 +1284,16 @@ class AccountsDbAdapter : DatabaseAdapter<Account> {
                 mTableName, contentValues,
                 AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + "=?", arrayOf(uid)
             )
+            onTableWritten(mTableName)
         }
         return result
     }
 
     fun getTransactionMaxSplitNum(accountUID: String): Int {
         val cursor = mDb.query(
-            "trans_extra_info", arrayOf("MAX(trans_split_count)"),
-            "trans_acct_t_uid IN ( SELECT DISTINCT " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID +
-                    " FROM trans_split_acct WHERE " + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID +
+            TransactionSummaryEntry.TABLE_NAME, arrayOf("MAX(" + TransactionSummaryEntry.COLUMN_SPLIT_COUNT + ")"),
+            TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " IN ( SELECT " + SplitEntry.COLUMN_TRANSACTION_UID +
+                    " FROM " + SplitEntry.TABLE_NAME + " WHERE " + SplitEntry.COLUMN_ACCOUNT_UID +
                     " = ? )", arrayOf(accountUID),
             null,
             null,
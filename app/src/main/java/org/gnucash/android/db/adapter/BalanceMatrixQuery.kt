@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.sqlite.SQLiteDatabase
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.SplitEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.GroupInterval
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.Money.Companion.createZeroInstance
+import org.gnucash.android.model.MoneyAccumulator
+import org.joda.time.LocalDateTime
+import java.util.Arrays
+
+/**
+ * Computes the balances of several accounts over consecutive periods, e.g. months, with one grouped query.
+ *
+ * The splits of all the accounts in the whole time range are summed up by account, date and commodity
+ * in a single scan, instead of running one balance query for each account and period.
+ * The sums are then added to the periods of their dates.
+ * As with [AccountsDbAdapter.getAccountsBalance], sub-accounts are not included, and the balances
+ * are converted to the default currency, with the prices in effect at the end of each period.
+ * @param periodStarts Start timestamps of the periods in ascending order. A period ends where the next one starts
+ * @param endTimestamp End timestamp of the last period
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class BalanceMatrixQuery(
+    private val mDb: SQLiteDatabase,
+    private val mSplitsDbAdapter: SplitsDbAdapter,
+    private val mCurrencyCode: String,
+    private val periodStarts: LongArray,
+    private val endTimestamp: Long
+) {
+    /**
+     * Balances of the accounts per period
+     */
+    inner class Result(private val mBalances: Map<String, Array<Money>>) {
+        /**
+         * Number of periods
+         */
+        val periodCount: Int
+            get() = periodStarts.size
+
+        /**
+         * Returns the balance of the account in the period, zero if the account has no splits in it
+         * @param accountUID GUID of the account
+         * @param period Index of the period
+         */
+        fun getBalance(accountUID: String, period: Int): Money {
+            return mBalances[accountUID]?.get(period) ?: createZeroInstance(mCurrencyCode)
+        }
+
+        /**
+         * Returns the sum of the balances of all the accounts in the period
+         * @param period Index of the period
+         */
+        fun getTotal(period: Int): Money {
+            val total = MoneyAccumulator()
+            for (balances in mBalances.values) {
+                total.add(balances[period])
+            }
+            return total.getMoney(mCurrencyCode)
+        }
+    }
+
+    /**
+     * Runs the query for the accounts
+     * @param accountUIDs GUIDs of the accounts
+     * @return Balances of the accounts per period
+     */
+    fun execute(accountUIDs: Collection<String>): Result {
+        val balances = HashMap<String, Array<Money>>()
+        val aggregate = aggregate(accountUIDs)
+        val converter = mSplitsDbAdapter.BalanceConverter(mCurrencyCode)
+        for (accountUID in aggregate.accountUIDs) {
+            //amounts are converted with the prices at the end of their period
+            balances[accountUID] = Array(periodStarts.size) { period ->
+                val periodEnd = if (period + 1 < periodStarts.size) periodStarts[period + 1] - 1 else endTimestamp
+                aggregate.getBalance(listOf(accountUID), period..period, converter, periodEnd)
+            }
+        }
+        return Result(balances)
+    }
+
+    /**
+     * Runs the query for the accounts, without converting the sums to the currency
+     * @param accountUIDs GUIDs of the accounts
+     * @return Sums of the split quantities of the accounts per period and commodity
+     */
+    fun aggregate(accountUIDs: Collection<String>): SplitAggregate {
+        val aggregate = SplitAggregate(periodStarts.size)
+        if (periodStarts.isEmpty()) {
+            return aggregate
+        }
+        val timestamp = TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP
+        for (batch in accountUIDs.distinct().chunked(MAX_BATCH_SIZE)) {
+            val selection = (AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID
+                    + " IN ( " + batch.joinToString(" , ") { "?" } + " )"
+                    + " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                    + " AND " + timestamp + " BETWEEN ? AND ?")
+            val selectionArgs = arrayOf<String?>(*batch.toTypedArray()) +
+                    arrayOf(periodStarts[0].toString(), endTimestamp.toString())
+            val cursor = mDb.query(
+                "trans_split_acct",
+                arrayOf(
+                    AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID,
+                    AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_TYPE,
+                    timestamp,
+                    "SUM ( CASE WHEN " + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN " +
+                            SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - " +
+                            SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_NUM + " END )",
+                    SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_DENOM,
+                    AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_CURRENCY
+                ),
+                selection, selectionArgs,
+                AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID + " , " + timestamp + " , "
+                        + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_CURRENCY + " , "
+                        + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_DENOM,
+                null, null
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    aggregate.add(
+                        cursor.getString(0), AccountType.valueOf(cursor.getString(1)), getPeriod(cursor.getLong(2)),
+                        cursor.getString(5), cursor.getLong(4), cursor.getLong(3)
+                    )
+                }
+            } finally {
+                cursor.close()
+            }
+        }
+        return aggregate
+    }
+
+    /**
+     * Returns the index of the period containing the timestamp, which is not before the start of the first period.
+     * The periods are looked up in Kotlin rather than in the query, which would compare each split with every period start
+     */
+    private fun getPeriod(timestamp: Long): Int {
+        val index = Arrays.binarySearch(periodStarts, timestamp)
+        return if (index >= 0) index else -index - 2
+    }
+
+    companion object {
+        /**
+         * Maximum number of accounts per query, below the limit of SQLite on query parameters
+         */
+        private const val MAX_BATCH_SIZE = 500
+
+        /**
+         * Returns the start timestamps of consecutive calendar periods of the grouping interval.
+         *
+         * The first period is the one containing `start`, e.g. the quarter of its month for [GroupInterval.QUARTER].
+         * [GroupInterval.ALL] gives a single period starting at `start`, without end
+         * @param groupInterval Length of the periods
+         * @param start Date within the first period
+         * @param periodCount Number of periods
+         * @return Start timestamps of the periods, followed by the start timestamp of the period after the last one
+         */
+        @JvmStatic
+        fun getPeriodStarts(groupInterval: GroupInterval, start: LocalDateTime, periodCount: Int): LongArray {
+            if (groupInterval == GroupInterval.ALL) {
+                return longArrayOf(start.toDate().time, Long.MAX_VALUE)
+            }
+            val firstStart = getPeriodStart(groupInterval, start)
+            return LongArray(periodCount + 1) { i -> addPeriods(groupInterval, firstStart, i).toDate().time }
+        }
+
+        /**
+         * Returns the start of the calendar period of the grouping interval which contains the date,
+         * e.g. the first day of its quarter for [GroupInterval.QUARTER]. [GroupInterval.ALL] returns the date itself
+         * @param groupInterval Length of the period
+         * @param date Date within the period
+         */
+        @JvmStatic
+        fun getPeriodStart(groupInterval: GroupInterval, date: LocalDateTime): LocalDateTime {
+            return when (groupInterval) {
+                GroupInterval.DAY -> date
+                GroupInterval.WEEK -> date.dayOfWeek().withMinimumValue()
+                GroupInterval.MONTH -> date.dayOfMonth().withMinimumValue()
+                GroupInterval.QUARTER -> date.withMonthOfYear((date.monthOfYear - 1) / 3 * 3 + 1)
+                    .dayOfMonth().withMinimumValue()
+                GroupInterval.YEAR -> date.dayOfYear().withMinimumValue()
+                GroupInterval.ALL -> return date
+            }.millisOfDay().withMinimumValue()
+        }
+
+        /**
+         * Returns the date a number of periods of the grouping interval after the date
+         * @param groupInterval Length of the periods, other than [GroupInterval.ALL]
+         * @param date Start date
+         * @param count Number of periods to add
+         */
+        @JvmStatic
+        fun addPeriods(groupInterval: GroupInterval, date: LocalDateTime, count: Int): LocalDateTime {
+            return when (groupInterval) {
+                GroupInterval.DAY -> date.plusDays(count)
+                GroupInterval.WEEK -> date.plusWeeks(count)
+                GroupInterval.QUARTER -> date.plusMonths(3 * count)
+                GroupInterval.YEAR -> date.plusYears(count)
+                else -> date.plusMonths(count)
+            }
+        }
+    }
+}
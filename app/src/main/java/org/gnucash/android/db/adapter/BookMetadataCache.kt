@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.sqlite.SQLiteDatabase
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry
+import org.gnucash.android.db.DatabaseSchema.PriceEntry
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Commodity
+import java.lang.ref.WeakReference
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Cache of the commodities, of the account attributes and of the prices of a book,
+ * which are read much more often than written.
+ *
+ * There is one cache per book database, shared by all the adapters opened on it (see [forDatabase]).
+ * Entries are loaded on first use by the adapters, and the entries of a table are dropped
+ * whenever the adapters write to that table (see [invalidate]), and again when the database transaction
+ * of the write is committed or rolled back (see [onTransactionEnded]).
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class BookMetadataCache private constructor(db: SQLiteDatabase) {
+    /**
+     * Attributes of an account which are looked up by GUID, e.g. by list views and exporters
+     */
+    class AccountMetadata(
+        val uid: String,
+        val name: String,
+        val fullName: String?,
+        val accountType: AccountType,
+        val currencyCode: String,
+        val commodityUID: String?,
+        val parentAccountUID: String?,
+        val isPlaceholder: Boolean,
+        val isHidden: Boolean,
+        val isFavorite: Boolean
+    )
+
+    private val mCommoditiesByMnemonic = ConcurrentHashMap<String, Commodity>()
+    private val mCommoditiesByUID = ConcurrentHashMap<String, Commodity>()
+    private val mAccounts = ConcurrentHashMap<String, AccountMetadata>()
+
+    @Volatile
+    private var mPriceIndex: PriceIndex? = null
+
+    /**
+     * Incremented when the entries of a table are dropped, so that a value loaded
+     * before the write is not stored after it
+     */
+    private val mCommoditiesGeneration = AtomicInteger()
+    private val mAccountsGeneration = AtomicInteger()
+    private val mPricesGeneration = AtomicInteger()
+
+    /**
+     * The database is only referenced weakly, since the caches are kept in a [WeakHashMap] by database
+     */
+    private val mDatabase = WeakReference(db)
+
+    /**
+     * Tables written by the database transaction in progress on the current thread.
+     *
+     * Until the transaction ends, the other connections still read the rows as they were before the writes,
+     * and the rows read on the current thread are lost if the transaction is rolled back,
+     * so the entries loaded meanwhile must not outlive the transaction
+     */
+    private val mPendingTables = object : ThreadLocal<MutableSet<String>>() {
+        override fun initialValue(): MutableSet<String> = HashSet()
+    }
+
+    private val mHitCount = AtomicLong()
+    private val mMissCount = AtomicLong()
+
+    /**
+     * Number of lookups answered from the cache
+     */
+    val hitCount: Long
+        get() = mHitCount.get()
+
+    /**
+     * Number of lookups which had to query the database
+     */
+    val missCount: Long
+        get() = mMissCount.get()
+
+    /**
+     * Returns the commodity with the mnemonic (ISO 4217 code for currencies)
+     * @param mnemonic Mnemonic of the commodity
+     * @param loader Reads the commodity from the database, returns null if it does not exist
+     * @return Commodity or null if none is found
+     */
+    fun getCommodity(mnemonic: String, loader: (String) -> Commodity?): Commodity? {
+        val cached = mCommoditiesByMnemonic[mnemonic]
+        if (cached != null) {
+            mHitCount.incrementAndGet()
+            return cached
+        }
+        mMissCount.incrementAndGet()
+        val generation = mCommoditiesGeneration.get()
+        val commodity = loader(mnemonic) ?: return null
+        putCommodity(commodity, generation)
+        return commodity
+    }
+
+    /**
+     * Returns the commodity with the mnemonic if it is in the cache, without loading it otherwise
+     * @param mnemonic Mnemonic of the commodity
+     * @return Cached commodity or null
+     */
+    fun peekCommodity(mnemonic: String): Commodity? {
+        val cached = mCommoditiesByMnemonic[mnemonic]
+        if (cached != null) mHitCount.incrementAndGet() else mMissCount.incrementAndGet()
+        return cached
+    }
+
+    /**
+     * Returns the commodity with the GUID
+     * @param commodityUID GUID of the commodity
+     * @param loader Reads the commodity from the database, returns null if it does not exist
+     * @return Commodity or null if none is found
+     */
+    fun getCommodityByUID(commodityUID: String, loader: (String) -> Commodity?): Commodity? {
+        val cached = mCommoditiesByUID[commodityUID]
+        if (cached != null) {
+            mHitCount.incrementAndGet()
+            return cached
+        }
+        mMissCount.incrementAndGet()
+        val generation = mCommoditiesGeneration.get()
+        val commodity = loader(commodityUID) ?: return null
+        putCommodity(commodity, generation)
+        return commodity
+    }
+
+    private fun putCommodity(commodity: Commodity, generation: Int) {
+        synchronized(mCommoditiesByMnemonic) {
+            if (generation == mCommoditiesGeneration.get()) {
+                mCommoditiesByMnemonic[commodity.mMnemonic] = commodity
+                mCommoditiesByUID[commodity.mUID!!] = commodity
+            }
+        }
+    }
+
+    /**
+     * Returns the attributes of the account with the GUID
+     * @param accountUID GUID of the account
+     * @param loader Reads the account attributes from the database, returns null if the account does not exist
+     * @return Account attributes or null if the account does not exist
+     */
+    fun getAccount(accountUID: String, loader: (String) -> AccountMetadata?): AccountMetadata? {
+        val cached = mAccounts[accountUID]
+        if (cached != null) {
+            mHitCount.incrementAndGet()
+            return cached
+        }
+        mMissCount.incrementAndGet()
+        val generation = mAccountsGeneration.get()
+        val account = loader(accountUID) ?: return null
+        synchronized(mAccounts) {
+            if (generation == mAccountsGeneration.get()) {
+                mAccounts[accountUID] = account
+            }
+        }
+        return account
+    }
+
+    /**
+     * Returns the index of the prices of the book
+     * @param loader Reads all the prices from the database
+     * @return Price index
+     */
+    fun getPriceIndex(loader: () -> PriceIndex): PriceIndex {
+        val cached = mPriceIndex
+        if (cached != null) {
+            mHitCount.incrementAndGet()
+            return cached
+        }
+        mMissCount.incrementAndGet()
+        val generation = mPricesGeneration.get()
+        val priceIndex = loader()
+        synchronized(mPricesGeneration) {
+            if (generation == mPricesGeneration.get()) {
+                mPriceIndex = priceIndex
+            }
+        }
+        return priceIndex
+    }
+
+    /**
+     * Drops the cached entries read from a table. To be called after writing to the table.
+     *
+     * If the write is part of a database transaction, the entries are dropped again when it ends
+     * @param tableName Name of the table which was written
+     */
+    fun invalidate(tableName: String?) {
+        dropEntries(tableName)
+        if (tableName != null && mDatabase.get()?.inTransaction() == true) {
+            mPendingTables.get()!!.add(tableName)
+        }
+    }
+
+    /**
+     * Drops the cached entries of the tables written by the database transaction of the current thread,
+     * once it has been committed or rolled back. To be called after ending a transaction,
+     * it does nothing while an enclosing transaction is still in progress
+     */
+    fun onTransactionEnded() {
+        if (mDatabase.get()?.inTransaction() == true) return
+        val pendingTables = mPendingTables.get()!!
+        for (tableName in pendingTables) {
+            dropEntries(tableName)
+        }
+        pendingTables.clear()
+    }
+
+    private fun dropEntries(tableName: String?) {
+        when (tableName) {
+            AccountEntry.TABLE_NAME -> synchronized(mAccounts) {
+                mAccountsGeneration.incrementAndGet()
+                mAccounts.clear()
+            }
+
+            CommodityEntry.TABLE_NAME -> synchronized(mCommoditiesByMnemonic) {
+                mCommoditiesGeneration.incrementAndGet()
+                mCommoditiesByMnemonic.clear()
+                mCommoditiesByUID.clear()
+            }
+
+            PriceEntry.TABLE_NAME -> synchronized(mPricesGeneration) {
+                mPricesGeneration.incrementAndGet()
+                mPriceIndex = null
+            }
+        }
+    }
+
+    /**
+     * Drops all cached entries
+     */
+    fun invalidateAll() {
+        invalidate(AccountEntry.TABLE_NAME)
+        invalidate(CommodityEntry.TABLE_NAME)
+        invalidate(PriceEntry.TABLE_NAME)
+    }
+
+    companion object {
+        private val sCaches = WeakHashMap<SQLiteDatabase, BookMetadataCache>()
+
+        /**
+         * Returns the cache of the book stored in the database.
+         *
+         * The cache goes away with the database object when the book is closed
+         * @param db Database of the book
+         * @return Metadata cache of the book
+         */
+        @JvmStatic
+        fun forDatabase(db: SQLiteDatabase): BookMetadataCache {
+            synchronized(sCaches) {
+                return sCaches.getOrPut(db) { BookMetadataCache(db) }
+            }
+        }
+    }
+}
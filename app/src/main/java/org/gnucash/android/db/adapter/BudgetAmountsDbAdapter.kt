@@ -23,7 +23,7 @@ import org.gnucash.android.app.GnuCashApplication
 import org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry
 import org.gnucash.android.model.BudgetAmount
 import org.gnucash.android.model.Money
-import org.gnucash.android.model.Money.Companion.createZeroInstance
+import org.gnucash.android.model.MoneyAccumulator
 
 /**
  * Database adapter for [BudgetAmount]s
@@ -114,11 +114,11 @@ class BudgetAmountsDbAdapter
      */
     fun getBudgetAmountSum(accountUID: String?): Money {
         val budgetAmounts = getBudgetAmounts(accountUID)
-        var sum = createZeroInstance(getAccountCurrencyCode(accountUID!!))
+        val sum = MoneyAccumulator()
         for (budgetAmount in budgetAmounts) {
-            sum = sum.add(budgetAmount.mAmount!!)
+            sum.add(budgetAmount.mAmount!!)
         }
-        return sum
+        return sum.getMoney(getAccountCurrencyCode(accountUID!!))
     }
 
     companion object {
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.sqlite.SQLiteDatabase
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.CommonColumns
+import org.gnucash.android.db.DatabaseSchema.SplitEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.GroupInterval
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.Money.Companion.createZeroInstance
+import org.gnucash.android.model.MoneyAccumulator
+import org.joda.time.LocalDateTime
+import java.util.EnumMap
+
+/**
+ * Computes the cash flow of account types over consecutive calendar periods, e.g. the income and expenses
+ * of each month, with one scan of the splits of all the account types ordered by date.
+ *
+ * As the splits come in date order, each one is added to the current period, and the period boundaries
+ * are computed once per period rather than per split. Only the accounts in the commodity of the series
+ * which are not placeholders are included, so no amounts need to be converted.
+ * The series covers whole periods: the period containing the start and the period containing the end are included.
+ * @param mCommodity Commodity of the accounts and of the totals
+ * @param mGroupInterval Length of the periods, other than [GroupInterval.ALL]
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class CashFlowSeriesQuery(
+    private val mDb: SQLiteDatabase,
+    private val mCommodity: Commodity,
+    private val mGroupInterval: GroupInterval
+) {
+    /**
+     * Totals of the account types per period
+     * @param periodStarts Start timestamps of the periods, followed by the start of the period after the last one
+     */
+    inner class Result(
+        val periodStarts: LongArray,
+        private val mTotals: Map<AccountType, List<MoneyAccumulator?>>,
+        private val mFirstPeriods: Map<AccountType, Int>,
+        private val mLastPeriods: Map<AccountType, Int>
+    ) {
+        /**
+         * Number of periods, zero if there is no split and no start of the series was given
+         */
+        val periodCount: Int
+            get() = periodStarts.size - 1
+
+        /**
+         * Returns the total of the accounts of a type in a period, with the normal sign of the account type
+         * @param accountType Type of the accounts
+         * @param period Index of the period
+         */
+        fun getTotal(accountType: AccountType, period: Int): Money {
+            val totals = mTotals[accountType]
+            val total = if (totals != null && period < totals.size) totals[period] else null
+            return total?.getMoney(mCommodity.mMnemonic) ?: createZeroInstance(mCommodity.mMnemonic)
+        }
+
+        /**
+         * Returns the index of the first period with splits of the account type, or -1 if there is none
+         */
+        fun getFirstPeriod(accountType: AccountType): Int {
+            return mFirstPeriods[accountType] ?: -1
+        }
+
+        /**
+         * Returns the index of the last period with splits of the account type, or -1 if there is none
+         */
+        fun getLastPeriod(accountType: AccountType): Int {
+            return mLastPeriods[accountType] ?: -1
+        }
+    }
+
+    /**
+     * Runs the query for the account types
+     * @param accountTypes Types of the accounts
+     * @param startTimestamp Start of the series, -1 to start at the period of the earliest split
+     * @param endTimestamp End of the series, -1 to end at the period of the latest split
+     * @return Totals of the account types per period
+     */
+    fun execute(accountTypes: Collection<AccountType>, startTimestamp: Long, endTimestamp: Long): Result {
+        val totals = EnumMap<AccountType, ArrayList<MoneyAccumulator?>>(AccountType::class.java)
+        val firstPeriods = EnumMap<AccountType, Int>(AccountType::class.java)
+        val lastPeriods = EnumMap<AccountType, Int>(AccountType::class.java)
+        if (accountTypes.isEmpty()) {
+            return Result(LongArray(0), totals, firstPeriods, lastPeriods)
+        }
+        val timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP
+        var selection = (TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE
+                + " IN ( " + accountTypes.joinToString(" , ") { "?" } + " )"
+                + " AND " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PLACEHOLDER + " = 0"
+                + " AND " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COMMODITY_UID + " = ?")
+        var selectionArgs = accountTypes.map { it.name }.toTypedArray() + mCommodity.mUID!!
+
+        var firstStart: LocalDateTime? = null
+        if (startTimestamp != -1L) {
+            firstStart = BalanceMatrixQuery.getPeriodStart(mGroupInterval, LocalDateTime(startTimestamp))
+            selection += " AND $timestamp >= ?"
+            selectionArgs += firstStart.toDate().time.toString()
+        }
+        if (endTimestamp != -1L) {
+            val lastStart = BalanceMatrixQuery.getPeriodStart(mGroupInterval, LocalDateTime(endTimestamp))
+            selection += " AND $timestamp < ?"
+            selectionArgs += BalanceMatrixQuery.addPeriods(mGroupInterval, lastStart, 1).toDate().time.toString()
+        }
+
+        var periodCount = if (firstStart == null) 0 else 1
+        var nextStart = if (firstStart == null) Long.MIN_VALUE else periodStart(firstStart, 1)
+        val cursor = mDb.rawQuery(
+            "SELECT " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE + " , " + timestamp + " , "
+                    + "CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END , "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " FROM " + TransactionEntry.TABLE_NAME
+                    + " INNER JOIN " + SplitEntry.TABLE_NAME + " ON " + SplitEntry.TABLE_NAME + "."
+                    + SplitEntry.COLUMN_TRANSACTION_ID + " = " + TransactionEntry.TABLE_NAME + "." + CommonColumns._ID
+                    + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON " + AccountEntry.TABLE_NAME + "."
+                    + CommonColumns._ID + " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_ID
+                    + " WHERE " + selection + " ORDER BY " + timestamp,
+            selectionArgs
+        )
+        try {
+            while (cursor.moveToNext()) {
+                val accountType = AccountType.valueOf(cursor.getString(0))
+                val splitTimestamp = cursor.getLong(1)
+                if (firstStart == null) {
+                    firstStart = BalanceMatrixQuery.getPeriodStart(mGroupInterval, LocalDateTime(splitTimestamp))
+                    periodCount = 1
+                    nextStart = periodStart(firstStart, 1)
+                }
+                while (splitTimestamp >= nextStart) {
+                    periodCount++
+                    nextStart = periodStart(firstStart!!, periodCount)
+                }
+                val period = periodCount - 1
+                val typeTotals = totals.getOrPut(accountType) { ArrayList() }
+                while (typeTotals.size < periodCount) {
+                    typeTotals.add(null)
+                }
+                var total = typeTotals[period]
+                if (total == null) {
+                    total = MoneyAccumulator()
+                    typeTotals[period] = total
+                }
+                if (accountType.hasDebitNormalBalance()) {
+                    total.add(cursor.getLong(2), cursor.getLong(3), mCommodity.mMnemonic)
+                } else {
+                    total.subtract(cursor.getLong(2), cursor.getLong(3), mCommodity.mMnemonic)
+                }
+                if (!firstPeriods.containsKey(accountType)) {
+                    firstPeriods[accountType] = period
+                }
+                lastPeriods[accountType] = period
+            }
+        } finally {
+            cursor.close()
+        }
+
+        if (firstStart == null) {
+            return Result(LongArray(0), totals, firstPeriods, lastPeriods)
+        }
+        if (endTimestamp != -1L) {
+            //empty periods up to the end of the series
+            while (endTimestamp >= nextStart) {
+                periodCount++
+                nextStart = periodStart(firstStart, periodCount)
+            }
+        }
+        val periodStarts = LongArray(periodCount + 1) { i -> periodStart(firstStart, i) }
+        return Result(periodStarts, totals, firstPeriods, lastPeriods)
+    }
+
+    private fun periodStart(firstStart: LocalDateTime, period: Int): Long {
+        return BalanceMatrixQuery.addPeriods(mGroupInterval, firstStart, period).toDate().time
+    }
+}
@@ -111,35 +111,47 @@ class CommoditiesDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Commodity>(
 
     /**
      * Returns the commodity associated with the ISO4217 currency code
+     *
+     * Commodities are read from the [metadataCache], and from the database on the first lookup
      * @param currencyCode 3-letter currency code
      * @return Commodity associated with code or null if none is found
      */
     fun getCommodity(currencyCode: String): Commodity? {
-        val cursor = fetchAllRecords(CommodityEntry.COLUMN_MNEMONIC + "=?", arrayOf(currencyCode), null)
-        var commodity: Commodity? = null
-        if (cursor.moveToNext()) {
-            commodity = buildModelInstance(cursor)
-        } else {
+        val commodity = metadataCache.getCommodity(currencyCode) { code ->
+            fetchCommodity(CommodityEntry.COLUMN_MNEMONIC, code)
+        }
+        if (commodity == null) {
             val msg = "Commodity not found in the database: $currencyCode"
             Log.e(LOG_TAG, msg)
             Crashlytics.log(msg)
         }
-        cursor.close()
         return commodity
     }
 
+    /**
+     * Returns the commodity with the GUID
+     * @param guid GUID of the commodity
+     * @return Commodity with the GUID
+     * @throws IllegalArgumentException if the commodity does not exist in the database
+     */
+    fun getCommodityByUID(guid: String): Commodity {
+        return metadataCache.getCommodityByUID(guid) { uid ->
+            fetchCommodity(DatabaseSchema.CommonColumns.COLUMN_UID, uid)
+        } ?: throw IllegalArgumentException("guid $guid not exits in commodity db")
+    }
+
     fun getMMnemonic(guid: String): String {
-        val cursor = mDb.query(
-            mTableName, arrayOf(CommodityEntry.COLUMN_MNEMONIC),
-            DatabaseSchema.CommonColumns.COLUMN_UID + " = ?", arrayOf(guid),
-            null, null, null
-        )
+        return getCommodityByUID(guid).mMnemonic
+    }
+
+    /**
+     * Reads the commodity whose column has the value from the database
+     * @return Commodity or null if none is found
+     */
+    private fun fetchCommodity(columnName: String, value: String): Commodity? {
+        val cursor = fetchAllRecords("$columnName = ?", arrayOf(value), null)
         return try {
-            if (cursor.moveToNext()) {
-                cursor.getString(cursor.getColumnIndexOrThrow(CommodityEntry.COLUMN_MNEMONIC))
-            } else {
-                throw IllegalArgumentException("guid $guid not exits in commodity db")
-            }
+            if (cursor.moveToNext()) buildModelInstance(cursor) else null
         } finally {
             cursor.close()
         }
@@ -18,10 +18,12 @@ package org.gnucash.android.db.adapter
 
 import android.content.ContentValues
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteStatement
 import android.text.TextUtils
 import android.util.Log
+import org.gnucash.android.db.DatabaseHelper
 import org.gnucash.android.db.DatabaseSchema
 import org.gnucash.android.db.DatabaseSchema.*
 import org.gnucash.android.model.AccountType
@@ -47,6 +49,11 @@ abstract class DatabaseAdapter<Model : BaseModel>(
     @JvmField
     protected var LOG_TAG = "DatabaseAdapter"
 
+    /**
+     * Cache of the commodities and account attributes of the book, shared by all adapters of the database
+     */
+    val metadataCache: BookMetadataCache = BookMetadataCache.forDatabase(mDb)
+
     @Volatile
     protected var mReplaceStatement: SQLiteStatement? = null
 
@@ -66,122 +73,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      */
     init {
         require(!(!mDb.isOpen || mDb.isReadOnly)) { "Database not open or is read-only. Require writeable database" }
-        if (mDb.version >= 9) {
-            createTempView()
-        }
         LOG_TAG = javaClass.simpleName
     }
 
-    private fun createTempView() {
-        //the multiplication by 1.0 is to cause sqlite to handle the value as REAL and not to round off
-
-        // Create some temporary views. Temporary views only exists in one DB session, and will not
-        // be saved in the DB
-        //
-        // TODO: Useful views should be add to the DB
-        //
-        // create a temporary view, combining accounts, transactions and splits, as this is often used
-        // in the queries
-
-        //todo: would it be useful to add the split reconciled_state and reconciled_date to this view?
-        mDb.execSQL(
-            "CREATE TEMP VIEW IF NOT EXISTS trans_split_acct AS SELECT "
-                    + TransactionEntry.TABLE_NAME + "." + CommonColumns.COLUMN_MODIFIED_AT + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + CommonColumns.COLUMN_MODIFIED_AT + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_DESCRIPTION + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_NOTES + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_NOTES + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_CURRENCY + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_EXPORTED + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_EXPORTED + " , "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " AS "
-                    + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TEMPLATE + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_UID + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_TYPE + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_NUM + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_VALUE_NUM + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_VALUE_DENOM + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_VALUE_DENOM + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_NUM + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_MEMO + " AS "
-                    + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_MEMO + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_NAME + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_NAME + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_CURRENCY + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PLACEHOLDER + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_PLACEHOLDER + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COLOR_CODE + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_COLOR_CODE + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FAVORITE + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_FAVORITE + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_FULL_NAME + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_FULL_NAME + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_TYPE + " , "
-                    + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + " AS "
-                    + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
-                    + " FROM " + TransactionEntry.TABLE_NAME + " , " + SplitEntry.TABLE_NAME + " ON "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + "=" + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
-                    + " , " + AccountEntry.TABLE_NAME + " ON "
-                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + "=" + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID
-        )
-
-        // SELECT transactions_uid AS trans_acct_t_uid ,
-        //      SUBSTR (
-        //          MIN (
-        //              ( CASE WHEN IFNULL ( splits_memo , '' ) == '' THEN 'a' ELSE 'b' END ) || accounts_uid
-        //          ) ,
-        //          2
-        //      ) AS trans_acct_a_uid ,
-        //   TOTAL ( CASE WHEN splits_type = 'DEBIT' THEN splits_value_num
-        //                ELSE - splits_value_num END ) * 1.0 / splits_value_denom AS trans_acct_balance ,
-        //   COUNT ( DISTINCT accounts_currency_code ) AS trans_currency_count ,
-        //   COUNT (*) AS trans_split_count
-        //   FROM trans_split_acct GROUP BY transactions_uid
-        //
-        // This temporary view would pick one Account_UID for each
-        // Transaction, which can be used to order all transactions. If possible, account_uid of a split whose
-        // memo is null is select.
-        //
-        // Transaction balance is also picked out by this view
-        //
-        // a split without split memo is chosen if possible, in the following manner:
-        //   if the splits memo is null or empty string, attach an 'a' in front of the split account uid,
-        //   if not, attach a 'b' to the split account uid
-        //   pick the minimal value of the modified account uid (one of the ones begins with 'a', if exists)
-        //   use substr to get account uid
-        mDb.execSQL(
-            "CREATE TEMP VIEW IF NOT EXISTS trans_extra_info AS SELECT " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID +
-                    " AS trans_acct_t_uid , SUBSTR ( MIN ( ( CASE WHEN IFNULL ( " + SplitEntry.TABLE_NAME + "_" +
-                    SplitEntry.COLUMN_MEMO + " , '' ) == '' THEN 'a' ELSE 'b' END ) || " +
-                    AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID +
-                    " ) , 2 ) AS trans_acct_a_uid , TOTAL ( CASE WHEN " + SplitEntry.TABLE_NAME + "_" +
-                    SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN " + SplitEntry.TABLE_NAME + "_" +
-                    SplitEntry.COLUMN_VALUE_NUM + " ELSE - " + SplitEntry.TABLE_NAME + "_" +
-                    SplitEntry.COLUMN_VALUE_NUM + " END ) * 1.0 / " + SplitEntry.TABLE_NAME + "_" +
-                    SplitEntry.COLUMN_VALUE_DENOM + " AS trans_acct_balance , COUNT ( DISTINCT " +
-                    AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_CURRENCY +
-                    " ) AS trans_currency_count , COUNT (*) AS trans_split_count FROM trans_split_acct " +
-                    " GROUP BY " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID
-        )
-    }
-
     /**
      * Checks if the database is open
      * @return `true` if the database is open, `false` otherwise
@@ -214,6 +108,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
             UpdateMethod.update -> synchronized(updateStatement) { setBindings(updateStatement, model).execute() }
             else -> synchronized(replaceStatement) { setBindings(replaceStatement, model).execute() }
         }
+        onTableWritten(mTableName)
     }
 
     /**
@@ -246,6 +141,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
                 }
             }
         }
+        onTableWritten(mTableName)
         return nRow
     }
 
@@ -277,7 +173,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
             nRow = doAddModels(modelList, updateMethod)
             mDb.setTransactionSuccessful()
         } finally {
-            mDb.endTransaction()
+            endTransaction()
         }
         return nRow
     }
@@ -291,12 +187,27 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      */
     abstract fun buildModelInstance(cursor: Cursor): Model
 
+    /**
+     * Returns the SQL expression of the value written to a column by the insert, replace and update statements.
+     *
+     * Each expression has one parameter, which is bound by [setBindings].
+     * Subclasses can override this to derive the value of a column from the bound parameter
+     * @param column Name of the column
+     * @return SQL expression for the value of the column
+     */
+    protected open fun getColumnValueSql(column: String): String {
+        return "?"
+    }
+
     /**
      * Generates an [SQLiteStatement] with values from the `model`.
      * This statement can be executed to replace a record in the database.
      *
      * If the [.mReplaceStatement] is null, subclasses should create a new statement and return.<br></br>
-     * If it is not null, the previous bindings will be cleared and replaced with those from the model
+     * If it is not null, the previous bindings will be cleared and replaced with those from the model.
+     *
+     * A replaced record keeps its row ID, which is looked up from the GUID bound last,
+     * so that the integer keys referring to it stay valid
      * @return SQLiteStatement for replacing a record in the database
      */
     protected val replaceStatement: SQLiteStatement
@@ -309,10 +220,10 @@ abstract class DatabaseAdapter<Model : BaseModel>(
                         stmt = mDb.compileStatement(
                             "REPLACE INTO " + mTableName + " ( "
                                     + TextUtils.join(" , ", mColumns) + " , "
-                                    + CommonColumns.COLUMN_UID
+                                    + CommonColumns.COLUMN_UID + " , " + CommonColumns._ID
                                     + " ) VALUES ( "
-                                    + String(CharArray(mColumns.size)).replace("\u0000", "? , ")
-                                    + "?)"
+                                    + mColumns.joinToString(" , ") { getColumnValueSql(it) } + " , "
+                                    + "? , " + DatabaseHelper.rowIdOf(mTableName, "?" + (mColumns.size + 1)) + " )"
                         )
                         mReplaceStatement = stmt
                     }
@@ -329,7 +240,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
                     if (stmt == null) {
                         stmt = mDb.compileStatement(
                             "UPDATE " + mTableName + " SET "
-                                    + TextUtils.join(" = ? , ", mColumns) + " = ? WHERE "
+                                    + mColumns.joinToString(" , ") { it + " = " + getColumnValueSql(it) } + " WHERE "
                                     + CommonColumns.COLUMN_UID
                                     + " = ?"
                         )
@@ -351,7 +262,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
                                     + TextUtils.join(" , ", mColumns) + " , "
                                     + CommonColumns.COLUMN_UID
                                     + " ) VALUES ( "
-                                    + String(CharArray(mColumns.size)).replace("\u0000", "? , ")
+                                    + mColumns.joinToString(" , ") { getColumnValueSql(it) } + " , "
                                     + "?)"
                         )
                         mInsertStatement = stmt
@@ -405,7 +316,7 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * Returns all the records in the database
      * @return List of records in the database
      */
-    val allRecords: List<Model>
+    open val allRecords: List<Model>
         get() {
             val modelRecords: MutableList<Model> = ArrayList()
             val c = fetchAllRecords()
@@ -508,7 +419,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      */
     open fun deleteRecord(rowId: Long): Boolean {
         Log.d(LOG_TAG, "Deleting record with id $rowId from $mTableName")
-        return mDb.delete(mTableName, CommonColumns._ID + "=" + rowId, null) > 0
+        val deleted = mDb.delete(mTableName, CommonColumns._ID + "=" + rowId, null) > 0
+        onTableWritten(mTableName)
+        return deleted
     }
 
     /**
@@ -516,7 +429,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * @return Number of deleted records
      */
     open fun deleteAllRecords(): Int {
-        return mDb.delete(mTableName, null, null)
+        val deleted = mDb.delete(mTableName, null, null)
+        onTableWritten(mTableName)
+        return deleted
     }
 
     /**
@@ -575,18 +490,54 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * does not exist in DB
      */
     fun getAccountCurrencyCode(accountUID: String): String {
-        val cursor = mDb.query(
-            AccountEntry.TABLE_NAME, arrayOf(AccountEntry.COLUMN_CURRENCY),
-            AccountEntry.COLUMN_UID + "= ?", arrayOf(accountUID), null, null, null
-        )
-        return try {
-            if (cursor.moveToFirst()) {
-                cursor.getString(0)
-            } else {
-                throw IllegalArgumentException("Account $accountUID does not exist")
+        val account = getAccountMetadata(accountUID)
+            ?: throw IllegalArgumentException("Account $accountUID does not exist")
+        return account.currencyCode
+    }
+
+    /**
+     * Returns the attributes of the account with unique Identifier `accountUID`.
+     *
+     * The attributes are read from the [metadataCache], and from the database on the first lookup
+     * @param accountUID Unique Identifier of the account
+     * @return Attributes of the account, or null if the account does not exist in the DB
+     */
+    protected fun getAccountMetadata(accountUID: String): BookMetadataCache.AccountMetadata? {
+        return metadataCache.getAccount(accountUID) { uid ->
+            val cursor = mDb.query(
+                AccountEntry.TABLE_NAME, arrayOf(
+                    AccountEntry.COLUMN_NAME,
+                    AccountEntry.COLUMN_FULL_NAME,
+                    AccountEntry.COLUMN_TYPE,
+                    AccountEntry.COLUMN_CURRENCY,
+                    AccountEntry.COLUMN_COMMODITY_UID,
+                    AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+                    AccountEntry.COLUMN_PLACEHOLDER,
+                    AccountEntry.COLUMN_HIDDEN,
+                    AccountEntry.COLUMN_FAVORITE
+                ),
+                AccountEntry.COLUMN_UID + " = ?", arrayOf(uid), null, null, null
+            )
+            try {
+                if (cursor.moveToFirst()) {
+                    BookMetadataCache.AccountMetadata(
+                        uid,
+                        cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_NAME)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_FULL_NAME)),
+                        AccountType.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_TYPE))),
+                        cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_CURRENCY)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_COMMODITY_UID)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_PARENT_ACCOUNT_UID)),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_PLACEHOLDER)) == 1,
+                        cursor.getInt(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_HIDDEN)) == 1,
+                        cursor.getInt(cursor.getColumnIndexOrThrow(AccountEntry.COLUMN_FAVORITE)) == 1
+                    )
+                } else {
+                    null
+                }
+            } finally {
+                cursor.close()
             }
-        } finally {
-            cursor.close()
         }
     }
 
@@ -596,6 +547,8 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * @return GUID of commodity
      */
     fun getCommodityUID(currencyCode: String): String {
+        val commodity = metadataCache.peekCommodity(currencyCode)
+        if (commodity != null) return commodity.mUID!!
         val where = CommodityEntry.COLUMN_MNEMONIC + "= ?"
         val whereArgs = arrayOf(currencyCode)
         val cursor = mDb.query(
@@ -620,21 +573,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * @throws java.lang.IllegalArgumentException if accountUID does not exist in DB,
      */
     fun getAccountType(accountUID: String): AccountType {
-        val type: String
-        val c = mDb.query(
-            AccountEntry.TABLE_NAME, arrayOf(AccountEntry.COLUMN_TYPE),
-            AccountEntry.COLUMN_UID + "=?", arrayOf(accountUID), null, null, null
-        )
-        type = try {
-            if (c.moveToFirst()) {
-                c.getString(c.getColumnIndexOrThrow(AccountEntry.COLUMN_TYPE))
-            } else {
-                throw IllegalArgumentException("account $accountUID does not exist in DB")
-            }
-        } finally {
-            c.close()
-        }
-        return AccountType.valueOf(type)
+        val account = getAccountMetadata(accountUID)
+            ?: throw IllegalArgumentException("account $accountUID does not exist in DB")
+        return account.accountType
     }
 
     /**
@@ -651,10 +592,12 @@ abstract class DatabaseAdapter<Model : BaseModel>(
         } else {
             contentValues.put(columnKey, newValue)
         }
-        return mDb.update(
+        val updated = mDb.update(
             tableName, contentValues,
             CommonColumns._ID + "=" + recordId, null
         )
+        onTableWritten(tableName)
+        return updated
     }
 
     /**
@@ -675,7 +618,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
      * @return Number of records updated
      */
     fun updateRecord(uid: String, contentValues: ContentValues): Int {
-        return mDb.update(mTableName, contentValues, CommonColumns.COLUMN_UID + "=?", arrayOf(uid))
+        val updated = mDb.update(mTableName, contentValues, CommonColumns.COLUMN_UID + "=?", arrayOf(uid))
+        onTableWritten(mTableName)
+        return updated
     }
 
     /**
@@ -693,7 +638,9 @@ abstract class DatabaseAdapter<Model : BaseModel>(
         } else {
             contentValues.put(columnKey, newValue)
         }
-        return mDb.update(mTableName, contentValues, where, whereArgs)
+        val updated = mDb.update(mTableName, contentValues, where, whereArgs)
+        onTableWritten(mTableName)
+        return updated
     }
 
     /**
@@ -767,6 +714,34 @@ abstract class DatabaseAdapter<Model : BaseModel>(
             return statement.simpleQueryForLong()
         }
 
+    /**
+     * Returns the change counter of the book, which increases with every committed write to its
+     * accounts, transactions, splits, commodities or prices
+     * @return Current value of the book change counter
+     */
+    val bookChangeCount: Long
+        get() = DatabaseUtils.longForQuery(
+            mDb, "SELECT " + BookChangeEntry.COLUMN_CHANGE_COUNT + " FROM " + BookChangeEntry.TABLE_NAME, null
+        )
+
+    /**
+     * To be called after writing to a table of the book, also by the importers which write with their own statements.
+     *
+     * Drops the cached metadata read from the table and, if reports are generated from the table,
+     * increases the book change counter once, whatever the number of rows written.
+     * Within a database transaction, the counter is committed or rolled back with the writes
+     * @param tableName Name of the table which was written
+     */
+    fun onTableWritten(tableName: String?) {
+        metadataCache.invalidate(tableName)
+        if (tableName in BOOK_CHANGE_TABLES) {
+            mDb.execSQL(
+                "UPDATE " + BookChangeEntry.TABLE_NAME + " SET " + BookChangeEntry.COLUMN_CHANGE_COUNT
+                        + " = " + BookChangeEntry.COLUMN_CHANGE_COUNT + " + 1"
+            )
+        }
+    }
+
     /**
      * Expose mDb.beginTransaction()
      */
@@ -796,9 +771,20 @@ abstract class DatabaseAdapter<Model : BaseModel>(
     }
 
     /**
-     * Expose mDb.endTransaction()
+     * Expose mDb.endTransaction(), and drops the cached metadata written by the transaction once it has ended
      */
     fun endTransaction() {
         mDb.endTransaction()
+        metadataCache.onTransactionEnded()
+    }
+
+    companion object {
+        /**
+         * Tables from which the reports are generated, whose writes are counted by the book change counter
+         */
+        private val BOOK_CHANGE_TABLES = setOf(
+            AccountEntry.TABLE_NAME, TransactionEntry.TABLE_NAME, SplitEntry.TABLE_NAME,
+            CommodityEntry.TABLE_NAME, PriceEntry.TABLE_NAME
+        )
     }
-}
\ No newline at end of file
+}
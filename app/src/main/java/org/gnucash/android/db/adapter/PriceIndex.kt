@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Pair
+import org.gnucash.android.db.DatabaseSchema.PriceEntry
+import org.gnucash.android.util.TimestampHelper
+import java.math.BigInteger
+import java.util.ArrayDeque
+import java.util.Arrays
+
+/**
+ * In-memory index of all the prices of a book, for converting amounts between commodities at any date.
+ *
+ * The prices of each commodity / currency pair are kept sorted by date, so that the price in effect at a date
+ * is found by binary search. When no price exists between two commodities, the conversion goes through
+ * the shortest chain of commodities which have prices between them, e.g. from a stock priced in USD to EUR.
+ *
+ * The index is immutable. It is built by [PricesDbAdapter] on first use and kept in the [BookMetadataCache]
+ * of the book until the prices table is written.
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class PriceIndex private constructor(private val mSeries: Map<String, Map<String, Series>>) {
+    /**
+     * Prices of one commodity in one currency, sorted by date
+     */
+    private class Series(val dates: LongArray, val valueNums: LongArray, val valueDenoms: LongArray) {
+        /**
+         * Returns the index of the price in effect at the date: the latest one not after the date,
+         * or the earliest one if all the prices are after the date
+         */
+        fun indexAsOf(date: Long): Int {
+            val index = Arrays.binarySearch(dates, date)
+            if (index >= 0) {
+                //the last of the prices with the same date
+                var last = index
+                while (last + 1 < dates.size && dates[last + 1] == date) last++
+                return last
+            }
+            val insertionPoint = -index - 1
+            return if (insertionPoint == 0) 0 else insertionPoint - 1
+        }
+    }
+
+    /**
+     * Returns the rate for converting from the commodity to the currency at the date.
+     *
+     * The price stored for the pair or for the inverted pair is used, whichever is the latest at the date.
+     * If there is none, the rate is the product of the rates along the shortest chain of priced pairs.
+     * @param commodityUID GUID of the commodity which is starting point for conversion
+     * @param currencyUID GUID of target commodity for the conversion
+     * @param date Timestamp at which the price should be in effect, `Long.MAX_VALUE` for the latest price
+     * @return The numerator/denominator pair of the rate, or (0, 0) if the commodities are not connected by prices
+     */
+    fun getPrice(commodityUID: String, currencyUID: String, date: Long): Pair<Long, Long> {
+        if (commodityUID == currencyUID) {
+            return Pair(1L, 1L)
+        }
+        val direct = getDirectRate(commodityUID, currencyUID, date)
+        if (direct != null) {
+            return toPair(direct[0], direct[1])
+        }
+        val path = findPath(commodityUID, currencyUID) ?: return Pair(0L, 0L)
+        var num = BigInteger.ONE
+        var denom = BigInteger.ONE
+        for (i in 0 until path.size - 1) {
+            val rate = getDirectRate(path[i], path[i + 1], date)!!
+            num = num.multiply(BigInteger.valueOf(rate[0]))
+            denom = denom.multiply(BigInteger.valueOf(rate[1]))
+        }
+        return toPair(num, denom)
+    }
+
+    /**
+     * Returns the rate from the prices between the two commodities only, as numerator and denominator,
+     * or null if there is no such price
+     */
+    private fun getDirectRate(fromUID: String, toUID: String, date: Long): LongArray? {
+        val forward = mSeries[fromUID]?.get(toUID)
+        val backward = mSeries[toUID]?.get(fromUID)
+        if (forward == null && backward == null) {
+            return null
+        }
+        val forwardIndex = forward?.indexAsOf(date) ?: -1
+        val backwardIndex = backward?.indexAsOf(date) ?: -1
+        val useForward = when {
+            backward == null -> true
+            forward == null -> false
+            else -> isBetter(forward.dates[forwardIndex], backward.dates[backwardIndex], date)
+        }
+        return if (useForward) {
+            longArrayOf(forward!!.valueNums[forwardIndex], forward.valueDenoms[forwardIndex])
+        } else {
+            //inverted price
+            longArrayOf(backward!!.valueDenoms[backwardIndex], backward.valueNums[backwardIndex])
+        }
+    }
+
+    /**
+     * Returns true if the price at `first` is preferable to the price at `second` for the date:
+     * prices not after the date win over later ones, then the closest to the date wins
+     */
+    private fun isBetter(first: Long, second: Long, date: Long): Boolean {
+        val firstInEffect = first <= date
+        val secondInEffect = second <= date
+        if (firstInEffect != secondInEffect) {
+            return firstInEffect
+        }
+        return if (firstInEffect) first >= second else first <= second
+    }
+
+    /**
+     * Returns the shortest chain of commodities from one commodity to another, where each consecutive pair
+     * has prices in one direction or the other, or null if there is none
+     */
+    private fun findPath(fromUID: String, toUID: String): List<String>? {
+        val previous = HashMap<String, String>()
+        previous[fromUID] = fromUID
+        val queue = ArrayDeque<String>()
+        queue.add(fromUID)
+        while (queue.isNotEmpty()) {
+            val commodityUID = queue.poll()!!
+            for (neighbourUID in getNeighbours(commodityUID)) {
+                if (previous.containsKey(neighbourUID)) continue
+                previous[neighbourUID] = commodityUID
+                if (neighbourUID == toUID) {
+                    val path = ArrayList<String>()
+                    var uid = toUID
+                    while (uid != fromUID) {
+                        path.add(uid)
+                        uid = previous[uid]!!
+                    }
+                    path.add(fromUID)
+                    path.reverse()
+                    return path
+                }
+                queue.add(neighbourUID)
+            }
+        }
+        return null
+    }
+
+    private fun getNeighbours(commodityUID: String): Set<String> {
+        val neighbours = HashSet<String>()
+        mSeries[commodityUID]?.let { neighbours.addAll(it.keys) }
+        for ((fromUID, series) in mSeries) {
+            if (series.containsKey(commodityUID)) neighbours.add(fromUID)
+        }
+        return neighbours
+    }
+
+    companion object {
+        /**
+         * Reads all the prices of the book into a new index
+         * @param db Database of the book
+         * @return Index of the prices
+         */
+        @JvmStatic
+        fun load(db: SQLiteDatabase): PriceIndex {
+            class Entry(val date: Long, val valueNum: Long, val valueDenom: Long)
+
+            val entries = HashMap<String, HashMap<String, ArrayList<Entry>>>()
+            val cursor = db.query(
+                PriceEntry.TABLE_NAME,
+                arrayOf(
+                    PriceEntry.COLUMN_COMMODITY_UID, PriceEntry.COLUMN_CURRENCY_UID, PriceEntry.COLUMN_DATE,
+                    PriceEntry.COLUMN_VALUE_NUM, PriceEntry.COLUMN_VALUE_DENOM
+                ),
+                null, null, null, null, null
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    val valueNum = cursor.getLong(3)
+                    val valueDenom = cursor.getLong(4)
+                    if (valueNum <= 0 || valueDenom <= 0) {
+                        // this should not happen
+                        continue
+                    }
+                    val date = TimestampHelper.getTimestampFromUtcString(cursor.getString(2)).time
+                    entries.getOrPut(cursor.getString(0)) { HashMap() }
+                        .getOrPut(cursor.getString(1)) { ArrayList() }
+                        .add(Entry(date, valueNum, valueDenom))
+                }
+            } finally {
+                cursor.close()
+            }
+            val series = HashMap<String, Map<String, Series>>()
+            for ((commodityUID, currencies) in entries) {
+                val commoditySeries = HashMap<String, Series>()
+                for ((currencyUID, prices) in currencies) {
+                    //stable sort, so that the last stored of the prices with the same date comes last
+                    prices.sortBy { it.date }
+                    commoditySeries[currencyUID] = Series(
+                        LongArray(prices.size) { prices[it].date },
+                        LongArray(prices.size) { prices[it].valueNum },
+                        LongArray(prices.size) { prices[it].valueDenom }
+                    )
+                }
+                series[commodityUID] = commoditySeries
+            }
+            return PriceIndex(series)
+        }
+
+        /**
+         * Reduces the rate and approximates it if it does not fit in longs
+         */
+        private fun toPair(num: Long, denom: Long): Pair<Long, Long> {
+            return toPair(BigInteger.valueOf(num), BigInteger.valueOf(denom))
+        }
+
+        private fun toPair(num: BigInteger, denom: BigInteger): Pair<Long, Long> {
+            val gcd = num.gcd(denom)
+            var reducedNum = num.divide(gcd)
+            var reducedDenom = denom.divide(gcd)
+            if (reducedNum.bitLength() > 62 || reducedDenom.bitLength() > 62) {
+                //round to a power of two denominator, keeping about 61 significant bits of the rate
+                val shift = (61 - reducedNum.divide(reducedDenom).bitLength()).coerceAtLeast(0)
+                reducedNum = reducedNum.shiftLeft(shift).add(reducedDenom.shiftRight(1)).divide(reducedDenom)
+                    .max(BigInteger.ONE)
+                reducedDenom = BigInteger.ONE.shiftLeft(shift)
+            }
+            return Pair(reducedNum.toLong(), reducedDenom.toLong())
+        }
+    }
+}
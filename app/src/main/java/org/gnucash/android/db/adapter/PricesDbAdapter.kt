@@ -81,7 +81,13 @@ class PricesDbAdapter
     }
 
     /**
-     * Get the price for commodity / currency pair.
+     * Index of all the prices of the book, loaded on first use and dropped when the prices are written
+     */
+    val priceIndex: PriceIndex
+        get() = metadataCache.getPriceIndex { PriceIndex.load(mDb) }
+
+    /**
+     * Get the latest price for commodity / currency pair.
      * The price can be used to convert from one commodity to another. The 'commodity' is the origin and the 'currency' is the target for the conversion.
      *
      *
@@ -92,45 +98,24 @@ class PricesDbAdapter
      * @param currencyUID GUID of target commodity for the conversion
      *
      * @return The numerator/denominator pair for commodity / currency pair
+     * @see getPrice
      */
     fun getPrice(commodityUID: String, currencyUID: String): Pair<Long, Long> {
-        val pairZero = Pair(0L, 0L)
-        if (commodityUID == currencyUID) {
-            return Pair(1L, 1L)
-        }
-        val cursor = mDb.query(
-            PriceEntry.TABLE_NAME,
-            null,  // the commodity and currency can be swapped
-            "( " + PriceEntry.COLUMN_COMMODITY_UID + " = ? AND " + PriceEntry.COLUMN_CURRENCY_UID + " = ? ) OR ( "
-                    + PriceEntry.COLUMN_COMMODITY_UID + " = ? AND " + PriceEntry.COLUMN_CURRENCY_UID + " = ? )",
-            arrayOf(commodityUID, currencyUID, currencyUID, commodityUID),
-            null,
-            null,  // only get the latest price
-            PriceEntry.COLUMN_DATE + " DESC",
-            "1"
-        )
-        return try {
-            if (cursor.moveToNext()) {
-                val commodityUIDdb = cursor.getString(cursor.getColumnIndexOrThrow(PriceEntry.COLUMN_COMMODITY_UID))
-                var valueNum = cursor.getLong(cursor.getColumnIndexOrThrow(PriceEntry.COLUMN_VALUE_NUM))
-                var valueDenom = cursor.getLong(cursor.getColumnIndexOrThrow(PriceEntry.COLUMN_VALUE_DENOM))
-                if (valueNum < 0 || valueDenom < 0) {
-                    // this should not happen
-                    return pairZero
-                }
-                if (commodityUIDdb != commodityUID) {
-                    // swap Num and denom
-                    val t = valueNum
-                    valueNum = valueDenom
-                    valueDenom = t
-                }
-                Pair(valueNum, valueDenom)
-            } else {
-                pairZero
-            }
-        } finally {
-            cursor.close()
-        }
+        return getPrice(commodityUID, currencyUID, Long.MAX_VALUE)
+    }
+
+    /**
+     * Get the price for commodity / currency pair in effect at a date, i.e. the latest price not after the date.
+     *
+     * If there is no price between the two commodities, they are converted through other commodities,
+     * e.g. a stock priced in USD is converted to EUR with the USD / EUR price. See [PriceIndex.getPrice]
+     * @param commodityUID GUID of the commodity which is starting point for conversion
+     * @param currencyUID GUID of target commodity for the conversion
+     * @param timestamp Date of the price, `Long.MAX_VALUE` for the latest price
+     * @return The numerator/denominator pair for commodity / currency pair, (0, 0) if there is no price
+     */
+    fun getPrice(commodityUID: String, currencyUID: String, timestamp: Long): Pair<Long, Long> {
+        return priceIndex.getPrice(commodityUID, currencyUID, timestamp)
     }
 
     companion object {
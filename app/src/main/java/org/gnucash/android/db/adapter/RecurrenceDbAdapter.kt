@@ -85,7 +85,7 @@ class RecurrenceDbAdapter
          * @param byDays list of days of week constants from Calendar
          * @return String of days of the week or null if `byDays` was empty
          */
-        private fun byDaysToString(byDays: List<Int>): String {
+        fun byDaysToString(byDays: List<Int>): String {
             val builder = StringBuilder()
             for (day in byDays) {
                 when (day) {
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.Cursor
+import android.database.CursorWrapper
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.MoneyFormatter
+import java.math.BigDecimal
+
+/**
+ * Cursor over the transactions of an account, as shown in the account register.
+ *
+ * Besides the transaction columns, each row has the amount of the transaction for the account
+ * ([COLUMN_AMOUNT]) and the balance of the account after the transaction ([COLUMN_RUNNING_BALANCE]),
+ * both in the smallest units of the account commodity. The running balances are computed once,
+ * when the cursor is created, by summing up the amounts of the rows from the oldest to the newest.
+ * @param cursor Transactions of the account, newest first, with the [COLUMN_AMOUNT] column
+ * @param mCommodity Commodity of the account
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see TransactionsDbAdapter.fetchRegisterForAccount
+ */
+class RegisterCursor(cursor: Cursor, private val mCommodity: Commodity) : CursorWrapper(cursor) {
+    private val mAmountColumn = cursor.getColumnIndexOrThrow(COLUMN_AMOUNT)
+    private val mRunningBalanceColumn = cursor.columnCount
+    private val mRunningBalances = LongArray(cursor.count)
+
+    init {
+        //the amounts are read in one forward pass, which windowed cursors do without refilling their window
+        while (cursor.moveToNext()) {
+            mRunningBalances[cursor.position] = cursor.getLong(mAmountColumn)
+        }
+        cursor.moveToPosition(-1)
+        //the rows are ordered from the newest, so the balances are summed up from the last row backwards
+        var balance = 0L
+        for (position in mRunningBalances.indices.reversed()) {
+            balance += mRunningBalances[position]
+            mRunningBalances[position] = balance
+        }
+    }
+
+    /**
+     * Amount of the transaction of the current row for the account
+     */
+    val amount: Money
+        get() = toMoney(getLong(mAmountColumn))
+
+    /**
+     * Balance of the account after the transaction of the current row
+     */
+    val runningBalance: Money
+        get() = toMoney(mRunningBalances[position])
+
+    /**
+     * Balance of the account after the transaction of the current row, formatted with the currency symbol
+     * without creating a [Money]
+     */
+    val formattedRunningBalance: String
+        get() = MoneyFormatter.format(mRunningBalances[position], mCommodity)
+
+    private fun toMoney(units: Long): Money {
+        return Money(BigDecimal.valueOf(units, mCommodity.smallestFractionDigits()), mCommodity)
+    }
+
+    override fun getColumnCount(): Int {
+        return mRunningBalanceColumn + 1
+    }
+
+    override fun getColumnIndex(columnName: String): Int {
+        return if (columnName == COLUMN_RUNNING_BALANCE) mRunningBalanceColumn else super.getColumnIndex(columnName)
+    }
+
+    override fun getColumnIndexOrThrow(columnName: String): Int {
+        return if (columnName == COLUMN_RUNNING_BALANCE) mRunningBalanceColumn else super.getColumnIndexOrThrow(columnName)
+    }
+
+    override fun getColumnName(columnIndex: Int): String {
+        return if (columnIndex == mRunningBalanceColumn) COLUMN_RUNNING_BALANCE else super.getColumnName(columnIndex)
+    }
+
+    override fun getColumnNames(): Array<String> {
+        return arrayOf(*super.getColumnNames(), COLUMN_RUNNING_BALANCE)
+    }
+
+    override fun getType(columnIndex: Int): Int {
+        return if (columnIndex == mRunningBalanceColumn) FIELD_TYPE_INTEGER else super.getType(columnIndex)
+    }
+
+    override fun isNull(columnIndex: Int): Boolean {
+        return if (columnIndex == mRunningBalanceColumn) false else super.isNull(columnIndex)
+    }
+
+    override fun getLong(columnIndex: Int): Long {
+        return if (columnIndex == mRunningBalanceColumn) mRunningBalances[position] else super.getLong(columnIndex)
+    }
+
+    override fun getInt(columnIndex: Int): Int {
+        return if (columnIndex == mRunningBalanceColumn) mRunningBalances[position].toInt() else super.getInt(columnIndex)
+    }
+
+    override fun getDouble(columnIndex: Int): Double {
+        return if (columnIndex == mRunningBalanceColumn) mRunningBalances[position].toDouble() else super.getDouble(columnIndex)
+    }
+
+    override fun getString(columnIndex: Int): String? {
+        return if (columnIndex == mRunningBalanceColumn) mRunningBalances[position].toString() else super.getString(columnIndex)
+    }
+
+    companion object {
+        /**
+         * Amount of the transaction for the account, in the smallest units of the account commodity
+         */
+        const val COLUMN_AMOUNT = "register_amount"
+
+        /**
+         * Balance of the account after the transaction, in the smallest units of the account commodity
+         */
+        const val COLUMN_RUNNING_BALANCE = "running_balance"
+
+        /**
+         * Full name of the other account of a transaction with two splits which balance each other, else null
+         */
+        const val COLUMN_TRANSFER_ACCOUNT_NAME = "transfer_account_full_name"
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.MoneyAccumulator
+
+/**
+ * Sums of split quantities by account, period and commodity, before any conversion between commodities.
+ *
+ * The sums are kept in the units of the split quantities, debits positive, so that aggregates read by
+ * separate queries can be merged, and balances over several periods converted once with the prices of any date.
+ * Instances are not thread-safe: each query fills its own aggregate, which are then merged with [addAll]
+ * @param periodCount Number of periods
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class SplitAggregate(val periodCount: Int) {
+    private val mSums = HashMap<String, Array<MoneyAccumulator?>>()
+    private val mAccountTypes = HashMap<String, AccountType>()
+
+    /**
+     * GUIDs of the accounts which have sums in the aggregate
+     */
+    val accountUIDs: Set<String>
+        get() = mSums.keys
+
+    /**
+     * Adds a sum of split quantities of an account
+     * @param accountUID GUID of the account
+     * @param accountType Type of the account, which gives the sign of its balance
+     * @param period Index of the period
+     * @param commodityCode Mnemonic of the commodity of the account
+     * @param quantityDenom Denominator of the quantities
+     * @param quantityNum Sum of the numerators of the quantities, debits positive
+     */
+    fun add(
+        accountUID: String, accountType: AccountType, period: Int, commodityCode: String,
+        quantityDenom: Long, quantityNum: Long
+    ) {
+        if (quantityNum == 0L) {
+            return
+        }
+        mAccountTypes[accountUID] = accountType
+        getSums(accountUID, period).add(quantityNum, quantityDenom, commodityCode)
+    }
+
+    /**
+     * Adds all the sums of another aggregate, moving its periods by an offset
+     * @param other Aggregate to add
+     * @param periodOffset Index in this aggregate of the first period of the other aggregate
+     */
+    fun addAll(other: SplitAggregate, periodOffset: Int = 0) {
+        for ((accountUID, sums) in other.mSums) {
+            mAccountTypes[accountUID] = other.mAccountTypes[accountUID]!!
+            for (period in sums.indices) {
+                val periodSums = sums[period] ?: continue
+                getSums(accountUID, period + periodOffset).addAll(periodSums)
+            }
+        }
+    }
+
+    private fun getSums(accountUID: String, period: Int): MoneyAccumulator {
+        val sums = mSums.getOrPut(accountUID) { arrayOfNulls(periodCount) }
+        var periodSums = sums[period]
+        if (periodSums == null) {
+            periodSums = MoneyAccumulator()
+            sums[period] = periodSums
+        }
+        return periodSums
+    }
+
+    /**
+     * Returns the balance of accounts over a range of periods, with the normal sign of each account type.
+     *
+     * The quantities of all the accounts and periods are added up per commodity before being converted
+     * @param accountUIDs GUIDs of the accounts
+     * @param periods Indexes of the periods
+     * @param converter Converter to the currency of the balance
+     * @param timestamp Date of the prices for the conversion, `Long.MAX_VALUE` for the latest prices
+     * @return Balance converted to the currency of the converter
+     */
+    fun getBalance(
+        accountUIDs: Collection<String>, periods: IntRange, converter: SplitsDbAdapter.BalanceConverter,
+        timestamp: Long
+    ): Money {
+        val totals = MoneyAccumulator()
+        for (accountUID in accountUIDs) {
+            val sums = mSums[accountUID] ?: continue
+            val isDebitAccount = mAccountTypes[accountUID]!!.hasDebitNormalBalance()
+            for (period in periods) {
+                val periodSums = sums[period] ?: continue
+                totals.addAll(periodSums, !isDebitAccount)
+            }
+        }
+        return converter.convertAll(totals, timestamp)
+    }
+}
@@ -23,18 +23,28 @@ import android.database.sqlite.SQLiteQueryBuilder
 import android.database.sqlite.SQLiteStatement
 import android.text.TextUtils
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import org.gnucash.android.app.GnuCashApplication
+import org.gnucash.android.db.DatabaseHelper
 import org.gnucash.android.db.DatabaseSchema
+import org.gnucash.android.db.DatabaseSchema.AccountBalanceEntry
+import org.gnucash.android.db.DatabaseSchema.AccountClosureEntry
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.BalanceSnapshotEntry
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry
 import org.gnucash.android.db.DatabaseSchema.SplitEntry
 import org.gnucash.android.db.DatabaseSchema.TransactionEntry
 import org.gnucash.android.model.Commodity
 import org.gnucash.android.model.Money
-import org.gnucash.android.model.Money.Companion.createZeroInstance
 import org.gnucash.android.model.Money.Companion.getBigDecimal
+import org.gnucash.android.model.MoneyAccumulator
+import org.gnucash.android.model.AccountType
 import org.gnucash.android.model.Split
 import org.gnucash.android.model.TransactionType
 import org.gnucash.android.util.TimestampHelper
+import org.joda.time.LocalDate
 import java.math.BigDecimal
+import java.util.TreeSet
 
 /**
  * Database adapter for managing transaction splits in the database
@@ -56,7 +66,9 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         SplitEntry.COLUMN_RECONCILE_STATE,
         SplitEntry.COLUMN_RECONCILE_DATE,
         SplitEntry.COLUMN_ACCOUNT_UID,
-        SplitEntry.COLUMN_TRANSACTION_UID
+        SplitEntry.COLUMN_TRANSACTION_UID,
+        SplitEntry.COLUMN_ACCOUNT_ID,
+        SplitEntry.COLUMN_TRANSACTION_ID
     )
 ) {
     /**
@@ -98,14 +110,30 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         stmt.bindString(9, model.mReconcileDate.toString())
         stmt.bindString(10, model.mAccountUID)
         stmt.bindString(11, model.mTransactionUID)
-        stmt.bindString(12, model.mUID)
+        // the row IDs are looked up from the GUIDs, see getColumnValueSql()
+        stmt.bindString(12, model.mAccountUID)
+        stmt.bindString(13, model.mTransactionUID)
+        stmt.bindString(14, model.mUID)
         return stmt
     }
 
+    /**
+     * The integer account and transaction keys of a split are looked up from the GUIDs bound for them
+     */
+    override fun getColumnValueSql(column: String): String {
+        return when (column) {
+            SplitEntry.COLUMN_ACCOUNT_ID -> DatabaseHelper.rowIdOf(DatabaseSchema.AccountEntry.TABLE_NAME, "?")
+            SplitEntry.COLUMN_TRANSACTION_ID -> DatabaseHelper.rowIdOf(TransactionEntry.TABLE_NAME, "?")
+            else -> super.getColumnValueSql(column)
+        }
+    }
+
     /**
      * Builds a split instance from the data pointed to by the cursor provided
      *
-     * This method will not move the cursor in any way. So the cursor should already by pointing to the correct entry
+     * This method will not move the cursor in any way. So the cursor should already by pointing to the correct entry.
+     * If the cursor was obtained with [fetchSplitsWithCurrencies], the transaction and account currencies
+     * are read from the cursor, otherwise they are looked up in the database
      * @param cursor Cursor pointing to transaction record in database
      * @return [org.gnucash.android.model.Split] instance
      */
@@ -120,9 +148,13 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         val memo = cursor.getString(cursor.getColumnIndexOrThrow(SplitEntry.COLUMN_MEMO))
         val reconcileState = cursor.getString(cursor.getColumnIndexOrThrow(SplitEntry.COLUMN_RECONCILE_STATE))
         val reconcileDate = cursor.getString(cursor.getColumnIndexOrThrow(SplitEntry.COLUMN_RECONCILE_DATE))
-        val transactionCurrency = getAttribute(TransactionEntry.TABLE_NAME, transxUID, TransactionEntry.COLUMN_CURRENCY)
+        val transactionCurrencyIndex = cursor.getColumnIndex(COLUMN_TRANSACTION_CURRENCY)
+        val transactionCurrency = if (transactionCurrencyIndex >= 0) cursor.getString(transactionCurrencyIndex)
+        else getAttribute(TransactionEntry.TABLE_NAME, transxUID, TransactionEntry.COLUMN_CURRENCY)
         val value = Money(valueNum, valueDenom, transactionCurrency)
-        val currencyCode = getAccountCurrencyCode(accountUID)
+        val accountCurrencyIndex = cursor.getColumnIndex(COLUMN_ACCOUNT_CURRENCY)
+        val currencyCode = if (accountCurrencyIndex >= 0) cursor.getString(accountCurrencyIndex)
+        else getAccountCurrencyCode(accountUID)
         val quantity = Money(quantityNum, quantityDenom, currencyCode)
         val split = Split(value, accountUID)
         split.mQuantity = quantity
@@ -171,6 +203,27 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         return calculateSplitBalance(accountUIDList, currencyCode, hasDebitNormalBalance, startTimestamp, endTimestamp)
     }
 
+    /**
+     * Returns the sum of the splits of an account and all its descendant accounts within the specified time range.
+     * The sub-accounts are resolved with the account closure table, so no account list needs to be built.
+     * The Caller must make sure all accounts have the currency, which is passed in as currencyCode
+     * @param accountUID GUID of the top account of the subtree
+     * @param currencyCode currencyCode for all the accounts in the subtree
+     * @param hasDebitNormalBalance Does the final balance has normal debit credit meaning
+     * @param startTimestamp the start timestamp of the time range, -1 for no lower bound
+     * @param endTimestamp the end timestamp of the time range, -1 for no upper bound
+     * @return Balance of the splits for the account subtree within the specified time range
+     */
+    fun computeSubtreeSplitBalance(
+        accountUID: String, currencyCode: String, hasDebitNormalBalance: Boolean,
+        startTimestamp: Long, endTimestamp: Long
+    ): Money {
+        return calculateSplitBalance(
+            ACCOUNT_SUBTREE_SELECTION, arrayOf(accountUID), currencyCode, hasDebitNormalBalance,
+            startTimestamp, endTimestamp
+        )
+    }
+
     private fun calculateSplitBalance(
         accountUIDList: List<String?>, currencyCode: String, hasDebitNormalBalance: Boolean,
         startTimestamp: Long, endTimestamp: Long
@@ -178,25 +231,63 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         if (accountUIDList.isEmpty()) {
             return Money("0", currencyCode)
         }
-        val cursor: Cursor
-        var selectionArgs: Array<String>? = null
+        val accountSelection = " IN ( '" + TextUtils.join("' , '", accountUIDList) + "' )"
+        return calculateSplitBalance(
+            accountSelection, arrayOf(), currencyCode, hasDebitNormalBalance,
+            startTimestamp, endTimestamp
+        )
+    }
+
+    /**
+     * Computes the balance of the accounts whose GUID satisfies `accountSelection`
+     * @param accountSelection SQL membership condition for the account GUID, e.g. " IN ( ... )"
+     * @param accountSelectionArgs Arguments of the placeholders in `accountSelection`
+     */
+    private fun calculateSplitBalance(
+        accountSelection: String, accountSelectionArgs: Array<String>, currencyCode: String,
+        hasDebitNormalBalance: Boolean, startTimestamp: Long, endTimestamp: Long
+    ): Money {
+        if (startTimestamp == -1L && endTimestamp == -1L) {
+            return sumBalanceRows(
+                fetchAccountBalances(accountSelection, accountSelectionArgs),
+                currencyCode, hasDebitNormalBalance, Long.MAX_VALUE
+            )
+        }
+        if (startTimestamp == -1L) {
+            return calculateBalanceAsOf(
+                accountSelection, accountSelectionArgs, currencyCode, hasDebitNormalBalance, endTimestamp
+            )
+        }
+        var selectionArgs: Array<String> = accountSelectionArgs + startTimestamp.toString()
+        if (endTimestamp != -1L) {
+            selectionArgs += endTimestamp.toString()
+        }
+        val cursor = mDb.rawQuery(splitBalanceSql(accountSelection, endTimestamp != -1L), selectionArgs)
+        //balances up to a date are converted with the prices in effect at that date
+        val priceTimestamp = if (endTimestamp == -1L) Long.MAX_VALUE else endTimestamp
+        return sumBalanceRows(cursor, currencyCode, hasDebitNormalBalance, priceTimestamp)
+    }
+
+    /**
+     * Returns the SQL query of the balance of the accounts from a date, summed up from their splits.
+     *
+     * Its parameters are those of `accountSelection`, followed by the start timestamp and,
+     * if `hasEndTimestamp`, the end timestamp
+     * @param accountSelection SQL membership condition for the account GUID
+     * @param hasEndTimestamp Whether the splits are also limited to an end timestamp
+     */
+    @VisibleForTesting
+    fun splitBalanceSql(accountSelection: String, hasEndTimestamp: Boolean): String {
         var selection =
-            DatabaseSchema.AccountEntry.TABLE_NAME + "_" + DatabaseSchema.CommonColumns.COLUMN_UID + " in ( '" + TextUtils.join(
-                "' , '",
-                accountUIDList
-            ) + "' ) AND " +
+            DatabaseSchema.AccountEntry.TABLE_NAME + "_" + DatabaseSchema.CommonColumns.COLUMN_UID + accountSelection + " AND " +
                     TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TEMPLATE + " = 0"
-        if (startTimestamp != -1L && endTimestamp != -1L) {
-            selection += " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " BETWEEN ? AND ? "
-            selectionArgs = arrayOf(startTimestamp.toString(), endTimestamp.toString())
-        } else if (startTimestamp == -1L && endTimestamp != -1L) {
-            selection += " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " <= ?"
-            selectionArgs = arrayOf(endTimestamp.toString())
-        } else if (startTimestamp != -1L /* && endTimestamp == -1*/) {
-            selection += " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " >= ?"
-            selectionArgs = arrayOf(startTimestamp.toString())
+        selection += if (hasEndTimestamp) {
+            " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " BETWEEN ? AND ? "
+        } else {
+            " AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TIMESTAMP + " >= ?"
         }
-        cursor = mDb.query(
+        return SQLiteQueryBuilder.buildQueryString(
+            false,
             "trans_split_acct",
             arrayOf(
                 "TOTAL ( CASE WHEN " + SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN " +
@@ -206,60 +297,424 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
                 DatabaseSchema.AccountEntry.TABLE_NAME + "_" + DatabaseSchema.AccountEntry.COLUMN_CURRENCY
             ),
             selection,
-            selectionArgs,
             DatabaseSchema.AccountEntry.TABLE_NAME + "_" + DatabaseSchema.AccountEntry.COLUMN_CURRENCY,
             null,
+            null,
+            null
+        )
+    }
+
+    /**
+     * Computes the balance of the accounts at a date from the latest balance checkpoint of each account
+     * not after the date, and the splits dated between the checkpoint and the date.
+     *
+     * The balance of an account without a checkpoint before the date is summed up from all its splits.
+     * Nothing is written, the checkpoints are created by [updateBalanceCheckpoints]
+     * @param accountSelection SQL membership condition for the account GUID
+     * @param accountSelectionArgs Arguments of the placeholders in `accountSelection`
+     * @param endTimestamp Date of the balance, inclusive
+     * @see BalanceSnapshotEntry
+     */
+    private fun calculateBalanceAsOf(
+        accountSelection: String, accountSelectionArgs: Array<String>, currencyCode: String,
+        hasDebitNormalBalance: Boolean, endTimestamp: Long
+    ): Money {
+        val cursor = mDb.rawQuery(
+            balanceAsOfSql(accountSelection, endTimestamp), accountSelectionArgs + accountSelectionArgs
+        )
+        //balances up to a date are converted with the prices in effect at that date
+        return sumBalanceRows(cursor, currencyCode, hasDebitNormalBalance, endTimestamp)
+    }
+
+    /**
+     * Returns the SQL query of [calculateBalanceAsOf]. Its parameters are those of `accountSelection`, twice
+     * @param accountSelection SQL membership condition for the account GUID
+     * @param endTimestamp Date of the balance, inclusive
+     */
+    @VisibleForTesting
+    fun balanceAsOfSql(accountSelection: String, endTimestamp: Long): String {
+        return ("SELECT SUM ( b.quantity_num ) , b.quantity_denom , " + CommodityEntry.TABLE_NAME + "."
+                + CommodityEntry.COLUMN_MNEMONIC + " FROM ( " + balanceRowsQuery(accountSelection, endTimestamp)
+                + " ) b INNER JOIN " + CommodityEntry.TABLE_NAME + " ON " + CommodityEntry.TABLE_NAME + "."
+                + CommodityEntry.COLUMN_UID + " = b.commodity_uid GROUP BY " + CommodityEntry.TABLE_NAME + "."
+                + CommodityEntry.COLUMN_MNEMONIC + " , b.quantity_denom")
+    }
+
+    /**
+     * Returns the sums of the split quantities of each account in consecutive periods, without converting them,
+     * read with one grouped query by [BalanceMatrixQuery]
+     * @param accountUIDs GUIDs of the accounts
+     * @param periodStarts Start timestamps of the periods in ascending order
+     * @param endTimestamp End timestamp of the last period, inclusive
+     * @return Aggregate of the accounts per period
+     */
+    fun aggregateBalances(accountUIDs: Collection<String>, periodStarts: LongArray, endTimestamp: Long): SplitAggregate {
+        return BalanceMatrixQuery(mDb, this, GnuCashApplication.defaultCurrencyCode!!, periodStarts, endTimestamp)
+            .aggregate(accountUIDs)
+    }
+
+    /**
+     * Returns the sums of the split quantities of each account up to a date, without converting them,
+     * computed like [calculateBalanceAsOf] from the balance checkpoints
+     * @param accountUIDs GUIDs of the accounts
+     * @param endTimestamp Date of the balances, inclusive
+     * @return Aggregate of the accounts with the single period 0
+     */
+    fun aggregateBalancesAsOf(accountUIDs: Collection<String>, endTimestamp: Long): SplitAggregate {
+        val aggregate = SplitAggregate(1)
+        for (batch in accountUIDs.distinct().chunked(MAX_BATCH_SIZE)) {
+            val accountSelection = " IN ( " + batch.joinToString(" , ") { "?" } + " )"
+            val accountSelectionArgs = batch.toTypedArray()
+            val cursor = mDb.rawQuery(
+                "SELECT b.account_uid , " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE + " , "
+                        + CommodityEntry.TABLE_NAME + "." + CommodityEntry.COLUMN_MNEMONIC
+                        + " , b.quantity_denom , SUM ( b.quantity_num ) FROM ( "
+                        + balanceRowsQuery(accountSelection, endTimestamp) + " ) b"
+                        + " INNER JOIN " + CommodityEntry.TABLE_NAME + " ON " + CommodityEntry.TABLE_NAME + "."
+                        + CommodityEntry.COLUMN_UID + " = b.commodity_uid"
+                        + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON " + AccountEntry.TABLE_NAME + "."
+                        + AccountEntry.COLUMN_UID + " = b.account_uid"
+                        + " GROUP BY b.account_uid , " + CommodityEntry.TABLE_NAME + "."
+                        + CommodityEntry.COLUMN_MNEMONIC + " , b.quantity_denom",
+                accountSelectionArgs + accountSelectionArgs
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    aggregate.add(
+                        cursor.getString(0), AccountType.valueOf(cursor.getString(1)), 0,
+                        cursor.getString(2), cursor.getLong(3), cursor.getLong(4)
+                    )
+                }
+            } finally {
+                cursor.close()
+            }
+        }
+        return aggregate
+    }
+
+    /**
+     * Creates the missing balance checkpoints at the start of each month, from the month after the first split
+     * of each account up to the current month. Back-dated changes delete the checkpoints after them,
+     * so the checkpoints are rebuilt from the latest one which is left.
+     *
+     * The months are filled in order, each checkpoint being built from the checkpoint of the month before
+     * and the splits of that month. This writes to the database, so it is run in the background by the
+     * [org.gnucash.android.service.ScheduledActionService] rather than when balances are read
+     */
+    fun updateBalanceCheckpoints() {
+        val currentMonth = LocalDate().withDayOfMonth(1)
+        var changeCount = -1L
+        var firstSplitTimestamps: Map<String, Long> = emptyMap()
+        var checkpoints = HashMap<String, TreeSet<Long>>()
+        var month = currentMonth
+        var created = 0
+        while (!month.isAfter(currentMonth)) {
+            //one transaction per month, so that writes from the app are not held up by a long backfill
+            beginTransaction()
+            try {
+                //back-dated changes made meanwhile may have deleted checkpoints, the months are filled again
+                if (bookChangeCount != changeCount) {
+                    changeCount = bookChangeCount
+                    firstSplitTimestamps = getFirstSplitTimestamps()
+                    checkpoints = getBalanceCheckpoints()
+                    month = if (firstSplitTimestamps.isEmpty()) currentMonth else
+                        LocalDate(firstSplitTimestamps.values.minOf { it }).withDayOfMonth(1).plusMonths(1)
+                }
+                val checkpoint = month.toDate().time
+                //the accounts missing the checkpoint, by their previous checkpoint
+                val accountsByPrevious = HashMap<Long, MutableList<String>>()
+                for ((accountUID, firstSplit) in firstSplitTimestamps) {
+                    val accountCheckpoints = checkpoints.getOrPut(accountUID) { TreeSet() }
+                    if (firstSplit >= checkpoint || accountCheckpoints.contains(checkpoint)) continue
+                    val previous = accountCheckpoints.lower(checkpoint) ?: Long.MIN_VALUE
+                    accountsByPrevious.getOrPut(previous) { ArrayList() }.add(accountUID)
+                    accountCheckpoints.add(checkpoint)
+                }
+                for ((previous, accountUIDs) in accountsByPrevious) {
+                    for (batch in accountUIDs.chunked(MAX_BATCH_SIZE)) {
+                        insertBalanceCheckpoints(batch, previous, checkpoint)
+                        created += batch.size
+                    }
+                }
+                setTransactionSuccessful()
+            } finally {
+                endTransaction()
+            }
+            month = month.plusMonths(1)
+        }
+        Log.d(LOG_TAG, "Created $created balance checkpoints")
+    }
+
+    /**
+     * Inserts the checkpoints of the accounts, which all have the same previous checkpoint
+     * @param accountUIDs GUIDs of the accounts
+     * @param previous Previous checkpoint of the accounts, [Long.MIN_VALUE] if they have none
+     * @param checkpoint Start of the month of the checkpoints
+     */
+    private fun insertBalanceCheckpoints(accountUIDs: List<String>, previous: Long, checkpoint: Long) {
+        val accountSelection = " IN ( " + accountUIDs.joinToString(" , ") { "?" } + " )"
+        val accountSelectionArgs = accountUIDs.toTypedArray()
+        mDb.execSQL(
+            "INSERT OR REPLACE INTO " + BalanceSnapshotEntry.TABLE_NAME + " ( "
+                    + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " , " + BalanceSnapshotEntry.COLUMN_PERIOD_START + " , "
+                    + BalanceSnapshotEntry.COLUMN_COMMODITY_UID + " , " + BalanceSnapshotEntry.COLUMN_QUANTITY_DENOM + " , "
+                    + BalanceSnapshotEntry.COLUMN_QUANTITY_NUM + " ) SELECT account_uid , " + checkpoint
+                    + " , commodity_uid , quantity_denom , SUM ( quantity_num ) FROM ( "
+                    + balanceRowsQuery(accountSelection, checkpoint - 1, previous)
+                    + " ) GROUP BY account_uid , commodity_uid , quantity_denom",
+            accountSelectionArgs + accountSelectionArgs
+        )
+    }
+
+    /**
+     * Returns the timestamp of the first transaction of each account which has splits, templates excluded
+     */
+    private fun getFirstSplitTimestamps(): Map<String, Long> {
+        val timestamps = HashMap<String, Long>()
+        val cursor = mDb.rawQuery(
+            "SELECT " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " , MIN ( "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " ) FROM "
+                    + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " WHERE "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0 GROUP BY "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID, null
+        )
+        try {
+            while (cursor.moveToNext()) {
+                timestamps[cursor.getString(0)] = cursor.getLong(1)
+            }
+        } finally {
+            cursor.close()
+        }
+        return timestamps
+    }
+
+    /**
+     * Returns the dates of the existing balance checkpoints of each account
+     */
+    private fun getBalanceCheckpoints(): HashMap<String, TreeSet<Long>> {
+        val checkpoints = HashMap<String, TreeSet<Long>>()
+        val cursor = mDb.query(
+            true, BalanceSnapshotEntry.TABLE_NAME,
+            arrayOf(BalanceSnapshotEntry.COLUMN_ACCOUNT_UID, BalanceSnapshotEntry.COLUMN_PERIOD_START),
+            null, null, null, null, null, null
+        )
+        try {
+            while (cursor.moveToNext()) {
+                checkpoints.getOrPut(cursor.getString(0)) { TreeSet() }.add(cursor.getLong(1))
+            }
+        } finally {
+            cursor.close()
+        }
+        return checkpoints
+    }
+
+    /**
+     * Returns the query of the rows which add up to the balances of the accounts at a date:
+     * the latest checkpoint of each account not after the date, and the splits after it.
+     *
+     * The columns are account_uid, commodity_uid, quantity_denom and quantity_num, signed as in the balance
+     * @param accountSelection SQL membership condition for the account GUID
+     * @param endTimestamp Date of the balances, inclusive
+     * @param startTimestamp Lower bound of the latest checkpoints of the accounts, which limits the splits read
+     */
+    private fun balanceRowsQuery(
+        accountSelection: String, endTimestamp: Long, startTimestamp: Long = Long.MIN_VALUE
+    ): String {
+        val latestCheckpoint = ("( SELECT MAX ( c." + BalanceSnapshotEntry.COLUMN_PERIOD_START + " ) FROM "
+                + BalanceSnapshotEntry.TABLE_NAME + " c WHERE c." + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID
+                + " = %s AND c." + BalanceSnapshotEntry.COLUMN_PERIOD_START + " <= " + endTimestamp + " )")
+        val snapshotAccount = "s." + BalanceSnapshotEntry.COLUMN_ACCOUNT_UID
+        val splitAccount = SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+        return ("SELECT " + snapshotAccount + " AS account_uid , s." + BalanceSnapshotEntry.COLUMN_COMMODITY_UID
+                + " AS commodity_uid , s." + BalanceSnapshotEntry.COLUMN_QUANTITY_DENOM + " AS quantity_denom , s."
+                + BalanceSnapshotEntry.COLUMN_QUANTITY_NUM + " AS quantity_num FROM " + BalanceSnapshotEntry.TABLE_NAME
+                + " s WHERE " + snapshotAccount + accountSelection
+                + " AND s." + BalanceSnapshotEntry.COLUMN_PERIOD_START + " = " + String.format(latestCheckpoint, snapshotAccount)
+                + " UNION ALL SELECT " + splitAccount + " , "
+                + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_COMMODITY_UID + " , "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                + "CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END"
+                + " FROM " + SplitEntry.TABLE_NAME
+                + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON " + TransactionEntry.TABLE_NAME + "."
+                + DatabaseSchema.CommonColumns._ID + " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_ID
+                + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON " + AccountEntry.TABLE_NAME + "."
+                + DatabaseSchema.CommonColumns._ID + " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_ID
+                + " WHERE " + splitAccount + accountSelection
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP
+                + " BETWEEN " + startTimestamp + " AND " + endTimestamp
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " >= IFNULL ( "
+                + String.format(latestCheckpoint, splitAccount) + " , " + Long.MIN_VALUE + " )")
+    }
+
+    /**
+     * Returns a cursor to the maintained balances of the accounts, grouped by commodity.
+     *
+     * The columns of the cursor are the same as those of the aggregation over the splits
+     * in [calculateSplitBalance]: quantity numerator sum, quantity denominator and currency code
+     * @param accountSelection SQL membership condition for the account GUID
+     * @param accountSelectionArgs Arguments of the placeholders in `accountSelection`
+     * @return Cursor to the balance rows
+     */
+    private fun fetchAccountBalances(accountSelection: String, accountSelectionArgs: Array<String>): Cursor {
+        return mDb.rawQuery(accountBalancesSql(accountSelection), accountSelectionArgs)
+    }
+
+    /**
+     * Returns the SQL query of [fetchAccountBalances], whose parameters are those of `accountSelection`
+     * @param accountSelection SQL membership condition for the account GUID
+     */
+    @VisibleForTesting
+    fun accountBalancesSql(accountSelection: String): String {
+        return SQLiteQueryBuilder.buildQueryString(
+            false,
+            AccountBalanceEntry.TABLE_NAME + " INNER JOIN " + CommodityEntry.TABLE_NAME + " ON "
+                    + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_COMMODITY_UID + " = "
+                    + CommodityEntry.TABLE_NAME + "." + CommodityEntry.COLUMN_UID,
+            arrayOf(
+                "SUM ( " + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_NUM + " )",
+                AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM,
+                CommodityEntry.TABLE_NAME + "." + CommodityEntry.COLUMN_MNEMONIC
+            ),
+            AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_ACCOUNT_UID + accountSelection,
+            CommodityEntry.TABLE_NAME + "." + CommodityEntry.COLUMN_MNEMONIC + " , "
+                    + AccountBalanceEntry.TABLE_NAME + "." + AccountBalanceEntry.COLUMN_QUANTITY_DENOM,
+            null,
+            null,
             null
         )
+    }
+
+    /**
+     * Converts balances in any commodity to one currency, using the price of each commodity at a date.
+     *
+     * Amounts in the custom currency XXX, and amounts in commodities without price, are ignored.
+     * The prices are read from the [PriceIndex] of the book, and the commodities are looked up once per converter
+     * @param currencyCode Currency to convert to
+     */
+    inner class BalanceConverter(val currencyCode: String) {
+        private val mCommodity: Commodity? by lazy { CommoditiesDbAdapter(mDb).getCommodity(currencyCode) }
+        private val mCurrencyUID: String by lazy { CommoditiesDbAdapter(mDb).getCommodityUID(currencyCode) }
+        private val mPriceIndex: PriceIndex by lazy { PricesDbAdapter(mDb).priceIndex }
+        private val mCommodityUIDs = HashMap<String, String>()
+
+        /**
+         * Returns the amount converted to the currency, or null if it can not be converted
+         * @param amountNum Numerator of the amount
+         * @param amountDenom Denominator of the amount
+         * @param commodityCode Mnemonic of the commodity of the amount
+         * @param timestamp Date of the price to use, `Long.MAX_VALUE` for the latest price
+         */
+        @JvmOverloads
+        fun convert(amountNum: Long, amountDenom: Long, commodityCode: String, timestamp: Long = Long.MAX_VALUE): Money? {
+            if (commodityCode == "XXX") {
+                // ignore custom currency
+                return null
+            }
+            if (commodityCode == currencyCode) {
+                // currency matches
+                return Money(amountNum, amountDenom, currencyCode)
+            }
+            // there is a second currency involved
+            return convertAmount(getBigDecimal(amountNum, amountDenom), commodityCode, timestamp)
+        }
+
+        /**
+         * Adds the amount converted to the currency to the total, unless it can not be converted.
+         * Amounts already in the currency are added without creating a [Money]
+         * @param total Sums the converted amount is added to
+         * @see convert
+         */
+        @JvmOverloads
+        fun convertTo(
+            total: MoneyAccumulator, amountNum: Long, amountDenom: Long, commodityCode: String,
+            timestamp: Long = Long.MAX_VALUE
+        ) {
+            if (commodityCode == "XXX") {
+                // ignore custom currency
+                return
+            }
+            if (commodityCode == currencyCode) {
+                total.add(amountNum, amountDenom, currencyCode)
+                return
+            }
+            convertAmount(getBigDecimal(amountNum, amountDenom), commodityCode, timestamp)?.let { total.add(it) }
+        }
+
+        /**
+         * Returns the sum of the amounts of all the commodities, converted to the currency
+         * @param amounts Amounts per commodity
+         * @param timestamp Date of the prices to use, `Long.MAX_VALUE` for the latest prices
+         * @return Total converted to the currency
+         */
+        fun convertAll(amounts: MoneyAccumulator, timestamp: Long): Money {
+            val total = MoneyAccumulator()
+            for (commodityCode in amounts.commodityCodes) {
+                val amount = amounts.getAmount(commodityCode)
+                if (commodityCode == "XXX" || amount.signum() == 0) {
+                    continue
+                }
+                if (commodityCode == currencyCode) {
+                    total.add(amount, currencyCode)
+                } else {
+                    convertAmount(amount, commodityCode, timestamp)?.let { total.add(it) }
+                }
+            }
+            return total.getMoney(currencyCode)
+        }
+
+        private fun convertAmount(amount: BigDecimal, commodityCode: String, timestamp: Long): Money? {
+            val commodityUID = mCommodityUIDs.getOrPut(commodityCode) {
+                CommoditiesDbAdapter(mDb).getCommodityUID(commodityCode)
+            }
+            val price = mPriceIndex.getPrice(commodityUID, mCurrencyUID, timestamp)
+            if (price.first <= 0 || price.second <= 0) {
+                // no price exists, just ignore it
+                return null
+            }
+            val amountConverted = amount.multiply(BigDecimal(price.first))
+                .divide(
+                    BigDecimal(price.second),
+                    mCommodity!!.smallestFractionDigits(),
+                    BigDecimal.ROUND_HALF_EVEN
+                )
+            return Money(amountConverted, mCommodity!!)
+        }
+    }
+
+    /**
+     * Sums up the balance rows pointed to by the cursor, converting amounts in other commodities
+     * to `currencyCode` using the prices at `timestamp`. The cursor is closed afterwards.
+     * @param cursor Cursor with quantity numerator sum, quantity denominator and currency code columns
+     * @param currencyCode Currency of the result
+     * @param hasDebitNormalBalance Does the final balance has normal debit credit meaning
+     * @param timestamp Date of the prices, `Long.MAX_VALUE` for the latest prices
+     * @return Total of the balance rows
+     */
+    private fun sumBalanceRows(
+        cursor: Cursor, currencyCode: String, hasDebitNormalBalance: Boolean, timestamp: Long
+    ): Money {
         return try {
-            var total = createZeroInstance(currencyCode)
-            var commoditiesDbAdapter: CommoditiesDbAdapter? = null
-            var pricesDbAdapter: PricesDbAdapter? = null
-            var commodity: Commodity? = null
-            var currencyUID: String? = null
+            val total = MoneyAccumulator()
+            val converter = BalanceConverter(currencyCode)
             while (cursor.moveToNext()) {
                 var amount_num = cursor.getLong(0)
                 val amount_denom = cursor.getLong(1)
                 val commodityCode = cursor.getString(2)
                 //Log.d(getClass().getName(), commodity + " " + amount_num + "/" + amount_denom);
-                if (commodityCode == "XXX" || amount_num == 0L) {
-                    // ignore custom currency
+                if (amount_num == 0L) {
                     continue
                 }
                 if (!hasDebitNormalBalance) {
                     amount_num = -amount_num
                 }
-                if (commodityCode == currencyCode) {
-                    // currency matches
-                    total = total.add(Money(amount_num, amount_denom, currencyCode))
-                    //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
-                } else {
-                    // there is a second currency involved
-                    if (commoditiesDbAdapter == null) {
-                        commoditiesDbAdapter = CommoditiesDbAdapter(mDb)
-                        pricesDbAdapter = PricesDbAdapter(mDb)
-                        commodity = commoditiesDbAdapter.getCommodity(currencyCode)
-                        currencyUID = commoditiesDbAdapter.getCommodityUID(currencyCode)
-                    }
-                    // get price
-                    val commodityUID = commoditiesDbAdapter.getCommodityUID(commodityCode)
-                    val price = pricesDbAdapter!!.getPrice(commodityUID, currencyUID!!)
-                    if (price.first <= 0 || price.second <= 0) {
-                        // no price exists, just ignore it
-                        continue
-                    }
-                    val amount = getBigDecimal(amount_num, amount_denom)
-                    val amountConverted = amount.multiply(BigDecimal(price.first))
-                        .divide(
-                            BigDecimal(price.second),
-                            commodity!!.smallestFractionDigits(),
-                            BigDecimal.ROUND_HALF_EVEN
-                        )
-                    total = total.add(Money(amountConverted, commodity))
-                    //Log.d(getClass().getName(), "currency " + commodity + " sub - total " + total);
-                }
+                converter.convertTo(total, amount_num, amount_denom, commodityCode, timestamp)
             }
-            total
+            total.getMoney(currencyCode)
         } finally {
             cursor.close()
         }
@@ -271,16 +726,38 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
      * @return List of [org.gnucash.android.model.Split]s
      */
     fun getSplitsForTransaction(transactionUID: String?): List<Split> {
-        val cursor = fetchSplitsForTransaction(transactionUID)
-        val splitList: MutableList<Split> = ArrayList()
-        try {
-            while (cursor.moveToNext()) {
-                splitList.add(buildModelInstance(cursor))
+        if (transactionUID == null) return ArrayList()
+        return getSplitsForTransactions(listOf(transactionUID))[transactionUID]!!
+    }
+
+    /**
+     * Returns the splits of several transactions, loaded with one query per batch of transactions
+     * @param transactionUIDs GUIDs of the transactions
+     * @return Map of transaction GUID to the list of its splits. Every requested transaction has
+     * an entry, which is empty if the transaction has no splits
+     */
+    fun getSplitsForTransactions(transactionUIDs: Collection<String>): Map<String, MutableList<Split>> {
+        val splitsMap = LinkedHashMap<String, MutableList<Split>>(transactionUIDs.size)
+        for (transactionUID in transactionUIDs) {
+            splitsMap[transactionUID] = ArrayList()
+        }
+        //stay below the limit of SQLite on the number of bound parameters
+        for (batch in splitsMap.keys.chunked(MAX_BATCH_SIZE)) {
+            val cursor = fetchSplitsWithCurrencies(
+                SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + " IN ( " + batch.joinToString(" , ") { "?" } + " )",
+                arrayOf<String?>(*batch.toTypedArray())
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    val split = buildModelInstance(cursor)
+                    splitsMap[split.mTransactionUID]!!.add(split)
+                }
+            } finally {
+                cursor.close()
             }
-        } finally {
-            cursor.close()
         }
-        return splitList
+        return splitsMap
     }
 
     /**
@@ -333,10 +810,47 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
      */
     fun fetchSplitsForTransaction(transactionUID: String?): Cursor {
         Log.v(LOG_TAG, "Fetching all splits for transaction UID $transactionUID")
-        return mDb.query(
-            SplitEntry.TABLE_NAME,
-            null, SplitEntry.COLUMN_TRANSACTION_UID + " = ?", arrayOf(transactionUID),
-            null, null, null
+        return fetchSplitsWithCurrencies(
+            SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = ?", arrayOf(transactionUID)
+        )
+    }
+
+    /**
+     * Fetches splits together with the currency of their transaction and of their account,
+     * so that [buildModelInstance] needs no further queries.
+     *
+     * The splits are returned in the order they were saved
+     * @param where SQL condition on the splits, with the columns qualified by the splits table name
+     * @param whereArgs Arguments of the condition
+     * @return Cursor to the split records
+     */
+    fun fetchSplitsWithCurrencies(where: String?, whereArgs: Array<String?>?): Cursor {
+        return mDb.rawQuery(splitsWithCurrenciesSql(where), whereArgs)
+    }
+
+    /**
+     * Returns the SQL query of [fetchSplitsWithCurrencies]
+     * @param where SQL condition on the splits, with the columns qualified by the splits table name
+     */
+    @VisibleForTesting
+    fun splitsWithCurrenciesSql(where: String?): String {
+        return SQLiteQueryBuilder.buildQueryString(
+            false,
+            SplitEntry.TABLE_NAME
+                    + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + " = "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_ID
+                    + " INNER JOIN " + DatabaseSchema.AccountEntry.TABLE_NAME + " ON "
+                    + DatabaseSchema.AccountEntry.TABLE_NAME + "." + DatabaseSchema.AccountEntry._ID + " = "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_ID,
+            arrayOf(
+                SplitEntry.TABLE_NAME + ".*",
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " AS " + COLUMN_TRANSACTION_CURRENCY,
+                DatabaseSchema.AccountEntry.TABLE_NAME + "." + DatabaseSchema.AccountEntry.COLUMN_CURRENCY
+                        + " AS " + COLUMN_ACCOUNT_CURRENCY
+            ),
+            where, null, null,
+            SplitEntry.TABLE_NAME + "." + SplitEntry._ID + " ASC", null
         )
     }
 
@@ -412,6 +926,7 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         var result = mDb.delete(SplitEntry.TABLE_NAME, SplitEntry._ID + "=" + rowId, null) > 0
         if (!result) //we didn't delete for whatever reason, invalid rowId etc
             return false
+        onTableWritten(SplitEntry.TABLE_NAME)
 
         //if we just deleted the last split, then remove the transaction from db
         val cursor = fetchSplitsForTransaction(transactionUID)
@@ -422,6 +937,7 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
                     TransactionEntry.TABLE_NAME,
                     TransactionEntry._ID + "=" + transactionID, null
                 ) > 0
+                onTableWritten(TransactionEntry.TABLE_NAME)
             }
         } finally {
             cursor.close()
@@ -450,7 +966,42 @@ class SplitsDbAdapter(db: SQLiteDatabase?) : DatabaseAdapter<Split>(
         }
     }
 
+    /**
+     * Recomputes the maintained account balances from the splits in the database.
+     *
+     * The balances are kept current by database triggers, so this is only needed for recovery
+     * @see DatabaseHelper.rebuildAccountBalances
+     */
+    fun rebuildAccountBalances() {
+        Log.i(LOG_TAG, "Rebuilding account balances")
+        DatabaseHelper.rebuildAccountBalances(mDb)
+    }
+
     companion object {
+        /**
+         * Column alias for the currency code of the transaction of a split in [fetchSplitsWithCurrencies]
+         */
+        const val COLUMN_TRANSACTION_CURRENCY = "split_transaction_currency"
+
+        /**
+         * Column alias for the currency code of the account of a split in [fetchSplitsWithCurrencies]
+         */
+        const val COLUMN_ACCOUNT_CURRENCY = "split_account_currency"
+
+        /**
+         * Maximum number of transactions or accounts whose splits are fetched with one query
+         */
+        private const val MAX_BATCH_SIZE = 500
+
+        /**
+         * SQL membership condition for the GUIDs of an account and of all its descendant accounts,
+         * resolved with the account closure table. Its parameter is the GUID of the account
+         */
+        @JvmField
+        val ACCOUNT_SUBTREE_SELECTION = (" IN ( SELECT " + AccountClosureEntry.COLUMN_DESCENDANT_UID
+                + " FROM " + AccountClosureEntry.TABLE_NAME
+                + " WHERE " + AccountClosureEntry.COLUMN_ANCESTOR_UID + " = ? )")
+
         /**
          * Returns application-wide instance of the database adapter
          * @return SplitsDbAdapter instance
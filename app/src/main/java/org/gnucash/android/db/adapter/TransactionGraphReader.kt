@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.db.adapter
+
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.SplitEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.Split
+import org.gnucash.android.model.Transaction
+import org.gnucash.android.model.TransactionType
+import org.gnucash.android.util.TimestampHelper
+import java.io.Closeable
+
+/**
+ * Reads transactions together with their splits with one query over the transactions joined with their splits.
+ *
+ * The rows are ordered by transaction, so each [Transaction] is assembled with its splits in a single pass
+ * and handed out as soon as it is complete. Only the transaction being assembled is held in memory,
+ * whatever the number of transactions read.
+ *
+ * The reader must be closed when done, also when the sequence was not read to the end:
+ * ```
+ * transactionsDbAdapter.readAllTransactions().use { reader ->
+ *     reader.transactions().forEach { ... }
+ * }
+ * ```
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class TransactionGraphReader(
+    db: SQLiteDatabase,
+    private val mCommoditiesDbAdapter: CommoditiesDbAdapter,
+    where: String?,
+    whereArgs: Array<String?>?,
+    orderBy: String?
+) : Closeable {
+    private val mCursor: Cursor
+
+    /**
+     * Commodities of the transactions, by currency code. Books use a handful of currencies,
+     * so this stays small
+     */
+    private val mCommodities = HashMap<String, Commodity?>()
+
+    private val mTransactionIdIndex: Int
+    private val mTransactionUIDIndex: Int
+    private val mDescriptionIndex: Int
+    private val mNotesIndex: Int
+    private val mTimestampIndex: Int
+    private val mExportedIndex: Int
+    private val mTemplateIndex: Int
+    private val mCurrencyIndex: Int
+    private val mScheduledActionUIDIndex: Int
+    private val mTransactionCreatedIndex: Int
+    private val mTransactionModifiedIndex: Int
+    private val mSplitUIDIndex: Int
+    private val mMemoIndex: Int
+    private val mTypeIndex: Int
+    private val mValueNumIndex: Int
+    private val mValueDenomIndex: Int
+    private val mQuantityNumIndex: Int
+    private val mQuantityDenomIndex: Int
+    private val mAccountUIDIndex: Int
+    private val mReconcileStateIndex: Int
+    private val mReconcileDateIndex: Int
+    private val mSplitCreatedIndex: Int
+    private val mSplitModifiedIndex: Int
+    private val mAccountCurrencyIndex: Int
+
+    /**
+     * Runs the query for the transactions
+     * @param where SQL condition on the transactions, with the columns qualified by the transactions table name
+     * @param whereArgs Arguments of the condition
+     * @param orderBy Order of the transactions, with the columns qualified by the transactions table name
+     */
+    init {
+        val transactionsOrder = TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + " ASC"
+        mCursor = db.query(
+            TransactionEntry.TABLE_NAME
+                    + " LEFT OUTER JOIN " + SplitEntry.TABLE_NAME + " ON "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + " = "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_ID
+                    + " LEFT OUTER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                    + AccountEntry.TABLE_NAME + "." + AccountEntry._ID + " = "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_ID,
+            arrayOf(
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_DESCRIPTION,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_NOTES,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_EXPORTED,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_SCHEDX_ACTION_UID,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CREATED_AT,
+                TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_MODIFIED_AT,
+                splitColumn(SplitEntry.COLUMN_UID),
+                splitColumn(SplitEntry.COLUMN_MEMO),
+                splitColumn(SplitEntry.COLUMN_TYPE),
+                splitColumn(SplitEntry.COLUMN_VALUE_NUM),
+                splitColumn(SplitEntry.COLUMN_VALUE_DENOM),
+                splitColumn(SplitEntry.COLUMN_QUANTITY_NUM),
+                splitColumn(SplitEntry.COLUMN_QUANTITY_DENOM),
+                splitColumn(SplitEntry.COLUMN_ACCOUNT_UID),
+                splitColumn(SplitEntry.COLUMN_RECONCILE_STATE),
+                splitColumn(SplitEntry.COLUMN_RECONCILE_DATE),
+                splitColumn(SplitEntry.COLUMN_CREATED_AT),
+                splitColumn(SplitEntry.COLUMN_MODIFIED_AT),
+                AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_CURRENCY + " AS " + COLUMN_ACCOUNT_CURRENCY
+            ),
+            where, whereArgs, null, null,
+            (if (orderBy.isNullOrEmpty()) "" else "$orderBy , ") + transactionsOrder
+                    + " , " + SplitEntry.TABLE_NAME + "." + SplitEntry._ID + " ASC"
+        )
+        mTransactionIdIndex = mCursor.getColumnIndexOrThrow(TransactionEntry._ID)
+        mTransactionUIDIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID)
+        mDescriptionIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_DESCRIPTION)
+        mNotesIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_NOTES)
+        mTimestampIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_TIMESTAMP)
+        mExportedIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_EXPORTED)
+        mTemplateIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_TEMPLATE)
+        mCurrencyIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_CURRENCY)
+        mScheduledActionUIDIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_SCHEDX_ACTION_UID)
+        mTransactionCreatedIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_CREATED_AT)
+        mTransactionModifiedIndex = mCursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_MODIFIED_AT)
+        mSplitUIDIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_UID)
+        mMemoIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_MEMO)
+        mTypeIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_TYPE)
+        mValueNumIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_VALUE_NUM)
+        mValueDenomIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_VALUE_DENOM)
+        mQuantityNumIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_QUANTITY_NUM)
+        mQuantityDenomIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_QUANTITY_DENOM)
+        mAccountUIDIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_ACCOUNT_UID)
+        mReconcileStateIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_RECONCILE_STATE)
+        mReconcileDateIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_RECONCILE_DATE)
+        mSplitCreatedIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_CREATED_AT)
+        mSplitModifiedIndex = mCursor.getColumnIndexOrThrow(SPLIT_COLUMN_PREFIX + SplitEntry.COLUMN_MODIFIED_AT)
+        mAccountCurrencyIndex = mCursor.getColumnIndexOrThrow(COLUMN_ACCOUNT_CURRENCY)
+    }
+
+    /**
+     * Returns the transactions read by the query, each with its list of splits.
+     *
+     * The sequence reads the cursor as it is iterated and can only be iterated once
+     * @return Sequence of transactions in the order of the query
+     */
+    fun transactions(): Sequence<Transaction> {
+        return sequence {
+            var hasRow = mCursor.moveToNext()
+            while (hasRow) {
+                val transactionId = mCursor.getLong(mTransactionIdIndex)
+                val transaction = buildTransaction()
+                val splits: MutableList<Split> = ArrayList()
+                do {
+                    //transactions without splits have one row with null split columns
+                    if (!mCursor.isNull(mSplitUIDIndex)) {
+                        splits.add(buildSplit(mCursor.getString(mCurrencyIndex)))
+                    }
+                    hasRow = mCursor.moveToNext()
+                } while (hasRow && mCursor.getLong(mTransactionIdIndex) == transactionId)
+                transaction.setMSplitList(splits)
+                yield(transaction)
+            }
+        }.constrainOnce()
+    }
+
+    /**
+     * Builds the transaction of the current row, without its splits
+     */
+    private fun buildTransaction(): Transaction {
+        val transaction = Transaction(mCursor.getString(mDescriptionIndex))
+        transaction.mUID = mCursor.getString(mTransactionUIDIndex)
+        transaction.mCreatedTimestamp =
+            TimestampHelper.getTimestampFromUtcString(mCursor.getString(mTransactionCreatedIndex))
+        transaction.mModifiedTimestamp =
+            TimestampHelper.getTimestampFromUtcString(mCursor.getString(mTransactionModifiedIndex))
+        transaction.setMTimestamp(mCursor.getLong(mTimestampIndex))
+        transaction.mNotes = mCursor.getString(mNotesIndex)
+        transaction.mIsExported = mCursor.getInt(mExportedIndex) == 1
+        transaction.mIsTemplate = mCursor.getInt(mTemplateIndex) == 1
+        val currencyCode = mCursor.getString(mCurrencyIndex)
+        transaction.mCommodity = mCommodities.getOrPut(currencyCode) {
+            mCommoditiesDbAdapter.getCommodity(currencyCode)
+        }
+        transaction.mScheduledActionUID = mCursor.getString(mScheduledActionUIDIndex)
+        return transaction
+    }
+
+    /**
+     * Builds the split of the current row
+     * @param transactionCurrency Currency code of the transaction of the split
+     */
+    private fun buildSplit(transactionCurrency: String): Split {
+        val value = Money(mCursor.getLong(mValueNumIndex), mCursor.getLong(mValueDenomIndex), transactionCurrency)
+        val quantity = Money(
+            mCursor.getLong(mQuantityNumIndex), mCursor.getLong(mQuantityDenomIndex),
+            mCursor.getString(mAccountCurrencyIndex)
+        )
+        val split = Split(value, mCursor.getString(mAccountUIDIndex))
+        split.mQuantity = quantity
+        split.mUID = mCursor.getString(mSplitUIDIndex)
+        split.mCreatedTimestamp = TimestampHelper.getTimestampFromUtcString(mCursor.getString(mSplitCreatedIndex))
+        split.mModifiedTimestamp = TimestampHelper.getTimestampFromUtcString(mCursor.getString(mSplitModifiedIndex))
+        split.mSplitType = TransactionType.valueOf(mCursor.getString(mTypeIndex))
+        split.mMemo = mCursor.getString(mMemoIndex)
+        split.mReconcileState = mCursor.getString(mReconcileStateIndex)[0]
+        val reconcileDate = mCursor.getString(mReconcileDateIndex)
+        if (reconcileDate != null && reconcileDate.isNotEmpty()) split.mReconcileDate =
+            TimestampHelper.getTimestampFromUtcString(reconcileDate)
+        return split
+    }
+
+    /**
+     * Closes the cursor of the query
+     */
+    override fun close() {
+        mCursor.close()
+    }
+
+    companion object {
+        /**
+         * Prefix of the split columns, which would otherwise have the same names as some transaction columns
+         */
+        private const val SPLIT_COLUMN_PREFIX = "split_"
+
+        /**
+         * Column alias for the currency code of the account of a split
+         */
+        private const val COLUMN_ACCOUNT_CURRENCY = "split_account_currency"
+
+        private fun splitColumn(column: String): String {
+            return SplitEntry.TABLE_NAME + "." + column + " AS " + SPLIT_COLUMN_PREFIX + column
+        }
+    }
+}
@@ -19,14 +19,17 @@ package org.gnucash.android.db.adapter
 
 import android.content.ContentValues
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.SQLException
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteQueryBuilder
 import android.database.sqlite.SQLiteStatement
 import android.text.TextUtils
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import com.crashlytics.android.Crashlytics
 import org.gnucash.android.app.GnuCashApplication
+import org.gnucash.android.db.DatabaseHelper
 import org.gnucash.android.db.DatabaseSchema.*
 import org.gnucash.android.model.AccountType
 import org.gnucash.android.model.Money
@@ -34,6 +37,7 @@ import org.gnucash.android.model.Split
 import org.gnucash.android.model.Transaction
 import org.gnucash.android.model.Transaction.Companion.computeBalance
 import org.gnucash.android.util.TimestampHelper
+import java.math.BigDecimal
 import java.sql.Timestamp
 
 /**
@@ -108,7 +112,7 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
             Log.e(LOG_TAG, sqlEx.message!!)
             Crashlytics.logException(sqlEx)
         } finally {
-            mDb.endTransaction()
+            endTransaction()
         }
     }
 
@@ -123,6 +127,10 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      */
     override fun bulkAddRecords(modelList: List<Transaction>, updateMethod: UpdateMethod): Long {
         var start = System.nanoTime()
+        //inserted rows get row IDs above it, so only those and the replaced or updated ones are checked for splits below
+        val lastRowId = DatabaseUtils.longForQuery(
+            mDb, "SELECT IFNULL(MAX(" + TransactionEntry._ID + "), 0) FROM " + TransactionEntry.TABLE_NAME, null
+        )
         val rowInserted = super.bulkAddRecords(modelList, updateMethod)
         val end = System.nanoTime()
         Log.d(javaClass.simpleName, String.format("bulk add transaction time %d ", end - start))
@@ -136,14 +144,32 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
                 val nSplits = splitDbAdapter.bulkAddRecords(splitList, updateMethod)
                 Log.d(LOG_TAG, String.format("%d splits inserted in %d ns", nSplits, System.nanoTime() - start))
             } finally {
+                val noSplits = (" AND NOT EXISTS ( SELECT * FROM " + SplitEntry.TABLE_NAME
+                        + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                        + " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " ) ")
                 val deleteEmptyTransaction = mDb.compileStatement(
-                    "DELETE FROM " +
-                            TransactionEntry.TABLE_NAME + " WHERE NOT EXISTS ( SELECT * FROM " +
-                            SplitEntry.TABLE_NAME +
-                            " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID +
-                            " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " ) "
+                    "DELETE FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry._ID + " > ?" + noSplits
                 )
-                deleteEmptyTransaction.execute()
+                try {
+                    deleteEmptyTransaction.bindLong(1, lastRowId)
+                    deleteEmptyTransaction.execute()
+                } finally {
+                    deleteEmptyTransaction.close()
+                }
+                //replaced and updated rows keep their row IDs
+                if (updateMethod != UpdateMethod.insert) {
+                    val deleteEmptyReplaced = mDb.compileStatement(
+                        "DELETE FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_UID + " = ?" + noSplits
+                    )
+                    try {
+                        for (transaction in modelList) {
+                            deleteEmptyReplaced.bindString(1, transaction.mUID)
+                            deleteEmptyReplaced.execute()
+                        }
+                    } finally {
+                        deleteEmptyReplaced.close()
+                    }
+                }
             }
         }
         return rowInserted
@@ -175,6 +201,14 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @throws java.lang.IllegalArgumentException if the accountUID is null
      */
     fun fetchAllTransactionsForAccount(accountUID: String): Cursor {
+        return mDb.rawQuery(allTransactionsForAccountSql(), arrayOf(accountUID))
+    }
+
+    /**
+     * Returns the SQL query of [fetchAllTransactionsForAccount], whose parameter is the account GUID
+     */
+    @VisibleForTesting
+    fun allTransactionsForAccountSql(): String {
         val queryBuilder = SQLiteQueryBuilder()
         queryBuilder.tables = (TransactionEntry.TABLE_NAME
                 + " INNER JOIN " + SplitEntry.TABLE_NAME + " ON "
@@ -184,9 +218,77 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
         val projectionIn = arrayOf(TransactionEntry.TABLE_NAME + ".*")
         val selection = (SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = ?"
                 + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0")
-        val selectionArgs = arrayOf(accountUID)
         val sortOrder = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " DESC"
-        return queryBuilder.query(mDb, projectionIn, selection, selectionArgs, null, null, sortOrder)
+        return queryBuilder.buildQuery(projectionIn, selection, null, null, sortOrder, null)
+    }
+
+    /**
+     * Returns a cursor to the transactions of the account as shown in the account register, newest first.
+     *
+     * Each row has, besides the transaction columns, the amount of the transaction for the account,
+     * the balance of the account after the transaction, the number of splits of the transaction and the
+     * name of the transfer account (see [RegisterCursor]), so that no query is needed to display a row.
+     * @param accountUID GUID of the account
+     * @return Cursor over the non-template transactions of the account
+     */
+    fun fetchRegisterForAccount(accountUID: String): RegisterCursor {
+        val commodity = mCommoditiesDbAdapter.getCommodity(getAccountCurrencyCode(accountUID))!!
+        //amounts are summed up in the smallest units of the account commodity, with the sign of the account type
+        var unitsFactor = BigDecimal.TEN.pow(commodity.smallestFractionDigits()).toLong()
+        if (!getAccountType(accountUID).hasDebitNormalBalance()) {
+            unitsFactor = -unitsFactor
+        }
+        return RegisterCursor(mDb.rawQuery(registerForAccountSql(unitsFactor), arrayOf(accountUID)), commodity)
+    }
+
+    /**
+     * Returns the SQL query of [fetchRegisterForAccount], whose parameter is the account GUID
+     * @param unitsFactor Factor converting the split quantities to the smallest units of the account commodity,
+     * negative for the accounts with a credit normal balance
+     */
+    @VisibleForTesting
+    fun registerForAccountSql(unitsFactor: Long): String {
+        val split = SplitEntry.TABLE_NAME + "."
+        val quantity = ("( CASE WHEN " + split + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + split + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - " + split + SplitEntry.COLUMN_QUANTITY_NUM + " END )")
+        val queryBuilder = SQLiteQueryBuilder()
+        queryBuilder.tables = (TransactionEntry.TABLE_NAME
+                + " INNER JOIN " + SplitEntry.TABLE_NAME + " ON "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + " = "
+                + split + SplitEntry.COLUMN_TRANSACTION_ID
+                + " LEFT OUTER JOIN " + TransactionSummaryEntry.TABLE_NAME + " ON "
+                + TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " = "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID)
+        val projectionIn = arrayOf(
+            TransactionEntry.TABLE_NAME + ".*",
+            "IFNULL ( " + TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_SPLIT_COUNT
+                    + " , 0 ) AS " + TransactionSummaryEntry.COLUMN_SPLIT_COUNT,
+            //the quantities are scaled in integers, unless their denominator does not divide the factor
+            "SUM ( CASE WHEN " + unitsFactor + " % " + split + SplitEntry.COLUMN_QUANTITY_DENOM + " = 0 THEN "
+                    + quantity + " * ( " + unitsFactor + " / " + split + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " ) ELSE CAST ( ROUND ( " + quantity + " * " + unitsFactor + ".0 / "
+                    + split + SplitEntry.COLUMN_QUANTITY_DENOM + " ) AS INTEGER ) END ) AS " + RegisterCursor.COLUMN_AMOUNT,
+            //the other split of a two-split transaction, if it balances the split of this account
+            "CASE WHEN " + TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_SPLIT_COUNT
+                    + " = 2 THEN ( SELECT a." + AccountEntry.COLUMN_FULL_NAME
+                    + " FROM " + SplitEntry.TABLE_NAME + " AS s INNER JOIN " + AccountEntry.TABLE_NAME
+                    + " AS a ON a." + AccountEntry._ID + " = s." + SplitEntry.COLUMN_ACCOUNT_ID
+                    + " WHERE s." + SplitEntry.COLUMN_TRANSACTION_ID + " = "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID
+                    + " AND s." + SplitEntry.COLUMN_ACCOUNT_ID + " != " + split + SplitEntry.COLUMN_ACCOUNT_ID
+                    + " AND s." + SplitEntry.COLUMN_TYPE + " != " + split + SplitEntry.COLUMN_TYPE
+                    + " AND s." + SplitEntry.COLUMN_VALUE_NUM + " * " + split + SplitEntry.COLUMN_VALUE_DENOM
+                    + " = " + split + SplitEntry.COLUMN_VALUE_NUM + " * s." + SplitEntry.COLUMN_VALUE_DENOM
+                    + " ) END AS " + RegisterCursor.COLUMN_TRANSFER_ACCOUNT_NAME
+        )
+        val selection = (split + SplitEntry.COLUMN_ACCOUNT_ID + " = "
+                + DatabaseHelper.rowIdOf(AccountEntry.TABLE_NAME, "?")
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0")
+        val sortOrder = (TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " DESC , "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + " DESC")
+        return queryBuilder.buildQuery(
+            projectionIn, selection, TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID, null, sortOrder, null
+        )
     }
 
     /**
@@ -224,6 +326,29 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
                     + " (SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
                     + SplitEntry.COLUMN_ACCOUNT_UID + " = ?)")
         mDb.execSQL(rawDeleteQuery, arrayOf(accountUID))
+        onTableWritten(TransactionEntry.TABLE_NAME)
+    }
+
+    /**
+     * Deletes all transactions which contain a split in the account or in any of its descendant accounts.
+     *
+     * The descendant accounts are resolved with the account closure table in the same statement
+     * @param accountUID GUID of the top account of the subtree
+     * @see deleteTransactionsForAccount
+     */
+    fun deleteTransactionsForAccountSubtree(accountUID: String) {
+        mDb.execSQL(deleteTransactionsForAccountSubtreeSql(), arrayOf(accountUID))
+        onTableWritten(TransactionEntry.TABLE_NAME)
+    }
+
+    /**
+     * Returns the SQL statement of [deleteTransactionsForAccountSubtree], whose parameter is the account GUID
+     */
+    @VisibleForTesting
+    fun deleteTransactionsForAccountSubtreeSql(): String {
+        return ("DELETE FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_UID + " IN "
+                + " (SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                + SplitEntry.COLUMN_ACCOUNT_UID + SplitsDbAdapter.ACCOUNT_SUBTREE_SELECTION + ")")
     }
 
     /**
@@ -231,13 +356,15 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @return Number of records deleted
      */
     fun deleteTransactionsWithNoSplits(): Int {
-        return mDb.delete(
+        val deleted = mDb.delete(
             TransactionEntry.TABLE_NAME,
             "NOT EXISTS ( SELECT * FROM " + SplitEntry.TABLE_NAME +
                     " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID +
                     " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " ) ",
             null
         )
+        onTableWritten(TransactionEntry.TABLE_NAME)
+        return deleted
     }
 
     /**
@@ -266,16 +393,7 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @return List of [Transaction]s for account with UID `accountUID`
      */
     fun getAllTransactionsForAccount(accountUID: String): List<Transaction> {
-        val c = fetchAllTransactionsForAccount(accountUID)
-        val transactionsList = ArrayList<Transaction>()
-        try {
-            while (c.moveToNext()) {
-                transactionsList.add(buildModelInstance(c))
-            }
-        } finally {
-            c.close()
-        }
-        return transactionsList
+        return readTransactionsForAccount(accountUID, false).use { it.transactions().toList() }
     }
 
     /**
@@ -283,18 +401,59 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @return List of all transactions
      */
     val allTransactions: List<Transaction>
-        get() {
-            val cursor = fetchAllRecords()
-            val transactions: MutableList<Transaction> = ArrayList()
-            try {
-                while (cursor.moveToNext()) {
-                    transactions.add(buildModelInstance(cursor))
-                }
-            } finally {
-                cursor.close()
-            }
-            return transactions
-        }
+        get() = allRecords
+
+    /**
+     * Returns all transaction instances in the database, read together with their splits in one query
+     */
+    override val allRecords: List<Transaction>
+        get() = readTransactions(null, null, null).use { it.transactions().toList() }
+
+    /**
+     * Returns a reader of the transactions which fulfill the conditions, together with their splits.
+     *
+     * The reader must be closed when done
+     * @param where SQL condition with the columns qualified by the transactions table name
+     * @param whereArgs Arguments of the condition
+     * @param orderBy Order of the transactions, with the columns qualified by the transactions table name
+     * @return [TransactionGraphReader] over the transactions
+     */
+    fun readTransactions(where: String?, whereArgs: Array<String?>?, orderBy: String?): TransactionGraphReader {
+        return TransactionGraphReader(mDb, mCommoditiesDbAdapter, where, whereArgs, orderBy)
+    }
+
+    /**
+     * Returns a reader of the transactions with a split in the account, most recent first
+     * @param accountUID GUID of the account
+     * @param template `true` to read the template transactions of the account, `false` for the others
+     * @return [TransactionGraphReader] over the transactions
+     * @see fetchAllTransactionsForAccount
+     * @see fetchScheduledTransactionsForAccount
+     */
+    fun readTransactionsForAccount(accountUID: String, template: Boolean): TransactionGraphReader {
+        return readTransactions(
+            TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " IN ( SELECT "
+                    + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + " WHERE "
+                    + SplitEntry.COLUMN_ACCOUNT_UID + " = ? ) AND "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = ?",
+            arrayOf<String?>(accountUID, if (template) "1" else "0"),
+            TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " DESC"
+        )
+    }
+
+    /**
+     * Returns a reader of the transactions modified since a given timestamp, oldest first
+     * @param timestamp Timestamp in milliseconds (since Epoch)
+     * @return [TransactionGraphReader] over the transactions
+     * @see fetchTransactionsModifiedSince
+     */
+    fun readTransactionsModifiedSince(timestamp: Timestamp): TransactionGraphReader {
+        return readTransactions(
+            TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_MODIFIED_AT + " >= ?",
+            arrayOf<String?>(TimestampHelper.getUtcStringFromTimestamp(timestamp)),
+            TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " ASC"
+        )
+    }
 
     fun fetchTransactionsWithSplits(
         columns: Array<String?>?,
@@ -305,8 +464,7 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
         return mDb.query(
             TransactionEntry.TABLE_NAME + " , " + SplitEntry.TABLE_NAME +
                     " ON " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID +
-                    " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID +
-                    " , trans_extra_info ON trans_extra_info.trans_acct_t_uid = " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID,
+                    " = " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID,
             columns, where, whereArgs, null, null,
             orderBy
         )
@@ -334,20 +492,21 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
         orderBy: String?
     ): Cursor {
         // table is :
-        // trans_split_acct , trans_extra_info ON trans_extra_info.trans_acct_t_uid = transactions_uid ,
-        // accounts AS account1 ON account1.uid = trans_extra_info.trans_acct_a_uid
+        // trans_split_acct , transaction_summaries ON transaction_summaries.transaction_uid = transactions_uid ,
+        // accounts AS account1 ON account1.uid = transaction_summaries.main_account_uid
         //
-        // views effectively simplified this query
+        // the view and the summaries table effectively simplified this query
         //
         // account1 provides information for the grouped account. Splits from the grouped account
         // can be eliminated with a WHERE clause. Transactions in QIF can be auto balanced.
         //
         // Account, transaction and split Information can be retrieve in a single query.
         return mDb.query(
-            "trans_split_acct , trans_extra_info ON trans_extra_info.trans_acct_t_uid = trans_split_acct." +
+            "trans_split_acct , " + TransactionSummaryEntry.TABLE_NAME + " ON " + TransactionSummaryEntry.TABLE_NAME + "." +
+                    TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " = trans_split_acct." +
                     TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_UID + " , " +
                     AccountEntry.TABLE_NAME + " AS account1 ON account1." + AccountEntry.COLUMN_UID +
-                    " = trans_extra_info.trans_acct_a_uid",
+                    " = " + TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_MAIN_ACCOUNT_UID,
             columns, where, whereArgs, null, null, orderBy
         )
     }
@@ -377,9 +536,9 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      */
     fun getRecordsCount(where: String?, whereArgs: Array<String?>?): Long {
         val cursor = mDb.query(
-            true, TransactionEntry.TABLE_NAME + " , trans_extra_info ON "
-                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
-                    + " = trans_extra_info.trans_acct_t_uid", arrayOf("COUNT(*)"),
+            true, TransactionEntry.TABLE_NAME + " , " + TransactionSummaryEntry.TABLE_NAME + " ON "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                    + TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_TRANSACTION_UID, arrayOf("COUNT(*)"),
             where,
             whereArgs,
             null,
@@ -413,8 +572,7 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
         transaction.mCommodity = mCommoditiesDbAdapter.getCommodity(currencyCode)
         transaction.mScheduledActionUID =
             cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_SCHEDX_ACTION_UID))
-        val transactionID = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionEntry._ID))
-        transaction.setMSplitList(splitDbAdapter.getSplitsForTransaction(transactionID).toMutableList())
+        transaction.setMSplitList(splitDbAdapter.getSplitsForTransaction(transaction.mUID).toMutableList())
         return transaction
     }
 
@@ -482,16 +640,7 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @return List of all scheduled transactions
      */
     fun getScheduledTransactionsForAccount(accountUID: String): List<Transaction> {
-        val cursor = fetchScheduledTransactionsForAccount(accountUID)
-        val scheduledTransactions: MutableList<Transaction> = ArrayList()
-        return try {
-            while (cursor.moveToNext()) {
-                scheduledTransactions.add(buildModelInstance(cursor))
-            }
-            scheduledTransactions
-        } finally {
-            cursor.close()
-        }
+        return readTransactionsForAccount(accountUID, true).use { it.transactions().toList() }
     }
 
     /**
@@ -541,7 +690,9 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      * @return Number of records affected
      */
     fun updateTransaction(contentValues: ContentValues?, whereClause: String?, whereArgs: Array<String?>?): Int {
-        return mDb.update(TransactionEntry.TABLE_NAME, contentValues, whereClause, whereArgs)
+        val updated = mDb.update(TransactionEntry.TABLE_NAME, contentValues, whereClause, whereArgs)
+        onTableWritten(TransactionEntry.TABLE_NAME)
+        return updated
     }
 
     /**
@@ -552,8 +703,8 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      */
     fun getNumCurrencies(transactionUID: String): Int {
         val cursor = mDb.query(
-            "trans_extra_info", arrayOf("trans_currency_count"),
-            "trans_acct_t_uid=?", arrayOf(transactionUID),
+            TransactionSummaryEntry.TABLE_NAME, arrayOf(TransactionSummaryEntry.COLUMN_CURRENCY_COUNT),
+            TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " = ?", arrayOf(transactionUID),
             null, null, null
         )
         var numCurrencies = 0
@@ -575,7 +726,9 @@ class TransactionsDbAdapter(db: SQLiteDatabase?, val splitDbAdapter: SplitsDbAda
      */
     fun deleteAllNonTemplateTransactions(): Int {
         val where = TransactionEntry.COLUMN_TEMPLATE + "=0"
-        return mDb.delete(mTableName, where, null)
+        val deleted = mDb.delete(mTableName, where, null)
+        onTableWritten(mTableName)
+        return deleted
     }
 
     /**
@@ -41,7 +41,7 @@ import java.util.*
  */
 class CsvTransactionsExporter : Exporter {
     private var mCsvSeparator: Char
-    private val dateFormat: DateFormat = SimpleDateFormat("YYYY-MM-dd", Locale.US)
+    private val dateFormat: DateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.US)
 
     /**
      * Construct a new exporter with export parameters
@@ -105,7 +105,8 @@ class CsvTransactionsExporter : Exporter {
             writer.writeToken(account.mName)
             val sign = if (split.mSplitType === TransactionType.CREDIT) "-" else ""
             writer.writeToken(sign + split.mQuantity!!.formattedString())
-            writer.writeToken(sign + split.mQuantity!!.toLocaleString())
+            //the amounts are written independently of the locale, so that they can be imported on any device
+            writer.writeToken(sign + split.mQuantity!!.toPlainString())
             writer.writeToken("" + split.mReconcileState)
             if (split.mReconcileState == Split.FLAG_RECONCILED) {
                 val recDateString = dateFormat.format(Date(split.mReconcileDate.time))
@@ -113,7 +114,7 @@ class CsvTransactionsExporter : Exporter {
             } else {
                 writer.writeToken(null)
             }
-            writer.writeEndToken(split.mQuantity!!.divide(split.mValue!!).toLocaleString())
+            writer.writeEndToken(split.mQuantity!!.divide(split.mValue!!).toPlainString())
         }
     }
 
@@ -125,21 +126,23 @@ class CsvTransactionsExporter : Exporter {
                 csvWriter.writeToken(names[i])
             }
             csvWriter.newLine()
-            val cursor = mTransactionsDbAdapter!!.fetchTransactionsModifiedSince(mExportParams.exportStartTime)
-            Log.d(LOG_TAG, String.format("Exporting %d transactions to CSV", cursor.count))
-            while (cursor.moveToNext()) {
-                val transaction = mTransactionsDbAdapter!!.buildModelInstance(cursor)
-                val date = Date(transaction.mTimestamp)
-                csvWriter.writeToken(dateFormat.format(date))
-                csvWriter.writeToken(transaction.mUID)
-                csvWriter.writeToken(null) //Transaction number
-                csvWriter.writeToken(transaction.getMDescription())
-                csvWriter.writeToken(transaction.mNotes)
-                csvWriter.writeToken("CURRENCY::" + transaction.mMnemonic)
-                csvWriter.writeToken(null) // Void Reason
-                csvWriter.writeToken(null) // Action
-                writeSplitsToCsv(transaction.getMSplitList(), csvWriter)
+            var count = 0
+            mTransactionsDbAdapter!!.readTransactionsModifiedSince(mExportParams.exportStartTime).use { reader ->
+                for (transaction in reader.transactions()) {
+                    val date = Date(transaction.mTimestamp)
+                    csvWriter.writeToken(dateFormat.format(date))
+                    csvWriter.writeToken(transaction.mUID)
+                    csvWriter.writeToken(null) //Transaction number
+                    csvWriter.writeToken(transaction.getMDescription())
+                    csvWriter.writeToken(transaction.mNotes)
+                    csvWriter.writeToken("CURRENCY::" + transaction.mMnemonic)
+                    csvWriter.writeToken(null) // Void Reason
+                    csvWriter.writeToken(null) // Action
+                    writeSplitsToCsv(transaction.getMSplitList(), csvWriter)
+                    count++
+                }
             }
+            Log.d(LOG_TAG, String.format("Exported %d transactions to CSV", count))
             PreferencesHelper.lastExportTime = TimestampHelper.timestampFromNow
         } catch (e: IOException) {
             Crashlytics.logException(e)
@@ -60,13 +60,14 @@ class CsvWriter : BufferedWriter {
     }
 
     /**
-     * Escape any CSV separators by surrounding the token in double quotes
+     * Escape any CSV separators, double quotes and line breaks by surrounding the token in double quotes.
+     * Double quotes in the token are written twice
      * @param token String token to be written to CSV
      * @return Escaped CSV token
      */
     private fun escape(token: String): String {
-        return if (token.contains(separator)) {
-            "\"" + token + "\""
+        return if (token.contains(separator) || token.contains('"') || token.contains('\n') || token.contains('\r')) {
+            "\"" + token.replace("\"", "\"\"") + "\""
         } else token
     }
 
@@ -72,8 +72,8 @@ class QifExporter : Exporter {
                     SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_QUANTITY_DENOM + " AS split_quantity_denom",
                     SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_TYPE + " AS split_type",
                     SplitEntry.TABLE_NAME + "_" + SplitEntry.COLUMN_MEMO + " AS split_memo",
-                    "trans_extra_info.trans_acct_balance AS trans_acct_balance",
-                    "trans_extra_info.trans_split_count AS trans_split_count",
+                    TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_IMBALANCE + " AS trans_acct_balance",
+                    TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_SPLIT_COUNT + " AS trans_split_count",
                     "account1." + AccountEntry.COLUMN_UID + " AS acct1_uid",
                     "account1." + AccountEntry.COLUMN_FULL_NAME + " AS acct1_full_name",
                     "account1." + AccountEntry.COLUMN_CURRENCY + " AS acct1_currency",
@@ -82,7 +82,7 @@ class QifExporter : Exporter {
                 ),  // no recurrence transactions
                 TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_TEMPLATE + " == 0 AND " +  // in qif, split from the one account entry is not recorded (will be auto balanced)
                         "( " + AccountEntry.TABLE_NAME + "_" + AccountEntry.COLUMN_UID + " != account1." + AccountEntry.COLUMN_UID + " OR " +  // or if the transaction has only one split (the whole transaction would be lost if it is not selected)
-                        "trans_split_count == 1 )" +
+                        TransactionSummaryEntry.TABLE_NAME + "." + TransactionSummaryEntry.COLUMN_SPLIT_COUNT + " == 1 )" +
                         (" AND " + TransactionEntry.TABLE_NAME + "_" + TransactionEntry.COLUMN_MODIFIED_AT + " > \"" + lastExportTimeStamp + "\""),
                 null,  // trans_time ASC : put transactions in time order
                 // trans_uid ASC  : put splits from the same transaction together
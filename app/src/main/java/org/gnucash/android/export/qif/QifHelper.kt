@@ -42,6 +42,11 @@ object QifHelper {
     const val ACCOUNT_NAME_PREFIX = "N"
     const val INTERNAL_CURRENCY_PREFIX = "*"
     const val ENTRY_TERMINATOR = "^"
+    const val ACCOUNT_TYPE_PREFIX = "T"
+    const val CLEARED_PREFIX = "C"
+    const val TYPE_HEADER = "!Type:"
+    const val AUTOSWITCH_OPTION = "!Option:AutoSwitch"
+    const val AUTOSWITCH_CLEAR = "!Clear:AutoSwitch"
     private val QIF_DATE_FORMATTER = SimpleDateFormat("yyyy/M/d")
 
     /**
@@ -75,4 +80,21 @@ object QifHelper {
     fun getQifHeader(accountType: String?): String {
         return getQifHeader(AccountType.valueOf(accountType!!))
     }
+
+    /**
+     * Returns the account type for a QIF account type, as found in the QIF header of the transactions
+     * or in the account list. For example `Bank` for the `!Type:Bank` header
+     * @param qifType QIF account type
+     * @return AccountType of the account, or `null` if the QIF type is not an account with transactions
+     */
+    fun getAccountType(qifType: String): AccountType? {
+        return when (qifType.trim().lowercase(Locale.US)) {
+            "cash" -> AccountType.CASH
+            "bank" -> AccountType.BANK
+            "ccard" -> AccountType.CREDIT
+            "oth a" -> AccountType.ASSET
+            "oth l" -> AccountType.LIABILITY
+            else -> null
+        }
+    }
 }
\ No newline at end of file
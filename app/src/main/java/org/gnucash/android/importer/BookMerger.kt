@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry
+import org.gnucash.android.db.DatabaseSchema.CommonColumns
+import org.gnucash.android.db.DatabaseSchema.PriceEntry
+import org.gnucash.android.db.DatabaseSchema.RecurrenceEntry
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry
+import org.gnucash.android.db.DatabaseSchema.SplitEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.db.adapter.AccountsDbAdapter
+import org.gnucash.android.db.adapter.DatabaseAdapter
+import org.gnucash.android.db.adapter.PricesDbAdapter
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter
+import org.gnucash.android.db.adapter.TransactionsDbAdapter
+import org.gnucash.android.model.Account
+import org.gnucash.android.model.Price
+import org.gnucash.android.model.ScheduledAction
+import org.gnucash.android.model.Split
+import org.gnucash.android.model.Transaction
+
+/**
+ * Merges the objects imported from a GnuCash XML file into an existing book, matching them with its records by GUID.
+ *
+ * The content of each imported object is compared with the record of the same GUID, column by column as the
+ * database adapters write them, with the splits being part of their transaction. Records which are new are inserted
+ * and records whose content differs are overwritten, while the unchanged records are not written at all,
+ * so that importing a newer copy of a large book only costs the writes of what changed.
+ * The records are read back one chunk of imported objects at a time, so the memory does not grow with the book,
+ * except for the GUIDs of the imported objects, which are kept to find the records missing from the file.
+ *
+ * Creation timestamps are not compared, as they are not stored in the file for every object. A scheduled action keeps
+ * the runs which the book made after the file was saved, as the transactions of those runs are already in the book.
+ * All the writes happen in the database transaction of the import.
+ * @param mDb Database of the book
+ * @param mDeleteMissing Whether the records which are not in the file are deleted by [deleteMissing]
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see GncXmlHandler
+ */
+class BookMerger(
+    private val mDb: SQLiteDatabase,
+    private val mAccountsDbAdapter: AccountsDbAdapter,
+    private val mTransactionsDbAdapter: TransactionsDbAdapter,
+    private val mScheduledActionsDbAdapter: ScheduledActionDbAdapter,
+    private val mPricesDbAdapter: PricesDbAdapter,
+    private val mDeleteMissing: Boolean
+) {
+    /**
+     * GUIDs of the imported objects, by table
+     */
+    private val mAccountUIDs = HashSet<String>()
+    private val mTransactionUIDs = HashSet<String>()
+    private val mScheduledActionUIDs = HashSet<String>()
+    private val mPriceUIDs = HashSet<String>()
+
+    /**
+     * Number of imported objects which were not in the book
+     */
+    var insertedCount: Long = 0
+        private set
+
+    /**
+     * Number of imported objects which were in the book with a different content
+     */
+    var updatedCount: Long = 0
+        private set
+
+    /**
+     * Number of imported objects which were in the book with the same content
+     */
+    var unchangedCount: Long = 0
+        private set
+
+    /**
+     * Number of records of the book which were deleted because they are not in the file
+     */
+    var deletedCount: Long = 0
+        private set
+
+    /**
+     * Merges imported accounts into the book. The accounts must come after their parent accounts
+     * @param accounts Accounts with their full names
+     * @return Number of accounts which were written
+     */
+    fun mergeAccounts(accounts: List<Account>): Long {
+        val existing = readContents(
+            AccountEntry.TABLE_NAME, AccountEntry.COLUMN_UID, ACCOUNT_COLUMNS, accounts.map { it.mUID!! }
+        )
+        val newAccounts = ArrayList<Account>()
+        val changedAccounts = ArrayList<Account>()
+        for (account in accounts) {
+            mAccountUIDs.add(account.mUID!!)
+            when (existing[account.mUID]) {
+                null -> newAccounts.add(account)
+                contentOf(account) -> unchangedCount++
+                else -> changedAccounts.add(account)
+            }
+        }
+        //the accounts are updated in place, as the splits of the book refer to their row IDs
+        val nRows = mAccountsDbAdapter.bulkAddRecords(newAccounts, DatabaseAdapter.UpdateMethod.insert) +
+                mAccountsDbAdapter.bulkAddRecords(changedAccounts, DatabaseAdapter.UpdateMethod.update)
+        count(newAccounts.size, changedAccounts.size)
+        return nRows
+    }
+
+    /**
+     * Merges imported transactions into the book, together with their splits.
+     * A transaction which changed is written again as a whole, as splits may have been added to it or removed from it
+     * @param transactions Transactions, or template transactions, whose splits all have their account
+     * @return Number of transactions which were written
+     */
+    fun mergeTransactions(transactions: List<Transaction>): Long {
+        val transactionUIDs = transactions.map { it.mUID!! }
+        val existing = readContents(
+            TransactionEntry.TABLE_NAME, TransactionEntry.COLUMN_UID, TRANSACTION_COLUMNS, transactionUIDs
+        )
+        //the splits of a transaction are appended to it in the order of their GUIDs
+        val existingSplits = readContents(
+            SplitEntry.TABLE_NAME, SplitEntry.COLUMN_TRANSACTION_UID, SPLIT_COLUMNS, transactionUIDs,
+            SplitEntry.COLUMN_UID
+        )
+        val newTransactions = ArrayList<Transaction>()
+        val changedUIDs = ArrayList<String>()
+        for (transaction in transactions) {
+            mTransactionUIDs.add(transaction.mUID!!)
+            val content = existing[transaction.mUID]
+            if (content == null) {
+                newTransactions.add(transaction)
+            } else if (content + (existingSplits[transaction.mUID] ?: "") == contentOf(transaction)) {
+                unchangedCount++
+            } else {
+                newTransactions.add(transaction)
+                changedUIDs.add(transaction.mUID!!)
+            }
+        }
+        deleteRecords(TransactionEntry.TABLE_NAME, changedUIDs)
+        val nRows = mTransactionsDbAdapter.bulkAddRecords(newTransactions, DatabaseAdapter.UpdateMethod.insert)
+        count(newTransactions.size - changedUIDs.size, changedUIDs.size)
+        return nRows
+    }
+
+    /**
+     * Merges imported scheduled actions into the book, together with their recurrences
+     * @return Number of scheduled actions which were written
+     */
+    fun mergeScheduledActions(scheduledActions: List<ScheduledAction>): Long {
+        val existing = readContents(
+            ScheduledActionEntry.TABLE_NAME + " LEFT OUTER JOIN " + RecurrenceEntry.TABLE_NAME + " ON "
+                    + RecurrenceEntry.TABLE_NAME + "." + RecurrenceEntry.COLUMN_UID + " = "
+                    + ScheduledActionEntry.TABLE_NAME + "." + ScheduledActionEntry.COLUMN_RECURRENCE_UID,
+            ScheduledActionEntry.TABLE_NAME + "." + ScheduledActionEntry.COLUMN_UID,
+            SCHEDULED_ACTION_COLUMNS.map { ScheduledActionEntry.TABLE_NAME + "." + it } +
+                    RECURRENCE_COLUMNS.map { RecurrenceEntry.TABLE_NAME + "." + it },
+            scheduledActions.map { it.mUID!! }
+        )
+        val lastRuns = readLastRuns(scheduledActions.map { it.mUID!! })
+        val newActions = ArrayList<ScheduledAction>()
+        val changedActions = ArrayList<ScheduledAction>()
+        for (scheduledAction in scheduledActions) {
+            mScheduledActionUIDs.add(scheduledAction.mUID!!)
+            //the runs which the book has made since the file was saved are kept, so that they are not made again
+            val lastRun = lastRuns[scheduledAction.mUID]
+            if (lastRun != null && lastRun.first > scheduledAction.mLastRun) {
+                scheduledAction.mLastRun = lastRun.first
+                scheduledAction.mExecutionCount = lastRun.second
+            }
+            when (existing[scheduledAction.mUID]) {
+                null -> newActions.add(scheduledAction)
+                contentOf(scheduledAction) -> unchangedCount++
+                else -> {
+                    //the recurrence of the file gets the GUID of the recurrence of the book, to update it in place
+                    scheduledAction.mRecurrence!!.mUID = mScheduledActionsDbAdapter.getAttribute(
+                        scheduledAction.mUID!!, ScheduledActionEntry.COLUMN_RECURRENCE_UID
+                    )
+                    changedActions.add(scheduledAction)
+                }
+            }
+        }
+        val nRows = mScheduledActionsDbAdapter.bulkAddRecords(newActions, DatabaseAdapter.UpdateMethod.insert) +
+                mScheduledActionsDbAdapter.bulkAddRecords(changedActions, DatabaseAdapter.UpdateMethod.update)
+        count(newActions.size, changedActions.size)
+        return nRows
+    }
+
+    /**
+     * Merges imported prices into the book
+     * @return Number of prices which were written
+     */
+    fun mergePrices(prices: List<Price>): Long {
+        val existing = readContents(
+            PriceEntry.TABLE_NAME, PriceEntry.COLUMN_UID, PRICE_COLUMNS, prices.map { it.mUID!! }
+        )
+        val newPrices = ArrayList<Price>()
+        val changedPrices = ArrayList<Price>()
+        for (price in prices) {
+            mPriceUIDs.add(price.mUID!!)
+            when (existing[price.mUID]) {
+                null -> newPrices.add(price)
+                contentOf(price) -> unchangedCount++
+                else -> changedPrices.add(price)
+            }
+        }
+        val nRows = mPricesDbAdapter.bulkAddRecords(newPrices, DatabaseAdapter.UpdateMethod.insert) +
+                mPricesDbAdapter.bulkAddRecords(changedPrices, DatabaseAdapter.UpdateMethod.update)
+        count(newPrices.size, changedPrices.size)
+        return nRows
+    }
+
+    /**
+     * Deletes the transactions, scheduled actions, prices and accounts of the book which were not imported,
+     * if the merger was created to do so. To be called after all the objects of the file have been merged
+     * @return Number of deleted records
+     */
+    fun deleteMissing(): Long {
+        if (!mDeleteMissing) {
+            return 0
+        }
+        val missingTransactions = findMissing(TransactionEntry.TABLE_NAME, mTransactionUIDs)
+        var deleted = deleteRecords(TransactionEntry.TABLE_NAME, missingTransactions)
+
+        val missingActions = findMissing(ScheduledActionEntry.TABLE_NAME, mScheduledActionUIDs)
+        for (batch in missingActions.chunked(MAX_BATCH_SIZE)) {
+            val recurrenceUIDs = ArrayList<String>(batch.size)
+            val cursor = mDb.query(
+                ScheduledActionEntry.TABLE_NAME, arrayOf(ScheduledActionEntry.COLUMN_RECURRENCE_UID),
+                ScheduledActionEntry.COLUMN_UID + " IN ( " + placeholders(batch) + " )", batch.toTypedArray(),
+                null, null, null
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    recurrenceUIDs.add(cursor.getString(0))
+                }
+            } finally {
+                cursor.close()
+            }
+            //the recurrences are deleted after the scheduled actions which refer to them
+            deleted += deleteRecords(ScheduledActionEntry.TABLE_NAME, batch)
+            deleteRecords(RecurrenceEntry.TABLE_NAME, recurrenceUIDs)
+        }
+        deleted += deleteRecords(PriceEntry.TABLE_NAME, findMissing(PriceEntry.TABLE_NAME, mPriceUIDs))
+
+        val missingAccounts = findMissing(AccountEntry.TABLE_NAME, mAccountUIDs)
+        for (batch in missingAccounts.chunked(MAX_BATCH_SIZE)) {
+            //the splits are deleted first, the cascade from the accounts is slow
+            mDb.delete(
+                SplitEntry.TABLE_NAME, SplitEntry.COLUMN_ACCOUNT_UID + " IN ( " + placeholders(batch) + " )",
+                batch.toTypedArray()
+            )
+            mDb.delete(
+                BudgetAmountEntry.TABLE_NAME,
+                BudgetAmountEntry.COLUMN_ACCOUNT_UID + " IN ( " + placeholders(batch) + " )",
+                batch.toTypedArray()
+            )
+            mDb.execSQL(
+                "UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
+                        + " = NULL WHERE " + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
+                        + " IN ( " + placeholders(batch) + " )",
+                batch.toTypedArray()
+            )
+        }
+        deleted += deleteRecords(AccountEntry.TABLE_NAME, missingAccounts)
+        mTransactionsDbAdapter.deleteTransactionsWithNoSplits()
+        mAccountsDbAdapter.metadataCache.invalidateAll()
+        mAccountsDbAdapter.onTableWritten(SplitEntry.TABLE_NAME)
+        Log.i(LOG_TAG, String.format("%d records deleted which are not in the file", deleted))
+        deletedCount += deleted
+        return deleted
+    }
+
+    /**
+     * Returns the time of the last run and the number of runs of the scheduled actions of the book
+     * @param uids GUIDs of the scheduled actions
+     * @return Last run and execution count by GUID, without the scheduled actions which are not in the book
+     */
+    private fun readLastRuns(uids: List<String>): HashMap<String, Pair<Long, Int>> {
+        val lastRuns = HashMap<String, Pair<Long, Int>>()
+        for (batch in uids.chunked(MAX_BATCH_SIZE)) {
+            val cursor = mDb.query(
+                ScheduledActionEntry.TABLE_NAME, arrayOf(
+                    ScheduledActionEntry.COLUMN_UID,
+                    ScheduledActionEntry.COLUMN_LAST_RUN,
+                    ScheduledActionEntry.COLUMN_EXECUTION_COUNT
+                ), ScheduledActionEntry.COLUMN_UID + " IN ( " + placeholders(batch) + " )", batch.toTypedArray(),
+                null, null, null
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    lastRuns[cursor.getString(0)] = Pair(cursor.getLong(1), cursor.getInt(2))
+                }
+            } finally {
+                cursor.close()
+            }
+        }
+        return lastRuns
+    }
+
+    private fun count(inserted: Int, updated: Int) {
+        insertedCount += inserted
+        updatedCount += updated
+    }
+
+    /**
+     * Returns the GUIDs of the records of a table which were not imported
+     */
+    private fun findMissing(tableName: String, importedUIDs: Set<String>): List<String> {
+        val missing = ArrayList<String>()
+        val cursor = mDb.query(tableName, arrayOf(CommonColumns.COLUMN_UID), null, null, null, null, null)
+        try {
+            while (cursor.moveToNext()) {
+                val uid = cursor.getString(0)
+                if (!importedUIDs.contains(uid)) missing.add(uid)
+            }
+        } finally {
+            cursor.close()
+        }
+        return missing
+    }
+
+    /**
+     * Deletes records by GUID. The splits of deleted transactions are deleted first, like the cascade would
+     * @return Number of deleted records
+     */
+    private fun deleteRecords(tableName: String, uids: List<String>): Long {
+        var deleted: Long = 0
+        for (batch in uids.chunked(MAX_BATCH_SIZE)) {
+            if (tableName == TransactionEntry.TABLE_NAME) {
+                mDb.delete(
+                    SplitEntry.TABLE_NAME,
+                    SplitEntry.COLUMN_TRANSACTION_UID + " IN ( " + placeholders(batch) + " )",
+                    batch.toTypedArray()
+                )
+            }
+            deleted += mDb.delete(
+                tableName, CommonColumns.COLUMN_UID + " IN ( " + placeholders(batch) + " )", batch.toTypedArray()
+            )
+        }
+        return deleted
+    }
+
+    /**
+     * Reads the content of the records with the keys, as the values of the columns joined into one string.
+     * Records with the same key, like the splits of a transaction, are appended to each other
+     * @param from Tables to read from
+     * @param keyColumn Column of the keys
+     * @param columns Columns of the content
+     * @param keys Keys of the records
+     * @param orderBy Order of the records with the same key
+     * @return Content of the records by key, without the keys which were not found
+     */
+    private fun readContents(
+        from: String,
+        keyColumn: String,
+        columns: List<String>,
+        keys: List<String>,
+        orderBy: String? = null
+    ): HashMap<String, String> {
+        val contents = HashMap<String, String>(keys.size * 2)
+        //stay below the limit of SQLite on the number of bound parameters
+        for (batch in keys.chunked(MAX_BATCH_SIZE)) {
+            val cursor = mDb.rawQuery(
+                "SELECT " + keyColumn + " , " + columns.joinToString(" , ") + " FROM " + from
+                        + " WHERE " + keyColumn + " IN ( " + placeholders(batch) + " )"
+                        + if (orderBy == null) "" else " ORDER BY $orderBy",
+                batch.toTypedArray()
+            )
+            try {
+                val builder = StringBuilder()
+                while (cursor.moveToNext()) {
+                    builder.setLength(0)
+                    for (i in 1..columns.size) {
+                        builder.append(cursor.getString(i) ?: NULL_VALUE).append(FIELD_SEPARATOR)
+                    }
+                    val key = cursor.getString(0)
+                    contents[key] = (contents[key] ?: "") + builder
+                }
+            } finally {
+                cursor.close()
+            }
+        }
+        return contents
+    }
+
+    companion object {
+        /**
+         * Columns which are compared, in the order of the values of the contentOf() methods
+         */
+        private val ACCOUNT_COLUMNS = listOf(
+            AccountEntry.COLUMN_NAME,
+            AccountEntry.COLUMN_DESCRIPTION,
+            AccountEntry.COLUMN_TYPE,
+            AccountEntry.COLUMN_CURRENCY,
+            AccountEntry.COLUMN_COLOR_CODE,
+            AccountEntry.COLUMN_FAVORITE,
+            AccountEntry.COLUMN_FULL_NAME,
+            AccountEntry.COLUMN_PLACEHOLDER,
+            AccountEntry.COLUMN_HIDDEN,
+            AccountEntry.COLUMN_COMMODITY_UID,
+            AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+            AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
+        )
+        private val TRANSACTION_COLUMNS = listOf(
+            TransactionEntry.COLUMN_DESCRIPTION,
+            TransactionEntry.COLUMN_NOTES,
+            TransactionEntry.COLUMN_TIMESTAMP,
+            TransactionEntry.COLUMN_EXPORTED,
+            TransactionEntry.COLUMN_CURRENCY,
+            TransactionEntry.COLUMN_COMMODITY_UID,
+            TransactionEntry.COLUMN_SCHEDX_ACTION_UID,
+            TransactionEntry.COLUMN_TEMPLATE
+        )
+        private val SPLIT_COLUMNS = listOf(
+            SplitEntry.COLUMN_UID,
+            SplitEntry.COLUMN_MEMO,
+            SplitEntry.COLUMN_TYPE,
+            SplitEntry.COLUMN_VALUE_NUM,
+            SplitEntry.COLUMN_VALUE_DENOM,
+            SplitEntry.COLUMN_QUANTITY_NUM,
+            SplitEntry.COLUMN_QUANTITY_DENOM,
+            SplitEntry.COLUMN_RECONCILE_STATE,
+            SplitEntry.COLUMN_RECONCILE_DATE,
+            SplitEntry.COLUMN_ACCOUNT_UID
+        )
+        private val SCHEDULED_ACTION_COLUMNS = listOf(
+            ScheduledActionEntry.COLUMN_ACTION_UID,
+            ScheduledActionEntry.COLUMN_TYPE,
+            ScheduledActionEntry.COLUMN_START_TIME,
+            ScheduledActionEntry.COLUMN_END_TIME,
+            ScheduledActionEntry.COLUMN_LAST_RUN,
+            ScheduledActionEntry.COLUMN_ENABLED,
+            ScheduledActionEntry.COLUMN_TAG,
+            ScheduledActionEntry.COLUMN_TOTAL_FREQUENCY,
+            ScheduledActionEntry.COLUMN_AUTO_CREATE,
+            ScheduledActionEntry.COLUMN_AUTO_NOTIFY,
+            ScheduledActionEntry.COLUMN_ADVANCE_CREATION,
+            ScheduledActionEntry.COLUMN_ADVANCE_NOTIFY,
+            ScheduledActionEntry.COLUMN_TEMPLATE_ACCT_UID,
+            ScheduledActionEntry.COLUMN_EXECUTION_COUNT
+        )
+        private val RECURRENCE_COLUMNS = listOf(
+            RecurrenceEntry.COLUMN_MULTIPLIER,
+            RecurrenceEntry.COLUMN_PERIOD_TYPE,
+            RecurrenceEntry.COLUMN_BYDAY,
+            RecurrenceEntry.COLUMN_PERIOD_START,
+            RecurrenceEntry.COLUMN_PERIOD_END
+        )
+        private val PRICE_COLUMNS = listOf(
+            PriceEntry.COLUMN_COMMODITY_UID,
+            PriceEntry.COLUMN_CURRENCY_UID,
+            PriceEntry.COLUMN_DATE,
+            PriceEntry.COLUMN_SOURCE,
+            PriceEntry.COLUMN_TYPE,
+            PriceEntry.COLUMN_VALUE_NUM,
+            PriceEntry.COLUMN_VALUE_DENOM
+        )
+
+        /**
+         * Number of GUIDs bound in one query
+         */
+        private const val MAX_BATCH_SIZE = 500
+        private const val FIELD_SEPARATOR = '\u001f'
+        private const val NULL_VALUE = "\u0000"
+        private const val LOG_TAG = "BookMerger"
+
+        private fun placeholders(batch: List<String>): String {
+            return batch.joinToString(" , ") { "?" }
+        }
+
+        /**
+         * Joins the values as they are written to the database, booleans being written as 1 or 0
+         */
+        private fun content(vararg values: Any?): String {
+            val builder = StringBuilder()
+            for (value in values) {
+                when (value) {
+                    null -> builder.append(NULL_VALUE)
+                    is Boolean -> builder.append(if (value) 1 else 0)
+                    else -> builder.append(value)
+                }
+                builder.append(FIELD_SEPARATOR)
+            }
+            return builder.toString()
+        }
+
+        private fun contentOf(account: Account): String {
+            return content(
+                account.mName,
+                account.mDescription,
+                account.mAccountType.name,
+                account.getMCommodity().mMnemonic,
+                if (account.getMColor() != Account.DEFAULT_COLOR) account.colorHexString else null,
+                account.isFavorite,
+                account.mFullName,
+                account.isPlaceholderAccount,
+                account.isHidden,
+                account.getMCommodity().mUID,
+                account.mParentAccountUID,
+                account.mDefaultTransferAccountUID
+            )
+        }
+
+        private fun contentOf(transaction: Transaction): String {
+            val builder = StringBuilder(
+                content(
+                    transaction.getMDescription(),
+                    transaction.mNotes,
+                    transaction.mTimestamp,
+                    transaction.mIsExported,
+                    transaction.mMnemonic,
+                    transaction.mCommodity!!.mUID,
+                    transaction.mScheduledActionUID,
+                    transaction.mIsTemplate
+                )
+            )
+            for (split in transaction.getMSplitList().sortedBy { it.mUID }) {
+                builder.append(contentOf(split))
+            }
+            return builder.toString()
+        }
+
+        private fun contentOf(split: Split): String {
+            return content(
+                split.mUID,
+                split.mMemo,
+                split.mSplitType!!.name,
+                split.mValue!!.numerator(),
+                split.mValue!!.denominator(),
+                split.mQuantity!!.numerator(),
+                split.mQuantity!!.denominator(),
+                split.mReconcileState.toString(),
+                split.mReconcileDate.toString(),
+                split.mAccountUID
+            )
+        }
+
+        private fun contentOf(scheduledAction: ScheduledAction): String {
+            val recurrence = scheduledAction.mRecurrence!!
+            return content(
+                scheduledAction.getMActionUID(),
+                scheduledAction.mActionType.name,
+                scheduledAction.mStartTime,
+                scheduledAction.getMEndDate(),
+                scheduledAction.mLastRun,
+                scheduledAction.isEnabled,
+                scheduledAction.mTag,
+                scheduledAction.mTotalFrequency,
+                scheduledAction.shouldAutoCreate(),
+                scheduledAction.shouldAutoNotify(),
+                scheduledAction.mAdvanceCreateDays,
+                scheduledAction.mAdvanceNotifyDays,
+                scheduledAction.mTemplateAccountUID,
+                scheduledAction.mExecutionCount,
+                recurrence.mMultiplier,
+                recurrence.mPeriodType!!.name,
+                if (recurrence.byDays().isEmpty()) null else RecurrenceDbAdapter.byDaysToString(recurrence.byDays()),
+                recurrence.mPeriodStart.toString(),
+                recurrence.mPeriodEnd?.toString()
+            )
+        }
+
+        private fun contentOf(price: Price): String {
+            return content(
+                price.mCommodityUID,
+                price.mCurrencyUID,
+                price.mDate.toString(),
+                price.mSource,
+                price.mType,
+                price.getMValueNum(),
+                price.getMValueDenom()
+            )
+        }
+    }
+}
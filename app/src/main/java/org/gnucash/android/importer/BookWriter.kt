@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import org.gnucash.android.model.Account
+import org.gnucash.android.model.Price
+import org.gnucash.android.model.ScheduledAction
+import org.gnucash.android.model.Transaction
+import org.xml.sax.SAXException
+
+/**
+ * Receives the objects parsed from a GnuCash XML file, in the order in which they appear in the file
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see GncXmlHandler
+ * @see ImportPipeline
+ */
+interface BookWriter {
+    /**
+     * Adds a parsed account to the book
+     * @param account Account which is not a template account
+     */
+    @Throws(SAXException::class)
+    fun addAccount(account: Account)
+
+    /**
+     * Adds a parsed transaction to the book
+     * @param transaction Transaction which is not a template
+     * @param recurrencePeriod Recurrence period of the transaction in old backup files, or 0
+     */
+    fun addTransaction(transaction: Transaction, recurrencePeriod: Long)
+
+    /**
+     * Adds a parsed template transaction to the book
+     */
+    fun addTemplateTransaction(transaction: Transaction)
+
+    /**
+     * Adds a parsed scheduled action to the book
+     * @param scheduledAction Scheduled action with its action UID and recurrence
+     */
+    fun addScheduledAction(scheduledAction: ScheduledAction)
+
+    /**
+     * Adds a parsed price to the book
+     */
+    fun addPrice(price: Price)
+
+    /**
+     * Counts an account in the currency. The most used currency becomes the default currency
+     * @param currencyCode ISO 4217 code of the currency of the account
+     */
+    fun countCurrency(currencyCode: String)
+}
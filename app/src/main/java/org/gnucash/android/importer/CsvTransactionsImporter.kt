@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import org.gnucash.android.app.GnuCashApplication
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry
+import org.gnucash.android.db.adapter.AccountsDbAdapter
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter
+import org.gnucash.android.db.adapter.DatabaseAdapter.UpdateMethod
+import org.gnucash.android.db.adapter.SplitsDbAdapter
+import org.gnucash.android.db.adapter.TransactionsDbAdapter
+import org.gnucash.android.importer.ImportProgress.Phase
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.Split
+import org.gnucash.android.model.Transaction
+import org.gnucash.android.model.TransactionType
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.math.BigDecimal
+import java.math.RoundingMode
+import java.sql.Timestamp
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.Locale
+
+/**
+ * Imports transactions from CSV files in the layout written by
+ * [org.gnucash.android.export.csv.CsvTransactionsExporter].
+ *
+ * The first line holds the column headers (see `R.array.csv_transaction_headers`). Each transaction starts on a line
+ * with its date, and its first split in the last columns. The other splits follow on lines whose transaction columns
+ * are empty.
+ *
+ * The file is read line by line and the transactions are written to the database in batches, so that only one batch
+ * is in memory at a time. The accounts are found by their full name through a map which is loaded once. Accounts which
+ * do not exist are created, with their parents, as bank accounts. Transactions whose GUID is already in the book
+ * are skipped, so that a file can be imported again. The import is done in one database transaction,
+ * and nothing is written if it fails.
+ * @param db Database of the book into which the transactions are imported
+ * @param mCsvSeparator Separator of the columns
+ * @param mBatchSize Number of transactions written to the database at once
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class CsvTransactionsImporter @JvmOverloads constructor(
+    db: SQLiteDatabase = GnuCashApplication.activeDb,
+    private val mCsvSeparator: Char = ',',
+    private val mBatchSize: Int = DEFAULT_BATCH_SIZE
+) {
+    private val mDb = db
+    private val mTransactionsDbAdapter = TransactionsDbAdapter(db, SplitsDbAdapter(db))
+    private val mAccountsDbAdapter = AccountsDbAdapter(db, mTransactionsDbAdapter)
+    private val mCommoditiesDbAdapter = CommoditiesDbAdapter(db)
+
+    private val mDateFormat = SimpleDateFormat("yyyy-MM-dd", Locale.US)
+
+    /**
+     * Account UIDs by full name, and the commodity of each account by UID
+     */
+    private val mAccountUIDs = HashMap<String, String>()
+    private val mAccountCommodities = HashMap<String, Commodity>()
+
+    /**
+     * Commodities by UID and by currency code, and imbalance account UIDs by currency code
+     */
+    private val mCommodities = HashMap<String, Commodity>()
+    private val mCurrencies = HashMap<String, Commodity>()
+    private val mImbalanceAccountUIDs = HashMap<String, String>()
+
+    private val mBatch = ArrayList<Transaction>()
+    private val mFields = ArrayList<String>()
+    private val mField = StringBuilder()
+    private var mLineNumber = 0
+
+    /**
+     * Number of transactions written to the database by the last import
+     */
+    var importedCount = 0
+        private set
+
+    /**
+     * Number of transactions of the last import which were skipped because they were already in the book
+     */
+    var skippedCount = 0
+        private set
+
+    /**
+     * Imports the transactions of a CSV file into the book
+     * @param inputStream Stream of the CSV file, in UTF-8
+     * @param progressTracker Tracker for the progress of the import, the progress is only logged by default
+     * @return Number of transactions which were written to the database
+     * @throws IOException if the file cannot be read, or if a line is not a valid transaction
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun importTransactions(
+        inputStream: InputStream,
+        progressTracker: ImportProgressTracker = ImportProgressTracker(-1, null)
+    ): Int {
+        val start = System.nanoTime()
+        importedCount = 0
+        skippedCount = 0
+        mLineNumber = 0
+        loadAccounts()
+        val reader = BufferedReader(InputStreamReader(progressTracker.countBytes(inputStream), Charsets.UTF_8))
+        mTransactionsDbAdapter.beginTransaction()
+        try {
+            //the first line holds the headers
+            if (readRecord(reader)) {
+                var transaction: Transaction? = null
+                while (readRecord(reader)) {
+                    if (mFields.all { it.isEmpty() }) continue
+                    try {
+                        val current = if (mFields[COLUMN_DATE].isNotEmpty()) {
+                            transaction?.let { addTransaction(it, progressTracker) }
+                            parseTransaction().also { transaction = it }
+                        } else {
+                            transaction ?: throw ParseException("Split without a transaction", 0)
+                        }
+                        current.addSplit(parseSplit(current))
+                    } catch (e: ParseException) {
+                        throw IOException("Invalid CSV transaction on line $mLineNumber: ${e.message}", e)
+                    } catch (e: IllegalArgumentException) {
+                        throw IOException("Invalid CSV transaction on line $mLineNumber: ${e.message}", e)
+                    }
+                }
+                transaction?.let { addTransaction(it, progressTracker) }
+                saveTransactions(progressTracker)
+            }
+            progressTracker.setPhase(Phase.COMMIT)
+            mTransactionsDbAdapter.setTransactionSuccessful()
+        } finally {
+            mTransactionsDbAdapter.endTransaction()
+            mBatch.clear()
+        }
+        progressTracker.finish()
+        Log.i(
+            LOG_TAG, String.format(
+                "Imported %d transactions from CSV, skipped %d, in %d ms", importedCount, skippedCount,
+                (System.nanoTime() - start) / 1000000
+            )
+        )
+        return importedCount
+    }
+
+    /**
+     * Loads the full name, UID and commodity of the accounts of the book
+     */
+    private fun loadAccounts() {
+        mAccountUIDs.clear()
+        mAccountCommodities.clear()
+        val cursor = mDb.query(
+            AccountEntry.TABLE_NAME,
+            arrayOf(AccountEntry.COLUMN_UID, AccountEntry.COLUMN_FULL_NAME, AccountEntry.COLUMN_COMMODITY_UID),
+            AccountEntry.COLUMN_TEMPLATE + " = 0", null, null, null, null
+        )
+        try {
+            while (cursor.moveToNext()) {
+                val uid = cursor.getString(0)
+                val fullName = cursor.getString(1)
+                if (fullName != null) mAccountUIDs[fullName] = uid
+                mAccountCommodities[uid] = getCommodityByUID(cursor.getString(2))
+            }
+        } finally {
+            cursor.close()
+        }
+    }
+
+    private fun getCommodityByUID(commodityUID: String): Commodity {
+        return mCommodities.getOrPut(commodityUID) { mCommoditiesDbAdapter.getCommodityByUID(commodityUID) }
+    }
+
+    private fun getCurrency(currencyCode: String): Commodity {
+        return mCurrencies.getOrPut(currencyCode) {
+            mCommoditiesDbAdapter.getCommodity(currencyCode)
+                ?: throw ParseException("Unknown commodity: $currencyCode", 0)
+        }
+    }
+
+    /**
+     * Returns the UID of the account with the full name, and creates the account if it does not exist
+     */
+    private fun getAccountUID(fullName: String): String {
+        mAccountUIDs[fullName]?.let { return it }
+        val uid = mAccountsDbAdapter.createAccountHierarchy(fullName, AccountType.BANK)!!
+        Log.i(LOG_TAG, "Created account $fullName")
+        //the parents which did not exist were created too, with the default commodity
+        var parentName = ""
+        for (token in fullName.split(AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR).dropLastWhile { it.isEmpty() }) {
+            parentName += token
+            if (!mAccountUIDs.containsKey(parentName)) {
+                val parentUID = mAccountsDbAdapter.findAccountUidByFullName(parentName)!!
+                mAccountUIDs[parentName] = parentUID
+                mAccountCommodities[parentUID] = Commodity.DEFAULT_COMMODITY
+            }
+            parentName += AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR
+        }
+        return uid
+    }
+
+    /**
+     * Builds the transaction of the current record, without its splits
+     */
+    @Throws(ParseException::class)
+    private fun parseTransaction(): Transaction {
+        val transaction = Transaction(mFields[COLUMN_DESCRIPTION])
+        if (mFields[COLUMN_TRANSACTION_ID].isNotEmpty()) {
+            transaction.mUID = mFields[COLUMN_TRANSACTION_ID]
+        }
+        transaction.mNotes = mFields[COLUMN_NOTES]
+        transaction.setMTimestamp(mDateFormat.parse(mFields[COLUMN_DATE])!!)
+        val commodity = mFields[COLUMN_COMMODITY]
+        transaction.mCommodity = getCurrency(commodity.substringAfterLast(COMMODITY_SEPARATOR))
+        return transaction
+    }
+
+    /**
+     * Builds the split of the current record.
+     *
+     * The amounts are in the commodity of the account. When it differs from the currency of the transaction, the
+     * value is computed with the rate of the split
+     */
+    @Throws(ParseException::class)
+    private fun parseSplit(transaction: Transaction): Split {
+        val fullName = mFields[COLUMN_FULL_ACCOUNT_NAME]
+        if (fullName.isEmpty()) throw ParseException("Split without an account", 0)
+        val accountUID = getAccountUID(fullName)
+        val amount = parseAmount(mFields[COLUMN_AMOUNT])
+        val accountCommodity = mAccountCommodities[accountUID]!!
+        val quantity = Money(amount.abs(), accountCommodity)
+        val value = if (accountCommodity == transaction.mCommodity || mFields[COLUMN_RATE].isEmpty()) {
+            Money(amount.abs(), transaction.mCommodity)
+        } else {
+            val rate = parseAmount(mFields[COLUMN_RATE])
+            if (rate.signum() == 0) throw ParseException("Invalid rate: ${mFields[COLUMN_RATE]}", 0)
+            Money(amount.abs().divide(rate, RATE_SCALE, RoundingMode.HALF_EVEN), transaction.mCommodity)
+        }
+        val split = Split(value, quantity, accountUID)
+        split.mSplitType = if (amount.signum() < 0) TransactionType.CREDIT else TransactionType.DEBIT
+        split.mMemo = mFields[COLUMN_MEMO].ifEmpty { null }
+        if (mFields[COLUMN_RECONCILE].isNotEmpty()) {
+            split.mReconcileState = mFields[COLUMN_RECONCILE][0]
+            if (mFields[COLUMN_RECONCILE_DATE].isNotEmpty()) {
+                split.mReconcileDate = Timestamp(mDateFormat.parse(mFields[COLUMN_RECONCILE_DATE])!!.time)
+            }
+        }
+        return split
+    }
+
+    /**
+     * Parses an amount, which does not depend on the locale of the device which exported the file.
+     * Grouping separators are rejected, so that `1,234` is not read as `1.234` or `1234`
+     */
+    @Throws(ParseException::class)
+    private fun parseAmount(amount: String): BigDecimal {
+        return when {
+            PLAIN_AMOUNT.matches(amount) -> BigDecimal(amount)
+            //older versions wrote the amounts with two decimals in the locale of the device
+            DECIMAL_COMMA_AMOUNT.matches(amount) -> BigDecimal(amount.replace(',', '.'))
+            else -> throw ParseException("Invalid amount: $amount", 0)
+        }
+    }
+
+    /**
+     * Adds a complete transaction to the batch, and writes the batch when it is full
+     */
+    private fun addTransaction(transaction: Transaction, progressTracker: ImportProgressTracker) {
+        val imbalanceSplit = transaction.createAutoBalanceSplit()
+        if (imbalanceSplit != null) {
+            val commodity = transaction.mCommodity!!
+            imbalanceSplit.mAccountUID = mImbalanceAccountUIDs.getOrPut(commodity.mMnemonic) {
+                mAccountsDbAdapter.getOrCreateImbalanceAccountUID(commodity)!!
+            }
+        }
+        mBatch.add(transaction)
+        if (mBatch.size >= mBatchSize) {
+            saveTransactions(progressTracker)
+        }
+    }
+
+    /**
+     * Writes the transactions of the batch which are not in the book yet, and clears the batch
+     */
+    private fun saveTransactions(progressTracker: ImportProgressTracker) {
+        if (mBatch.isEmpty()) return
+        progressTracker.setPhase(Phase.INSERT_TRANSACTIONS)
+        val existingUIDs = HashSet<String>()
+        for (chunk in mBatch.chunked(QUERY_BATCH_SIZE)) {
+            val cursor = mDb.query(
+                TransactionEntry.TABLE_NAME, arrayOf(TransactionEntry.COLUMN_UID),
+                TransactionEntry.COLUMN_UID + " IN (" + chunk.joinToString(",") { "?" } + ")",
+                chunk.map { it.mUID }.toTypedArray(), null, null, null
+            )
+            try {
+                while (cursor.moveToNext()) {
+                    existingUIDs.add(cursor.getString(0))
+                }
+            } finally {
+                cursor.close()
+            }
+        }
+        val transactions = mBatch.filter { it.mUID !in existingUIDs }
+        skippedCount += mBatch.size - transactions.size
+        if (transactions.isNotEmpty()) {
+            mTransactionsDbAdapter.bulkAddRecords(transactions, UpdateMethod.insert)
+            importedCount += transactions.size
+            progressTracker.addEntities(transactions.size.toLong())
+        }
+        mBatch.clear()
+    }
+
+    /**
+     * Reads the fields of the next record into [mFields].
+     *
+     * Fields may be enclosed in double quotes, as specified by RFC 4180. Quoted fields may contain the separator,
+     * line breaks, and double quotes which are written twice
+     * @return `false` at the end of the file
+     */
+    @Throws(IOException::class)
+    private fun readRecord(reader: BufferedReader): Boolean {
+        var line = reader.readLine() ?: return false
+        mLineNumber++
+        mFields.clear()
+        mField.setLength(0)
+        var quoted = false
+        var i = 0
+        while (true) {
+            if (i == line.length) {
+                if (!quoted) break
+                //the quoted field goes on, on the next line
+                line = reader.readLine() ?: throw IOException("Unterminated quoted field on line $mLineNumber")
+                mLineNumber++
+                mField.append('\n')
+                i = 0
+                continue
+            }
+            val c = line[i++]
+            if (quoted) {
+                if (c != '"') {
+                    mField.append(c)
+                } else if (i < line.length && line[i] == '"') {
+                    mField.append('"')
+                    i++
+                } else {
+                    quoted = false
+                }
+            } else if (c == mCsvSeparator) {
+                mFields.add(mField.toString())
+                mField.setLength(0)
+            } else if (c == '"' && mField.isEmpty()) {
+                quoted = true
+            } else {
+                mField.append(c)
+            }
+        }
+        mFields.add(mField.toString())
+        //the exporter does not write the empty fields at the end of the line
+        while (mFields.size < COLUMN_COUNT) {
+            mFields.add("")
+        }
+        return true
+    }
+
+    companion object {
+        private const val LOG_TAG = "CsvTransactionsImporter"
+
+        /**
+         * Default number of transactions written to the database at once
+         */
+        const val DEFAULT_BATCH_SIZE = 1000
+
+        /**
+         * Largest number of GUIDs looked up in one query, below the limit of SQLite on query parameters
+         */
+        private const val QUERY_BATCH_SIZE = 500
+
+        /**
+         * Separator of the namespace and the code in the commodity column, e.g. `CURRENCY::USD`
+         */
+        private const val COMMODITY_SEPARATOR = "::"
+
+        /**
+         * Number of decimals of the values computed from a rate, before they are rounded to the currency
+         */
+        private const val RATE_SCALE = 12
+
+        /**
+         * Amounts written by the exporter, and amounts with a decimal comma and two decimals written
+         * by older versions in some locales. A comma followed by three digits could be a grouping separator
+         */
+        private val PLAIN_AMOUNT = Regex("[-+]?[0-9]+(\\.[0-9]+)?")
+        private val DECIMAL_COMMA_AMOUNT = Regex("[-+]?[0-9]+,[0-9]{1,2}")
+
+        /**
+         * Columns of `R.array.csv_transaction_headers`
+         */
+        private const val COLUMN_DATE = 0
+        private const val COLUMN_TRANSACTION_ID = 1
+        private const val COLUMN_DESCRIPTION = 3
+        private const val COLUMN_NOTES = 4
+        private const val COLUMN_COMMODITY = 5
+        private const val COLUMN_MEMO = 8
+        private const val COLUMN_FULL_ACCOUNT_NAME = 9
+        private const val COLUMN_AMOUNT = 12
+        private const val COLUMN_RECONCILE = 13
+        private const val COLUMN_RECONCILE_DATE = 14
+        private const val COLUMN_RATE = 15
+        private const val COLUMN_COUNT = 16
+    }
+}
@@ -22,6 +22,7 @@ import android.util.Log
 import com.crashlytics.android.Crashlytics
 import org.gnucash.android.app.GnuCashApplication
 import org.gnucash.android.db.DatabaseHelper
+import org.gnucash.android.db.DatabaseSchema
 import org.gnucash.android.db.adapter.*
 import org.gnucash.android.export.xml.GncXmlHelper
 import org.gnucash.android.export.xml.GncXmlHelper.parseDate
@@ -55,11 +56,28 @@ import kotlin.toString
  * Handler for parsing the GnuCash XML file.
  * The discovered accounts and transactions are automatically added to the database
  *
+ * The import runs in one database transaction, so that it is all-or-nothing. Transactions and prices are written
+ * to the database in chunks as they are parsed, so that a large book is never held in memory as a whole.
+ * Only the accounts, the template transactions and scheduled actions, and the references between them stay in memory.
+ * If the parsing fails, [abortImport] must be called to roll back the import.
+ * The parsed objects go through the [BookWriter] methods, which [GncXmlPullImporter] uses as well.
+ *
+ * Instead of creating a new book, the file can be merged into an existing book with a [BookMerger], which only writes
+ * what is new or changed. The scheduled transactions missed since the file was saved are not generated then,
+ * as they would get new GUIDs on every merge; the scheduler of the app creates them.
+ * @param mChunkSize Number of parsed transactions, or prices, which are kept in memory before they are written
+ * @param mMergeBookUID GUID of the book into which the file is merged, or `null` to import it as a new book
+ * @param mDeleteMissing Whether merging deletes the records of the book which are not in the file
+ *
  * @author Ngewi Fet <ngewif></ngewif>@gmail.com>
  * @author Yongxin Wang <fefe.wyx></fefe.wyx>@gmail.com>
  * @author Xilin Jia <https://github.com/XilinJia> [Kotlin code created (Copyright (C) 2022)]
  */
-class GncXmlHandler : DefaultHandler() {
+class GncXmlHandler @JvmOverloads constructor(
+    private val mChunkSize: Int = DEFAULT_CHUNK_SIZE,
+    private val mMergeBookUID: String? = null,
+    private val mDeleteMissing: kotlin.Boolean = false
+) : DefaultHandler(), BookWriter {
     /**
      * Adapter for saving the imported accounts
      */
@@ -106,7 +124,7 @@ class GncXmlHandler : DefaultHandler() {
     var mTransaction: Transaction? = null
 
     /**
-     * All the transaction instances found in a file to be inserted, used in bulk mode
+     * Transactions parsed since the last chunk was written to the database
      */
     var mTransactionList: MutableList<Transaction>? = null
 
@@ -136,6 +154,10 @@ class GncXmlHandler : DefaultHandler() {
     var mPrice: Price? = null
     var mPriceCommodity = false
     var mPriceCurrency = false
+
+    /**
+     * Prices parsed since the last chunk was written to the database
+     */
     var mPriceList: MutableList<Price>? = null
 
     /**
@@ -144,7 +166,7 @@ class GncXmlHandler : DefaultHandler() {
     var mNegativeQuantity = false
 
     /**
-     * The list for all added split for autobalancing
+     * The list of the added splits for autobalancing, whose imbalance account is not assigned yet
      */
     var mAutoBalanceSplits: MutableList<Split>? = null
 
@@ -159,7 +181,7 @@ class GncXmlHandler : DefaultHandler() {
     var mScheduledAction: ScheduledAction? = null
 
     /**
-     * List of scheduled actions to be bulk inserted
+     * List of scheduled actions to be bulk inserted with the next chunk of transactions
      */
     var mScheduledActionsList: MutableList<ScheduledAction>? = null
 
@@ -220,13 +242,58 @@ class GncXmlHandler : DefaultHandler() {
     private var mRecurrencePeriod: Long = 0
     private var mTransactionsDbAdapter: TransactionsDbAdapter? = null
     private var mScheduledActionsDbAdapter: ScheduledActionDbAdapter? = null
-    private var mCommoditiesDbAdapter: CommoditiesDbAdapter? = null
+
+    /**
+     * Adapter for looking up the commodities of the imported book
+     */
+    var mCommoditiesDbAdapter: CommoditiesDbAdapter? = null
+
+    /**
+     * Tracker of the progress of the import, which gets the phases of the writes and the number of written objects
+     */
+    var mProgressTracker: ImportProgressTracker? = null
+
     private var mPricesDbAdapter: PricesDbAdapter? = null
     private var mCurrencyCount: MutableMap<String, Int>? = null
     private var mBudgetsDbAdapter: BudgetsDbAdapter? = null
     private var mBook: Book? = null
     private var mainDb: SQLiteDatabase? = null
 
+    /**
+     * Merger of the parsed objects into the existing book, or `null` when importing a new book
+     */
+    private var mMerger: BookMerger? = null
+
+    /**
+     * Whether the database was opened for the import, and is closed after it.
+     * The database of the active book stays open
+     */
+    private var mCloseDb = true
+
+    /**
+     * Number of accounts at the start of [mAccountList] which have been written to the database
+     */
+    private var mSavedAccountCount = 0
+
+    /**
+     * Full names of the accounts, by account GUID
+     */
+    private val mAccountFullNames = HashMap<String?, String?>()
+
+    /**
+     * Top level imbalance accounts, by currency code
+     */
+    private val mImbalanceAccounts = HashMap<String?, Account?>()
+    private var mTransactionCount: Long = 0
+    private var mPriceCount: Long = 0
+    private var mStartTime: Long = 0
+
+    /**
+     * Whether the database transaction of the import has been started and not ended
+     */
+    private var mInDbTransaction = false
+    private var mImportFinished = false
+
     /**
      * Creates a handler for handling XML stream events when parsing the XML backup file
      */
@@ -238,9 +305,14 @@ class GncXmlHandler : DefaultHandler() {
      * Initialize the GnuCash XML handler
      */
     private fun init() {
-        mBook = Book()
-        val databaseHelper = DatabaseHelper(GnuCashApplication.appContext, mBook!!.mUID)
-        mainDb = databaseHelper.writableDatabase
+        if (mMergeBookUID == null) {
+            mBook = Book()
+        } else {
+            mBook = BooksDbAdapter.instance.getRecord(mMergeBookUID)
+            mCloseDb = !BooksDbAdapter.instance.isActive(mMergeBookUID)
+        }
+        mainDb = if (mCloseDb) DatabaseHelper(GnuCashApplication.appContext, mBook!!.mUID).writableDatabase
+        else GnuCashApplication.activeDb
         mTransactionsDbAdapter = TransactionsDbAdapter(mainDb, SplitsDbAdapter(mainDb))
         mAccountsDbAdapter = AccountsDbAdapter(mainDb!!, mTransactionsDbAdapter!!)
         val recurrenceDbAdapter = RecurrenceDbAdapter(mainDb)
@@ -248,6 +320,12 @@ class GncXmlHandler : DefaultHandler() {
         mCommoditiesDbAdapter = CommoditiesDbAdapter(mainDb)
         mPricesDbAdapter = PricesDbAdapter(mainDb)
         mBudgetsDbAdapter = BudgetsDbAdapter(mainDb, BudgetAmountsDbAdapter(mainDb), recurrenceDbAdapter)
+        if (mMergeBookUID != null) {
+            mMerger = BookMerger(
+                mainDb!!, mAccountsDbAdapter!!, mTransactionsDbAdapter!!, mScheduledActionsDbAdapter!!,
+                mPricesDbAdapter!!, mDeleteMissing
+            )
+        }
         mContent = StringBuilder()
         mAccountList = ArrayList()
         mAccountMap = HashMap()
@@ -262,6 +340,23 @@ class GncXmlHandler : DefaultHandler() {
         mCurrencyCount = HashMap()
     }
 
+    @Throws(SAXException::class)
+    override fun startDocument() {
+        super.startDocument()
+        mStartTime = System.nanoTime()
+        mAccountsDbAdapter!!.beginTransaction()
+        mInDbTransaction = true
+        Log.d(javaClass.simpleName, "bulk insert starts")
+        // disable foreign key. The database structure should be ensured by the data inserted.
+        // it will make insertion much faster.
+        mAccountsDbAdapter!!.enableForeignKey(false)
+        if (mMerger == null) {
+            Log.d(javaClass.simpleName, "before clean up db")
+            mAccountsDbAdapter!!.deleteAllRecords()
+            Log.d(javaClass.simpleName, String.format("deb clean up done %d ns", System.nanoTime() - mStartTime))
+        }
+    }
+
     @Throws(SAXException::class)
     override fun startElement(
         uri: String, localName: String,
@@ -362,11 +457,7 @@ class GncXmlHandler : DefaultHandler() {
                                     + "' currency code not found in the database"
                         )
                     }
-                    if (mCurrencyCount!!.containsKey(currencyCode)) {
-                        mCurrencyCount!![currencyCode] = mCurrencyCount!![currencyCode]!! + 1
-                    } else {
-                        mCurrencyCount!![currencyCode] = 1
-                    }
+                    countCurrency(currencyCode)
                 }
                 if (mTransaction != null) {
                     mTransaction!!.mCommodity = commodity
@@ -386,16 +477,7 @@ class GncXmlHandler : DefaultHandler() {
             GncXmlHelper.TAG_ACCT_DESCRIPTION -> mAccount!!.mDescription = characterString
             GncXmlHelper.TAG_PARENT_UID -> mAccount!!.mParentAccountUID = characterString
             GncXmlHelper.TAG_ACCOUNT -> if (!mInTemplates) { //we ignore template accounts, we have no use for them. FIXME someday and import the templates too
-                mAccountList!!.add(mAccount!!)
-                mAccountMap!![mAccount!!.mUID!!] = mAccount!!
-                // check ROOT account
-                if (mAccount!!.mAccountType === AccountType.ROOT) {
-                    mRootAccount = if (mRootAccount == null) {
-                        mAccount
-                    } else {
-                        throw SAXException("Multiple ROOT accounts exist in book")
-                    }
-                }
+                addAccount(mAccount!!)
                 // prepare for next input
                 mAccount = null
                 //reset ISO 4217 flag for next account
@@ -429,21 +511,7 @@ class GncXmlHandler : DefaultHandler() {
                 mInPlaceHolderSlot = false
             } else if (mInColorSlot) {
                 //Log.d(LOG_TAG, "Parsing color code: " + characterString);
-                var color = characterString.trim { it <= ' ' }
-                //Gnucash exports the account color in format #rrrgggbbb, but we need only #rrggbb.
-                //so we trim the last digit in each block, doesn't affect the color much
-                if (color != "Not Set") {
-                    // avoid known exception, printStackTrace is very time consuming
-                    if (!Pattern.matches(ACCOUNT_COLOR_HEX_REGEX, color)) color =
-                        "#" + color.replace(".(.)?".toRegex(), "$1").replace("null", "")
-                    try {
-                        if (mAccount != null) mAccount!!.setMColor(color)
-                    } catch (ex: IllegalArgumentException) {
-                        //sometimes the color entry in the account file is "Not set" instead of just blank. So catch!
-                        Log.e(LOG_TAG, "Invalid color code '" + color + "' for account " + mAccount!!.mName)
-                        Crashlytics.logException(ex)
-                    }
-                }
+                if (mAccount != null) setAccountColor(mAccount!!, characterString)
                 mInColorSlot = false
             } else if (mInFavoriteSlot) {
                 mAccount!!.setMIsFavorite(Boolean.parseBoolean(characterString))
@@ -565,20 +633,10 @@ class GncXmlHandler : DefaultHandler() {
 
             GncXmlHelper.TAG_TRN_SPLIT -> mTransaction!!.addSplit(mSplit!!)
             GncXmlHelper.TAG_TRANSACTION -> {
-                mTransaction!!.mIsTemplate = mInTemplates
-                val imbSplit = mTransaction!!.createAutoBalanceSplit()
-                if (imbSplit != null) {
-                    mAutoBalanceSplits!!.add(imbSplit)
-                }
                 if (mInTemplates) {
-                    if (!mIgnoreTemplateTransaction) mTemplateTransactions!!.add(mTransaction!!)
+                    if (!mIgnoreTemplateTransaction) addTemplateTransaction(mTransaction!!)
                 } else {
-                    mTransactionList!!.add(mTransaction!!)
-                }
-                if (mRecurrencePeriod > 0) { //if we find an old format recurrence period, parse it
-                    mTransaction!!.mIsTemplate = true
-                    val scheduledAction = parseScheduledAction(mTransaction!!, mRecurrencePeriod)
-                    mScheduledActionsList!!.add(scheduledAction)
+                    addTransaction(mTransaction!!, mRecurrencePeriod)
                 }
                 mRecurrencePeriod = 0
                 mIgnoreTemplateTransaction = true
@@ -644,13 +702,7 @@ class GncXmlHandler : DefaultHandler() {
 
             GncXmlHelper.TAG_SCHEDULED_ACTION -> {
                 if (mScheduledAction!!.getMActionUID() != null && !mIgnoreScheduledAction) {
-                    if (mScheduledAction!!.mRecurrence!!.mPeriodType === PeriodType.WEEK) {
-                        // TODO: implement parsing of by days for scheduled actions
-                        setMinimalScheduledActionByDays()
-                    }
-                    mScheduledActionsList!!.add(mScheduledAction!!)
-                    val count = generateMissedScheduledTransactions(mScheduledAction)
-                    Log.i(LOG_TAG, String.format("Generated %d transactions from scheduled action", count))
+                    addScheduledAction(mScheduledAction!!)
                 }
                 mIgnoreScheduledAction = false
             }
@@ -682,7 +734,7 @@ class GncXmlHandler : DefaultHandler() {
             }
 
             GncXmlHelper.TAG_PRICE -> if (mPrice != null) {
-                mPriceList!!.add(mPrice!!)
+                addPrice(mPrice!!)
                 mPrice = null
             }
 
@@ -704,26 +756,221 @@ class GncXmlHandler : DefaultHandler() {
         mContent!!.append(chars, start, length)
     }
 
+    /**
+     * Adds a parsed account to the book. The accounts are written to the database with the first chunk of transactions
+     * @param account Account which is not a template account
+     */
+    @Throws(SAXException::class)
+    override fun addAccount(account: Account) {
+        mAccountList!!.add(account)
+        mAccountMap!![account.mUID!!] = account
+        // check ROOT account
+        if (account.mAccountType === AccountType.ROOT) {
+            mRootAccount = if (mRootAccount == null) {
+                account
+            } else {
+                throw SAXException("Multiple ROOT accounts exist in book")
+            }
+            if (mMerger != null && account.mUID != mBook!!.mRootAccountUID) {
+                throw SAXException("The ROOT account of the file is not the ROOT account of the book")
+            }
+        }
+    }
+
+    /**
+     * Adds a parsed transaction to the book. It is written to the database with the next chunk of transactions
+     * @param transaction Transaction which is not a template
+     * @param recurrencePeriod Recurrence period of the transaction in old backup files, or 0
+     */
+    override fun addTransaction(transaction: Transaction, recurrencePeriod: Long) {
+        transaction.mIsTemplate = false
+        val imbSplit = transaction.createAutoBalanceSplit()
+        if (imbSplit != null) {
+            mAutoBalanceSplits!!.add(imbSplit)
+        }
+        mTransactionList!!.add(transaction)
+        if (recurrencePeriod > 0) { //if we find an old format recurrence period, parse it
+            transaction.mIsTemplate = true
+            val scheduledAction = parseScheduledAction(transaction, recurrencePeriod)
+            mScheduledActionsList!!.add(scheduledAction)
+        }
+        if (mTransactionList!!.size >= mChunkSize) {
+            saveTransactions()
+        }
+    }
+
+    /**
+     * Adds a parsed template transaction to the book. The template transactions stay in memory until the end
+     * of the import, for generating the transactions of the scheduled actions
+     */
+    override fun addTemplateTransaction(transaction: Transaction) {
+        transaction.mIsTemplate = true
+        val imbSplit = transaction.createAutoBalanceSplit()
+        if (imbSplit != null) {
+            mAutoBalanceSplits!!.add(imbSplit)
+        }
+        mTemplateTransactions!!.add(transaction)
+    }
+
+    /**
+     * Adds a parsed scheduled action to the book, and generates the transactions it missed
+     * @param scheduledAction Scheduled action with its action UID and recurrence
+     */
+    override fun addScheduledAction(scheduledAction: ScheduledAction) {
+        if (scheduledAction.mRecurrence!!.mPeriodType === PeriodType.WEEK) {
+            // TODO: implement parsing of by days for scheduled actions
+            setMinimalScheduledActionByDays(scheduledAction)
+        }
+        mScheduledActionsList!!.add(scheduledAction)
+        if (mMerger == null) {
+            val count = generateMissedScheduledTransactions(scheduledAction)
+            Log.i(LOG_TAG, String.format("Generated %d transactions from scheduled action", count))
+        }
+        if (mTransactionList!!.size >= mChunkSize) {
+            saveTransactions()
+        }
+    }
+
+    /**
+     * Adds a parsed price to the book. It is written to the database with the next chunk of prices
+     */
+    override fun addPrice(price: Price) {
+        mPriceList!!.add(price)
+        if (mPriceList!!.size >= mChunkSize) {
+            savePrices()
+        }
+    }
+
+    /**
+     * Counts an account in the currency. The most used currency becomes the default currency
+     * @param currencyCode ISO 4217 code of the currency of the account
+     */
+    override fun countCurrency(currencyCode: String) {
+        val count = mCurrencyCount!![currencyCode]
+        mCurrencyCount!![currencyCode] = if (count == null) 1 else count + 1
+    }
+
     @Throws(SAXException::class)
     override fun endDocument() {
         super.endDocument()
-        val mapFullName = HashMap<String?, String?>(
-            mAccountList!!.size
-        )
-        val mapImbalanceAccount = HashMap<String?, Account?>()
+        var mostAppearedCurrency = ""
+        var mostCurrencyAppearance = 0
+        for ((key, value) in mCurrencyCount!!) {
+            if (value > mostCurrencyAppearance) {
+                mostCurrencyAppearance = value
+                mostAppearedCurrency = key
+            }
+        }
+        if (mostCurrencyAppearance > 0) {
+            GnuCashApplication.setDefaultCurrencyCode(mostAppearedCurrency)
+        }
+        saveToDatabase()
+    }
+
+    /**
+     * Saves the remaining imported data to the database and commits the import
+     */
+    private fun saveToDatabase() {
+        val booksDbAdapter = BooksDbAdapter.instance
+        try {
+            saveTransactions()
+            savePrices()
+            mProgressTracker?.setPhase(ImportProgress.Phase.INSERT_TRANSACTIONS)
+            val nTempTransactions = mMerger?.mergeTransactions(mTemplateTransactions!!)
+                ?: mTransactionsDbAdapter!!.bulkAddRecords(mTemplateTransactions!!, DatabaseAdapter.UpdateMethod.insert)
+            mProgressTracker?.addEntities(nTempTransactions)
+            mMerger?.deleteMissing()
+            mProgressTracker?.setPhase(ImportProgress.Phase.COMMIT)
+            Log.d("Handler:", String.format("%d template transactions inserted", nTempTransactions))
+            Log.d("Handler:", String.format("%d accounts inserted", mSavedAccountCount))
+            Log.d("Handler:", String.format("%d transactions inserted", mTransactionCount))
+            Log.d(javaClass.simpleName, String.format("%d prices inserted", mPriceCount))
+
+            //// TODO: 01.06.2016 Re-enable import of Budget stuff when the UI is complete
+//            long nBudgets = mBudgetsDbAdapter.bulkAddRecords(mBudgetList, DatabaseAdapter.UpdateMethod.insert);
+//            Log.d(getClass().getSimpleName(), String.format("%d budgets inserted", nBudgets));
+            val endTime = System.nanoTime()
+            Log.d(javaClass.simpleName, String.format("bulk insert time: %d", endTime - mStartTime))
+
+            val merger = mMerger
+            if (merger == null) {
+                //if all of the import went smoothly, then add the book to the book db
+                mBook!!.mRootAccountUID = mRootAccount!!.mUID
+                mBook!!.mDisplayName = booksDbAdapter.generateDefaultBookName()
+                //we on purpose do not set the book active. Only import. Caller should handle activation
+                booksDbAdapter.addRecord(mBook!!, DatabaseAdapter.UpdateMethod.insert)
+            } else {
+                Log.i(
+                    LOG_TAG, String.format(
+                        "Merged into book: %d inserted, %d updated, %d unchanged, %d deleted",
+                        merger.insertedCount, merger.updatedCount, merger.unchangedCount, merger.deletedCount
+                    )
+                )
+            }
+            mAccountsDbAdapter!!.setTransactionSuccessful()
+            mImportFinished = true
+        } finally {
+            mAccountsDbAdapter!!.enableForeignKey(true)
+            mAccountsDbAdapter!!.endTransaction()
+            mInDbTransaction = false
+            if (mCloseDb) mainDb!!.close() //close it after import
+        }
+    }
 
-        // The XML has no ROOT, create one
+    /**
+     * Rolls back the import after the parsing failed, and deletes the database of the book,
+     * unless the file was being merged into an existing book.
+     * Does nothing if the import was successful.
+     *
+     * When merging into the active book, the metadata cached from the rolled back writes is dropped
+     * by [DatabaseAdapter.endTransaction], so the book is read again as it was before the merge.
+     */
+    fun abortImport() {
+        if (mImportFinished) {
+            return
+        }
+        try {
+            if (mInDbTransaction) {
+                try {
+                    mAccountsDbAdapter!!.enableForeignKey(true)
+                } finally {
+                    mAccountsDbAdapter!!.endTransaction()
+                    mInDbTransaction = false
+                }
+            }
+        } finally {
+            if (mCloseDb && mainDb!!.isOpen) mainDb!!.close()
+            if (mMerger == null) GnuCashApplication.appContext!!.deleteDatabase(mBook!!.mUID)
+        }
+    }
+
+    /**
+     * Writes the parsed accounts which have not been written yet to the database.
+     *
+     * All the accounts of a book come before its transactions, so this is done when the first chunk of
+     * transactions is written, and again for the imbalance accounts created later on.
+     */
+    private fun saveAccounts() {
+        // The XML has no ROOT, create one, or use the one of the book into which it is merged
         if (mRootAccount == null) {
-            mRootAccount = Account("ROOT")
-            mRootAccount!!.mAccountType = AccountType.ROOT
+            if (mMerger == null) {
+                mRootAccount = Account("ROOT")
+                mRootAccount!!.mAccountType = AccountType.ROOT
+            } else {
+                mRootAccount = findAccount(mBook!!.mRootAccountUID)
+            }
             mAccountList!!.add(mRootAccount!!)
             mAccountMap!![mRootAccount!!.mUID!!] = mRootAccount!!
         }
+        if (mSavedAccountCount == mAccountList!!.size) {
+            return
+        }
+        val newAccounts = mAccountList!!.subList(mSavedAccountCount, mAccountList!!.size)
         val imbalancePrefix = AccountsDbAdapter.imbalanceAccountPrefix
 
         // Add all account without a parent to ROOT, and collect top level imbalance accounts
-        for (account in mAccountList!!) {
-            mapFullName[account.mUID] = null
+        for (account in newAccounts) {
+            mAccountFullNames[account.mUID] = null
             var topLevel = false
             if (account.mParentAccountUID == null && account.mAccountType !== AccountType.ROOT) {
                 account.mParentAccountUID = mRootAccount!!.mUID
@@ -731,28 +978,13 @@ class GncXmlHandler : DefaultHandler() {
             }
             if (topLevel || mRootAccount!!.mUID == account.mParentAccountUID) {
                 if (account.mName!!.startsWith(imbalancePrefix)) {
-                    mapImbalanceAccount[account.mName!!.substring(imbalancePrefix.length)] = account
+                    mImbalanceAccounts[account.mName!!.substring(imbalancePrefix.length)] = account
                 }
             }
         }
-
-        // Set the account for created balancing splits to correct imbalance accounts
-        for (split in mAutoBalanceSplits!!) {
-            // XXX: yes, getAccountUID() returns a currency code in this case (see Transaction.createAutoBalanceSplit())
-            val currencyCode = split.mAccountUID
-            var imbAccount = mapImbalanceAccount[currencyCode]
-            if (imbAccount == null) {
-                imbAccount = Account(imbalancePrefix + currencyCode, mCommoditiesDbAdapter!!.getCommodity(currencyCode!!)!!)
-                imbAccount.mParentAccountUID = mRootAccount!!.mUID
-                imbAccount.mAccountType = AccountType.BANK
-                mapImbalanceAccount[currencyCode] = imbAccount
-                mAccountList!!.add(imbAccount)
-            }
-            split.mAccountUID = imbAccount.mUID
-        }
         val stack = Stack<Account?>()
-        for (account in mAccountList!!) {
-            if (mapFullName[account.mUID] != null) {
+        for (account in newAccounts) {
+            if (mAccountFullNames[account.mUID] != null) {
                 continue
             }
             stack.push(account)
@@ -761,7 +993,7 @@ class GncXmlHandler : DefaultHandler() {
                 val acc = stack.peek()
                 if (acc!!.mAccountType === AccountType.ROOT) {
                     // ROOT_ACCOUNT_FULL_NAME should ensure ROOT always sorts first
-                    mapFullName[acc!!.mUID] = AccountsDbAdapter.ROOT_ACCOUNT_FULL_NAME
+                    mAccountFullNames[acc!!.mUID] = AccountsDbAdapter.ROOT_ACCOUNT_FULL_NAME
                     stack.pop()
                     continue
                 }
@@ -771,91 +1003,112 @@ class GncXmlHandler : DefaultHandler() {
                 // has an empty parent
                 if (parentAccount!!.mAccountType === AccountType.ROOT) {
                     // top level account, full name is the same as its name
-                    mapFullName[acc.mUID] = acc.mName
+                    mAccountFullNames[acc.mUID] = acc.mName
                     stack.pop()
                     continue
                 }
-                parentAccountFullName = mapFullName[parentUID]
+                parentAccountFullName = mAccountFullNames[parentUID]
                 if (parentAccountFullName == null) {
                     // non-top-level account, parent full name still unknown
                     stack.push(parentAccount)
                     continue
                 }
-                mapFullName[acc.mUID] = parentAccountFullName +
+                mAccountFullNames[acc.mUID] = parentAccountFullName +
                         AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR + acc.mName
                 stack.pop()
             }
         }
-        for (account in mAccountList!!) {
-            account.mFullName = mapFullName[account.mUID]
+        for (account in newAccounts) {
+            account.mFullName = mAccountFullNames[account.mUID]
         }
-        var mostAppearedCurrency = ""
-        var mostCurrencyAppearance = 0
-        for ((key, value) in mCurrencyCount!!) {
-            if (value > mostCurrencyAppearance) {
-                mostCurrencyAppearance = value
-                mostAppearedCurrency = key
+        mProgressTracker?.setPhase(ImportProgress.Phase.INSERT_ACCOUNTS)
+        val nAccounts = mMerger?.mergeAccounts(newAccounts.toList())
+            ?: mAccountsDbAdapter!!.bulkAddRecords(newAccounts.toList(), DatabaseAdapter.UpdateMethod.insert)
+        mProgressTracker?.addEntities(nAccounts)
+        mSavedAccountCount = mAccountList!!.size
+    }
+
+    /**
+     * Writes the parsed transactions to the database, after the accounts and scheduled actions they refer to,
+     * and clears them from memory
+     */
+    private fun saveTransactions() {
+        saveAccounts()
+        // Set the account for created balancing splits to correct imbalance accounts
+        val imbalancePrefix = AccountsDbAdapter.imbalanceAccountPrefix
+        for (split in mAutoBalanceSplits!!) {
+            // XXX: yes, getAccountUID() returns a currency code in this case (see Transaction.createAutoBalanceSplit())
+            val currencyCode = split.mAccountUID
+            var imbAccount = mImbalanceAccounts[currencyCode]
+            if (imbAccount == null && mMerger != null) {
+                //the imbalance account created by an earlier merge, which is not in the file
+                imbAccount = findAccount(mAccountsDbAdapter!!.findAccountUidByFullName(imbalancePrefix + currencyCode))
+            }
+            if (imbAccount == null) {
+                imbAccount = Account(imbalancePrefix + currencyCode, mCommoditiesDbAdapter!!.getCommodity(currencyCode!!)!!)
+                imbAccount.mParentAccountUID = mRootAccount!!.mUID
+                imbAccount.mAccountType = AccountType.BANK
+            }
+            if (!mAccountMap!!.containsKey(imbAccount.mUID)) {
+                mImbalanceAccounts[currencyCode] = imbAccount
+                mAccountList!!.add(imbAccount)
+                mAccountMap!![imbAccount.mUID!!] = imbAccount
             }
+            split.mAccountUID = imbAccount.mUID
         }
-        if (mostCurrencyAppearance > 0) {
-            GnuCashApplication.setDefaultCurrencyCode(mostAppearedCurrency)
+        mAutoBalanceSplits!!.clear()
+        saveAccounts()
+
+        //We need to add scheduled actions first because there is a foreign key constraint on transactions
+        //which are generated from scheduled actions (we do auto-create some transactions during import)
+        mProgressTracker?.setPhase(ImportProgress.Phase.INSERT_TRANSACTIONS)
+        if (mScheduledActionsList!!.isNotEmpty()) {
+            val nSchedActions = mMerger?.mergeScheduledActions(mScheduledActionsList!!)
+                ?: mScheduledActionsDbAdapter!!.bulkAddRecords(
+                    mScheduledActionsList!!,
+                    DatabaseAdapter.UpdateMethod.insert
+                )
+            Log.d("Handler:", String.format("%d scheduled actions inserted", nSchedActions))
+            mProgressTracker?.addEntities(nSchedActions)
+            mScheduledActionsList!!.clear()
         }
-        saveToDatabase()
+        if (mTransactionList!!.isNotEmpty()) {
+            val nTransactions = mMerger?.mergeTransactions(mTransactionList!!)
+                ?: mTransactionsDbAdapter!!.bulkAddRecords(mTransactionList!!, DatabaseAdapter.UpdateMethod.insert)
+            mTransactionCount += nTransactions
+            mProgressTracker?.addEntities(nTransactions)
+            mTransactionList!!.clear()
+        }
+        mProgressTracker?.setPhase(ImportProgress.Phase.PARSE)
     }
 
     /**
-     * Saves the imported data to the database
-     * @return GUID of the newly created book, or null if not successful
+     * Writes the parsed prices to the database and clears them from memory
      */
-    private fun saveToDatabase() {
-        val booksDbAdapter = BooksDbAdapter.instance
-        mBook!!.mRootAccountUID = mRootAccount!!.mUID
-        mBook!!.mDisplayName = booksDbAdapter.generateDefaultBookName()
-        //we on purpose do not set the book active. Only import. Caller should handle activation
-        val startTime = System.nanoTime()
-        mAccountsDbAdapter!!.beginTransaction()
-        Log.d(javaClass.simpleName, "bulk insert starts")
-        try {
-            // disable foreign key. The database structure should be ensured by the data inserted.
-            // it will make insertion much faster.
-            mAccountsDbAdapter!!.enableForeignKey(false)
-            Log.d(javaClass.simpleName, "before clean up db")
-            mAccountsDbAdapter!!.deleteAllRecords()
-            Log.d(javaClass.simpleName, String.format("deb clean up done %d ns", System.nanoTime() - startTime))
-            val nAccounts = mAccountsDbAdapter!!.bulkAddRecords(mAccountList!!.toList(), DatabaseAdapter.UpdateMethod.insert)
-            Log.d("Handler:", String.format("%d accounts inserted", nAccounts))
-            //We need to add scheduled actions first because there is a foreign key constraint on transactions
-            //which are generated from scheduled actions (we do auto-create some transactions during import)
-            val nSchedActions = mScheduledActionsDbAdapter!!.bulkAddRecords(
-                mScheduledActionsList!!,
-                DatabaseAdapter.UpdateMethod.insert
-            )
-            Log.d("Handler:", String.format("%d scheduled actions inserted", nSchedActions))
-            val nTempTransactions =
-                mTransactionsDbAdapter!!.bulkAddRecords(mTemplateTransactions!!, DatabaseAdapter.UpdateMethod.insert)
-            Log.d("Handler:", String.format("%d template transactions inserted", nTempTransactions))
-            val nTransactions =
-                mTransactionsDbAdapter!!.bulkAddRecords(mTransactionList!!.toMutableList(), DatabaseAdapter.UpdateMethod.insert)
-            Log.d("Handler:", String.format("%d transactions inserted", nTransactions))
-            val nPrices = mPricesDbAdapter!!.bulkAddRecords(mPriceList!!, DatabaseAdapter.UpdateMethod.insert)
-            Log.d(javaClass.simpleName, String.format("%d prices inserted", nPrices))
-
-            //// TODO: 01.06.2016 Re-enable import of Budget stuff when the UI is complete
-//            long nBudgets = mBudgetsDbAdapter.bulkAddRecords(mBudgetList, DatabaseAdapter.UpdateMethod.insert);
-//            Log.d(getClass().getSimpleName(), String.format("%d budgets inserted", nBudgets));
-            val endTime = System.nanoTime()
-            Log.d(javaClass.simpleName, String.format("bulk insert time: %d", endTime - startTime))
-
-            //if all of the import went smoothly, then add the book to the book db
-            booksDbAdapter.addRecord(mBook!!, DatabaseAdapter.UpdateMethod.insert)
-            mAccountsDbAdapter!!.setTransactionSuccessful()
-        } finally {
-            mAccountsDbAdapter!!.enableForeignKey(true)
-            mAccountsDbAdapter!!.endTransaction()
-            mainDb!!.close() //close it after import
+    private fun savePrices() {
+        if (mPriceList!!.isNotEmpty()) {
+            mProgressTracker?.setPhase(ImportProgress.Phase.INSERT_PRICES)
+            val nPrices = mMerger?.mergePrices(mPriceList!!)
+                ?: mPricesDbAdapter!!.bulkAddRecords(mPriceList!!, DatabaseAdapter.UpdateMethod.insert)
+            mPriceCount += nPrices
+            mProgressTracker?.addEntities(nPrices)
+            mPriceList!!.clear()
+            mProgressTracker?.setPhase(ImportProgress.Phase.PARSE)
         }
     }
 
+    /**
+     * Returns an account of the book into which the file is merged
+     * @param accountUID GUID of the account, or `null`
+     * @return Account without its transactions, or `null` if it is not in the book
+     */
+    private fun findAccount(accountUID: String?): Account? {
+        if (accountUID == null) return null
+        return mAccountsDbAdapter!!.getSimpleAccountList(
+            DatabaseSchema.AccountEntry.COLUMN_UID + " = ?", arrayOf<String?>(accountUID), null
+        ).firstOrNull()
+    }
+
     /**
      * Returns the unique identifier of the just-imported book
      * @return GUID of the newly imported book
@@ -870,7 +1123,7 @@ class GncXmlHandler : DefaultHandler() {
      * @param accountUID GUID of the account
      * @return Commodity of the account
      */
-    private fun getCommodityForAccount(accountUID: String?): Commodity {
+    fun getCommodityForAccount(accountUID: String?): Commodity {
         return try {
             mAccountMap!![accountUID]!!.getMCommodity()
         } catch (e: Exception) {
@@ -884,15 +1137,39 @@ class GncXmlHandler : DefaultHandler() {
      * @param characterString Parsed characters containing split amount
      */
     private fun handleEndOfTemplateNumericSlot(characterString: String, splitType: TransactionType) {
+        try {
+            val commodity = getCommodityForAccount(mSplit!!.mAccountUID)
+            if (setTemplateSplitAmount(mSplit!!, characterString, splitType, commodity)) {
+                mIgnoreTemplateTransaction = false //we have successfully parsed an amount
+            }
+        } finally {
+            if (splitType === TransactionType.CREDIT) mInCreditNumericSlot = false else mInDebitNumericSlot = false
+        }
+    }
+
+    /**
+     * Sets the amount of a template split from its credit or debit numeric slot
+     * @param split Template split
+     * @param characterString Value of the numeric slot
+     * @param splitType Type of the split for the slot
+     * @param commodity Commodity of the account of the split
+     * @return `true` if the amount was set, `false` if the split already had an amount or the value is invalid
+     */
+    fun setTemplateSplitAmount(
+        split: Split,
+        characterString: String,
+        splitType: TransactionType,
+        commodity: Commodity
+    ): kotlin.Boolean {
         try {
             // HACK: Check for bug #562. If a value has already been set, ignore the one just read
-            if (mSplit!!.mValue!! == Money(BigDecimal.ZERO, mSplit!!.mValue!!.mCommodity)
+            if (split.mValue!! == Money(BigDecimal.ZERO, split.mValue!!.mCommodity)
             ) {
                 val amountBigD = parseSplitAmount(characterString)
-                val amount = Money(amountBigD, getCommodityForAccount(mSplit!!.mAccountUID))
-                mSplit!!.setMValue(amount)
-                mSplit!!.mSplitType = splitType
-                mIgnoreTemplateTransaction = false //we have successfully parsed an amount
+                val amount = Money(amountBigD, commodity)
+                split.setMValue(amount)
+                split.mSplitType = splitType
+                return true
             }
         } catch (e: NumberFormatException) {
             val msg = "Error parsing template credit split amount $characterString"
@@ -914,8 +1191,30 @@ class GncXmlHandler : DefaultHandler() {
             )
             Crashlytics.log(msg)
             Crashlytics.logException(e)
-        } finally {
-            if (splitType === TransactionType.CREDIT) mInCreditNumericSlot = false else mInDebitNumericSlot = false
+        }
+        return false
+    }
+
+    /**
+     * Sets the color of an account from its color slot
+     * @param account Account of the slot
+     * @param characterString Value of the color slot
+     */
+    fun setAccountColor(account: Account, characterString: String) {
+        var color = characterString.trim { it <= ' ' }
+        //Gnucash exports the account color in format #rrrgggbbb, but we need only #rrggbb.
+        //so we trim the last digit in each block, doesn't affect the color much
+        if (color != "Not Set") {
+            // avoid known exception, printStackTrace is very time consuming
+            if (!Pattern.matches(ACCOUNT_COLOR_HEX_REGEX, color)) color =
+                "#" + color.replace(".(.)?".toRegex(), "$1").replace("null", "")
+            try {
+                account.setMColor(color)
+            } catch (ex: IllegalArgumentException) {
+                //sometimes the color entry in the account file is "Not set" instead of just blank. So catch!
+                Log.e(LOG_TAG, "Invalid color code '" + color + "' for account " + account.mName)
+                Crashlytics.logException(ex)
+            }
         }
     }
 
@@ -964,17 +1263,22 @@ class GncXmlHandler : DefaultHandler() {
      * Until we implement parsing of days of the week for scheduled actions,
      * this ensures they are executed at least once per week.
      */
-    private fun setMinimalScheduledActionByDays() {
+    private fun setMinimalScheduledActionByDays(scheduledAction: ScheduledAction) {
         val calendar = Calendar.getInstance()
-        calendar.time = Date(mScheduledAction!!.mStartTime)
-        mScheduledAction!!.mRecurrence!!.byDays(listOf(calendar[Calendar.DAY_OF_WEEK]))
+        calendar.time = Date(scheduledAction.mStartTime)
+        scheduledAction.mRecurrence!!.byDays(listOf(calendar[Calendar.DAY_OF_WEEK]))
     }
 
     companion object {
         /**
          * ISO 4217 currency code for "No Currency"
          */
-        private const val NO_CURRENCY_CODE = "XXX"
+        const val NO_CURRENCY_CODE = "XXX"
+
+        /**
+         * Default number of transactions, or prices, written to the database at once
+         */
+        const val DEFAULT_CHUNK_SIZE = 5000
 
         /**
          * Tag for logging
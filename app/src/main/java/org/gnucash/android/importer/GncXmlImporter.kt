@@ -40,29 +40,71 @@ object GncXmlImporter {
     /**
      * Parse GnuCash XML input and populates the database
      * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param progressTracker Tracker for the progress of the import, the progress is only logged by default
      * @return GUID of the book into which the XML was imported
      */
     @JvmStatic
+    @JvmOverloads
     @Throws(ParserConfigurationException::class, SAXException::class, IOException::class)
-    fun parse(gncXmlInputStream: InputStream?): String {
+    fun parse(
+        gncXmlInputStream: InputStream?,
+        progressTracker: ImportProgressTracker = ImportProgressTracker(-1, null)
+    ): String {
+        return parse(gncXmlInputStream, GncXmlHandler(), progressTracker)
+    }
+
+    /**
+     * Merges GnuCash XML input into an existing book.
+     *
+     * The accounts, transactions, scheduled actions and prices of the file are matched with those of the book
+     * by GUID. Only those which are new or whose content changed are written, see [BookMerger].
+     * If the merge fails, the book is left as it was
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param bookUID GUID of the book into which the file is merged
+     * @param deleteMissing Whether the records of the book which are not in the file are deleted
+     * @param progressTracker Tracker for the progress of the import, the progress is only logged by default
+     * @return GUID of the book
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(ParserConfigurationException::class, SAXException::class, IOException::class)
+    fun merge(
+        gncXmlInputStream: InputStream?,
+        bookUID: String,
+        deleteMissing: Boolean = false,
+        progressTracker: ImportProgressTracker = ImportProgressTracker(-1, null)
+    ): String {
+        Log.d(GncXmlImporter::class.java.simpleName, "Merging into book $bookUID")
+        return parse(
+            gncXmlInputStream, GncXmlHandler(GncXmlHandler.DEFAULT_CHUNK_SIZE, bookUID, deleteMissing), progressTracker
+        )
+    }
+
+    @Throws(ParserConfigurationException::class, SAXException::class, IOException::class)
+    private fun parse(
+        gncXmlInputStream: InputStream?,
+        handler: GncXmlHandler,
+        progressTracker: ImportProgressTracker
+    ): String {
         val spf = SAXParserFactory.newInstance()
         val sp = spf.newSAXParser()
         val xr = sp.xmlReader
-        val bos: BufferedInputStream
-        val pb = PushbackInputStream(gncXmlInputStream, 2) //we need a pushbackstream to look ahead
-        val signature = ByteArray(2)
-        pb.read(signature) //read the signature
-        pb.unread(signature) //push back the signature to the stream
-        bos =
-            if (signature[0] == 0x1f.toByte() && signature[1] == 0x8b.toByte()) //check if matches standard gzip magic number
-                BufferedInputStream(GZIPInputStream(pb)) else BufferedInputStream(pb)
+        //the bytes of the file are counted before it is decompressed, to compare them with its size
+        val bos = openXmlStream(progressTracker.countBytes(gncXmlInputStream))
 
         //TODO: Set an error handler which can log errors
         Log.d(GncXmlImporter::class.java.simpleName, "Start import")
-        val handler = GncXmlHandler()
+        handler.mProgressTracker = progressTracker
         xr.contentHandler = handler
         val startTime = System.nanoTime()
-        xr.parse(InputSource(bos))
+        try {
+            xr.parse(InputSource(bos))
+        } catch (e: Exception) {
+            //nothing of the book is kept if the file cannot be imported completely
+            handler.abortImport()
+            throw e
+        }
+        progressTracker.finish()
         val endTime = System.nanoTime()
         Log.d(
             GncXmlImporter::class.java.simpleName,
@@ -75,4 +117,56 @@ object GncXmlImporter {
         )
         return bookUID
     }
+
+    /**
+     * Parse GnuCash XML input and populates the database, with the parsing and the database writes
+     * overlapping on two threads.
+     *
+     * A parser thread decompresses and parses the input, while the calling thread writes the parsed objects
+     * to the database in the import transaction. See [GncXmlPullImporter.parsePipelined].
+     * The import of the app only uses it when the experimental pipelined import is turned on in the settings
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param progressTracker Tracker for the progress of the import, the progress is only logged by default
+     * @return GUID of the book into which the XML was imported
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(Exception::class)
+    fun parsePipelined(
+        gncXmlInputStream: InputStream,
+        progressTracker: ImportProgressTracker = ImportProgressTracker(-1, null)
+    ): String {
+        Log.d(GncXmlImporter::class.java.simpleName, "Start pipelined import")
+        val importer = GncXmlPullImporter()
+        importer.progressTracker = progressTracker
+        val startTime = System.nanoTime()
+        importer.parsePipelined(progressTracker.countBytes(gncXmlInputStream))
+        progressTracker.finish()
+        val endTime = System.nanoTime()
+        Log.d(
+            GncXmlImporter::class.java.simpleName,
+            String.format("%d ns spent on importing the file", endTime - startTime)
+        )
+        val bookUID = importer.bookUID
+        PreferencesHelper.setLastExportTime(
+            TransactionsDbAdapter.instance.timestampOfLastModification,
+            bookUID
+        )
+        return bookUID
+    }
+
+    /**
+     * Returns a buffered stream of the uncompressed XML, which decompresses the input if it is gzipped
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file, which may be gzipped
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun openXmlStream(gncXmlInputStream: InputStream?): InputStream {
+        val pb = PushbackInputStream(gncXmlInputStream, 2) //we need a pushbackstream to look ahead
+        val signature = ByteArray(2)
+        pb.read(signature) //read the signature
+        pb.unread(signature) //push back the signature to the stream
+        return if (signature[0] == 0x1f.toByte() && signature[1] == 0x8b.toByte()) //check if matches standard gzip magic number
+            BufferedInputStream(GZIPInputStream(pb)) else BufferedInputStream(pb)
+    }
 }
\ No newline at end of file
@@ -0,0 +1,735 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import android.util.Log
+import com.crashlytics.android.Crashlytics
+import org.gnucash.android.export.xml.GncXmlHelper
+import org.gnucash.android.export.xml.GncXmlHelper.parseDate
+import org.gnucash.android.export.xml.GncXmlHelper.parseSplitAmount
+import org.gnucash.android.model.*
+import org.gnucash.android.model.BaseModel.Companion.generateUID
+import org.gnucash.android.model.Money.Companion.sDefaultZero
+import org.xml.sax.SAXException
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
+import org.xmlpull.v1.XmlPullParserFactory
+import java.io.IOException
+import java.io.InputStream
+import java.math.BigDecimal
+import java.sql.Timestamp
+import java.text.ParseException
+import java.util.Locale
+
+/**
+ * Importer for GnuCash XML files based on a pull parser, as an alternative to the SAX [GncXmlHandler].
+ *
+ * Element names are looked up once in a precomputed table and the handling dispatches on the resulting code,
+ * instead of comparing the name against every tag the importer knows. Text is only read for the elements
+ * which are imported, and subtrees which are not imported at all, like template accounts, budgets
+ * and the values of unknown slots, are skipped without looking at their content.
+ * The parsed objects are written to the database through a [GncXmlHandler], so both importers produce the same book.
+ * Budgets are not imported, as the SAX handler does not save them either.
+ *
+ * The parsing does not use the database, so that it can run on another thread than the writes, see [parsePipelined].
+ * @param chunkSize Number of parsed transactions, or prices, which are kept in memory before they are written
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class GncXmlPullImporter @JvmOverloads constructor(chunkSize: Int = GncXmlHandler.DEFAULT_CHUNK_SIZE) {
+    /**
+     * Writes the parsed objects to the database of the new book
+     */
+    private val mHandler = GncXmlHandler(chunkSize)
+
+    /**
+     * Receives the parsed objects, either [mHandler] or the pipeline to the thread of [mHandler]
+     */
+    private var mBookWriter: BookWriter = mHandler
+
+    /**
+     * Commodities by ISO 4217 code, read before the import starts
+     */
+    private val mCommodities = HashMap<String, Commodity>()
+
+    /**
+     * Commodities of the parsed accounts, by account UID
+     */
+    private val mAccountCommodities = HashMap<String, Commodity>()
+
+    private var mAccount: Account? = null
+    private var mTransaction: Transaction? = null
+    private var mSplit: Split? = null
+    private var mPrice: Price? = null
+    private var mScheduledAction: ScheduledAction? = null
+    private var mRecurrence: Recurrence? = null
+
+    /**
+     * Value and quantity of the current split, which are set once its account is known
+     */
+    private var mValue: BigDecimal? = null
+    private var mQuantity: BigDecimal? = null
+    private var mNegativeQuantity = false
+
+    /**
+     * Element whose commodity or date is being read, e.g. [ACCOUNT_COMMODITY] or [DATE_POSTED]
+     */
+    private var mCommodityElement = NONE
+    private var mDateElement = NONE
+    private var mISO4217Currency = false
+
+    /**
+     * Code of the key of the slot whose value comes next
+     */
+    private var mSlotKey = NONE
+    private var mInTemplates = false
+    private var mIgnoreTemplateTransaction = true
+    private var mIgnoreScheduledAction = false
+    private var mTemplateAccountUID: String? = null
+    private var mRecurrenceMultiplier = 1
+    private var mRecurrencePeriod: Long = 0
+
+    /**
+     * Map of the template accounts to the template transactions UIDs
+     */
+    private val mTemplateAccountToTransactionMap = HashMap<String, String>()
+
+    /**
+     * Number of elements which have been parsed, not counting the skipped ones
+     */
+    var elementCount: Long = 0
+        private set
+
+    /**
+     * Tracker of the progress of the import, see [GncXmlHandler.mProgressTracker]
+     */
+    var progressTracker: ImportProgressTracker?
+        get() = mHandler.mProgressTracker
+        set(progressTracker) {
+            mHandler.mProgressTracker = progressTracker
+        }
+
+    /**
+     * Returns the unique identifier of the just-imported book
+     */
+    val bookUID: String
+        get() = mHandler.bookUID
+
+    init {
+        for (commodity in mHandler.mCommoditiesDbAdapter!!.allRecords) {
+            mCommodities[commodity.mMnemonic] = commodity
+        }
+    }
+
+    /**
+     * Parses the GnuCash XML and imports it into a new book. Nothing of the book is kept if the import fails
+     * @param inputStream GnuCash XML, which may be gzipped
+     */
+    @Throws(XmlPullParserException::class, SAXException::class, IOException::class)
+    fun parse(inputStream: InputStream) {
+        mHandler.startDocument()
+        try {
+            read(GncXmlImporter.openXmlStream(inputStream))
+            mHandler.endDocument()
+        } catch (e: Exception) {
+            mHandler.abortImport()
+            throw e
+        }
+    }
+
+    /**
+     * Parses the GnuCash XML and imports it into a new book, with the parsing and the database writes overlapping.
+     *
+     * A parser thread decompresses and parses the input, and hands the parsed objects over to the calling thread
+     * through an [ImportPipeline]. The calling thread holds the import transaction and writes the objects
+     * to the database. The pipeline is bounded, so the parser waits when it is ahead of the writes.
+     * If the parser fails, the writes stop and the import is rolled back, and if the writes fail, the parser is stopped.
+     * Nothing of the book is kept if the import fails
+     * @param inputStream GnuCash XML, which may be gzipped
+     * @param queueCapacity Number of batches of parsed objects which can wait for the writes
+     * @throws Exception the error of the parser, or of the writes
+     */
+    @JvmOverloads
+    @Throws(Exception::class)
+    fun parsePipelined(inputStream: InputStream, queueCapacity: Int = ImportPipeline.DEFAULT_QUEUE_CAPACITY) {
+        val pipeline = ImportPipeline(ImportPipeline.DEFAULT_BATCH_SIZE, queueCapacity)
+        mBookWriter = pipeline
+        val parserThread = Thread({
+            try {
+                read(GncXmlImporter.openXmlStream(inputStream))
+                pipeline.finish()
+            } catch (e: InterruptedException) {
+                //the writes have failed, the import is being rolled back
+            } catch (e: Throwable) {
+                pipeline.fail(e)
+            }
+        }, "GncXmlParser")
+        mHandler.startDocument()
+        try {
+            parserThread.start()
+            pipeline.writeTo(mHandler)
+            mHandler.endDocument()
+        } catch (e: Exception) {
+            mHandler.abortImport()
+            throw e
+        } finally {
+            //stops the parser if it is waiting for the writes which have failed, it has finished otherwise
+            parserThread.interrupt()
+            parserThread.join()
+        }
+    }
+
+    /**
+     * Parses the GnuCash XML and passes the parsed objects to [mBookWriter]
+     * @param inputStream Uncompressed GnuCash XML
+     */
+    @Throws(XmlPullParserException::class, SAXException::class, IOException::class)
+    private fun read(inputStream: InputStream) {
+        val parser = XmlPullParserFactory.newInstance().newPullParser()
+        //without namespace processing, the names of the elements keep their prefix, e.g. "gnc:account"
+        parser.setInput(inputStream, null)
+        var eventType = parser.eventType
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                elementCount++
+                startElement(parser)
+            } else if (eventType == XmlPullParser.END_TAG) {
+                endElement(parser.name)
+            }
+            eventType = parser.next()
+        }
+    }
+
+    /**
+     * Handles the start of an element. Elements with text content are read completely,
+     * so that the parser is left on their end tag
+     */
+    @Throws(XmlPullParserException::class, SAXException::class, IOException::class)
+    private fun startElement(parser: XmlPullParser) {
+        when (ELEMENTS[parser.name] ?: NONE) {
+            ACCOUNT -> if (mInTemplates) {
+                //we ignore template accounts, we have no use for them
+                skipElement(parser)
+            } else {
+                mAccount = Account("") // dummy name, will be replaced when we find name tag
+            }
+
+            ACCOUNT_NAME -> {
+                val name = readText(parser)
+                mAccount!!.setMName(name)
+                mAccount!!.mFullName = name
+            }
+
+            ACCOUNT_ID -> mAccount!!.mUID = readText(parser)
+            ACCOUNT_TYPE -> {
+                val accountType = AccountType.valueOf(readText(parser))
+                mAccount!!.mAccountType = accountType
+                mAccount!!.setMIsHidden(accountType === AccountType.ROOT) //flag root account as hidden
+            }
+
+            ACCOUNT_DESCRIPTION -> mAccount!!.mDescription = readText(parser)
+            ACCOUNT_PARENT -> mAccount!!.mParentAccountUID = readText(parser)
+            ACCOUNT_COMMODITY, TRANSACTION_CURRENCY, PRICE_COMMODITY, PRICE_CURRENCY -> {
+                mCommodityElement = ELEMENTS[parser.name]!!
+                mISO4217Currency = false
+            }
+
+            COMMODITY_SPACE -> {
+                val space = readText(parser)
+                mISO4217Currency = space == "ISO4217" || space == "CURRENCY"
+                if (!mISO4217Currency) {
+                    // price of non-ISO4217 commodities cannot be handled
+                    mPrice = null
+                }
+            }
+
+            COMMODITY_ID -> setCommodity(readText(parser))
+            TRANSACTION -> {
+                mTransaction = Transaction("") // dummy name will be replaced
+                mTransaction!!.mIsExported = true // default to exported when import transactions
+                mTemplateAccountUID = null
+            }
+
+            TRANSACTION_ID -> mTransaction!!.mUID = readText(parser)
+            TRANSACTION_DESCRIPTION -> mTransaction!!.setMDescription(readText(parser))
+            DATE_POSTED, DATE_ENTERED, PRICE_TIME, SX_START, SX_LAST, SX_END, RECURRENCE_START ->
+                mDateElement = ELEMENTS[parser.name]!!
+
+            TS_DATE -> setTimestamp(readText(parser))
+            GDATE -> setDate(readText(parser))
+            RECURRENCE_PERIOD -> mRecurrencePeriod = readText(parser).toLong()
+            TEMPLATE_TRANSACTIONS -> mInTemplates = true
+            SPLIT -> mSplit = Split(sDefaultZero!!, "")
+            SPLIT_ID -> mSplit!!.mUID = readText(parser)
+            SPLIT_MEMO -> mSplit!!.mMemo = readText(parser)
+            SPLIT_VALUE -> {
+                // The value and quantity can have different sign for custom currency(stock).
+                // Use the sign of value for split, as it would not be custom currency
+                val value = readText(parser)
+                mNegativeQuantity = value.startsWith("-")
+                mValue = parseAmount(value)
+            }
+
+            SPLIT_QUANTITY -> mQuantity = parseAmount(readText(parser))
+            SPLIT_ACCOUNT -> setSplitAccount(readText(parser))
+            SLOT_KEY -> mSlotKey = SLOT_KEYS[readText(parser)] ?: NONE
+            SLOT_VALUE -> readSlotValue(parser)
+            SCHEDULED_ACTION -> {
+                //default to transaction type, will be changed during parsing
+                mScheduledAction = ScheduledAction(ScheduledAction.ActionType.TRANSACTION)
+                mIgnoreScheduledAction = false
+            }
+
+            SX_ID -> mScheduledAction!!.mUID = readText(parser)
+            SX_NAME -> mScheduledAction!!.mActionType =
+                if (readText(parser) == ScheduledAction.ActionType.BACKUP.name) ScheduledAction.ActionType.BACKUP
+                else ScheduledAction.ActionType.TRANSACTION
+
+            SX_ENABLED -> mScheduledAction!!.setMIsEnabled(readText(parser) == "y")
+            SX_AUTO_CREATE -> mScheduledAction!!.setMAutoCreate(readText(parser) == "y")
+            SX_NUM_OCCUR -> mScheduledAction!!.mTotalFrequency = readText(parser).toInt()
+            SX_TEMPLATE_ACCOUNT -> {
+                val templateAccountUID = readText(parser)
+                if (mScheduledAction!!.mActionType === ScheduledAction.ActionType.TRANSACTION) {
+                    mScheduledAction!!.setMActionUID(mTemplateAccountToTransactionMap[templateAccountUID])
+                } else {
+                    mScheduledAction!!.setMActionUID(generateUID())
+                }
+            }
+
+            RECURRENCE -> {
+                mRecurrenceMultiplier = 1
+                mRecurrence = Recurrence(PeriodType.MONTH)
+            }
+
+            RECURRENCE_MULTIPLIER -> mRecurrenceMultiplier = readText(parser).toInt()
+            RECURRENCE_PERIOD_TYPE -> setPeriodType(readText(parser))
+            PRICE -> mPrice = Price()
+            PRICE_ID -> {
+                val priceUID = readText(parser)
+                mPrice?.mUID = priceUID
+            }
+
+            PRICE_SOURCE -> {
+                val source = readText(parser)
+                mPrice?.mSource = source
+            }
+
+            PRICE_TYPE -> {
+                val type = readText(parser)
+                mPrice?.mType = type
+            }
+
+            PRICE_VALUE -> setPriceValue(readText(parser))
+            BUDGET -> skipElement(parser) //budgets are not imported yet
+        }
+    }
+
+    /**
+     * Handles the end of an element which was not read completely at its start
+     */
+    @Throws(SAXException::class)
+    private fun endElement(name: String) {
+        when (ELEMENTS[name] ?: NONE) {
+            ACCOUNT -> {
+                val commodity = mAccount!!.getMCommodity()
+                mAccountCommodities[mAccount!!.mUID!!] = commodity
+                mBookWriter.addAccount(mAccount!!)
+                mAccount = null
+            }
+
+            ACCOUNT_COMMODITY, TRANSACTION_CURRENCY, PRICE_COMMODITY, PRICE_CURRENCY -> mCommodityElement = NONE
+            DATE_POSTED, DATE_ENTERED, PRICE_TIME, SX_START, SX_LAST, SX_END, RECURRENCE_START -> mDateElement = NONE
+            SPLIT -> {
+                mTransaction!!.addSplit(mSplit!!)
+                mSplit = null
+            }
+
+            TRANSACTION -> {
+                if (!mInTemplates) {
+                    mBookWriter.addTransaction(mTransaction!!, mRecurrencePeriod)
+                } else if (!mIgnoreTemplateTransaction) {
+                    mBookWriter.addTemplateTransaction(mTransaction!!)
+                    if (mTemplateAccountUID != null) {
+                        mTemplateAccountToTransactionMap[mTemplateAccountUID!!] = mTransaction!!.mUID!!
+                    }
+                }
+                mRecurrencePeriod = 0
+                mIgnoreTemplateTransaction = true
+                mTransaction = null
+            }
+
+            TEMPLATE_TRANSACTIONS -> mInTemplates = false
+            RECURRENCE -> {
+                if (mScheduledAction != null) {
+                    mScheduledAction!!.setMRecurrence(mRecurrence!!)
+                }
+                mRecurrence = null
+            }
+
+            SCHEDULED_ACTION -> {
+                if (mScheduledAction!!.getMActionUID() != null && !mIgnoreScheduledAction) {
+                    mBookWriter.addScheduledAction(mScheduledAction!!)
+                }
+                mScheduledAction = null
+            }
+
+            PRICE -> {
+                if (mPrice != null) {
+                    mBookWriter.addPrice(mPrice!!)
+                }
+                mPrice = null
+            }
+        }
+    }
+
+    /**
+     * Reads the value of a slot whose key is imported, and skips the values of the other slots.
+     * Frames which hold imported slots, like the slots of template splits, are parsed further
+     */
+    @Throws(XmlPullParserException::class, IOException::class)
+    private fun readSlotValue(parser: XmlPullParser) {
+        val slotKey = mSlotKey
+        mSlotKey = NONE
+        if (slotKey == NONE) {
+            skipElement(parser)
+            return
+        }
+        if (parser.getAttributeValue(null, GncXmlHelper.ATTR_KEY_TYPE) == GncXmlHelper.ATTR_VALUE_FRAME) {
+            if (slotKey != SLOT_SCHEDULED_ACTION) skipElement(parser)
+            return
+        }
+        val value = readText(parser)
+        when (slotKey) {
+            SLOT_PLACEHOLDER -> mAccount?.setMIsPlaceHolderAccount(value.toBoolean())
+            SLOT_COLOR -> if (mAccount != null) mHandler.setAccountColor(mAccount!!, value)
+            SLOT_FAVORITE -> mAccount?.setMIsFavorite(value.toBoolean())
+            SLOT_DEFAULT_TRANSFER_ACCOUNT -> mAccount?.mDefaultTransferAccountUID = value
+            SLOT_NOTES -> mTransaction?.mNotes = value
+            SLOT_EXPORTED -> mTransaction?.mIsExported = value.toBoolean()
+            SLOT_SPLIT_ACCOUNT -> if (mInTemplates && mSplit != null) mSplit!!.mAccountUID = value
+            SLOT_CREDIT_NUMERIC, SLOT_DEBIT_NUMERIC -> if (mInTemplates && mSplit != null) {
+                val splitType = if (slotKey == SLOT_CREDIT_NUMERIC) TransactionType.CREDIT else TransactionType.DEBIT
+                val commodity = getCommodityForAccount(mSplit!!.mAccountUID)
+                if (mHandler.setTemplateSplitAmount(mSplit!!, value, splitType, commodity)) {
+                    mIgnoreTemplateTransaction = false //we have successfully parsed an amount
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the account of the current split. The amounts of a split use the commodities of its account
+     * and of its transaction, so they are set here
+     */
+    private fun setSplitAccount(accountUID: String) {
+        if (mInTemplates) {
+            //the splits of a template transaction all belong to its template account
+            mTemplateAccountUID = accountUID
+            return
+        }
+        val split = mSplit!!
+        //this is intentional: GnuCash XML formats split amounts, credits are negative, debits are positive.
+        split.mSplitType = if (mNegativeQuantity) TransactionType.CREDIT else TransactionType.DEBIT
+        //the split amount uses the account currency
+        split.mQuantity = Money(mQuantity, getCommodityForAccount(accountUID))
+        //the split value uses the transaction currency
+        split.setMValue(Money(mValue, mTransaction!!.mCommodity))
+        split.mAccountUID = accountUID
+    }
+
+    /**
+     * Sets the commodity of the element which is being parsed, e.g. the commodity of an account
+     */
+    @Throws(SAXException::class)
+    private fun setCommodity(commodityId: String) {
+        val currencyCode = if (mISO4217Currency) commodityId else GncXmlHandler.NO_CURRENCY_CODE
+        val commodity = mCommodities[currencyCode]
+        when (mCommodityElement) {
+            ACCOUNT_COMMODITY -> {
+                if (commodity == null) {
+                    throw SAXException("Commodity with '$currencyCode' currency code not found in the database")
+                }
+                mAccount!!.setMCommodity(commodity)
+                mBookWriter.countCurrency(currencyCode)
+            }
+
+            TRANSACTION_CURRENCY -> mTransaction!!.mCommodity = commodity
+            PRICE_COMMODITY -> mPrice?.mCommodityUID = commodity?.mUID
+            PRICE_CURRENCY -> mPrice?.mCurrencyUID = commodity?.mUID
+        }
+    }
+
+    /**
+     * Returns the commodity of an account which has been parsed
+     * @param accountUID GUID of the account
+     */
+    private fun getCommodityForAccount(accountUID: String?): Commodity {
+        return mAccountCommodities[accountUID] ?: Commodity.DEFAULT_COMMODITY
+    }
+
+    /**
+     * Sets the time of the element which is being parsed, from a `ts:date`
+     */
+    @Throws(SAXException::class)
+    private fun setTimestamp(dateString: String) {
+        val timestamp = try {
+            parseDate(dateString)
+        } catch (e: ParseException) {
+            val message = "Unable to parse transaction time - $dateString"
+            Log.e(LOG_TAG, message + "\n" + e.message)
+            Crashlytics.log(message)
+            Crashlytics.logException(e)
+            throw SAXException(message, e)
+        }
+        when (mDateElement) {
+            DATE_POSTED -> mTransaction?.setMTimestamp(timestamp)
+            DATE_ENTERED -> mTransaction?.mCreatedTimestamp = Timestamp(timestamp)
+            PRICE_TIME -> mPrice?.mDate = Timestamp(timestamp)
+        }
+    }
+
+    /**
+     * Sets the date of the scheduled action element which is being parsed, from a `gdate`
+     */
+    @Throws(SAXException::class)
+    private fun setDate(dateString: String) {
+        if (mScheduledAction == null || mDateElement == NONE) {
+            return
+        }
+        val date = try {
+            GncXmlHelper.DATE_FORMATTER.parse(dateString)!!.time
+        } catch (e: ParseException) {
+            val msg = "Error parsing scheduled action date $dateString"
+            Log.e(LOG_TAG, msg + e.message)
+            Crashlytics.log(msg)
+            Crashlytics.logException(e)
+            throw SAXException(msg, e)
+        }
+        when (mDateElement) {
+            SX_START -> mScheduledAction!!.mCreatedTimestamp = Timestamp(date)
+            SX_END -> mScheduledAction!!.setMEndDate(date)
+            SX_LAST -> mScheduledAction!!.mLastRun = date
+            RECURRENCE_START -> mRecurrence?.mPeriodStart = Timestamp(date)
+        }
+    }
+
+    private fun setPeriodType(periodTypeName: String) {
+        try {
+            val periodType = PeriodType.valueOf(periodTypeName.uppercase(Locale.getDefault()))
+            mRecurrence!!.mPeriodType = periodType
+            mRecurrence!!.mMultiplier = mRecurrenceMultiplier
+        } catch (ex: IllegalArgumentException) { //the period type constant is not supported
+            val msg = "Unsupported period constant: $periodTypeName"
+            Log.e(LOG_TAG, msg)
+            Crashlytics.logException(ex)
+            mIgnoreScheduledAction = true
+        }
+    }
+
+    @Throws(SAXException::class)
+    private fun setPriceValue(value: String) {
+        val price = mPrice ?: return
+        val separator = value.indexOf('/')
+        if (separator < 0 || value.indexOf('/', separator + 1) >= 0) {
+            val message = "Illegal price - $value"
+            Log.e(LOG_TAG, message)
+            Crashlytics.log(message)
+            throw SAXException(message)
+        }
+        price.setMValueNum(value.substring(0, separator).toLong())
+        price.setMValueDenom(value.substring(separator + 1).toLong())
+    }
+
+    /**
+     * Parses the absolute value of a split amount
+     */
+    @Throws(SAXException::class)
+    private fun parseAmount(amount: String): BigDecimal {
+        return try {
+            parseSplitAmount(amount).abs()
+        } catch (e: ParseException) {
+            val msg = "Error parsing split quantity - $amount"
+            Crashlytics.log(msg)
+            Crashlytics.logException(e)
+            throw SAXException(msg, e)
+        }
+    }
+
+    /**
+     * Reads the text of an element which has no child elements, and moves the parser to its end tag
+     */
+    @Throws(XmlPullParserException::class, IOException::class)
+    private fun readText(parser: XmlPullParser): String {
+        return parser.nextText().trim { it <= ' ' }
+    }
+
+    /**
+     * Moves the parser to the end tag of the current element, without looking at its content
+     */
+    @Throws(XmlPullParserException::class, IOException::class)
+    private fun skipElement(parser: XmlPullParser) {
+        var depth = 1
+        while (depth > 0) {
+            when (parser.next()) {
+                XmlPullParser.START_TAG -> depth++
+                XmlPullParser.END_TAG -> depth--
+                XmlPullParser.END_DOCUMENT -> throw XmlPullParserException("Unexpected end of document", parser, null)
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Tag for logging
+         */
+        private const val LOG_TAG = "GncXmlPullImporter"
+
+        private const val NONE = 0
+        private const val ACCOUNT = 1
+        private const val ACCOUNT_NAME = 2
+        private const val ACCOUNT_ID = 3
+        private const val ACCOUNT_TYPE = 4
+        private const val ACCOUNT_DESCRIPTION = 5
+        private const val ACCOUNT_PARENT = 6
+        private const val ACCOUNT_COMMODITY = 7
+        private const val COMMODITY_SPACE = 8
+        private const val COMMODITY_ID = 9
+        private const val TRANSACTION = 10
+        private const val TRANSACTION_ID = 11
+        private const val TRANSACTION_CURRENCY = 12
+        private const val TRANSACTION_DESCRIPTION = 13
+        private const val DATE_POSTED = 14
+        private const val DATE_ENTERED = 15
+        private const val TS_DATE = 16
+        private const val GDATE = 17
+        private const val RECURRENCE_PERIOD = 18
+        private const val TEMPLATE_TRANSACTIONS = 19
+        private const val SPLIT = 20
+        private const val SPLIT_ID = 21
+        private const val SPLIT_MEMO = 22
+        private const val SPLIT_VALUE = 23
+        private const val SPLIT_QUANTITY = 24
+        private const val SPLIT_ACCOUNT = 25
+        private const val SLOT_KEY = 26
+        private const val SLOT_VALUE = 27
+        private const val SCHEDULED_ACTION = 28
+        private const val SX_ID = 29
+        private const val SX_NAME = 30
+        private const val SX_ENABLED = 31
+        private const val SX_AUTO_CREATE = 32
+        private const val SX_NUM_OCCUR = 33
+        private const val SX_START = 34
+        private const val SX_LAST = 35
+        private const val SX_END = 36
+        private const val SX_TEMPLATE_ACCOUNT = 37
+        private const val RECURRENCE = 38
+        private const val RECURRENCE_MULTIPLIER = 39
+        private const val RECURRENCE_PERIOD_TYPE = 40
+        private const val RECURRENCE_START = 41
+        private const val PRICE = 42
+        private const val PRICE_ID = 43
+        private const val PRICE_COMMODITY = 44
+        private const val PRICE_CURRENCY = 45
+        private const val PRICE_TIME = 46
+        private const val PRICE_SOURCE = 47
+        private const val PRICE_TYPE = 48
+        private const val PRICE_VALUE = 49
+        private const val BUDGET = 50
+
+        private const val SLOT_PLACEHOLDER = 1
+        private const val SLOT_COLOR = 2
+        private const val SLOT_FAVORITE = 3
+        private const val SLOT_NOTES = 4
+        private const val SLOT_EXPORTED = 5
+        private const val SLOT_DEFAULT_TRANSFER_ACCOUNT = 6
+        private const val SLOT_SCHEDULED_ACTION = 7
+        private const val SLOT_SPLIT_ACCOUNT = 8
+        private const val SLOT_CREDIT_NUMERIC = 9
+        private const val SLOT_DEBIT_NUMERIC = 10
+
+        /**
+         * Codes of the elements which are imported, by qualified name
+         */
+        private val ELEMENTS = hashMapOf(
+            GncXmlHelper.TAG_ACCOUNT to ACCOUNT,
+            GncXmlHelper.TAG_ACCT_NAME to ACCOUNT_NAME,
+            GncXmlHelper.TAG_ACCT_ID to ACCOUNT_ID,
+            GncXmlHelper.TAG_ACCT_TYPE to ACCOUNT_TYPE,
+            GncXmlHelper.TAG_ACCT_DESCRIPTION to ACCOUNT_DESCRIPTION,
+            GncXmlHelper.TAG_PARENT_UID to ACCOUNT_PARENT,
+            GncXmlHelper.TAG_ACCT_COMMODITY to ACCOUNT_COMMODITY,
+            GncXmlHelper.TAG_COMMODITY_SPACE to COMMODITY_SPACE,
+            GncXmlHelper.TAG_COMMODITY_ID to COMMODITY_ID,
+            GncXmlHelper.TAG_TRANSACTION to TRANSACTION,
+            GncXmlHelper.TAG_TRX_ID to TRANSACTION_ID,
+            GncXmlHelper.TAG_TRX_CURRENCY to TRANSACTION_CURRENCY,
+            GncXmlHelper.TAG_TRN_DESCRIPTION to TRANSACTION_DESCRIPTION,
+            GncXmlHelper.TAG_DATE_POSTED to DATE_POSTED,
+            GncXmlHelper.TAG_DATE_ENTERED to DATE_ENTERED,
+            GncXmlHelper.TAG_TS_DATE to TS_DATE,
+            GncXmlHelper.TAG_GDATE to GDATE,
+            GncXmlHelper.TAG_RECURRENCE_PERIOD to RECURRENCE_PERIOD,
+            GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS to TEMPLATE_TRANSACTIONS,
+            GncXmlHelper.TAG_TRN_SPLIT to SPLIT,
+            GncXmlHelper.TAG_SPLIT_ID to SPLIT_ID,
+            GncXmlHelper.TAG_SPLIT_MEMO to SPLIT_MEMO,
+            GncXmlHelper.TAG_SPLIT_VALUE to SPLIT_VALUE,
+            GncXmlHelper.TAG_SPLIT_QUANTITY to SPLIT_QUANTITY,
+            GncXmlHelper.TAG_SPLIT_ACCOUNT to SPLIT_ACCOUNT,
+            GncXmlHelper.TAG_SLOT_KEY to SLOT_KEY,
+            GncXmlHelper.TAG_SLOT_VALUE to SLOT_VALUE,
+            GncXmlHelper.TAG_SCHEDULED_ACTION to SCHEDULED_ACTION,
+            GncXmlHelper.TAG_SX_ID to SX_ID,
+            GncXmlHelper.TAG_SX_NAME to SX_NAME,
+            GncXmlHelper.TAG_SX_ENABLED to SX_ENABLED,
+            GncXmlHelper.TAG_SX_AUTO_CREATE to SX_AUTO_CREATE,
+            GncXmlHelper.TAG_SX_NUM_OCCUR to SX_NUM_OCCUR,
+            GncXmlHelper.TAG_SX_START to SX_START,
+            GncXmlHelper.TAG_SX_LAST to SX_LAST,
+            GncXmlHelper.TAG_SX_END to SX_END,
+            GncXmlHelper.TAG_SX_TEMPL_ACCOUNT to SX_TEMPLATE_ACCOUNT,
+            GncXmlHelper.TAG_GNC_RECURRENCE to RECURRENCE,
+            GncXmlHelper.TAG_RX_MULT to RECURRENCE_MULTIPLIER,
+            GncXmlHelper.TAG_RX_PERIOD_TYPE to RECURRENCE_PERIOD_TYPE,
+            GncXmlHelper.TAG_RX_START to RECURRENCE_START,
+            GncXmlHelper.TAG_PRICE to PRICE,
+            GncXmlHelper.TAG_PRICE_ID to PRICE_ID,
+            GncXmlHelper.TAG_PRICE_COMMODITY to PRICE_COMMODITY,
+            GncXmlHelper.TAG_PRICE_CURRENCY to PRICE_CURRENCY,
+            GncXmlHelper.TAG_PRICE_TIME to PRICE_TIME,
+            GncXmlHelper.TAG_PRICE_SOURCE to PRICE_SOURCE,
+            GncXmlHelper.TAG_PRICE_TYPE to PRICE_TYPE,
+            GncXmlHelper.TAG_PRICE_VALUE to PRICE_VALUE,
+            GncXmlHelper.TAG_BUDGET to BUDGET
+        )
+
+        /**
+         * Codes of the slots which are imported, by key
+         */
+        private val SLOT_KEYS = hashMapOf(
+            GncXmlHelper.KEY_PLACEHOLDER to SLOT_PLACEHOLDER,
+            GncXmlHelper.KEY_COLOR to SLOT_COLOR,
+            GncXmlHelper.KEY_FAVORITE to SLOT_FAVORITE,
+            GncXmlHelper.KEY_NOTES to SLOT_NOTES,
+            GncXmlHelper.KEY_EXPORTED to SLOT_EXPORTED,
+            GncXmlHelper.KEY_DEFAULT_TRANSFER_ACCOUNT to SLOT_DEFAULT_TRANSFER_ACCOUNT,
+            GncXmlHelper.KEY_SCHEDX_ACTION to SLOT_SCHEDULED_ACTION,
+            GncXmlHelper.KEY_SPLIT_ACCOUNT_SLOT to SLOT_SPLIT_ACCOUNT,
+            GncXmlHelper.KEY_CREDIT_NUMERIC to SLOT_CREDIT_NUMERIC,
+            GncXmlHelper.KEY_DEBIT_NUMERIC to SLOT_DEBIT_NUMERIC
+        )
+    }
+}
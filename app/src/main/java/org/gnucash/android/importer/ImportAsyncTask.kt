@@ -23,26 +23,35 @@ import android.content.Context
 import android.net.Uri
 import android.os.AsyncTask
 import android.provider.OpenableColumns
+import android.text.format.DateUtils
+import android.text.format.Formatter
 import android.util.Log
 import android.widget.Toast
+import androidx.preference.PreferenceManager
 import com.crashlytics.android.Crashlytics
 import org.gnucash.android.R
 import org.gnucash.android.db.DatabaseSchema
 import org.gnucash.android.db.adapter.BooksDbAdapter
-import org.gnucash.android.importer.GncXmlImporter.parse
 import org.gnucash.android.ui.util.TaskDelegate
 import org.gnucash.android.util.BookUtils
 
 /**
  * Imports a GnuCash (desktop) account file and displays a progress dialog.
+ * The dialog shows how much of the file has been read, what the import is doing, how fast it is going
+ * and the estimated time left.
  * The AccountsActivity is opened when importing is done.
+ *
+ * The file is parsed with [GncXmlImporter.parse], or with [GncXmlImporter.parsePipelined]
+ * when the experimental pipelined import is turned on in the settings.
+ * When a book is given, the file is merged into it with [GncXmlImporter.merge] instead of creating a new book.
  * @author Xilin Jia <https://github.com/XilinJia> [Kotlin code created (Copyright (C) 2022)]
  */
-class ImportAsyncTask : AsyncTask<Uri, Void, Boolean> {
+class ImportAsyncTask : AsyncTask<Uri, ImportProgress, Boolean> {
     private val mContext: Activity
     private var mDelegate: TaskDelegate? = null
     private var mProgressDialog: ProgressDialog? = null
     private var mImportedBookUID: String? = null
+    private var mMergeBookUID: String? = null
 
     constructor(context: Activity) {
         mContext = context
@@ -53,6 +62,15 @@ class ImportAsyncTask : AsyncTask<Uri, Void, Boolean> {
         mDelegate = delegate
     }
 
+    /**
+     * @param mergeBookUID GUID of the book into which the file is merged, or `null` to import it as a new book
+     */
+    constructor(context: Activity, delegate: TaskDelegate?, mergeBookUID: String?) {
+        mContext = context
+        mDelegate = delegate
+        mMergeBookUID = mergeBookUID
+    }
+
     override fun onPreExecute() {
         super.onPreExecute()
         mProgressDialog = ProgressDialog(mContext)
@@ -69,8 +87,16 @@ class ImportAsyncTask : AsyncTask<Uri, Void, Boolean> {
     @Deprecated("Deprecated in Java")
     override fun doInBackground(vararg uris: Uri): Boolean {
         mImportedBookUID = try {
+            val progressTracker = ImportProgressTracker(getFileSize(uris[0])) { publishProgress(it) }
             val accountInputStream = mContext.contentResolver.openInputStream(uris[0])
-            parse(accountInputStream)
+            val mergeBookUID = mMergeBookUID
+            if (mergeBookUID != null) {
+                GncXmlImporter.merge(accountInputStream, mergeBookUID, false, progressTracker)
+            } else if (isPipelinedImportEnabled) {
+                GncXmlImporter.parsePipelined(accountInputStream!!, progressTracker)
+            } else {
+                GncXmlImporter.parse(accountInputStream, progressTracker)
+            }
         } catch (exception: Exception) {
             Log.e(ImportAsyncTask::class.java.name, "" + exception.message)
             Crashlytics.log("Could not open: " + uris[0].toString())
@@ -90,6 +116,8 @@ class ImportAsyncTask : AsyncTask<Uri, Void, Boolean> {
             }
             return false
         }
+        //a merged book keeps its name and settings
+        if (mMergeBookUID != null) return true
         val cursor = mContext.contentResolver.query(uris[0], null, null, null, null)
         if (cursor != null && cursor.moveToFirst()) {
             val nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME)
@@ -109,6 +137,64 @@ class ImportAsyncTask : AsyncTask<Uri, Void, Boolean> {
         return true
     }
 
+    @Deprecated("Deprecated in Java")
+    override fun onProgressUpdate(vararg values: ImportProgress) {
+        val progressDialog = mProgressDialog
+        if (values.isEmpty() || progressDialog == null) return
+        val progress = values[values.size - 1]
+        if (progress.permille >= 0) {
+            progressDialog.isIndeterminate = false
+            progressDialog.max = 1000
+            progressDialog.progress = progress.permille
+        }
+        val details = StringBuilder(mContext.getString(getPhaseLabel(progress.phase)))
+        details.append('\n')
+        val bytesRead = Formatter.formatFileSize(mContext, progress.bytesRead)
+        if (progress.totalBytes > 0) {
+            val totalBytes = Formatter.formatFileSize(mContext, progress.totalBytes)
+            details.append(mContext.getString(R.string.import_progress_bytes, bytesRead, totalBytes))
+        } else {
+            details.append(bytesRead)
+        }
+        details.append(" · ").append(mContext.getString(R.string.import_progress_rate, progress.entitiesPerSecond))
+        if (progress.etaMillis >= 0) {
+            val timeLeft = DateUtils.formatElapsedTime(progress.etaMillis / 1000)
+            details.append(" · ").append(mContext.getString(R.string.import_progress_time_left, timeLeft))
+        }
+        progressDialog.setMessage(details)
+    }
+
+    /**
+     * Whether the pipelined import is turned on. It is off by default
+     */
+    private val isPipelinedImportEnabled: Boolean
+        get() = PreferenceManager.getDefaultSharedPreferences(mContext)
+            .getBoolean(mContext.getString(R.string.key_pipelined_import), false)
+
+    /**
+     * Returns the size of the file, as reported by its content provider, or -1 if it is not known
+     */
+    private fun getFileSize(uri: Uri): Long {
+        val cursor = mContext.contentResolver.query(uri, arrayOf(OpenableColumns.SIZE), null, null, null)
+            ?: return -1
+        cursor.use {
+            if (it.moveToFirst() && !it.isNull(0)) {
+                return it.getLong(0)
+            }
+        }
+        return -1
+    }
+
+    private fun getPhaseLabel(phase: ImportProgress.Phase): Int {
+        return when (phase) {
+            ImportProgress.Phase.PARSE -> R.string.import_progress_parse
+            ImportProgress.Phase.INSERT_ACCOUNTS -> R.string.import_progress_insert_accounts
+            ImportProgress.Phase.INSERT_TRANSACTIONS -> R.string.import_progress_insert_transactions
+            ImportProgress.Phase.INSERT_PRICES -> R.string.import_progress_insert_prices
+            ImportProgress.Phase.COMMIT, ImportProgress.Phase.DONE -> R.string.import_progress_commit
+        }
+    }
+
     @Deprecated("Deprecated in Java")
     override fun onPostExecute(importSuccess: Boolean) {
         try {
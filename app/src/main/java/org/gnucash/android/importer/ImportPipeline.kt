@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import org.gnucash.android.model.Account
+import org.gnucash.android.model.Price
+import org.gnucash.android.model.ScheduledAction
+import org.gnucash.android.model.Transaction
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * Hands the objects parsed from a GnuCash XML file over from the parser thread to the database writer thread.
+ *
+ * The parser adds the objects to batches, which go into a bounded queue. When the queue is full, the parser waits
+ * for the writer, so that a parser which is faster than the database does not fill up the memory.
+ * The writer takes the batches from the queue in [writeTo] and adds their objects to the book in the order of the file.
+ * If the parser fails, the batches which have not been written yet are dropped and the writer gets the error.
+ * @param mBatchSize Number of objects in a batch
+ * @param queueCapacity Number of batches which can wait for the writer
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class ImportPipeline(private val mBatchSize: Int, queueCapacity: Int) : BookWriter {
+    private val mQueue = ArrayBlockingQueue<ArrayList<Any>>(queueCapacity)
+
+    /**
+     * Batch which the parser is filling
+     */
+    private var mBatch = ArrayList<Any>(mBatchSize)
+
+    /**
+     * Error which stopped the parser, handed over to the writer with the end of the book
+     */
+    @Volatile
+    private var mParserError: Throwable? = null
+
+    /**
+     * Template transaction, which is added to the book differently from other transactions
+     */
+    private class TemplateTransaction(val transaction: Transaction)
+
+    /**
+     * Transaction with a recurrence period, from old backup files
+     */
+    private class RecurringTransaction(val transaction: Transaction, val recurrencePeriod: Long)
+
+    override fun addAccount(account: Account) {
+        add(account)
+    }
+
+    override fun addTransaction(transaction: Transaction, recurrencePeriod: Long) {
+        add(if (recurrencePeriod > 0) RecurringTransaction(transaction, recurrencePeriod) else transaction)
+    }
+
+    override fun addTemplateTransaction(transaction: Transaction) {
+        add(TemplateTransaction(transaction))
+    }
+
+    override fun addScheduledAction(scheduledAction: ScheduledAction) {
+        add(scheduledAction)
+    }
+
+    override fun addPrice(price: Price) {
+        add(price)
+    }
+
+    override fun countCurrency(currencyCode: String) {
+        add(currencyCode)
+    }
+
+    /**
+     * Adds an object to the current batch, and puts the batch into the queue when it is full.
+     * Waits while the queue is full
+     * @throws InterruptedException if the writer has stopped
+     */
+    private fun add(entity: Any) {
+        mBatch.add(entity)
+        if (mBatch.size >= mBatchSize) {
+            flush()
+        }
+    }
+
+    private fun flush() {
+        if (mBatch.isNotEmpty()) {
+            mQueue.put(mBatch)
+            mBatch = ArrayList(mBatchSize)
+        }
+    }
+
+    /**
+     * Called by the parser at the end of the file. Puts the last batch and the end of the book into the queue
+     * @throws InterruptedException if the writer has stopped
+     */
+    @Throws(InterruptedException::class)
+    fun finish() {
+        flush()
+        mQueue.put(END_OF_BOOK)
+    }
+
+    /**
+     * Called by the parser when it fails. Drops the batches which have not been written yet,
+     * so that the writer stops as soon as it is done with the current batch
+     * @param error Error of the parser, which is thrown by [writeTo]
+     */
+    fun fail(error: Throwable) {
+        mParserError = error
+        mBatch.clear()
+        mQueue.clear()
+        //only the parser puts into the queue, so there is room after clearing it
+        mQueue.offer(END_OF_BOOK)
+    }
+
+    /**
+     * Writes the batches to the book as they come from the parser, until the end of the book
+     * @param bookWriter Writer of the book, which is only used by the calling thread
+     * @throws Exception the error of the parser, or of the writer
+     */
+    @Throws(Exception::class)
+    fun writeTo(bookWriter: BookWriter) {
+        while (true) {
+            val batch = mQueue.take()
+            if (batch === END_OF_BOOK) {
+                val error = mParserError
+                if (error != null) throw error
+                return
+            }
+            for (entity in batch) {
+                when (entity) {
+                    is Account -> bookWriter.addAccount(entity)
+                    is Transaction -> bookWriter.addTransaction(entity, 0)
+                    is TemplateTransaction -> bookWriter.addTemplateTransaction(entity.transaction)
+                    is RecurringTransaction -> bookWriter.addTransaction(entity.transaction, entity.recurrencePeriod)
+                    is ScheduledAction -> bookWriter.addScheduledAction(entity)
+                    is Price -> bookWriter.addPrice(entity)
+                    is String -> bookWriter.countCurrency(entity)
+                }
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Default number of objects in a batch
+         */
+        const val DEFAULT_BATCH_SIZE = 500
+
+        /**
+         * Default number of batches which can wait for the writer
+         */
+        const val DEFAULT_QUEUE_CAPACITY = 8
+
+        /**
+         * Marks the end of the book in the queue
+         */
+        private val END_OF_BOOK = ArrayList<Any>(0)
+    }
+}
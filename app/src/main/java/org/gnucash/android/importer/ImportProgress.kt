@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+/**
+ * Snapshot of the progress of an import
+ * @param phase What the import is doing
+ * @param bytesRead Number of bytes of the file which have been read, the compressed bytes for a gzipped file
+ * @param totalBytes Size of the file, or -1 if it is not known
+ * @param entityCount Number of accounts, transactions, scheduled actions and prices written to the database
+ * @param elapsedMillis Time since the import started
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see ImportProgressTracker
+ */
+class ImportProgress(
+    val phase: Phase,
+    val bytesRead: Long,
+    val totalBytes: Long,
+    val entityCount: Long,
+    val elapsedMillis: Long
+) {
+    /**
+     * Steps of an import. The file is parsed as a whole, and the parsed objects are written in chunks,
+     * so the import goes back to [PARSE] after writing a chunk
+     */
+    enum class Phase {
+        PARSE, INSERT_ACCOUNTS, INSERT_TRANSACTIONS, INSERT_PRICES, COMMIT, DONE
+    }
+
+    /**
+     * Receives the progress of an import, on the threads of the import
+     */
+    fun interface Listener {
+        fun onProgress(progress: ImportProgress)
+    }
+
+    /**
+     * Number of objects written to the database per second, on average since the start
+     */
+    val entitiesPerSecond: Long
+        get() = if (elapsedMillis > 0) entityCount * 1000 / elapsedMillis else 0
+
+    /**
+     * Part of the file which has been read, in thousandths, or -1 if the size of the file is not known
+     */
+    val permille: Int
+        get() = if (totalBytes > 0) (minOf(bytesRead, totalBytes) * 1000 / totalBytes).toInt() else -1
+
+    /**
+     * Estimated time until the whole file has been read, from the average rate of reading so far,
+     * or -1 if it cannot be estimated
+     */
+    val etaMillis: Long
+        get() = if (totalBytes > 0 && bytesRead > 0 && elapsedMillis > 0) {
+            maxOf(totalBytes - bytesRead, 0) * elapsedMillis / bytesRead
+        } else -1
+
+    /**
+     * Returns the progress as space separated key=value pairs, for the import log
+     */
+    fun toLogString(): String {
+        return "phase=" + phase.name +
+                " bytes=" + bytesRead +
+                " total_bytes=" + totalBytes +
+                " entities=" + entityCount +
+                " entities_per_s=" + entitiesPerSecond +
+                " elapsed_ms=" + elapsedMillis +
+                " eta_ms=" + etaMillis
+    }
+
+    override fun toString(): String {
+        return toLogString()
+    }
+}
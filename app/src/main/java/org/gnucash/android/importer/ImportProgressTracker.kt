@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import android.util.Log
+import org.gnucash.android.importer.ImportProgress.Phase
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Tracks the progress of an import and publishes it to a listener and to the import log.
+ *
+ * The bytes are counted as they are read from the file, before it is decompressed, so that they can be compared
+ * with the size of the file. The parser and the database writes may run on different threads, so the tracker can be
+ * updated from several threads. The progress is published at most every [PUBLISH_INTERVAL_MS], and when the phase changes.
+ * The import log gets a line when the phase changes, and at most every [LOG_INTERVAL_MS] in between.
+ * @param mTotalBytes Size of the file, or -1 if it is not known
+ * @param mListener Listener for the progress, or `null` to only write the import log
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class ImportProgressTracker(private val mTotalBytes: Long, private val mListener: ImportProgress.Listener?) {
+    private val mStartTime = System.nanoTime()
+    private val mBytesRead = AtomicLong()
+    private val mEntityCount = AtomicLong()
+
+    @Volatile
+    private var mPhase = Phase.PARSE
+
+    /**
+     * Times when the progress was last published and logged, guarded by the tracker
+     */
+    private var mLastPublishTime = mStartTime
+    private var mLastLogTime = mStartTime
+
+    /**
+     * Returns the current progress
+     */
+    val progress: ImportProgress
+        get() = ImportProgress(
+            mPhase, mBytesRead.get(), mTotalBytes, mEntityCount.get(), (System.nanoTime() - mStartTime) / 1000000
+        )
+
+    /**
+     * Returns a stream which counts the bytes read from the input
+     * @param inputStream Stream of the file, as it is stored
+     */
+    fun countBytes(inputStream: InputStream?): InputStream {
+        return CountingInputStream(inputStream)
+    }
+
+    /**
+     * Sets what the import is doing, and publishes the progress
+     */
+    fun setPhase(phase: Phase) {
+        if (mPhase != phase) {
+            mPhase = phase
+            publish(true)
+        }
+    }
+
+    /**
+     * Counts objects which have been written to the database
+     * @param count Number of accounts, transactions, scheduled actions or prices
+     */
+    fun addEntities(count: Long) {
+        mEntityCount.addAndGet(count)
+        publish(false)
+    }
+
+    /**
+     * Publishes the final progress when the import has been committed
+     */
+    fun finish() {
+        setPhase(Phase.DONE)
+    }
+
+    private fun addBytes(count: Long) {
+        if (count > 0) {
+            mBytesRead.addAndGet(count)
+            publish(false)
+        }
+    }
+
+    @Synchronized
+    private fun publish(phaseChanged: Boolean) {
+        val now = System.nanoTime()
+        if (!phaseChanged && now - mLastPublishTime < PUBLISH_INTERVAL_MS * 1000000) {
+            return
+        }
+        mLastPublishTime = now
+        val current = progress
+        if (phaseChanged || now - mLastLogTime >= LOG_INTERVAL_MS * 1000000) {
+            mLastLogTime = now
+            Log.i(LOG_TAG, current.toLogString())
+        }
+        mListener?.onProgress(current)
+    }
+
+    /**
+     * Counts the bytes which are read or skipped
+     */
+    private inner class CountingInputStream(inputStream: InputStream?) : FilterInputStream(inputStream) {
+        @Throws(IOException::class)
+        override fun read(): Int {
+            val b = super.read()
+            if (b >= 0) addBytes(1)
+            return b
+        }
+
+        @Throws(IOException::class)
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            val count = super.read(buffer, offset, length)
+            addBytes(count.toLong())
+            return count
+        }
+
+        @Throws(IOException::class)
+        override fun skip(n: Long): Long {
+            val count = super.skip(n)
+            addBytes(count)
+            return count
+        }
+
+        override fun markSupported(): Boolean {
+            //a reset would count the bytes again
+            return false
+        }
+    }
+
+    companion object {
+        /**
+         * Tag of the import log
+         */
+        const val LOG_TAG = "GnuCashImport"
+
+        /**
+         * Shortest time between two publications of the progress, other than for a change of phase
+         */
+        const val PUBLISH_INTERVAL_MS = 250L
+
+        /**
+         * Shortest time between two lines of the import log, other than for a change of phase
+         */
+        const val LOG_INTERVAL_MS = 5000L
+    }
+}
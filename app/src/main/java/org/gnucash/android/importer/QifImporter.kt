@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import org.gnucash.android.app.GnuCashApplication
+import org.gnucash.android.db.DatabaseSchema.AccountEntry
+import org.gnucash.android.db.adapter.AccountsDbAdapter
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter
+import org.gnucash.android.db.adapter.DatabaseAdapter.UpdateMethod
+import org.gnucash.android.db.adapter.SplitsDbAdapter
+import org.gnucash.android.db.adapter.TransactionsDbAdapter
+import org.gnucash.android.export.qif.QifHelper
+import org.gnucash.android.importer.ImportProgress.Phase
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.Money
+import org.gnucash.android.model.Split
+import org.gnucash.android.model.Transaction
+import org.gnucash.android.model.TransactionType
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.math.BigDecimal
+import java.text.ParseException
+import java.util.Calendar
+
+/**
+ * Imports transactions from QIF (Quicken Interchange Format) files, as written by
+ * [org.gnucash.android.export.qif.QifExporter] and by other applications.
+ *
+ * The file is read line by line. `!Account` sections select the account of the transactions which follow, or define
+ * a list of accounts between `!Option:AutoSwitch` and `!Clear:AutoSwitch`. `!Type:` sections of bank, cash, credit
+ * card and other asset or liability accounts hold the transactions. Other sections, such as the categories, classes
+ * and investments, are skipped. Transactions before any `!Account` section go to an account named
+ * [mDefaultAccountName].
+ *
+ * The accounts are found by their full name through a map which is loaded once, and the accounts which do not exist
+ * are created with their parents. Categories become income or expense accounts, depending on the sign of their
+ * amount, and transfers (`[Account]`) become bank accounts. The transactions are written to the database in batches,
+ * and the import is done in one database transaction.
+ *
+ * In the files of other applications, a transfer between two accounts is listed in the sections of both accounts.
+ * Only the first entry is imported, and the entry of the other account is recognized by its date, payee and amounts.
+ * The last [MAX_PENDING_MIRRORS] transfers are remembered for that purpose.
+ * @param db Database of the book into which the transactions are imported
+ * @param mDefaultAccountName Full name of the account of the transactions which are not in an account section
+ * @param mBatchSize Number of transactions written to the database at once
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class QifImporter @JvmOverloads constructor(
+    db: SQLiteDatabase = GnuCashApplication.activeDb,
+    private val mDefaultAccountName: String = DEFAULT_ACCOUNT_NAME,
+    private val mBatchSize: Int = DEFAULT_BATCH_SIZE
+) {
+    /**
+     * Kinds of sections of a QIF file
+     */
+    private enum class Section {
+        NONE, ACCOUNTS, TRANSACTIONS, SKIPPED
+    }
+
+    /**
+     * Split line of a QIF entry, from an `S` line and the `E` and `$` lines which follow it
+     */
+    private class QifSplit(val category: String) {
+        var memo: String? = null
+        var amount: BigDecimal? = null
+    }
+
+    private val mDb = db
+    private val mTransactionsDbAdapter = TransactionsDbAdapter(db, SplitsDbAdapter(db))
+    private val mAccountsDbAdapter = AccountsDbAdapter(db, mTransactionsDbAdapter)
+    private val mCommoditiesDbAdapter = CommoditiesDbAdapter(db)
+    private val mCalendar = Calendar.getInstance()
+
+    /**
+     * Account UIDs by full name, and the commodity of each account by UID
+     */
+    private val mAccountUIDs = HashMap<String, String>()
+    private val mAccountCommodities = HashMap<String, Commodity>()
+
+    /**
+     * Commodities by UID and by currency code, and imbalance account UIDs by currency code
+     */
+    private val mCommodities = HashMap<String, Commodity>()
+    private val mCurrencies = HashMap<String, Commodity>()
+    private val mImbalanceAccountUIDs = HashMap<String, String>()
+
+    /**
+     * UIDs of the accounts whose section may still list an imported transfer, by the content of the transfer
+     */
+    private val mPendingMirrors = object : LinkedHashMap<String, MutableList<String>>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, MutableList<String>>?): Boolean {
+            return size > MAX_PENDING_MIRRORS
+        }
+    }
+
+    private val mBatch = ArrayList<Transaction>()
+    private var mLineNumber = 0
+    private var mSection = Section.NONE
+    private var mAutoSwitch = false
+    private var mCurrency = Commodity.DEFAULT_COMMODITY
+    private var mAccountUID: String? = null
+    private var mAccountType = AccountType.BANK
+
+    /**
+     * Fields of the current entry, which are reset at the end of each entry
+     */
+    private var mDate: Long? = null
+    private var mPayee: String? = null
+    private var mMemo: String? = null
+    private var mAmount: BigDecimal? = null
+    private var mCategory: String? = null
+    private var mCleared: Char? = null
+    private var mName: String? = null
+    private var mType: String? = null
+    private val mSplits = ArrayList<QifSplit>()
+
+    /**
+     * Number of transactions written to the database by the last import
+     */
+    var importedCount = 0
+        private set
+
+    /**
+     * Number of entries of the last import which were skipped because they were the other side of a transfer
+     */
+    var skippedCount = 0
+        private set
+
+    /**
+     * Imports the transactions of a QIF file into the book
+     * @param inputStream Stream of the QIF file, in UTF-8
+     * @param progressTracker Tracker for the progress of the import, the progress is only logged by default
+     * @return Number of transactions which were written to the database
+     * @throws IOException if the file cannot be read, or if an entry is not valid
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun importTransactions(
+        inputStream: InputStream,
+        progressTracker: ImportProgressTracker = ImportProgressTracker(-1, null)
+    ): Int {
+        val start = System.nanoTime()
+        importedCount = 0
+        skippedCount = 0
+        mLineNumber = 0
+        mSection = Section.NONE
+        mAutoSwitch = false
+        mCurrency = Commodity.DEFAULT_COMMODITY
+        mAccountUID = null
+        mAccountType = AccountType.BANK
+        mPendingMirrors.clear()
+        clearEntry()
+        loadAccounts()
+        val reader = BufferedReader(InputStreamReader(progressTracker.countBytes(inputStream), Charsets.UTF_8))
+        mTransactionsDbAdapter.beginTransaction()
+        try {
+            try {
+                while (true) {
+                    val line = reader.readLine() ?: break
+                    mLineNumber++
+                    parseLine(line.trim(), progressTracker)
+                }
+                endEntry(progressTracker)
+            } catch (e: ParseException) {
+                throw IOException("Invalid QIF entry on line $mLineNumber: ${e.message}", e)
+            }
+            saveTransactions(progressTracker)
+            progressTracker.setPhase(Phase.COMMIT)
+            mTransactionsDbAdapter.setTransactionSuccessful()
+        } finally {
+            mTransactionsDbAdapter.endTransaction()
+            mBatch.clear()
+            mPendingMirrors.clear()
+        }
+        progressTracker.finish()
+        Log.i(
+            LOG_TAG, String.format(
+                "Imported %d transactions from QIF, skipped %d transfers, in %d ms", importedCount, skippedCount,
+                (System.nanoTime() - start) / 1000000
+            )
+        )
+        return importedCount
+    }
+
+    @Throws(ParseException::class)
+    private fun parseLine(line: String, progressTracker: ImportProgressTracker) {
+        if (line.isEmpty()) return
+        if (line.startsWith("!")) {
+            endEntry(progressTracker)
+            startSection(line)
+            return
+        }
+        if (line.startsWith(QifHelper.INTERNAL_CURRENCY_PREFIX)) {
+            endEntry(progressTracker)
+            mCurrency = getCurrency(line.substring(1).trim())
+            return
+        }
+        if (line.startsWith(QifHelper.ENTRY_TERMINATOR)) {
+            endEntry(progressTracker)
+            return
+        }
+        val value = line.substring(1).trim()
+        when (mSection) {
+            Section.ACCOUNTS -> when (line.substring(0, 1)) {
+                QifHelper.ACCOUNT_NAME_PREFIX -> mName = value
+                QifHelper.ACCOUNT_TYPE_PREFIX -> mType = value
+            }
+            Section.TRANSACTIONS -> when (line.substring(0, 1)) {
+                QifHelper.DATE_PREFIX -> mDate = parseDate(value)
+                QifHelper.AMOUNT_PREFIX -> mAmount = parseAmount(value)
+                QifHelper.PAYEE_PREFIX -> mPayee = value
+                QifHelper.MEMO_PREFIX -> mMemo = value
+                QifHelper.CATEGORY_PREFIX -> mCategory = value
+                QifHelper.CLEARED_PREFIX -> mCleared = value.firstOrNull()
+                QifHelper.SPLIT_CATEGORY_PREFIX -> mSplits.add(QifSplit(value))
+                QifHelper.SPLIT_MEMO_PREFIX -> mSplits.lastOrNull()?.memo = value
+                QifHelper.SPLIT_AMOUNT_PREFIX -> mSplits.lastOrNull()?.amount = parseAmount(value)
+            }
+            else -> {}
+        }
+    }
+
+    /**
+     * Starts the section of a header line
+     */
+    private fun startSection(header: String) {
+        mSection = when {
+            header.equals(QifHelper.ACCOUNT_HEADER, ignoreCase = true) -> Section.ACCOUNTS
+            header.equals(QifHelper.AUTOSWITCH_OPTION, ignoreCase = true) -> {
+                mAutoSwitch = true
+                Section.NONE
+            }
+            header.equals(QifHelper.AUTOSWITCH_CLEAR, ignoreCase = true) -> {
+                mAutoSwitch = false
+                Section.NONE
+            }
+            header.startsWith(QifHelper.TYPE_HEADER, ignoreCase = true) -> {
+                val accountType = QifHelper.getAccountType(header.substring(QifHelper.TYPE_HEADER.length))
+                if (accountType != null) {
+                    mAccountType = accountType
+                    Section.TRANSACTIONS
+                } else {
+                    Log.i(LOG_TAG, "Skipping QIF section $header")
+                    Section.SKIPPED
+                }
+            }
+            else -> {
+                Log.i(LOG_TAG, "Skipping QIF section $header")
+                Section.SKIPPED
+            }
+        }
+    }
+
+    /**
+     * Ends the current account or transaction entry, if any
+     */
+    @Throws(ParseException::class)
+    private fun endEntry(progressTracker: ImportProgressTracker) {
+        when (mSection) {
+            Section.ACCOUNTS -> mName?.let {
+                val accountType = mType?.let { type -> QifHelper.getAccountType(type) } ?: AccountType.BANK
+                val uid = getAccountUID(it, accountType)
+                //in a list of accounts, the accounts are only defined
+                if (!mAutoSwitch) mAccountUID = uid
+            }
+            Section.TRANSACTIONS -> if (mDate != null || mAmount != null || mSplits.isNotEmpty()) {
+                addTransaction(buildTransaction(), progressTracker)
+            }
+            else -> {}
+        }
+        clearEntry()
+    }
+
+    private fun clearEntry() {
+        mDate = null
+        mPayee = null
+        mMemo = null
+        mAmount = null
+        mCategory = null
+        mCleared = null
+        mName = null
+        mType = null
+        mSplits.clear()
+    }
+
+    /**
+     * Builds the transaction of the current entry.
+     *
+     * The amounts of a QIF entry are those of the account of the section. The split of that account gets the total
+     * amount, and the categories get the opposite amounts
+     */
+    @Throws(ParseException::class)
+    private fun buildTransaction(): Transaction {
+        val date = mDate ?: throw ParseException("Transaction without a date", 0)
+        val accountUID = mAccountUID ?: getAccountUID(mDefaultAccountName, mAccountType).also { mAccountUID = it }
+        val transaction = Transaction(mPayee ?: "")
+        transaction.mNotes = mMemo ?: ""
+        transaction.mCommodity = mCurrency
+        transaction.setMTimestamp(date)
+        val total = mAmount ?: mSplits.fold(BigDecimal.ZERO) { sum, split -> sum.add(split.amount ?: BigDecimal.ZERO) }
+        val split = createSplit(accountUID, total)
+        split.mSplitType = if (total.signum() < 0) TransactionType.CREDIT else TransactionType.DEBIT
+        when (mCleared?.lowercaseChar()) {
+            'x', 'r' -> split.mReconcileState = Split.FLAG_RECONCILED
+            '*', 'c' -> split.mReconcileState = Split.FLAG_CLEARED
+        }
+        transaction.addSplit(split)
+        if (mSplits.isNotEmpty()) {
+            for (qifSplit in mSplits) {
+                val amount = qifSplit.amount ?: BigDecimal.ZERO
+                addCategorySplit(transaction, qifSplit.category, amount, qifSplit.memo)
+            }
+        } else if (!mCategory.isNullOrEmpty()) {
+            addCategorySplit(transaction, mCategory!!, total, null)
+        }
+        return transaction
+    }
+
+    private fun addCategorySplit(transaction: Transaction, category: String, amount: BigDecimal, memo: String?) {
+        //the class of the category, after a slash, is dropped
+        val name = category.substringBefore('/').trim()
+        if (name.isEmpty()) return
+        val accountUID = if (name.startsWith("[") && name.endsWith("]")) {
+            getAccountUID(name.substring(1, name.length - 1), AccountType.BANK)
+        } else {
+            getAccountUID(name, if (amount.signum() > 0) AccountType.INCOME else AccountType.EXPENSE)
+        }
+        val split = createSplit(accountUID, amount)
+        split.mSplitType = if (amount.signum() > 0) TransactionType.CREDIT else TransactionType.DEBIT
+        split.mMemo = memo?.ifEmpty { null }
+        transaction.addSplit(split)
+    }
+
+    /**
+     * Creates an unsigned split in the currency of the transaction. The quantity is in the commodity of the account
+     */
+    private fun createSplit(accountUID: String, amount: BigDecimal): Split {
+        val value = Money(amount.abs(), mCurrency)
+        val quantity = Money(amount.abs(), mAccountCommodities[accountUID] ?: mCurrency)
+        return Split(value, quantity, accountUID)
+    }
+
+    /**
+     * Adds a complete transaction to the batch, unless it is the other side of a transfer which was imported,
+     * and writes the batch when it is full
+     */
+    private fun addTransaction(transaction: Transaction, progressTracker: ImportProgressTracker) {
+        val splits = transaction.getMSplitList()
+        val accountUID = splits[0].mAccountUID!!
+        val key = transaction.mTimestamp.toString() + KEY_SEPARATOR + transaction.getMDescription() + KEY_SEPARATOR +
+                splits.map { it.mAccountUID + ' ' + it.mSplitType + ' ' + it.mValue!!.toPlainString() }
+                    .sorted().joinToString(KEY_SEPARATOR)
+        val pendingAccountUIDs = mPendingMirrors[key]
+        if (pendingAccountUIDs != null && pendingAccountUIDs.remove(accountUID)) {
+            if (pendingAccountUIDs.isEmpty()) mPendingMirrors.remove(key)
+            skippedCount++
+            return
+        }
+        val otherAccountUIDs = splits.mapNotNull { it.mAccountUID }.filter { it != accountUID }.distinct()
+        if (otherAccountUIDs.isNotEmpty()) {
+            mPendingMirrors.getOrPut(key) { ArrayList() }.addAll(otherAccountUIDs)
+        }
+        val imbalanceSplit = transaction.createAutoBalanceSplit()
+        if (imbalanceSplit != null) {
+            val commodity = transaction.mCommodity!!
+            imbalanceSplit.mAccountUID = mImbalanceAccountUIDs.getOrPut(commodity.mMnemonic) {
+                mAccountsDbAdapter.getOrCreateImbalanceAccountUID(commodity)!!
+            }
+        }
+        mBatch.add(transaction)
+        if (mBatch.size >= mBatchSize) {
+            saveTransactions(progressTracker)
+        }
+    }
+
+    /**
+     * Writes the transactions of the batch and clears it
+     */
+    private fun saveTransactions(progressTracker: ImportProgressTracker) {
+        if (mBatch.isEmpty()) return
+        progressTracker.setPhase(Phase.INSERT_TRANSACTIONS)
+        mTransactionsDbAdapter.bulkAddRecords(mBatch, UpdateMethod.insert)
+        importedCount += mBatch.size
+        progressTracker.addEntities(mBatch.size.toLong())
+        mBatch.clear()
+    }
+
+    /**
+     * Loads the full name, UID and commodity of the accounts of the book
+     */
+    private fun loadAccounts() {
+        mAccountUIDs.clear()
+        mAccountCommodities.clear()
+        val cursor = mDb.query(
+            AccountEntry.TABLE_NAME,
+            arrayOf(AccountEntry.COLUMN_UID, AccountEntry.COLUMN_FULL_NAME, AccountEntry.COLUMN_COMMODITY_UID),
+            AccountEntry.COLUMN_TEMPLATE + " = 0", null, null, null, null
+        )
+        try {
+            while (cursor.moveToNext()) {
+                val uid = cursor.getString(0)
+                val fullName = cursor.getString(1)
+                if (fullName != null) mAccountUIDs[fullName] = uid
+                val commodityUID = cursor.getString(2)
+                mAccountCommodities[uid] =
+                    mCommodities.getOrPut(commodityUID) { mCommoditiesDbAdapter.getCommodityByUID(commodityUID) }
+            }
+        } finally {
+            cursor.close()
+        }
+    }
+
+    @Throws(ParseException::class)
+    private fun getCurrency(currencyCode: String): Commodity {
+        return mCurrencies.getOrPut(currencyCode) {
+            mCommoditiesDbAdapter.getCommodity(currencyCode)
+                ?: throw ParseException("Unknown commodity: $currencyCode", 0)
+        }
+    }
+
+    /**
+     * Returns the UID of the account with the full name. If it does not exist, the account is created with its
+     * parents, in the current currency
+     */
+    private fun getAccountUID(fullName: String, accountType: AccountType): String {
+        val name = fullName.trim()
+        mAccountUIDs[name]?.let { return it }
+        val uid = mAccountsDbAdapter.createAccountHierarchy(name, accountType, mCurrency)!!
+        Log.d(LOG_TAG, "Created account $name")
+        //the parents which did not exist were created too
+        var parentName = ""
+        for (token in name.split(AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR).dropLastWhile { it.isEmpty() }) {
+            parentName += token
+            if (!mAccountUIDs.containsKey(parentName)) {
+                val parentUID = mAccountsDbAdapter.findAccountUidByFullName(parentName)!!
+                mAccountUIDs[parentName] = parentUID
+                mAccountCommodities[parentUID] = mCurrency
+            }
+            parentName += AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR
+        }
+        return uid
+    }
+
+    /**
+     * Parses a QIF date. The dates written by the exporter are year first (`2019/1/25`). The dates of other
+     * applications are month first (`1/25/19`, `1/25'19` after 2000, `1/25/2019`), or day first with dots (`25.1.2019`)
+     * @return Time of the start of the day, in milliseconds
+     */
+    @Throws(ParseException::class)
+    private fun parseDate(date: String): Long {
+        val fields = date.split(DATE_SEPARATORS).filter { it.isNotEmpty() }
+        if (fields.size != 3 || fields.any { field -> !field.all { it.isDigit() } }) {
+            throw ParseException("Invalid date: $date", 0)
+        }
+        val numbers = fields.map { it.toInt() }
+        var year: Int
+        val month: Int
+        val day: Int
+        if (fields[0].length == 4) {
+            year = numbers[0]
+            month = numbers[1]
+            day = numbers[2]
+        } else if (date.contains('.')) {
+            day = numbers[0]
+            month = numbers[1]
+            year = numbers[2]
+        } else {
+            month = numbers[0]
+            day = numbers[1]
+            year = numbers[2]
+        }
+        if (fields[2].length <= 2 && fields[0].length != 4) {
+            year += if (date.contains('\'') || year < 70) 2000 else 1900
+        }
+        if (month !in 1..12 || day !in 1..31) throw ParseException("Invalid date: $date", 0)
+        mCalendar.clear()
+        mCalendar.set(year, month - 1, day)
+        return mCalendar.timeInMillis
+    }
+
+    /**
+     * Parses a QIF amount, such as `-1,234.56`. A comma is taken as the decimal separator when there is no period
+     * and it is not followed by three digits, such as in `-1234,56`
+     */
+    @Throws(ParseException::class)
+    private fun parseAmount(amount: String): BigDecimal {
+        var number = amount.replace(" ", "")
+        val comma = number.lastIndexOf(',')
+        val period = number.lastIndexOf('.')
+        number = if (comma > period && (period >= 0 || number.length - comma - 1 != 3)) {
+            number.replace(".", "").replace(',', '.')
+        } else {
+            number.replace(",", "")
+        }
+        return try {
+            BigDecimal(number)
+        } catch (e: NumberFormatException) {
+            throw ParseException("Invalid amount: $amount", 0)
+        }
+    }
+
+    companion object {
+        private const val LOG_TAG = "QifImporter"
+
+        /**
+         * Default number of transactions written to the database at once
+         */
+        const val DEFAULT_BATCH_SIZE = 1000
+
+        /**
+         * Default full name of the account of the transactions which are not in an account section
+         */
+        const val DEFAULT_ACCOUNT_NAME = "Imported QIF"
+
+        /**
+         * Number of imported transfers whose other side is looked for in the sections of the other accounts
+         */
+        const val MAX_PENDING_MIRRORS = 10000
+
+        private const val KEY_SEPARATOR = "\u001f"
+        private val DATE_SEPARATORS = Regex("[/.'\\- ]+")
+    }
+}
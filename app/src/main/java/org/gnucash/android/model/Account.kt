@@ -234,11 +234,11 @@ class Account : BaseModel {
      */
     val balance: Money
         get() {
-            var balance = Money.createZeroInstance(mCommodity!!.mMnemonic)
+            val balance = MoneyAccumulator()
             for (transaction in mTransactionsList) {
-                balance = balance.add(transaction.computeBalance(mUID))
+                balance.add(transaction.computeBalance(mUID))
             }
-            return balance
+            return balance.getMoney(mCommodity!!.mMnemonic)
         }
 
     /**
@@ -18,7 +18,6 @@ package org.gnucash.android.model
 
 import android.util.Log
 import org.gnucash.android.model.Money.Companion.sDefaultZero
-import org.gnucash.android.model.Money.CurrencyMismatchException
 import org.joda.time.LocalDateTime
 import java.math.BigDecimal
 
@@ -160,20 +159,21 @@ class Budget : BaseModel {
      * @return Money sum of all amounts
      */
     fun amountSum(): Money? {
-        var sum: Money? =
-            null //we explicitly allow this null instead of a money instance, because this method should never return null for a budget
-        for (budgetAmount in mBudgetAmounts) {
-            if (sum == null) {
-                sum = budgetAmount.mAmount
-            } else {
-                try {
-                    sum = sum.add(budgetAmount.mAmount!!.abs())
-                } catch (ex: CurrencyMismatchException) {
-                    Log.i(javaClass.simpleName, "Skip some budget amounts with different currency")
-                }
+        if (mBudgetAmounts.isEmpty()) {
+            return null //we explicitly allow this null instead of a money instance, because this method should never return null for a budget
+        }
+        val first = mBudgetAmounts[0].mAmount!!
+        val sum = MoneyAccumulator()
+        sum.add(first)
+        for (i in 1 until mBudgetAmounts.size) {
+            val amount = mBudgetAmounts[i].mAmount!!
+            if (amount.mCommodity != first.mCommodity) {
+                Log.i(javaClass.simpleName, "Skip some budget amounts with different currency")
+                continue
             }
+            if (amount.isNegative) sum.subtract(amount) else sum.add(amount)
         }
-        return sum
+        return sum.getMoney(first.mCommodity!!.mMnemonic)
     }
 
     /**
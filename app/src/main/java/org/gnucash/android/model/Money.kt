@@ -22,8 +22,6 @@ import org.gnucash.android.model.Commodity.Companion.getInstance
 import java.math.BigDecimal
 import java.math.BigInteger
 import java.math.RoundingMode
-import java.text.DecimalFormat
-import java.text.NumberFormat
 import java.util.*
 
 /**
@@ -218,27 +216,7 @@ class Money : Comparable<Money> {
      */
     @JvmOverloads
     fun formattedString(locale: Locale = Locale.getDefault()): String {
-        val currencyFormat = NumberFormat.getCurrencyInstance(locale)
-        //if we want to show US Dollars for locales which also use Dollars, for example, Canada
-        val symbol: String = if (mCommodity!! == Commodity.USD && locale != Locale.US) {
-            "US$"
-        } else {
-            mCommodity!!.symbol
-        }
-        val decimalFormatSymbols = (currencyFormat as DecimalFormat).decimalFormatSymbols
-        decimalFormatSymbols.currencySymbol = symbol
-        currencyFormat.decimalFormatSymbols = decimalFormatSymbols
-        currencyFormat.setMinimumFractionDigits(mCommodity!!.smallestFractionDigits())
-        currencyFormat.setMaximumFractionDigits(mCommodity!!.smallestFractionDigits())
-        return currencyFormat.format(asDouble())
-        /*
-// 	old currency formatting code
-		NumberFormat formatter = NumberFormat.getInstance(locale);
-		formatter.setMinimumFractionDigits(mCommodity.getSmallestFractionDigits());
-		formatter.setMaximumFractionDigits(mCommodity.getSmallestFractionDigits());
-		Currency currency = Currency.getInstance(mCommodity.getMMnemonic());
-		return formatter.format(asDouble()) + " " + currency.getSymbol(locale);
-*/
+        return MoneyFormatter.format(mAmount!!, mCommodity!!, locale)
     }
 
     /**
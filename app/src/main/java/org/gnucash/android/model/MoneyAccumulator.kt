@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.model
+
+import org.gnucash.android.model.Commodity.Companion.getInstance
+import java.math.BigDecimal
+
+/**
+ * Mutable sums of amounts per commodity, for adding up many amounts without creating a [Money] for each of them.
+ *
+ * Each sum is kept as a `long` numerator with a decimal scale, the scale of the most precise amount added.
+ * A sum which would overflow the `long`, is kept as a [BigDecimal] from then on.
+ * The sums are exact, they are only rounded to the fraction of the commodity by [getMoney].
+ *
+ * Instances are not thread-safe.
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class MoneyAccumulator {
+    private class Sum(var num: Long, var scale: Int) {
+        /**
+         * Value of the sum once it no longer fits the numerator
+         */
+        var big: BigDecimal? = null
+        var commodity: Commodity? = null
+
+        val value: BigDecimal
+            get() = big ?: BigDecimal.valueOf(num, scale)
+    }
+
+    private val mSums = LinkedHashMap<String, Sum>()
+
+    /**
+     * Mnemonics of the commodities which have a sum, including sums which are zero
+     */
+    val commodityCodes: Set<String>
+        get() = mSums.keys
+
+    /**
+     * Returns `true` if no amount was added
+     */
+    fun isEmpty(): Boolean {
+        return mSums.isEmpty()
+    }
+
+    /**
+     * Adds an amount given as in the database, as numerator and denominator
+     * @param amountNum Numerator of the amount
+     * @param amountDenom Denominator of the amount, a power of 10
+     * @param commodityCode Mnemonic of the commodity of the amount
+     */
+    fun add(amountNum: Long, amountDenom: Long, commodityCode: String) {
+        add(getSum(commodityCode), amountNum, getScale(amountNum, amountDenom))
+    }
+
+    /**
+     * Subtracts an amount given as numerator and denominator
+     * @see add
+     */
+    fun subtract(amountNum: Long, amountDenom: Long, commodityCode: String) {
+        if (amountNum == Long.MIN_VALUE) {
+            addBig(getSum(commodityCode), Money.getBigDecimal(amountNum, amountDenom).negate())
+        } else {
+            add(-amountNum, amountDenom, commodityCode)
+        }
+    }
+
+    /**
+     * Adds a decimal amount
+     * @param amount Amount to add
+     * @param commodityCode Mnemonic of the commodity of the amount
+     */
+    fun add(amount: BigDecimal, commodityCode: String) {
+        add(getSum(commodityCode), amount, false)
+    }
+
+    /**
+     * Adds a money amount
+     * @param money Amount to add
+     */
+    fun add(money: Money) {
+        add(getSum(money), money.asBigDecimal(), false)
+    }
+
+    /**
+     * Subtracts a money amount
+     * @param money Amount to subtract
+     */
+    fun subtract(money: Money) {
+        add(getSum(money), money.asBigDecimal(), true)
+    }
+
+    /**
+     * Adds all the sums of another accumulator
+     * @param other Accumulator to add
+     * @param negate `true` to subtract the sums instead
+     */
+    @JvmOverloads
+    fun addAll(other: MoneyAccumulator, negate: Boolean = false) {
+        for ((commodityCode, otherSum) in other.mSums) {
+            val sum = getSum(commodityCode)
+            if (sum.commodity == null) {
+                sum.commodity = otherSum.commodity
+            }
+            val big = otherSum.big
+            if (big != null || (negate && otherSum.num == Long.MIN_VALUE)) {
+                addBig(sum, if (negate) otherSum.value.negate() else otherSum.value)
+            } else {
+                add(sum, if (negate) -otherSum.num else otherSum.num, otherSum.scale)
+            }
+        }
+    }
+
+    /**
+     * Returns the exact sum of the amounts in a commodity
+     * @param commodityCode Mnemonic of the commodity
+     * @return Sum of the amounts, zero if none was added
+     */
+    fun getAmount(commodityCode: String): BigDecimal {
+        return mSums[commodityCode]?.value ?: BigDecimal.ZERO
+    }
+
+    /**
+     * Returns the sum of the amounts in a commodity, rounded to the smallest fraction of the commodity
+     * @param commodityCode Mnemonic of the commodity
+     * @return Sum of the amounts, zero if none was added
+     */
+    fun getMoney(commodityCode: String): Money {
+        val sum = mSums[commodityCode] ?: return Money.createZeroInstance(commodityCode)
+        return Money(sum.value, sum.commodity ?: getInstance(commodityCode))
+    }
+
+    /**
+     * Removes all the sums
+     */
+    fun clear() {
+        mSums.clear()
+    }
+
+    private fun getSum(commodityCode: String): Sum {
+        var sum = mSums[commodityCode]
+        if (sum == null) {
+            sum = Sum(0, 0)
+            mSums[commodityCode] = sum
+        }
+        return sum
+    }
+
+    private fun getSum(money: Money): Sum {
+        val commodity = money.mCommodity!!
+        val sum = getSum(commodity.mMnemonic)
+        sum.commodity = commodity
+        return sum
+    }
+
+    /**
+     * Adds the amount as numerator and scale when it fits, which does not create a new [BigDecimal]
+     * for amounts with the scale of their commodity, as those of [Money]
+     */
+    private fun add(sum: Sum, amount: BigDecimal, negate: Boolean) {
+        val scale = amount.scale()
+        if (scale in 0 until POWERS_OF_TEN.size && amount.precision() < 19) {
+            val num = amount.unscaledValue().toLong()
+            add(sum, if (negate) -num else num, scale)
+        } else {
+            addBig(sum, if (negate) amount.negate() else amount)
+        }
+    }
+
+    private fun add(sum: Sum, num: Long, scale: Int) {
+        if (sum.big != null || scale !in 0 until POWERS_OF_TEN.size) {
+            addBig(sum, BigDecimal.valueOf(num, scale))
+            return
+        }
+        var sumNum = sum.num
+        var addend = num
+        if (scale > sum.scale) {
+            sumNum = multiply(sumNum, scale - sum.scale)
+        } else if (scale < sum.scale) {
+            addend = multiply(addend, sum.scale - scale)
+        }
+        val result = sumNum + addend
+        if (sumNum == OVERFLOW || addend == OVERFLOW || (sumNum xor result) and (addend xor result) < 0) {
+            addBig(sum, BigDecimal.valueOf(num, scale))
+            return
+        }
+        sum.num = result
+        sum.scale = maxOf(sum.scale, scale)
+    }
+
+    private fun addBig(sum: Sum, amount: BigDecimal) {
+        sum.big = sum.value.add(amount)
+    }
+
+    companion object {
+        private val POWERS_OF_TEN = LongArray(19).also {
+            it[0] = 1
+            for (i in 1 until it.size) it[i] = it[i - 1] * 10
+        }
+
+        /**
+         * Marker of a rescaled numerator which does not fit a `long`
+         */
+        private const val OVERFLOW = Long.MIN_VALUE
+
+        /**
+         * Returns the numerator multiplied by 10 to the power, or [OVERFLOW] if the product does not fit a `long`
+         */
+        private fun multiply(num: Long, power: Int): Long {
+            if (power >= POWERS_OF_TEN.size) {
+                return if (num == 0L) 0 else OVERFLOW
+            }
+            val factor = POWERS_OF_TEN[power]
+            val limit = Long.MAX_VALUE / factor
+            return if (num > limit || num < -limit) OVERFLOW else num * factor
+        }
+
+        /**
+         * Returns the scale of the amount, the same as in [Money.getBigDecimal]
+         */
+        private fun getScale(amountNum: Long, amountDenom: Long): Int {
+            if (amountNum == 0L && amountDenom == 0L) {
+                return 0
+            }
+            return Integer.numberOfTrailingZeros(amountDenom.toInt())
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.model
+
+import java.math.BigDecimal
+import java.text.DecimalFormat
+import java.text.NumberFormat
+import java.util.Locale
+
+/**
+ * Formats money amounts with the currency symbol, according to a locale.
+ *
+ * Creating a currency format for a locale and setting its symbols is much slower than formatting a number,
+ * so the formats are created once per locale and currency symbol and then reused.
+ * [DecimalFormat] is not thread-safe, so each thread has its own formats.
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see Money.formattedString
+ */
+object MoneyFormatter {
+    /**
+     * Largest number of units of an amount which is exactly represented by a `double`
+     */
+    private const val MAX_EXACT_DOUBLE_UNITS = 1L shl 53
+
+    private val POWERS_OF_TEN = DoubleArray(19).also {
+        it[0] = 1.0
+        for (i in 1 until it.size) it[i] = it[i - 1] * 10
+    }
+
+    private val sFormats = object : ThreadLocal<HashMap<Locale, HashMap<String, DecimalFormat>>>() {
+        override fun initialValue(): HashMap<Locale, HashMap<String, DecimalFormat>> {
+            return HashMap()
+        }
+    }
+
+    /**
+     * Formats an amount of a commodity, with the number of fractional digits of the commodity
+     * @param amount Amount to format
+     * @param commodity Commodity of the amount
+     * @param locale Locale to use for formatting
+     * @return Formatted amount, including the currency symbol
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun format(amount: BigDecimal, commodity: Commodity, locale: Locale = Locale.getDefault()): String {
+        return getFormat(commodity, locale).format(amount)
+    }
+
+    /**
+     * Formats an amount of a commodity given in its smallest fraction, e.g. cents,
+     * without creating a [BigDecimal] for amounts which fit a `double` exactly
+     * @param units Amount as a number of the smallest fraction of the commodity
+     * @param commodity Commodity of the amount
+     * @param locale Locale to use for formatting
+     * @return Formatted amount, including the currency symbol
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun format(units: Long, commodity: Commodity, locale: Locale = Locale.getDefault()): String {
+        val format = getFormat(commodity, locale)
+        val digits = commodity.smallestFractionDigits()
+        if (digits in 0 until POWERS_OF_TEN.size && units > -MAX_EXACT_DOUBLE_UNITS && units < MAX_EXACT_DOUBLE_UNITS) {
+            //the quotient is the double closest to the amount, which rounds back to it with this many digits
+            return format.format(units / POWERS_OF_TEN[digits])
+        }
+        return format.format(BigDecimal.valueOf(units, digits))
+    }
+
+    /**
+     * Returns the currency format of the current thread for the commodity and locale
+     */
+    private fun getFormat(commodity: Commodity, locale: Locale): DecimalFormat {
+        //if we want to show US Dollars for locales which also use Dollars, for example, Canada
+        val symbol: String = if (commodity == Commodity.USD && locale != Locale.US) {
+            "US$"
+        } else {
+            commodity.symbol
+        }
+        val formats = sFormats.get()!!.getOrPut(locale) { HashMap() }
+        var format = formats[symbol]
+        if (format == null) {
+            format = NumberFormat.getCurrencyInstance(locale) as DecimalFormat
+            val decimalFormatSymbols = format.decimalFormatSymbols
+            decimalFormatSymbols.currencySymbol = symbol
+            format.decimalFormatSymbols = decimalFormatSymbols
+            formats[symbol] = format
+        }
+        val digits = commodity.smallestFractionDigits()
+        if (format.maximumFractionDigits != digits || format.minimumFractionDigits != digits) {
+            format.minimumFractionDigits = digits
+            format.maximumFractionDigits = digits
+        }
+        return format
+    }
+}
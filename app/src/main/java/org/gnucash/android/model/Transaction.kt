@@ -256,7 +256,7 @@ class Transaction : BaseModel {
      * @return Money imbalance of the transaction or zero if it is a multi-currency transaction
      */
     private fun imbalance(): Money {
-        var imbalance = createZeroInstance(mCommodity!!.mMnemonic)
+        val imbalance = MoneyAccumulator()
         for (split in mSplitList) {
             if (split.mQuantity!!.mCommodity!! != mCommodity) {
                 // this may happen when importing XML exported from GNCA before 2.0.0
@@ -265,10 +265,10 @@ class Transaction : BaseModel {
                 return createZeroInstance(mCommodity!!.mMnemonic)
             }
             val amount = split.mValue!!
-            imbalance = if (split.mSplitType === TransactionType.DEBIT) imbalance.subtract(amount)
+            if (split.mSplitType === TransactionType.DEBIT) imbalance.subtract(amount)
             else imbalance.add(amount)
         }
-        return imbalance
+        return imbalance.getMoney(mCommodity!!.mMnemonic)
     }
 
     /**
@@ -455,7 +455,7 @@ class Transaction : BaseModel {
             val accountType = accountsDbAdapter.getAccountType(accountUID)
             val accountCurrencyCode = accountsDbAdapter.getAccountCurrencyCode(accountUID)
             val isDebitAccount = accountType.hasDebitNormalBalance()
-            var balance = createZeroInstance(accountCurrencyCode)
+            val balance = MoneyAccumulator()
             for (split in splitList) {
                 if (split.mAccountUID != accountUID) continue
                 val amount: Money = if (split.mValue!!.mCommodity!!.mMnemonic == accountCurrencyCode) {
@@ -465,21 +465,13 @@ class Transaction : BaseModel {
                     split.mQuantity!!
                 }
                 val isDebitSplit = split.mSplitType === TransactionType.DEBIT
-                balance = if (isDebitAccount) {
-                    if (isDebitSplit) {
-                        balance.add(amount)
-                    } else {
-                        balance.subtract(amount)
-                    }
+                if (isDebitAccount == isDebitSplit) {
+                    balance.add(amount)
                 } else {
-                    if (isDebitSplit) {
-                        balance.subtract(amount)
-                    } else {
-                        balance.add(amount)
-                    }
+                    balance.subtract(amount)
                 }
             }
-            return balance
+            return balance.getMoney(accountCurrencyCode)
         }
 
         /**
@@ -71,6 +71,8 @@ class ScheduledActionService : JobIntentService() {
                 )
             )
             processScheduledActions(scheduledActions, db)
+            //the balances at a date only read the checkpoints, they are brought up to date here
+            SplitsDbAdapter(db).updateBalanceCheckpoints()
 
             //close all databases except the currently active database
             if (db.path != GnuCashApplication.activeDb.path) db.close()
@@ -460,7 +460,9 @@ class AccountsActivity : BaseDrawerActivity(), OnAccountClickedListener {
         /**
          * Reads and XML file from an intent and imports it into the database
          *
-         * This method is usually called in response to [AccountsActivity.startXmlFileChooser]
+         * This method is usually called in response to [AccountsActivity.startXmlFileChooser].
+         * When the active book has accounts, the user chooses between importing the file as a new book
+         * and merging it into the active book
          * @param context Activity context
          * @param data Intent data containing the XML uri
          * @param onFinishTask Task to be executed when import is complete
@@ -468,7 +470,22 @@ class AccountsActivity : BaseDrawerActivity(), OnAccountClickedListener {
         @JvmStatic
         fun importXmlFileFromIntent(context: Activity?, data: Intent, onFinishTask: TaskDelegate?) {
             BackupManager.backupActiveBook()
-            ImportAsyncTask(context!!, onFinishTask).execute(data.data)
+            //an empty book has only its root account, there is nothing to update then
+            if (AccountsDbAdapter.instance.recordsCount <= 1) {
+                ImportAsyncTask(context!!, onFinishTask).execute(data.data)
+                return
+            }
+            //the file can also update the current book, e.g. with the changes made to it on the desktop
+            val choices = arrayOf<CharSequence>(
+                context!!.getString(R.string.label_import_as_new_book),
+                context.getString(R.string.label_import_update_current_book)
+            )
+            AlertDialog.Builder(context)
+                .setTitle(R.string.title_import_accounts)
+                .setItems(choices) { _, which ->
+                    val mergeBookUID = if (which == 1) BooksDbAdapter.instance.activeBookUID else null
+                    ImportAsyncTask(context, onFinishTask, mergeBookUID).execute(data.data)
+                }.show()
         }
 
         /**
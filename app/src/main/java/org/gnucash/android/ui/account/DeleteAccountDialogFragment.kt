@@ -17,7 +17,6 @@
 package org.gnucash.android.ui.account
 
 import android.os.Bundle
-import android.text.TextUtils
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -110,22 +109,21 @@ class DeleteAccountDialogFragment : DialogFragment() {
         val accountName = AccountsDbAdapter.instance.getAccountName(mOriginAccountUID)
         dialog!!.setTitle(getString(R.string.alert_dialog_ok_delete) + ": " + accountName)
         val accountsDbAdapter = AccountsDbAdapter.instance
-        val descendantAccountUIDs: List<String?> =
-            accountsDbAdapter.getDescendantAccountUIDs(mOriginAccountUID, null, null)
+        //the account itself and all its descendants, resolved through the account hierarchy closure
+        val subtreeAccountUIDs = ("SELECT " + DatabaseSchema.AccountClosureEntry.COLUMN_DESCENDANT_UID
+                + " FROM " + DatabaseSchema.AccountClosureEntry.TABLE_NAME
+                + " WHERE " + DatabaseSchema.AccountClosureEntry.COLUMN_ANCESTOR_UID + " = ?")
         val currencyCode = accountsDbAdapter.getMMnemonic(mOriginAccountUID)
         val accountType = accountsDbAdapter.getAccountType(mOriginAccountUID!!)
         val transactionDeleteConditions = ("(" + DatabaseSchema.AccountEntry.COLUMN_UID + " != ? AND "
                 + DatabaseSchema.AccountEntry.COLUMN_CURRENCY + " = ? AND "
                 + DatabaseSchema.AccountEntry.COLUMN_TYPE + " = ? AND "
                 + DatabaseSchema.AccountEntry.COLUMN_PLACEHOLDER + " = 0 AND "
-                + DatabaseSchema.AccountEntry.COLUMN_UID + " NOT IN ('" + TextUtils.join(
-            "','",
-            descendantAccountUIDs
-        ) + "')"
+                + DatabaseSchema.AccountEntry.COLUMN_UID + " NOT IN (" + subtreeAccountUIDs + ")"
                 + ")")
         var cursor = accountsDbAdapter.fetchAccountsOrderedByFullName(
             transactionDeleteConditions,
-            arrayOf(mOriginAccountUID, currencyCode, accountType.name)
+            arrayOf(mOriginAccountUID, currencyCode, accountType.name, mOriginAccountUID)
         )
         var mCursorAdapter: SimpleCursorAdapter = QualifiedAccountNameCursorAdapter(
             activity, cursor
@@ -136,14 +134,11 @@ class DeleteAccountDialogFragment : DialogFragment() {
         val accountMoveConditions = ("(" + DatabaseSchema.AccountEntry.COLUMN_UID + " != ? AND "
                 + DatabaseSchema.AccountEntry.COLUMN_CURRENCY + " = ? AND "
                 + DatabaseSchema.AccountEntry.COLUMN_TYPE + " = ? AND "
-                + DatabaseSchema.AccountEntry.COLUMN_UID + " NOT IN ('" + TextUtils.join(
-            "','",
-            descendantAccountUIDs
-        ) + "')"
+                + DatabaseSchema.AccountEntry.COLUMN_UID + " NOT IN (" + subtreeAccountUIDs + ")"
                 + ")")
         cursor = accountsDbAdapter.fetchAccountsOrderedByFullName(
             accountMoveConditions,
-            arrayOf(mOriginAccountUID, currencyCode, accountType.name)
+            arrayOf(mOriginAccountUID, currencyCode, accountType.name, mOriginAccountUID)
         )
         mCursorAdapter = QualifiedAccountNameCursorAdapter(activity, cursor)
         mAccountsDestinationAccountSpinner!!.adapter = mCursorAdapter
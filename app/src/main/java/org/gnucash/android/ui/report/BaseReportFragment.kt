@@ -33,11 +33,13 @@ import com.github.mikephil.charting.highlight.Highlight
 import com.github.mikephil.charting.listener.OnChartValueSelectedListener
 import org.gnucash.android.R
 import org.gnucash.android.app.GnuCashApplication
+import org.gnucash.android.db.adapter.AccountsDbAdapter
+import org.gnucash.android.db.adapter.BooksDbAdapter
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter.Companion.instance
 import org.gnucash.android.model.AccountType
 import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.GroupInterval
 import org.gnucash.android.ui.common.Refreshable
-import org.gnucash.android.ui.report.ReportsActivity.GroupInterval
 import org.joda.time.LocalDateTime
 import org.joda.time.Months
 import org.joda.time.Years
@@ -146,6 +148,46 @@ abstract class BaseReportFragment : Fragment(), OnChartValueSelectedListener, Re
      * Sub-classes should call to the base method
      */
     protected abstract fun displayReport()
+
+    /**
+     * Returns the data generated by the last call to [generateReport], to be kept in the [ReportCache]
+     * and shown again with [applyReportData] as long as the book does not change.
+     *
+     * The base implementation returns `null`, which means that the report is not cached
+     * @return Data of the report, or `null` if it should not be cached
+     */
+    protected open fun getReportData(): Any? {
+        return null
+    }
+
+    /**
+     * Updates the report with data returned by [getReportData], instead of generating it again.
+     *
+     * Like [generateReport], this method is run in a background thread
+     * @param reportData Data of the report from the cache
+     */
+    protected open fun applyReportData(reportData: Any) {}
+
+    /**
+     * Returns the options of the report which change the generated data, other than the time range,
+     * account type and grouping. Reports generated with different options are cached separately
+     * @return Options of the report as a string
+     */
+    protected open fun getReportOptions(): String {
+        return ""
+    }
+
+    /**
+     * Returns the key of the report in the [ReportCache] for the current parameters
+     */
+    private val reportCacheKey: ReportCache.Key
+        get() = ReportCache.Key(
+            BooksDbAdapter.instance.activeBookUID, getReportType(),
+            if (requiresAccountTypeOptions()) mAccountType else null,
+            if (requiresTimeRangeOptions()) mReportPeriodStart else -1,
+            if (requiresTimeRangeOptions()) mReportPeriodEnd else -1,
+            mGroupInterval, mCommodity?.mMnemonic, getReportOptions()
+        )
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         TAG = this.javaClass.simpleName
@@ -258,7 +300,16 @@ abstract class BaseReportFragment : Fragment(), OnChartValueSelectedListener, Re
 
             @Deprecated("Deprecated in Java")
             override fun doInBackground(vararg params: Void): Void? {
-                generateReport()
+                //read before generating, so that changes made meanwhile invalidate the cached data
+                val changeCount = AccountsDbAdapter.instance.bookChangeCount
+                val cacheKey = reportCacheKey
+                val reportData = ReportCache.get(cacheKey, changeCount)
+                if (reportData != null) {
+                    applyReportData(reportData)
+                } else {
+                    generateReport()
+                    getReportData()?.let { ReportCache.put(cacheKey, changeCount, it) }
+                }
                 return null
             }
 
@@ -33,10 +33,9 @@ import com.github.mikephil.charting.highlight.Highlight
 import com.github.mikephil.charting.utils.LargeValueFormatter
 import org.gnucash.android.R
 import org.gnucash.android.db.adapter.AccountsDbAdapter
-import org.gnucash.android.db.adapter.TransactionsDbAdapter
+import org.gnucash.android.db.adapter.CashFlowSeriesQuery
 import org.gnucash.android.model.AccountType
-import org.gnucash.android.ui.report.ReportsActivity.GroupInterval
-import org.joda.time.LocalDate
+import org.gnucash.android.model.GroupInterval
 import org.joda.time.LocalDateTime
 import java.util.*
 
@@ -49,12 +48,13 @@ import java.util.*
  */
 class CashFlowLineChartFragment : BaseReportFragment() {
     private val mAccountsDbAdapter = AccountsDbAdapter.instance
-    private val mEarliestTimestampsMap: MutableMap<AccountType, Long> = EnumMap(AccountType::class.java)
-    private val mLatestTimestampsMap: MutableMap<AccountType, Long> = EnumMap(AccountType::class.java)
-    private var mEarliestTransactionTimestamp: Long = 0
-    private var mLatestTransactionTimestamp: Long = 0
     private var mChartDataPresent = true
 
+    /**
+     * Data of the chart, or null if there is no data
+     */
+    private var mLineData: LineData? = null
+
     @JvmField
     @BindView(R.id.line_chart)
     var mChart: LineChart? = null
@@ -85,53 +85,30 @@ class CashFlowLineChartFragment : BaseReportFragment() {
     }
 
     /**
-     * Returns a data object that represents a user data of the specified account types
+     * Returns a data object that represents a user data of the specified account types.
+     * The totals of all the account types in all the periods are computed with one scan of their splits.
      * @param accountTypeList account's types which will be displayed
      * @return a `LineData` instance that represents a user data
      */
-    private fun getData(accountTypeList: MutableList<AccountType>): LineData {
+    private fun getData(accountTypeList: List<AccountType>): LineData {
         Log.w(TAG, "getData")
-        calculateEarliestAndLatestTimestamps(accountTypeList)
-        // LocalDateTime?
-        var startDate: LocalDate
-        val endDate: LocalDate
-        if (mReportPeriodStart == -1L && mReportPeriodEnd == -1L) {
-            startDate = LocalDate(mEarliestTransactionTimestamp).withDayOfMonth(1)
-            endDate = LocalDate(mLatestTransactionTimestamp).withDayOfMonth(1)
-        } else {
-            startDate = LocalDate(mReportPeriodStart).withDayOfMonth(1)
-            endDate = LocalDate(mReportPeriodEnd).withDayOfMonth(1)
-        }
-        val count = getDateDiff(LocalDateTime(startDate.toDate().time), LocalDateTime(endDate.toDate().time))
+        val series = mAccountsDbAdapter.getCashFlowSeries(
+            accountTypeList, mCommodity!!, mGroupInterval!!, mReportPeriodStart, mReportPeriodEnd
+        )
+        val count = series.periodCount
         Log.d(TAG, "X-axis count$count")
-        val xValues: MutableList<String> = ArrayList()
-        for (i in 0..count) {
-            when (mGroupInterval) {
-                GroupInterval.MONTH -> {
-                    xValues.add(startDate.toString(X_AXIS_PATTERN))
-                    Log.d(TAG, "X-axis " + startDate.toString("MM yy"))
-                    startDate = startDate.plusMonths(1)
-                }
-
-                GroupInterval.QUARTER -> {
-                    val quarter = getQuarter(LocalDateTime(startDate.toDate().time))
-                    xValues.add("Q" + quarter + startDate.toString(" yy"))
-                    Log.d(TAG, "X-axis " + "Q" + quarter + startDate.toString(" MM yy"))
-                    startDate = startDate.plusMonths(3)
-                }
-
-                GroupInterval.YEAR -> {
-                    xValues.add(startDate.toString("yyyy"))
-                    Log.d(TAG, "X-axis " + startDate.toString("yyyy"))
-                    startDate = startDate.plusYears(1)
-                }
-
-                else -> {}
-            }
+        val xValues: MutableList<String> = ArrayList(count)
+        for (i in 0 until count) {
+            xValues.add(getLabel(LocalDateTime(series.periodStarts[i])))
         }
+        val allPeriods = mReportPeriodStart != -1L || mReportPeriodEnd != -1L
         val dataSets: MutableList<LineDataSet> = ArrayList()
         for (accountType in accountTypeList) {
-            val set = LineDataSet(getEntryList(accountType), accountType.toString())
+            //without a time range, each line spans the periods with transactions of its account type
+            val first = if (allPeriods) 0 else series.getFirstPeriod(accountType)
+            val last = if (allPeriods) count - 1 else series.getLastPeriod(accountType)
+            if (first < 0) continue
+            val set = LineDataSet(getEntryList(series, accountType, first, last), accountType.toString())
             set.setDrawFilled(true)
             set.lineWidth = 2f
             set.color = COLORS[dataSets.size]
@@ -146,6 +123,19 @@ class CashFlowLineChartFragment : BaseReportFragment() {
         return lineData
     }
 
+    /**
+     * Returns the label of the X-axis for a period
+     * @param periodStart start of the period
+     */
+    private fun getLabel(periodStart: LocalDateTime): String {
+        return when (mGroupInterval) {
+            GroupInterval.DAY, GroupInterval.WEEK -> periodStart.toString(DAY_PATTERN)
+            GroupInterval.QUARTER -> "Q" + getQuarter(periodStart) + periodStart.toString(" yy")
+            GroupInterval.YEAR -> periodStart.toString("yyyy")
+            else -> periodStart.toString(X_AXIS_PATTERN)
+        }
+    }
+
     /**
      * Returns a data object that represents situation when no user data available
      * @return a `LineData` instance for situation when no user data available
@@ -168,111 +158,47 @@ class CashFlowLineChartFragment : BaseReportFragment() {
 
     /**
      * Returns entries which represent a user data of the specified account type
+     * @param series totals of the account types per period
      * @param accountType account's type which user data will be processed
+     * @param first index of the first period to chart
+     * @param last index of the last period to chart
      * @return entries which represent a user data
      */
-    private fun getEntryList(accountType: AccountType): List<Entry> {
-        val accountUIDList: MutableList<String?> = ArrayList()
-        for (account in mAccountsDbAdapter.simpleAccountList) {
-            if (account.mAccountType === accountType && !account.isPlaceholderAccount
-                && account.getMCommodity() == mCommodity
-            ) {
-                accountUIDList.add(account.mUID)
-            }
-        }
-        var earliest: LocalDateTime
-        val latest: LocalDateTime
-        if (mReportPeriodStart == -1L && mReportPeriodEnd == -1L) {
-            earliest = LocalDateTime(mEarliestTimestampsMap[accountType])
-            latest = LocalDateTime(mLatestTimestampsMap[accountType])
-        } else {
-            earliest = LocalDateTime(mReportPeriodStart)
-            latest = LocalDateTime(mReportPeriodEnd)
-        }
-        Log.d(TAG, "Earliest " + accountType + " date " + earliest.toString("dd MM yyyy"))
-        Log.d(TAG, "Latest " + accountType + " date " + latest.toString("dd MM yyyy"))
-        val xAxisOffset = getDateDiff(LocalDateTime(mEarliestTransactionTimestamp), earliest)
-        val count = getDateDiff(earliest, latest)
-        val values: MutableList<Entry> = ArrayList(count + 1)
-        for (i in 0..count) {
-            var start: Long = 0
-            var end: Long = 0
-            when (mGroupInterval) {
-                GroupInterval.QUARTER -> {
-                    val quarter = getQuarter(earliest)
-                    start = earliest.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay()
-                        .withMinimumValue().toDate().time
-                    end = earliest.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay()
-                        .withMaximumValue().toDate().time
-                    earliest = earliest.plusMonths(3)
-                }
-
-                GroupInterval.MONTH -> {
-                    start = earliest.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().time
-                    end = earliest.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().time
-                    earliest = earliest.plusMonths(1)
-                }
-
-                GroupInterval.YEAR -> {
-                    start = earliest.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().time
-                    end = earliest.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().time
-                    earliest = earliest.plusYears(1)
-                }
-
-                else -> {}
-            }
-            val balance = mAccountsDbAdapter.getAccountsBalance(accountUIDList, start, end).asDouble().toFloat()
-            values.add(Entry(balance, i + xAxisOffset))
-            Log.d(TAG, accountType.toString() + earliest.toString(" MMM yyyy") + ", balance = " + balance)
+    private fun getEntryList(
+        series: CashFlowSeriesQuery.Result,
+        accountType: AccountType,
+        first: Int,
+        last: Int
+    ): List<Entry> {
+        val values: MutableList<Entry> = ArrayList(last - first + 1)
+        for (i in first..last) {
+            val balance = series.getTotal(accountType, i).asDouble().toFloat()
+            values.add(Entry(balance, i))
+            Log.d(TAG, accountType.toString() + LocalDateTime(series.periodStarts[i]).toString(" MMM yyyy")
+                    + ", balance = " + balance)
         }
         return values
     }
 
-    /**
-     * Calculates the earliest and latest transaction's timestamps of the specified account types
-     * @param accountTypeList account's types which will be processed
-     */
-    private fun calculateEarliestAndLatestTimestamps(accountTypeList: MutableList<AccountType>) {
-        if (mReportPeriodStart != -1L && mReportPeriodEnd != -1L) {
-            mEarliestTransactionTimestamp = mReportPeriodStart
-            mLatestTransactionTimestamp = mReportPeriodEnd
-            return
-        }
-        val dbAdapter = TransactionsDbAdapter.instance
-        val iter = accountTypeList.iterator()
-        while (iter.hasNext()) {
-            val type = iter.next()
-            val earliest = dbAdapter.getTimestampOfEarliestTransaction(type, mCommodity!!.mMnemonic)
-            val latest = dbAdapter.getTimestampOfLatestTransaction(type, mCommodity!!.mMnemonic)
-            if (earliest > 0 && latest > 0) {
-                mEarliestTimestampsMap[type] = earliest
-                mLatestTimestampsMap[type] = latest
-            } else {
-                iter.remove()
-            }
-        }
-        if (mEarliestTimestampsMap.isEmpty() || mLatestTimestampsMap.isEmpty()) {
-            return
-        }
-        val timestamps: MutableList<Long> = ArrayList(mEarliestTimestampsMap.values)
-        timestamps.addAll(mLatestTimestampsMap.values)
-        timestamps.sort()
-        mEarliestTransactionTimestamp = timestamps[0]
-        mLatestTransactionTimestamp = timestamps[timestamps.size - 1]
-    }
-
     override fun requiresAccountTypeOptions(): Boolean {
         return false
     }
 
     override fun generateReport() {
-        val lineData = getData(ArrayList(listOf(AccountType.INCOME, AccountType.EXPENSE)))
-        if (lineData != null) { // TODO: always true? XJ
-            mChart!!.data = lineData
-            mChartDataPresent = true
-        } else {
-            mChartDataPresent = false
-        }
+        mChartDataPresent = true
+        val lineData = getData(listOf(AccountType.INCOME, AccountType.EXPENSE))
+        mLineData = if (mChartDataPresent) lineData else null
+        mChart!!.data = lineData
+    }
+
+    override fun getReportData(): Any? {
+        return mLineData
+    }
+
+    override fun applyReportData(reportData: Any) {
+        mLineData = reportData as LineData
+        mChartDataPresent = true
+        mChart!!.data = reportData
     }
 
     override fun displayReport() {
@@ -283,42 +209,16 @@ class CashFlowLineChartFragment : BaseReportFragment() {
             mChart!!.setTouchEnabled(false)
             mSelectedValueTextView!!.text = resources.getString(R.string.label_chart_no_data)
         } else {
+            //the chart may have shown no data before the time range or grouping changed
+            mChart!!.axisLeft.resetAxisMaxValue()
+            mChart!!.axisLeft.setDrawLabels(true)
+            mChart!!.xAxis.setDrawLabels(true)
+            mChart!!.setTouchEnabled(true)
             mChart!!.animateX(ANIMATION_DURATION)
         }
         mChart!!.invalidate()
     }
 
-    override fun onTimeRangeUpdated(start: Long, end: Long) {
-        if (mReportPeriodStart != start || mReportPeriodEnd != end) {
-            mReportPeriodStart = start
-            mReportPeriodEnd = end
-            mChart!!.data = getData(
-                ArrayList(
-                    listOf(
-                        AccountType.INCOME,
-                        AccountType.EXPENSE
-                    )
-                )
-            )
-            mChart!!.invalidate()
-        }
-    }
-
-    override fun onGroupingUpdated(groupInterval: GroupInterval?) {
-        if (mGroupInterval != groupInterval) {
-            mGroupInterval = groupInterval
-            mChart!!.data = getData(
-                ArrayList(
-                    listOf(
-                        AccountType.INCOME,
-                        AccountType.EXPENSE
-                    )
-                )
-            )
-            mChart!!.invalidate()
-        }
-    }
-
     override fun onPrepareOptionsMenu(menu: Menu) {
         menu.findItem(R.id.menu_toggle_average_lines).isVisible = mChartDataPresent
         // hide pie/bar chart specific menu items
@@ -365,6 +265,7 @@ class CashFlowLineChartFragment : BaseReportFragment() {
 
     companion object {
         private const val X_AXIS_PATTERN = "MMM YY"
+        private const val DAY_PATTERN = "dd MMM"
         private const val ANIMATION_DURATION = 3000
         private const val NO_DATA_BAR_COUNTS = 5
         private val COLORS = intArrayOf(
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.ui.report
+
+import android.os.AsyncTask
+import org.gnucash.android.db.adapter.AccountsDbAdapter
+import org.gnucash.android.db.adapter.SplitAggregate
+import org.gnucash.android.db.adapter.SplitsDbAdapter
+import org.gnucash.android.model.Account
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.Commodity
+import org.gnucash.android.model.Money
+import org.joda.time.LocalDate
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.FutureTask
+
+/**
+ * Loads the data of the reports overview from one aggregate of the splits shared by all its widgets.
+ *
+ * The accounts are read once and divided between the widgets. The sums of the splits of all the overview accounts
+ * are then read concurrently on the executor: the opening balances of the asset and liability accounts, from
+ * the balance checkpoints, and the sums of all the accounts over the time range of the expenses chart.
+ * Both are merged into one [SplitAggregate], from which the data of each widget is derived in parallel.
+ * @param mCurrency Currency of the overview. Only the expense accounts in this currency are charted
+ * @param mExecutor Executor of the queries and derivations, the caller waits for their results
+ * @author Xilin Jia <https://github.com/XilinJia>
+ */
+class OverviewReportPipeline @JvmOverloads constructor(
+    private val mAccountsDbAdapter: AccountsDbAdapter,
+    private val mSplitsDbAdapter: SplitsDbAdapter,
+    private val mCurrency: Commodity,
+    private val mExecutor: Executor = AsyncTask.THREAD_POOL_EXECUTOR
+) {
+    /**
+     * Data of the overview widgets
+     * @param expenseBalances Expense accounts with their balance over the last months, in the order of the accounts
+     * @param assetsBalance Total balance of the asset accounts
+     * @param liabilitiesBalance Total balance of the liability accounts
+     */
+    class Result(
+        val expenseBalances: List<Pair<Account, Money>>,
+        val assetsBalance: Money,
+        val liabilitiesBalance: Money
+    )
+
+    /**
+     * Loads the data of the overview
+     * @param now Current time: the expenses are those of the month and the two months before, up to the end of the day,
+     * and the balances are those at this time
+     * @return Data of the overview widgets
+     */
+    @JvmOverloads
+    fun execute(now: Long = System.currentTimeMillis()): Result {
+        val today = LocalDate(now)
+        val rangeStart = today.minusMonths(2).dayOfMonth().withMinimumValue().toDate().time
+        val rangeEnd = today.plusDays(1).toDate().time
+
+        val expenseAccounts = ArrayList<Account>()
+        val assetUIDs = ArrayList<String>()
+        val liabilityUIDs = ArrayList<String>()
+        for (account in mAccountsDbAdapter.simpleAccountList) {
+            when (account.mAccountType) {
+                AccountType.EXPENSE -> if (!account.isPlaceholderAccount && account.getMCommodity() == mCurrency) {
+                    expenseAccounts.add(account)
+                }
+                AccountType.ASSET, AccountType.CASH, AccountType.BANK -> assetUIDs.add(account.mUID!!)
+                AccountType.LIABILITY, AccountType.CREDIT -> liabilityUIDs.add(account.mUID!!)
+                else -> {}
+            }
+        }
+        val balanceUIDs = assetUIDs + liabilityUIDs
+        val expenseUIDs = expenseAccounts.map { it.mUID!! }
+
+        //period 0: balances before the range, 1: the range up to now, 2: the rest of the day
+        val openingTask = submit { mSplitsDbAdapter.aggregateBalancesAsOf(balanceUIDs, rangeStart - 1) }
+        val rangeTask = submit {
+            mSplitsDbAdapter.aggregateBalances(expenseUIDs + balanceUIDs, longArrayOf(rangeStart, now + 1), rangeEnd)
+        }
+        val aggregate = SplitAggregate(3)
+        aggregate.addAll(getResult(openingTask))
+        aggregate.addAll(getResult(rangeTask), 1)
+
+        val expensesTask = submit {
+            val converter = mSplitsDbAdapter.BalanceConverter(mCurrency.mMnemonic)
+            expenseAccounts.map { account ->
+                Pair(account, aggregate.getBalance(listOf(account.mUID!!), 1..2, converter, rangeEnd))
+            }
+        }
+        val balancesTask = submit {
+            val converter = mSplitsDbAdapter.BalanceConverter(mCurrency.mMnemonic)
+            Pair(
+                aggregate.getBalance(assetUIDs, 0..1, converter, now),
+                aggregate.getBalance(liabilityUIDs, 0..1, converter, now)
+            )
+        }
+        val balances = getResult(balancesTask)
+        return Result(getResult(expensesTask), balances.first, balances.second)
+    }
+
+    private fun <T> submit(task: () -> T): FutureTask<T> {
+        val futureTask = FutureTask<T> { task() }
+        mExecutor.execute(futureTask)
+        return futureTask
+    }
+
+    /**
+     * Waits for the result of the task, rethrowing the exception it failed with
+     */
+    private fun <T> getResult(task: FutureTask<T>): T {
+        try {
+            return task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+}
@@ -51,6 +51,12 @@ class PieChartFragment : BaseReportFragment() {
     private var mChartDataPresent = true
     private var mUseAccountColor = true
     private var mGroupSmallerSlices = true
+
+    /**
+     * Data of the chart before grouping the smaller slices, or null if there is no data
+     */
+    private var mPieData: PieData? = null
+
     override fun onActivityCreated(savedInstanceState: Bundle?) {
         super.onActivityCreated(savedInstanceState)
         mUseAccountColor = PreferenceManager.getDefaultSharedPreferences(activity)
@@ -78,21 +84,47 @@ class PieChartFragment : BaseReportFragment() {
 
     override fun generateReport() {
         val pieData = data
-        if (pieData != null && pieData.yValCount != 0) {    // TODO: always true? XJ
-            mChartDataPresent = true
-            mChart!!.data = if (mGroupSmallerSlices) groupSmallerSlices(pieData, activity) else pieData
-            val sum = mChart!!.data.yValueSum
-            val total = resources.getString(R.string.label_chart_total)
-            val currencySymbol = mCommodity!!.symbol
-            mChart!!.centerText =
-                String.format(TOTAL_VALUE_LABEL_PATTERN, total, sum, currencySymbol)
+        if (pieData.yValCount != 0) {
+            applyReportData(pieData)
         } else {
+            mPieData = null
             mChartDataPresent = false
             mChart!!.centerText = resources.getString(R.string.label_chart_no_data)
             mChart!!.data = emptyData
         }
     }
 
+    override fun getReportData(): Any? {
+        return mPieData
+    }
+
+    override fun applyReportData(reportData: Any) {
+        val pieData = reportData as PieData
+        mPieData = pieData
+        mChartDataPresent = true
+        //the chart gets a copy, as sorting the slices changes its data
+        mChart!!.data = if (mGroupSmallerSlices) groupSmallerSlices(pieData, activity) else copyPieData(pieData)
+        val sum = mChart!!.data.yValueSum
+        val total = resources.getString(R.string.label_chart_total)
+        val currencySymbol = mCommodity!!.symbol
+        mChart!!.centerText =
+            String.format(TOTAL_VALUE_LABEL_PATTERN, total, sum, currencySymbol)
+    }
+
+    override fun getReportOptions(): String {
+        return "useAccountColor=$mUseAccountColor"
+    }
+
+    /**
+     * Returns a copy of the pie data which can be changed without changing the original
+     */
+    private fun copyPieData(pieData: PieData): PieData {
+        val dataSet = PieDataSet(pieData.dataSet.yVals.map { it.copy() }, "")
+        dataSet.colors = ArrayList(pieData.dataSet.colors)
+        dataSet.sliceSpace = SPACE_BETWEEN_SLICES
+        return PieData(ArrayList(pieData.xVals), dataSet)
+    }
+
     override fun displayReport() {
         if (mChartDataPresent) {
             mChart!!.animateXY(ANIMATION_DURATION, ANIMATION_DURATION)
@@ -112,24 +144,24 @@ class PieChartFragment : BaseReportFragment() {
             val dataSet = PieDataSet(null, "")
             val labels: MutableList<String?> = ArrayList()
             val colors: MutableList<Int> = ArrayList()
-            for (account in mAccountsDbAdapter!!.simpleAccountList) {
-                if (account.mAccountType === mAccountType && !account.isPlaceholderAccount
-                    && account.getMCommodity() == mCommodity
-                ) {
-                    val balance = mAccountsDbAdapter!!.getAccountsBalance(
-                        listOf(account.mUID),
-                        mReportPeriodStart, mReportPeriodEnd
-                    ).asDouble()
-                    if (balance > 0) {
-                        dataSet.addEntry(Entry(balance.toFloat(), dataSet.entryCount))
-                        val color: Int = if (mUseAccountColor) {
-                            if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size]
-                        } else {
-                            ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size]
-                        }
-                        colors.add(color)
-                        labels.add(account.mName)
+            val accounts = mAccountsDbAdapter!!.simpleAccountList.filter { account ->
+                account.mAccountType === mAccountType && !account.isPlaceholderAccount
+                        && account.getMCommodity() == mCommodity
+            }
+            val balances = mAccountsDbAdapter!!.getBalanceMatrix(
+                accounts.map { it.mUID!! }, mReportPeriodStart, mReportPeriodEnd
+            )
+            for (account in accounts) {
+                val balance = balances.getBalance(account.mUID!!, 0).asDouble()
+                if (balance > 0) {
+                    dataSet.addEntry(Entry(balance.toFloat(), dataSet.entryCount))
+                    val color: Int = if (mUseAccountColor) {
+                        if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size]
+                    } else {
+                        ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size]
                     }
+                    colors.add(color)
+                    labels.add(account.mName)
                 }
             }
             dataSet.colors = colors
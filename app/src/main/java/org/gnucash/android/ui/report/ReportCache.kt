@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.ui.report
+
+import android.util.LruCache
+import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.GroupInterval
+import org.joda.time.LocalDate
+
+/**
+ * Cache of the data generated by the report fragments, so that reports shown again with the same parameters,
+ * e.g. when switching between charts or time ranges, are not generated again.
+ *
+ * Each entry is stored with the book change counter read before the report was generated, and is only
+ * returned while the counter has the same value, i.e. as long as nothing was written to the book since.
+ * @author Xilin Jia <https://github.com/XilinJia>
+ * @see org.gnucash.android.db.adapter.DatabaseAdapter.bookChangeCount
+ */
+object ReportCache {
+    /**
+     * Maximum number of reports kept in the cache
+     */
+    private const val MAX_ENTRIES = 16
+
+    /**
+     * Parameters which determine the data of a report.
+     *
+     * The date is part of the key because reports without an explicit time range depend on the current date
+     */
+    data class Key(
+        val bookUID: String,
+        val reportType: ReportType,
+        val accountType: AccountType?,
+        val periodStart: Long,
+        val periodEnd: Long,
+        val groupInterval: GroupInterval?,
+        val currencyCode: String?,
+        val options: String,
+        val date: LocalDate = LocalDate.now()
+    )
+
+    private class Entry(val changeCount: Long, val reportData: Any)
+
+    private val mEntries = LruCache<Key, Entry>(MAX_ENTRIES)
+
+    /**
+     * Returns the cached data of a report
+     * @param key Parameters of the report
+     * @param changeCount Current value of the book change counter
+     * @return Data of the report, or `null` if it is not cached or the book changed since it was generated
+     */
+    fun get(key: Key, changeCount: Long): Any? {
+        val entry = mEntries.get(key) ?: return null
+        if (entry.changeCount != changeCount) {
+            mEntries.remove(key)
+            return null
+        }
+        return entry.reportData
+    }
+
+    /**
+     * Stores the data of a report
+     * @param key Parameters of the report
+     * @param changeCount Value of the book change counter read before generating the report
+     * @param reportData Data of the report
+     */
+    fun put(key: Key, changeCount: Long, reportData: Any) {
+        mEntries.put(key, Entry(changeCount, reportData))
+    }
+
+    /**
+     * Removes all the reports from the cache
+     */
+    fun clear() {
+        mEntries.evictAll()
+    }
+}
@@ -17,7 +17,7 @@
 package org.gnucash.android.ui.report
 
 import org.gnucash.android.model.AccountType
-import org.gnucash.android.ui.report.ReportsActivity.GroupInterval
+import org.gnucash.android.model.GroupInterval
 
 /**
  * Listener interface for passing reporting options from activity to the report fragments
@@ -40,6 +40,7 @@ import org.gnucash.android.app.GnuCashApplication
 import org.gnucash.android.db.adapter.TransactionsDbAdapter
 import org.gnucash.android.db.adapter.TransactionsDbAdapter.Companion.instance
 import org.gnucash.android.model.AccountType
+import org.gnucash.android.model.GroupInterval
 import org.gnucash.android.ui.common.BaseDrawerActivity
 import org.gnucash.android.ui.common.Refreshable
 import org.gnucash.android.ui.util.dialog.DateRangePickerDialogFragment
@@ -77,10 +78,6 @@ class ReportsActivity : BaseDrawerActivity(), OnItemSelectedListener, DatePicker
     private var mReportType: ReportType? = ReportType.NONE
     private var mReportsOverviewFragment: ReportsOverviewFragment? = null
 
-    enum class GroupInterval {
-        WEEK, MONTH, QUARTER, YEAR, ALL
-    }
-
     /**
      * Return the start time of the reporting period
      * @return Time in millis
@@ -38,12 +38,11 @@ import com.github.mikephil.charting.data.PieDataSet
 import org.gnucash.android.R
 import org.gnucash.android.db.adapter.AccountsDbAdapter
 import org.gnucash.android.db.adapter.AccountsDbAdapter.Companion.instance
+import org.gnucash.android.db.adapter.SplitsDbAdapter
 import org.gnucash.android.model.Account
-import org.gnucash.android.model.AccountType
 import org.gnucash.android.model.Money
 import org.gnucash.android.ui.report.PieChartFragment.Companion.groupSmallerSlices
 import org.gnucash.android.ui.transaction.TransactionsActivity.Companion.displayBalance
-import org.joda.time.LocalDate
 
 /**
  * Shows a summary of reports
@@ -85,6 +84,13 @@ class ReportsOverviewFragment : BaseReportFragment() {
     private var mAssetsBalance: Money? = null
     private var mLiabilitiesBalance: Money? = null
     private var mChartHasData = false
+
+    /**
+     * Data of the overview: expenses chart of the last months, if there are expenses, and total balances
+     */
+    private class OverviewData(val pieData: PieData?, val assetsBalance: Money, val liabilitiesBalance: Money)
+
+    private var mReportData: OverviewData? = null
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         mAccountsDbAdapter = instance
@@ -144,9 +150,24 @@ class ReportsOverviewFragment : BaseReportFragment() {
     }
 
     override fun generateReport() {
-        val pieData = groupSmallerSlices(data, activity)
-        if (pieData != null && pieData.yValCount != 0) {    // TODO: always true? XJ
-            mChart!!.data = pieData
+        val overview = OverviewReportPipeline(mAccountsDbAdapter!!, SplitsDbAdapter.instance, mCommodity!!).execute()
+        val pieData = groupSmallerSlices(getData(overview.expenseBalances), activity)
+        mReportData = OverviewData(
+            if (pieData.yValCount != 0) pieData else null,
+            overview.assetsBalance, overview.liabilitiesBalance
+        )
+        applyReportData(mReportData!!)
+    }
+
+    override fun getReportData(): Any? {
+        return mReportData
+    }
+
+    override fun applyReportData(reportData: Any) {
+        val overviewData = reportData as OverviewData
+        mReportData = overviewData
+        if (overviewData.pieData != null) {
+            mChart!!.data = overviewData.pieData
             val sum = mChart!!.data.yValueSum
             val total = resources.getString(R.string.label_chart_total)
             val currencySymbol = mCommodity!!.symbol
@@ -158,44 +179,31 @@ class ReportsOverviewFragment : BaseReportFragment() {
             mChart!!.legend.isEnabled = false
             mChartHasData = false
         }
-        val accountTypes: MutableList<AccountType> = ArrayList()
-        accountTypes.add(AccountType.ASSET)
-        accountTypes.add(AccountType.CASH)
-        accountTypes.add(AccountType.BANK)
-        mAssetsBalance = mAccountsDbAdapter!!.getAccountBalance(accountTypes, -1, System.currentTimeMillis())
-        accountTypes.clear()
-        accountTypes.add(AccountType.LIABILITY)
-        accountTypes.add(AccountType.CREDIT)
-        mLiabilitiesBalance = mAccountsDbAdapter!!.getAccountBalance(accountTypes, -1, System.currentTimeMillis())
+        mAssetsBalance = overviewData.assetsBalance
+        mLiabilitiesBalance = overviewData.liabilitiesBalance
     }
 
     /**
      * Returns `PieData` instance with data entries, colors and labels
+     * @param expenseBalances Expense accounts with their balance
      * @return `PieData` instance
      */
-    private val data: PieData
-        get() {
-            val dataSet = PieDataSet(null, "")
-            val labels: MutableList<String?> = ArrayList()
-            val colors: MutableList<Int> = ArrayList()
-            for (account in mAccountsDbAdapter!!.simpleAccountList) {
-                if (account.mAccountType === AccountType.EXPENSE && !account.isPlaceholderAccount
-                    && account.getMCommodity() == mCommodity
-                ) {
-                    val start = LocalDate().minusMonths(2).dayOfMonth().withMinimumValue().toDate().time
-                    val end = LocalDate().plusDays(1).toDate().time
-                    val balance = mAccountsDbAdapter!!.getAccountsBalance(listOf(account.mUID), start, end).asDouble()
-                    if (balance > 0) {
-                        dataSet.addEntry(Entry(balance.toFloat(), dataSet.entryCount))
-                        colors.add(if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size])
-                        labels.add(account.mName)
-                    }
-                }
+    private fun getData(expenseBalances: List<Pair<Account, Money>>): PieData {
+        val dataSet = PieDataSet(null, "")
+        val labels: MutableList<String?> = ArrayList()
+        val colors: MutableList<Int> = ArrayList()
+        for ((account, money) in expenseBalances) {
+            val balance = money.asDouble()
+            if (balance > 0) {
+                dataSet.addEntry(Entry(balance.toFloat(), dataSet.entryCount))
+                colors.add(if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[(dataSet.entryCount - 1) % ReportsActivity.COLORS.size])
+                labels.add(account.mName)
             }
-            dataSet.colors = colors
-            dataSet.sliceSpace = PieChartFragment.SPACE_BETWEEN_SLICES
-            return PieData(labels, dataSet)
         }
+        dataSet.colors = colors
+        dataSet.sliceSpace = PieChartFragment.SPACE_BETWEEN_SLICES
+        return PieData(labels, dataSet)
+    }
 
     override fun displayReport() {
         if (mChartHasData) {
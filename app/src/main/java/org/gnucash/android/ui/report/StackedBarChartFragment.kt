@@ -37,7 +37,7 @@ import org.gnucash.android.db.adapter.AccountsDbAdapter
 import org.gnucash.android.db.adapter.TransactionsDbAdapter
 import org.gnucash.android.model.Account
 import org.gnucash.android.model.AccountType
-import org.gnucash.android.ui.report.ReportsActivity.GroupInterval
+import org.gnucash.android.model.GroupInterval
 import org.joda.time.LocalDate
 import org.joda.time.LocalDateTime
 import java.util.*
@@ -59,6 +59,11 @@ class StackedBarChartFragment : BaseReportFragment() {
     private var mUseAccountColor = true
     private var mTotalPercentageMode = true
     private var mChartDataPresent = true
+
+    /**
+     * Data of the chart, or null if there is no data
+     */
+    private var mBarData: BarData? = null
     override fun getTitle(): Int {
         return R.string.title_cash_flow_report
     }
@@ -105,30 +110,28 @@ class StackedBarChartFragment : BaseReportFragment() {
                 LocalDateTime(getStartDate(mAccountType!!).toDate().time),
                 LocalDateTime(getEndDate(mAccountType!!).toDate().time)
             )
+            val accounts = mAccountsDbAdapter.simpleAccountList.filter { account ->
+                account.mAccountType === mAccountType && !account.isPlaceholderAccount
+                        && account.getMCommodity() == mCommodity
+            }
+            // the balances of all accounts in all periods are computed with one query
+            val balances = mAccountsDbAdapter.getBalanceMatrix(
+                accounts.map { it.mUID!! }, mGroupInterval!!, tmpDate, count + 1
+            )
             for (i in 0..count) {
-                var start: Long = 0
-                var end: Long = 0
                 when (mGroupInterval) {
                     GroupInterval.MONTH -> {
-                        start = tmpDate.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().time
-                        end = tmpDate.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().time
                         xValues.add(tmpDate.toString(X_AXIS_MONTH_PATTERN))
                         tmpDate = tmpDate.plusMonths(1)
                     }
 
                     GroupInterval.QUARTER -> {
                         val quarter = getQuarter(tmpDate)
-                        start = tmpDate.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay()
-                            .withMinimumValue().toDate().time
-                        end = tmpDate.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay()
-                            .withMaximumValue().toDate().time
                         xValues.add(String.format(X_AXIS_QUARTER_PATTERN, quarter, tmpDate.toString(" YY")))
                         tmpDate = tmpDate.plusMonths(3)
                     }
 
                     GroupInterval.YEAR -> {
-                        start = tmpDate.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().time
-                        end = tmpDate.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().time
                         xValues.add(tmpDate.toString(X_AXIS_YEAR_PATTERN))
                         tmpDate = tmpDate.plusYears(1)
                     }
@@ -136,40 +139,36 @@ class StackedBarChartFragment : BaseReportFragment() {
                     else -> {}
                 }
                 val stack: MutableList<Float> = ArrayList()
-                for (account in mAccountsDbAdapter.simpleAccountList) {
-                    if (account.mAccountType === mAccountType && !account.isPlaceholderAccount
-                        && account.getMCommodity() == mCommodity
-                    ) {
-                        val balance = mAccountsDbAdapter.getAccountsBalance(listOf(account.mUID), start, end).asDouble()
-                        if (balance != 0.0) {
-                            stack.add(balance.toFloat())
-                            var accountName = account.mName
-                            while (labels.contains(accountName)) {
-                                if (!accountToColorMap.containsKey(account.mUID)) {
-                                    for (label in labels) {
-                                        if (label == accountName) {
-                                            accountName += " "
-                                        }
+                for (account in accounts) {
+                    val balance = balances.getBalance(account.mUID!!, i).asDouble()
+                    if (balance != 0.0) {
+                        stack.add(balance.toFloat())
+                        var accountName = account.mName
+                        while (labels.contains(accountName)) {
+                            if (!accountToColorMap.containsKey(account.mUID)) {
+                                for (label in labels) {
+                                    if (label == accountName) {
+                                        accountName += " "
                                     }
-                                } else {
-                                    break
                                 }
+                            } else {
+                                break
                             }
-                            labels.add(accountName)
-                            if (!accountToColorMap.containsKey(account.mUID)) {
-                                val color: Int = if (mUseAccountColor) {
-                                    if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[accountToColorMap.size % ReportsActivity.COLORS.size]
-                                } else {
-                                    ReportsActivity.COLORS[accountToColorMap.size % ReportsActivity.COLORS.size]
-                                }
-                                accountToColorMap[account.mUID] = color
+                        }
+                        labels.add(accountName)
+                        if (!accountToColorMap.containsKey(account.mUID)) {
+                            val color: Int = if (mUseAccountColor) {
+                                if (account.getMColor() != Account.DEFAULT_COLOR) account.getMColor() else ReportsActivity.COLORS[accountToColorMap.size % ReportsActivity.COLORS.size]
+                            } else {
+                                ReportsActivity.COLORS[accountToColorMap.size % ReportsActivity.COLORS.size]
                             }
-                            colors.add(accountToColorMap[account.mUID])
-                            Log.d(
-                                TAG,
-                                mAccountType.toString() + tmpDate.toString(" MMMM yyyy ") + account.mName + " = " + stack[stack.size - 1]
-                            )
+                            accountToColorMap[account.mUID] = color
                         }
+                        colors.add(accountToColorMap[account.mUID])
+                        Log.d(
+                            TAG,
+                            mAccountType.toString() + tmpDate.toString(" MMMM yyyy ") + account.mName + " = " + stack[stack.size - 1]
+                        )
                     }
                 }
                 val stackLabels = labels.subList(labels.size - stack.size, labels.size).toString()
@@ -255,7 +254,27 @@ class StackedBarChartFragment : BaseReportFragment() {
     }
 
     public override fun generateReport() {
-        mChart!!.data = data
+        val barData = data
+        mBarData = if (mChartDataPresent) barData else null
+        showBarData(barData)
+    }
+
+    override fun getReportData(): Any? {
+        return mBarData
+    }
+
+    override fun applyReportData(reportData: Any) {
+        mBarData = reportData as BarData
+        mChartDataPresent = true
+        showBarData(reportData)
+    }
+
+    override fun getReportOptions(): String {
+        return "useAccountColor=$mUseAccountColor"
+    }
+
+    private fun showBarData(barData: BarData) {
+        mChart!!.data = barData
         setCustomLegend()
         mChart!!.axisLeft.setDrawLabels(mChartDataPresent)
         mChart!!.xAxis.setDrawLabels(mChartDataPresent)
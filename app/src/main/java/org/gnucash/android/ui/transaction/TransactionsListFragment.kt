@@ -39,9 +39,8 @@ import org.gnucash.android.R
 import org.gnucash.android.app.GnuCashApplication
 import org.gnucash.android.db.DatabaseCursorLoader
 import org.gnucash.android.db.DatabaseSchema
-import org.gnucash.android.db.adapter.AccountsDbAdapter
 import org.gnucash.android.db.adapter.DatabaseAdapter
-import org.gnucash.android.db.adapter.SplitsDbAdapter
+import org.gnucash.android.db.adapter.RegisterCursor
 import org.gnucash.android.db.adapter.TransactionsDbAdapter
 import org.gnucash.android.model.Transaction
 import org.gnucash.android.ui.common.FormActivity
@@ -194,9 +193,7 @@ class TransactionsListFragment : Fragment(), Refreshable, LoaderManager.LoaderCa
         DatabaseCursorLoader(context) {
         override fun loadInBackground(): Cursor {
             mDatabaseAdapter = TransactionsDbAdapter.instance
-            val c = (mDatabaseAdapter as TransactionsDbAdapter).fetchAllTransactionsForAccount(
-                accountUID!!
-            )
+            val c = (mDatabaseAdapter as TransactionsDbAdapter).fetchRegisterForAccount(accountUID!!)
             registerContentObserver(c)
             return c
         }
@@ -225,8 +222,8 @@ class TransactionsListFragment : Fragment(), Refreshable, LoaderManager.LoaderCa
             holder.primaryText!!.text = description
             val transactionUID =
                 cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_UID))
-            val amount = mTransactionsDbAdapter!!.getBalance(transactionUID, mAccountUID)
-            displayBalance(holder.transactionAmount!!, amount)
+            val registerCursor = cursor as RegisterCursor
+            displayBalance(holder.transactionAmount!!, registerCursor.amount)
             val dateMillis =
                 cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_TIMESTAMP))
             val dateText = getPrettyDateFormat(activity, dateMillis)
@@ -235,21 +232,19 @@ class TransactionsListFragment : Fragment(), Refreshable, LoaderManager.LoaderCa
             if (mUseCompactView) {
                 holder.secondaryText!!.text = dateText
             } else {
-                val splits = SplitsDbAdapter.instance.getSplitsForTransaction(transactionUID)
+                val splitCount =
+                    cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionSummaryEntry.COLUMN_SPLIT_COUNT))
                 var text = ""
-                if (splits.size == 2 && splits[0].isPairOf(splits[1])) {
-                    for (split in splits) {
-                        if (split.mAccountUID != mAccountUID) {
-                            text = AccountsDbAdapter.instance.getFullyQualifiedAccountName(split.mAccountUID)
-                            break
-                        }
-                    }
+                if (splitCount == 2) {
+                    text = cursor.getString(cursor.getColumnIndexOrThrow(RegisterCursor.COLUMN_TRANSFER_ACCOUNT_NAME)) ?: ""
                 }
-                if (splits.size > 2) {
-                    text = splits.size.toString() + " splits"
+                if (splitCount > 2) {
+                    text = "$splitCount splits"
                 }
                 holder.secondaryText!!.text = text
                 holder.transactionDate!!.text = dateText
+                holder.runningBalance!!.text = getString(R.string.label_account_balance) + " " +
+                        registerCursor.formattedRunningBalance
                 holder.editTransaction!!.setOnClickListener {
                     val intent = Intent(activity, FormActivity::class.java)
                     intent.putExtra(UxArgument.FORM_TYPE, FormActivity.FormType.TRANSACTION.name)
@@ -286,6 +281,10 @@ class TransactionsListFragment : Fragment(), Refreshable, LoaderManager.LoaderCa
             @JvmField
 			@BindView(R.id.edit_transaction)
             var editTransaction: ImageView? = null
+
+            @JvmField
+			@BindView(R.id.transaction_running_balance)
+            var runningBalance: TextView? = null
             var transactionId: Long = 0
 
             init {
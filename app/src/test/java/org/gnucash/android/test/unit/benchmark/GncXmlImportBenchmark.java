@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.benchmark;
+
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.importer.GncXmlHandler;
+import org.gnucash.android.importer.GncXmlPullImporter;
+import org.gnucash.android.test.unit.testutil.Benchmarks;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.BUNDLED_FILES;
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.readResource;
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.scaleUp;
+
+/**
+ * Benchmark of the import throughput, in elements per second, of the SAX handler, of the pull parser
+ * importer and of the pipelined import, on the bundled files with their transactions repeated.
+ * That they import the same books is checked by GncXmlPullImporterTest.
+ * Only run with -Dgnucash.benchmarks=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class GncXmlImportBenchmark {
+    private static final int COPIES = 2000;
+    private static final int RUNS = 3;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        BooksDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    private static void importWithSax(byte[] xml) throws Exception {
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        reader.setContentHandler(new GncXmlHandler());
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+    }
+
+    private static void importWithPullParser(byte[] xml) throws Exception {
+        new GncXmlPullImporter().parse(new ByteArrayInputStream(xml));
+    }
+
+    private static void importPipelined(byte[] xml) throws Exception {
+        new GncXmlPullImporter(GncXmlHandler.DEFAULT_CHUNK_SIZE).parsePipelined(new ByteArrayInputStream(xml), 8);
+    }
+
+    private static int countElements(String xml) {
+        int count = 0;
+        for (int i = xml.indexOf('<'); i >= 0; i = xml.indexOf('<', i + 1)) {
+            if (i + 1 < xml.length() && Character.isLetter(xml.charAt(i + 1))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void importThroughput() throws Exception {
+        //warm up the importers, so that class loading is not measured
+        byte[] warmUp = readResource("simpleTransactionImport.xml").getBytes("UTF-8");
+        importWithSax(warmUp);
+        importWithPullParser(warmUp);
+        importPipelined(warmUp);
+
+        for (String filename : BUNDLED_FILES) {
+            String xml = scaleUp(readResource(filename), COPIES);
+            int elementCount = countElements(xml);
+            byte[] input = xml.getBytes("UTF-8");
+            long saxNanos = Long.MAX_VALUE;
+            long pullNanos = Long.MAX_VALUE;
+            long pipelinedNanos = Long.MAX_VALUE;
+            //the fastest run is reported, as the least disturbed by garbage collection
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                importWithSax(input);
+                saxNanos = Math.min(saxNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                importWithPullParser(input);
+                pullNanos = Math.min(pullNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                importPipelined(input);
+                pipelinedNanos = Math.min(pipelinedNanos, System.nanoTime() - start);
+            }
+            System.out.println(String.format(
+                    "%s, %d elements: SAX handler %d elements/s, pull importer %d elements/s, pipelined %d elements/s",
+                    filename, elementCount, elementCount * 1000000000L / saxNanos,
+                    elementCount * 1000000000L / pullNanos, elementCount * 1000000000L / pipelinedNanos));
+        }
+    }
+}
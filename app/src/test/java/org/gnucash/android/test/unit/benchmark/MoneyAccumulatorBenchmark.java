@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.benchmark;
+
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
+import org.gnucash.android.test.unit.testutil.Benchmarks;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Microbenchmark of the allocations when adding up split amounts read from the database,
+ * with a {@link Money} per amount, and with the {@link MoneyAccumulator}.
+ * Only run with -Dgnucash.benchmarks=true, on JVMs which measure the memory allocated by a thread
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class MoneyAccumulatorBenchmark {
+    private static final int COUNT = 100000;
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    private static Money sumWithMoney(int count) {
+        Money total = Money.createZeroInstance(Commodity.USD.getMMnemonic());
+        for (int i = 0; i < count; i++) {
+            total = total.add(new Money(i % 1000, 100, "USD"));
+        }
+        return total;
+    }
+
+    private static Money sumWithAccumulator(int count) {
+        MoneyAccumulator total = new MoneyAccumulator();
+        for (int i = 0; i < count; i++) {
+            total.add(i % 1000, 100, "USD");
+        }
+        return total.getMoney(Commodity.USD.getMMnemonic());
+    }
+
+    @Test
+    public void allocations() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        //warm up both paths, so that class loading is not measured
+        sumWithMoney(1000);
+        sumWithAccumulator(1000);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        sumWithMoney(COUNT);
+        long moneyNanos = System.nanoTime() - start;
+        long moneyBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        start = System.nanoTime();
+        sumWithAccumulator(COUNT);
+        long accumulatorNanos = System.nanoTime() - start;
+        long accumulatorBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        System.out.println(String.format("Summing %d amounts: Money %d bytes in %d us, MoneyAccumulator %d bytes in %d us",
+                COUNT, moneyBytes, moneyNanos / 1000, accumulatorBytes, accumulatorNanos / 1000));
+    }
+}
@@ -21,10 +21,14 @@ import org.assertj.core.data.Index;
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BalanceMatrixQuery;
+import org.gnucash.android.db.adapter.BookMetadataCache;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
 import org.gnucash.android.db.adapter.BudgetsDbAdapter;
+import org.gnucash.android.db.adapter.CashFlowSeriesQuery;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.db.adapter.DatabaseAdapter;
 import org.gnucash.android.db.adapter.PricesDbAdapter;
@@ -37,6 +41,7 @@ import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Budget;
 import org.gnucash.android.model.BudgetAmount;
 import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.GroupInterval;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.PeriodType;
 import org.gnucash.android.model.Recurrence;
@@ -44,8 +49,10 @@ import org.gnucash.android.model.ScheduledAction;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.ui.report.OverviewReportPipeline;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.LocalDateTime;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,6 +65,8 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -350,6 +359,200 @@ public class AccountsDbAdapterTest{
         assertThat(balance).isEqualTo(expectedBalance);
     }
 
+    @Test
+    public void balanceMatrixShouldMatchPerAccountBalances(){
+        Account expenses = new Account("Expenses", Commodity.USD);
+        expenses.setMAccountType(AccountType.EXPENSE);
+        Account income = new Account("Income", Commodity.USD);
+        income.setMAccountType(AccountType.INCOME);
+        Account cash = new Account("Cash", Commodity.USD);
+        cash.setMAccountType(AccountType.CASH);
+        mAccountsDbAdapter.addRecord(expenses);
+        mAccountsDbAdapter.addRecord(income);
+        mAccountsDbAdapter.addRecord(cash);
+
+        LocalDateTime start = new LocalDateTime(2020, 1, 15, 12, 0);
+        for (int month = 0; month < 3; month++) {
+            LocalDateTime date = start.plusMonths(month);
+            Transaction spending = new Transaction("Spending " + month);
+            spending.setMTimestamp(date.toDate().getTime());
+            Split split = new Split(new Money(BigDecimal.valueOf(10 + month), Commodity.USD), expenses.getMUID());
+            spending.addSplit(split);
+            spending.addSplit(split.createPair(cash.getMUID()));
+            mTransactionsDbAdapter.addRecord(spending);
+
+            Transaction salary = new Transaction("Salary " + month);
+            salary.setMTimestamp(date.plusDays(1).toDate().getTime());
+            split = new Split(new Money(BigDecimal.valueOf(100), Commodity.USD), cash.getMUID());
+            salary.addSplit(split);
+            salary.addSplit(split.createPair(income.getMUID()));
+            mTransactionsDbAdapter.addRecord(salary);
+        }
+
+        List<String> accountUIDs = new ArrayList<>();
+        accountUIDs.add(expenses.getMUID());
+        accountUIDs.add(income.getMUID());
+        accountUIDs.add(cash.getMUID());
+        BalanceMatrixQuery.Result balances = mAccountsDbAdapter.getBalanceMatrix(
+                accountUIDs, GroupInterval.MONTH, start, 4);
+        assertThat(balances.getPeriodCount()).isEqualTo(4);
+
+        long[] periodStarts = BalanceMatrixQuery.getPeriodStarts(GroupInterval.MONTH, start, 4);
+        assertThat(periodStarts[0]).isEqualTo(new LocalDateTime(2020, 1, 1, 0, 0).toDate().getTime());
+        for (int period = 0; period < 4; period++) {
+            Money total = Money.createZeroInstance("USD");
+            for (String accountUID : accountUIDs) {
+                List<String> account = new ArrayList<>();
+                account.add(accountUID);
+                Money expected = mAccountsDbAdapter.getAccountsBalance(account,
+                        periodStarts[period], periodStarts[period + 1] - 1);
+                assertThat(balances.getBalance(accountUID, period)).isEqualTo(expected);
+                total = total.add(expected);
+            }
+            assertThat(balances.getTotal(period)).isEqualTo(total);
+        }
+        assertThat(balances.getBalance(expenses.getMUID(), 1)).isEqualTo(new Money("11", "USD"));
+        assertThat(balances.getBalance(income.getMUID(), 2)).isEqualTo(new Money("100", "USD"));
+        assertThat(balances.getBalance(cash.getMUID(), 3).isAmountZero()).isTrue();
+
+        long[] quarterStarts = BalanceMatrixQuery.getPeriodStarts(GroupInterval.QUARTER,
+                new LocalDateTime(2020, 5, 20, 8, 30), 2);
+        assertThat(quarterStarts).containsExactly(
+                new LocalDateTime(2020, 4, 1, 0, 0).toDate().getTime(),
+                new LocalDateTime(2020, 7, 1, 0, 0).toDate().getTime(),
+                new LocalDateTime(2020, 10, 1, 0, 0).toDate().getTime());
+    }
+
+    @Test
+    public void cashFlowSeriesShouldMatchPerPeriodBalances(){
+        Commodity usd = mCommoditiesDbAdapter.getCommodity("USD");
+        Account expenses = new Account("Expenses", usd);
+        expenses.setMAccountType(AccountType.EXPENSE);
+        Account income = new Account("Income", usd);
+        income.setMAccountType(AccountType.INCOME);
+        Account cash = new Account("Cash", usd);
+        cash.setMAccountType(AccountType.CASH);
+        mAccountsDbAdapter.addRecord(expenses);
+        mAccountsDbAdapter.addRecord(income);
+        mAccountsDbAdapter.addRecord(cash);
+
+        LocalDateTime start = new LocalDateTime(2020, 1, 15, 12, 0);
+        for (int month = 0; month < 3; month++) {
+            LocalDateTime date = start.plusMonths(month);
+            Transaction spending = new Transaction("Spending " + month);
+            spending.setMTimestamp(date.toDate().getTime());
+            Split split = new Split(new Money(BigDecimal.valueOf(10 + month), usd), expenses.getMUID());
+            spending.addSplit(split);
+            spending.addSplit(split.createPair(cash.getMUID()));
+            mTransactionsDbAdapter.addRecord(spending);
+
+            Transaction salary = new Transaction("Salary " + month);
+            salary.setMTimestamp(date.plusDays(1).toDate().getTime());
+            split = new Split(new Money(BigDecimal.valueOf(100), usd), cash.getMUID());
+            salary.addSplit(split);
+            salary.addSplit(split.createPair(income.getMUID()));
+            mTransactionsDbAdapter.addRecord(salary);
+        }
+
+        List<AccountType> accountTypes = new ArrayList<>();
+        accountTypes.add(AccountType.INCOME);
+        accountTypes.add(AccountType.EXPENSE);
+        //without a time range, the series spans the months with transactions
+        CashFlowSeriesQuery.Result series = mAccountsDbAdapter.getCashFlowSeries(
+                accountTypes, usd, GroupInterval.MONTH, -1, -1);
+        assertThat(series.getPeriodCount()).isEqualTo(3);
+        assertThat(series.getPeriodStarts()[0]).isEqualTo(new LocalDateTime(2020, 1, 1, 0, 0).toDate().getTime());
+        assertThat(series.getFirstPeriod(AccountType.EXPENSE)).isEqualTo(0);
+        assertThat(series.getLastPeriod(AccountType.INCOME)).isEqualTo(2);
+        assertThat(series.getFirstPeriod(AccountType.CASH)).isEqualTo(-1);
+        assertThat(series.getTotal(AccountType.EXPENSE, 1)).isEqualTo(new Money("11", "USD"));
+        assertThat(series.getTotal(AccountType.INCOME, 2)).isEqualTo(new Money("100", "USD"));
+
+        GroupInterval[] intervals = {GroupInterval.DAY,
+                GroupInterval.WEEK, GroupInterval.MONTH,
+                GroupInterval.QUARTER, GroupInterval.YEAR};
+        long rangeStart = new LocalDateTime(2020, 1, 10, 9, 0).toDate().getTime();
+        long rangeEnd = new LocalDateTime(2020, 3, 20, 9, 0).toDate().getTime();
+        for (GroupInterval interval : intervals) {
+            series = mAccountsDbAdapter.getCashFlowSeries(accountTypes, usd, interval, rangeStart, rangeEnd);
+            long[] periodStarts = series.getPeriodStarts();
+            assertThat(periodStarts[0]).isLessThanOrEqualTo(rangeStart);
+            assertThat(periodStarts[series.getPeriodCount()]).isGreaterThan(rangeEnd);
+            for (int period = 0; period < series.getPeriodCount(); period++) {
+                List<String> account = new ArrayList<>();
+                account.add(expenses.getMUID());
+                assertThat(series.getTotal(AccountType.EXPENSE, period)).isEqualTo(mAccountsDbAdapter
+                        .getAccountsBalance(account, periodStarts[period], periodStarts[period + 1] - 1));
+                account.set(0, income.getMUID());
+                assertThat(series.getTotal(AccountType.INCOME, period)).isEqualTo(mAccountsDbAdapter
+                        .getAccountsBalance(account, periodStarts[period], periodStarts[period + 1] - 1));
+            }
+        }
+        assertThat(BalanceMatrixQuery.getPeriodStart(GroupInterval.WEEK,
+                new LocalDateTime(2020, 1, 16, 8, 0))).isEqualTo(new LocalDateTime(2020, 1, 13, 0, 0));
+    }
+
+    @Test
+    public void overviewPipelineShouldMatchSeparateBalanceQueries() throws Exception {
+        Account expenses = new Account("Expenses", Commodity.USD);
+        expenses.setMAccountType(AccountType.EXPENSE);
+        Account cash = new Account("Cash", Commodity.USD);
+        cash.setMAccountType(AccountType.CASH);
+        Account card = new Account("Card", Commodity.USD);
+        card.setMAccountType(AccountType.CREDIT);
+        mAccountsDbAdapter.addRecord(expenses);
+        mAccountsDbAdapter.addRecord(cash);
+        mAccountsDbAdapter.addRecord(card);
+
+        LocalDateTime now = new LocalDateTime(2020, 3, 20, 12, 0);
+        //before the range of the expenses, in the range, later today and after today
+        LocalDateTime[] dates = {new LocalDateTime(2019, 12, 5, 10, 0), new LocalDateTime(2020, 1, 10, 10, 0),
+                new LocalDateTime(2020, 3, 20, 8, 0), new LocalDateTime(2020, 3, 20, 18, 0),
+                new LocalDateTime(2020, 4, 2, 10, 0)};
+        for (int i = 0; i < dates.length; i++) {
+            Transaction spending = new Transaction("Spending " + i);
+            spending.setMTimestamp(dates[i].toDate().getTime());
+            Split split = new Split(new Money(BigDecimal.valueOf(10 + i), Commodity.USD), expenses.getMUID());
+            spending.addSplit(split);
+            spending.addSplit(split.createPair(i % 2 == 0 ? cash.getMUID() : card.getMUID()));
+            mTransactionsDbAdapter.addRecord(spending);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        OverviewReportPipeline.Result overview;
+        try {
+            overview = new OverviewReportPipeline(mAccountsDbAdapter, mSplitsDbAdapter,
+                    mCommoditiesDbAdapter.getCommodity("USD"), executor).execute(now.toDate().getTime());
+        } finally {
+            executor.shutdown();
+        }
+
+        List<AccountType> assetTypes = new ArrayList<>();
+        assetTypes.add(AccountType.ASSET);
+        assetTypes.add(AccountType.CASH);
+        assetTypes.add(AccountType.BANK);
+        List<AccountType> liabilityTypes = new ArrayList<>();
+        liabilityTypes.add(AccountType.LIABILITY);
+        liabilityTypes.add(AccountType.CREDIT);
+        long nowTimestamp = now.toDate().getTime();
+        assertThat(overview.getAssetsBalance())
+                .isEqualTo(mAccountsDbAdapter.getAccountBalance(assetTypes, -1, nowTimestamp));
+        assertThat(overview.getLiabilitiesBalance())
+                .isEqualTo(mAccountsDbAdapter.getAccountBalance(liabilityTypes, -1, nowTimestamp));
+        assertThat(overview.getAssetsBalance()).isEqualTo(new Money("-22", "USD"));
+        assertThat(overview.getLiabilitiesBalance()).isEqualTo(new Money("11", "USD"));
+
+        assertThat(overview.getExpenseBalances()).hasSize(1);
+        assertThat(overview.getExpenseBalances().get(0).getFirst().getMUID()).isEqualTo(expenses.getMUID());
+        List<String> expenseUIDs = new ArrayList<>();
+        expenseUIDs.add(expenses.getMUID());
+        Money expected = mAccountsDbAdapter.getAccountsBalance(expenseUIDs,
+                new LocalDateTime(2020, 1, 1, 0, 0).toDate().getTime(),
+                new LocalDateTime(2020, 3, 21, 0, 0).toDate().getTime());
+        assertThat(overview.getExpenseBalances().get(0).getSecond()).isEqualTo(expected);
+        assertThat(expected).isEqualTo(new Money("36", "USD"));
+    }
+
     /**
      * Test creating an account hierarchy by specifying fully qualified name
      */
@@ -418,6 +621,96 @@ public class AccountsDbAdapterTest{
 
     }
 
+    @Test
+    public void descendantAccountsShouldFollowHierarchyChanges(){
+        Account grandParent = new Account("GrandParent", Commodity.USD);
+        grandParent.setMAccountType(AccountType.ASSET);
+        Account parent = new Account("Parent", Commodity.USD);
+        parent.setMAccountType(AccountType.ASSET);
+        parent.setMParentAccountUID(grandParent.getMUID());
+        Account child = new Account("Child", Commodity.USD);
+        child.setMAccountType(AccountType.ASSET);
+        child.setMParentAccountUID(parent.getMUID());
+        Account other = new Account("Other", Commodity.USD);
+        other.setMAccountType(AccountType.ASSET);
+
+        //the child is saved before its parent, like it may happen during import
+        mAccountsDbAdapter.addRecord(grandParent);
+        mAccountsDbAdapter.addRecord(child);
+        mAccountsDbAdapter.addRecord(parent);
+        mAccountsDbAdapter.addRecord(other);
+
+        assertThat(mAccountsDbAdapter.getDescendantAccountUIDs(grandParent.getMUID(), null, null))
+                .containsExactly(parent.getMUID(), child.getMUID());
+
+        Transaction transaction = new Transaction("Subtree balance");
+        Split split = new Split(new Money(BigDecimal.TEN, Commodity.USD), child.getMUID());
+        split.setMSplitType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(other.getMUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        assertThat(mAccountsDbAdapter.getAccountBalance(grandParent.getMUID())).isEqualTo(new Money("10", "USD"));
+
+        //moving the parent moves its whole subtree
+        parent.setMParentAccountUID(other.getMUID());
+        mAccountsDbAdapter.addRecord(parent);
+        assertThat(mAccountsDbAdapter.getDescendantAccountUIDs(grandParent.getMUID(), null, null)).isEmpty();
+        assertThat(mAccountsDbAdapter.getDescendantAccountUIDs(other.getMUID(), null, null))
+                .containsExactly(parent.getMUID(), child.getMUID());
+        assertThat(mAccountsDbAdapter.getAccountBalance(grandParent.getMUID())).isEqualTo(new Money("0", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(other.getMUID())).isEqualTo(new Money("0", "USD"));
+
+        //a filtered out account also hides its descendants
+        mAccountsDbAdapter.updateRecord(parent.getMUID(), DatabaseSchema.AccountEntry.COLUMN_HIDDEN, "1");
+        assertThat(mAccountsDbAdapter.getDescendantAccountUIDs(other.getMUID(),
+                DatabaseSchema.AccountEntry.COLUMN_HIDDEN + " = ?", new String[]{"0"})).isEmpty();
+
+        mAccountsDbAdapter.recursiveDeleteAccount(mAccountsDbAdapter.getID(parent.getMUID()));
+        assertThat(mAccountsDbAdapter.getDescendantAccountUIDs(other.getMUID(), null, null)).isEmpty();
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isZero();
+    }
+
+    @Test
+    public void accountMetadataShouldBeCachedUntilAccountsAreWritten(){
+        Account account = new Account("Cached", Commodity.EUR);
+        mAccountsDbAdapter.addRecord(account);
+        BookMetadataCache cache = mAccountsDbAdapter.getMetadataCache();
+        //the adapters of a book share its cache
+        assertThat(mTransactionsDbAdapter.getMetadataCache()).isSameAs(cache);
+
+        assertThat(mAccountsDbAdapter.getAccountName(account.getMUID())).isEqualTo("Cached");
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        assertThat(mAccountsDbAdapter.isPlaceholderAccount(account.getMUID())).isFalse();
+        assertThat(mAccountsDbAdapter.getAccountType(account.getMUID())).isEqualTo(AccountType.CASH);
+        assertThat(mTransactionsDbAdapter.getAccountCurrencyCode(account.getMUID())).isEqualTo("EUR");
+        assertThat(cache.getHitCount()).isEqualTo(hits + 3);
+        assertThat(cache.getMissCount()).isEqualTo(misses);
+
+        mAccountsDbAdapter.updateRecord(account.getMUID(), DatabaseSchema.AccountEntry.COLUMN_NAME, "Renamed");
+        assertThat(mAccountsDbAdapter.getAccountName(account.getMUID())).isEqualTo("Renamed");
+        assertThat(cache.getMissCount()).isEqualTo(misses + 1);
+
+        assertThat(mCommoditiesDbAdapter.getCommodity("EUR")).isSameAs(mCommoditiesDbAdapter.getCommodity("EUR"));
+        assertThat(mCommoditiesDbAdapter.getMMnemonic(Commodity.EUR.getMUID())).isEqualTo("EUR");
+    }
+
+    @Test
+    public void rolledBackAccountMetadataShouldNotStayCached(){
+        Account account = new Account("Committed", Commodity.EUR);
+        mAccountsDbAdapter.addRecord(account);
+
+        mAccountsDbAdapter.beginTransaction();
+        try {
+            mAccountsDbAdapter.updateRecord(account.getMUID(), DatabaseSchema.AccountEntry.COLUMN_NAME, "Rolled back");
+            //the uncommitted name is cached while the transaction is in progress
+            assertThat(mAccountsDbAdapter.getAccountName(account.getMUID())).isEqualTo("Rolled back");
+        } finally {
+            mAccountsDbAdapter.endTransaction();
+        }
+        assertThat(mAccountsDbAdapter.getAccountName(account.getMUID())).isEqualTo("Committed");
+    }
+
     @Test
     public void shouldCreateImbalanceAccountOnDemand(){
         assertThat(mAccountsDbAdapter.getRecordsCount()).isEqualTo(1L);
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that reading the database does not wait for a write transaction running on another thread
+ */
+@RunWith(RobolectricTestRunner.class) //package is required so that resources can be found in dev mode
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class DatabaseConcurrencyTest {
+
+    private static final int WRITE_COUNT = 50;
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @Test
+    public void shouldUseWriteAheadLogging() {
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        assertThat(db.isWriteAheadLoggingEnabled()).isTrue();
+    }
+
+    @Test
+    public void readerShouldNotBlockOnLongWriteTransaction() throws Exception {
+        final long initialCount = mAccountsDbAdapter.getRecordsCount();
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+
+        Future<?> writer = mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SQLiteDatabase db = GnuCashApplication.getActiveDb();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < WRITE_COUNT; i++) {
+                        mAccountsDbAdapter.addRecord(new Account("Account " + i));
+                    }
+                    writeStarted.countDown();
+                    //keep the transaction open until the reader is done
+                    readDone.await(10, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return null;
+            }
+        });
+
+        assertThat(writeStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        Future<Long> reader = mExecutor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mAccountsDbAdapter.getRecordsCount();
+            }
+        });
+        //the reader completes while the write transaction is still open, and does not see its changes
+        assertThat(reader.get(5, TimeUnit.SECONDS)).isEqualTo(initialCount);
+        readDone.countDown();
+
+        writer.get(10, TimeUnit.SECONDS);
+        assertThat(mAccountsDbAdapter.getRecordsCount()).isEqualTo(initialCount + WRITE_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+}
@@ -15,7 +15,14 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.MigrationHelper;
+import org.gnucash.android.model.BaseModel;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
 import org.gnucash.android.util.TimestampHelper;
@@ -25,6 +32,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -60,4 +69,146 @@ public class MigrationHelperTest {
         assertThat(TimestampHelper.getUtcStringFromTimestamp(result))
                 .isEqualTo(unixBillenniumUtcString);
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a book database with the schema of version 12, before the recurrences were moved
+     * out of the scheduled actions and the splits were rebuilt with their reconcile state
+     */
+    private static void createVersion12Database(Context context, String databaseName) {
+        SQLiteDatabase db = context.openOrCreateDatabase(databaseName, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE commodities (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, namespace varchar(255) not null default ISO4217, "
+                    + "fullname varchar(255) not null, mnemonic varchar(255) not null, "
+                    + "local_symbol varchar(255) not null default '', cusip varchar(255), "
+                    + "fraction integer not null, quote_flag integer not null, "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+            db.execSQL("CREATE TABLE accounts (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, name varchar(255) not null, type varchar(255) not null, "
+                    + "currency_code varchar(255) not null, commodity_uid varchar(255) not null, "
+                    + "description varchar(255), color_code varchar(255), favorite tinyint default 0, "
+                    + "is_hidden tinyint default 0, full_name varchar(255), is_placeholder tinyint default 0, "
+                    + "parent_account_uid varchar(255), default_transfer_account_uid varchar(255), "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "FOREIGN KEY (commodity_uid) REFERENCES commodities (uid))");
+            db.execSQL("CREATE TABLE scheduled_actions (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, action_uid varchar(255) not null, "
+                    + "type varchar(255) not null, period integer not null, last_run integer default 0, "
+                    + "start_time integer not null, end_time integer default 0, tag text, "
+                    + "is_enabled tinyint default 1, total_frequency integer default 0, "
+                    + "execution_count integer default 0, "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+            db.execSQL("CREATE TABLE transactions (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, name varchar(255), description text, "
+                    + "timestamp integer not null, is_exported tinyint default 0, is_template tinyint default 0, "
+                    + "currency_code varchar(255) not null, commodity_uid varchar(255) not null, "
+                    + "scheduled_action_uid varchar(255), "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "FOREIGN KEY (scheduled_action_uid) REFERENCES scheduled_actions (uid) ON DELETE SET NULL, "
+                    + "FOREIGN KEY (commodity_uid) REFERENCES commodities (uid))");
+            db.execSQL("CREATE TABLE splits (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, memo text, type varchar(255) not null, "
+                    + "value_num integer not null, value_denom integer not null, "
+                    + "quantity_num integer not null, quantity_denom integer not null, "
+                    + "account_uid varchar(255) not null, transaction_uid varchar(255) not null, "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "FOREIGN KEY (account_uid) REFERENCES accounts (uid) ON DELETE CASCADE, "
+                    + "FOREIGN KEY (transaction_uid) REFERENCES transactions (uid) ON DELETE CASCADE)");
+            db.execSQL("CREATE TABLE prices (_id integer primary key autoincrement, "
+                    + "uid varchar(255) not null UNIQUE, commodity_guid varchar(255) not null, "
+                    + "currency_guid varchar(255) not null, type varchar(255), date TIMESTAMP not null, "
+                    + "source text, value_num integer not null, value_denom integer not null, "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "UNIQUE (commodity_guid, currency_guid) ON CONFLICT REPLACE, "
+                    + "FOREIGN KEY (commodity_guid) REFERENCES commodities (uid) ON DELETE CASCADE, "
+                    + "FOREIGN KEY (currency_guid) REFERENCES commodities (uid) ON DELETE CASCADE)");
+
+            db.execSQL("INSERT INTO commodities (uid, fullname, mnemonic, fraction, quote_flag) "
+                    + "VALUES ('usd', 'US Dollar', 'USD', 100, 1)");
+            db.execSQL("INSERT INTO accounts (uid, name, type, currency_code, commodity_uid, full_name) "
+                    + "VALUES ('root', 'ROOT', 'ROOT', 'USD', 'usd', 'ROOT')");
+            db.execSQL("INSERT INTO accounts (uid, name, type, currency_code, commodity_uid, full_name, parent_account_uid) "
+                    + "VALUES ('bank', 'Bank', 'BANK', 'USD', 'usd', 'Bank', 'root')");
+            db.execSQL("INSERT INTO accounts (uid, name, type, currency_code, commodity_uid, full_name, parent_account_uid) "
+                    + "VALUES ('rent', 'Rent', 'EXPENSE', 'USD', 'usd', 'Rent', 'root')");
+            db.execSQL("INSERT INTO scheduled_actions (uid, action_uid, type, period, start_time) "
+                    + "VALUES ('monthly-rent', 'rent-template', 'TRANSACTION', 2592000000, 1420070400000)");
+            db.execSQL("INSERT INTO transactions (uid, name, timestamp, currency_code, commodity_uid, scheduled_action_uid) "
+                    + "VALUES ('january-rent', 'Rent', 1422748800000, 'USD', 'usd', 'monthly-rent')");
+            db.execSQL("INSERT INTO splits (uid, type, value_num, value_denom, quantity_num, quantity_denom, "
+                    + "account_uid, transaction_uid) VALUES ('debit', 'DEBIT', 80000, 100, 80000, 100, 'rent', 'january-rent')");
+            db.execSQL("INSERT INTO splits (uid, type, value_num, value_denom, quantity_num, quantity_denom, "
+                    + "account_uid, transaction_uid) VALUES ('credit', 'CREDIT', 80000, 100, 80000, 100, 'bank', 'january-rent')");
+            db.setVersion(12);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion12_shouldKeepScheduledTransactions() {
+        Context context = GnuCashApplication.Companion.getAppContext();
+        String databaseName = BaseModel.generateUID();
+        createVersion12Database(context, databaseName);
+
+        SQLiteDatabase db = new DatabaseHelper(context, databaseName).getWritableDatabase();
+
+        Cursor cursor = db.rawQuery("SELECT scheduled_action_uid FROM transactions WHERE uid = 'january-rent'", null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            assertThat(cursor.getString(0)).isEqualTo("monthly-rent");
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.rawQuery("SELECT recurrence_uid FROM scheduled_actions WHERE uid = 'monthly-rent'", null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            assertThat(cursor.getString(0)).isNotEqualTo("dummy-string");
+        } finally {
+            cursor.close();
+        }
+
+        //the rebuilt tables must not leave references to their backups behind
+        for (String tableName : new String[]{"transactions", "splits", "budget_amounts"}) {
+            assertThat(getReferencedTables(db, tableName)).doesNotContain("scheduled_actions_bak", "splits_bak");
+        }
+        assertThat(getReferencedTables(db, "transactions")).contains("scheduled_actions");
+
+        cursor = db.rawQuery("PRAGMA foreign_keys", null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            assertThat(cursor.getInt(0)).isEqualTo(1);
+        } finally {
+            cursor.close();
+        }
+        cursor = db.rawQuery("SELECT COUNT(*) FROM splits WHERE transaction_uid = 'january-rent'", null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            assertThat(cursor.getInt(0)).isEqualTo(2);
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    private static List<String> getReferencedTables(SQLiteDatabase db, String tableName) {
+        List<String> referencedTables = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA foreign_key_list(" + tableName + ")", null);
+        try {
+            int tableColumn = cursor.getColumnIndexOrThrow("table");
+            while (cursor.moveToNext()) {
+                referencedTables.add(cursor.getString(tableColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return referencedTables;
+    }
+}
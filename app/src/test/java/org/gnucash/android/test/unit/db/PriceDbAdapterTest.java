@@ -1,5 +1,7 @@
 package org.gnucash.android.test.unit.db;
 
+import android.util.Pair;
+
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.db.adapter.PricesDbAdapter;
 import org.gnucash.android.model.Price;
@@ -10,6 +12,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.sql.Timestamp;
+
 import static org.assertj.core.api.Assertions.assertThat;
 /**
  * Test price functions
@@ -56,4 +60,47 @@ public class PriceDbAdapterTest {
 
         assertThat(pricesDbAdapter.getRecordsCount()).isEqualTo(2);
     }
+
+    @Test
+    public void shouldKeepPriceHistoryAndLookUpPricesByDate(){
+        CommoditiesDbAdapter commoditiesDbAdapter = CommoditiesDbAdapter.getInstance();
+        String eurUID = commoditiesDbAdapter.getCommodityUID("EUR");
+        String usdUID = commoditiesDbAdapter.getCommodityUID("USD");
+        String gbpUID = commoditiesDbAdapter.getCommodityUID("GBP");
+        PricesDbAdapter pricesDbAdapter = PricesDbAdapter.getInstance();
+
+        long january = Timestamp.valueOf("2020-01-15 12:00:00").getTime();
+        long march = Timestamp.valueOf("2020-03-15 12:00:00").getTime();
+        pricesDbAdapter.addRecord(createPrice(eurUID, usdUID, "2020-01-01 12:00:00", 110, 100));
+        pricesDbAdapter.addRecord(createPrice(eurUID, usdUID, "2020-02-01 12:00:00", 120, 100));
+        pricesDbAdapter.addRecord(createPrice(gbpUID, eurUID, "2020-01-01 12:00:00", 2, 1));
+        assertThat(pricesDbAdapter.getRecordsCount()).isEqualTo(3);
+
+        assertPrice(pricesDbAdapter.getPrice(eurUID, usdUID, january), 11, 10);
+        assertPrice(pricesDbAdapter.getPrice(eurUID, usdUID, march), 6, 5);
+        assertPrice(pricesDbAdapter.getPrice(eurUID, usdUID), 6, 5);
+        //inverted pair
+        assertPrice(pricesDbAdapter.getPrice(usdUID, eurUID, january), 10, 11);
+        //no direct price between GBP and USD, converted through EUR
+        assertPrice(pricesDbAdapter.getPrice(gbpUID, usdUID, january), 11, 5);
+        assertPrice(pricesDbAdapter.getPrice(usdUID, gbpUID, march), 5, 12);
+
+        //writing a price drops the index
+        pricesDbAdapter.addRecord(createPrice(gbpUID, usdUID, "2020-03-01 12:00:00", 3, 1));
+        assertPrice(pricesDbAdapter.getPrice(gbpUID, usdUID, march), 3, 1);
+        //before the first price of the pair, its earliest price is used
+        assertPrice(pricesDbAdapter.getPrice(gbpUID, usdUID, january), 3, 1);
+    }
+
+    private Price createPrice(String commodityUID, String currencyUID, String date, long valueNum, long valueDenom){
+        Price price = new Price(commodityUID, currencyUID);
+        price.setMDate(Timestamp.valueOf(date));
+        price.setMValueNum(valueNum);
+        price.setMValueDenom(valueDenom);
+        return price;
+    }
+
+    private void assertPrice(Pair<Long, Long> price, long valueNum, long valueDenom){
+        assertThat(price.first * valueDenom).isEqualTo(price.second * valueNum);
+    }
 }
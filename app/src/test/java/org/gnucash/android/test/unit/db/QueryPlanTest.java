@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the key queries of the database adapters are served by indexes.
+ * The queries are built by the adapters themselves, so that the test follows their changes
+ */
+@RunWith(RobolectricTestRunner.class) //package is required so that resources can be found in dev mode
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class QueryPlanTest {
+
+    private SQLiteDatabase mDb;
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private SplitsDbAdapter mSplitsDbAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        //open the database the way the application does
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mSplitsDbAdapter = SplitsDbAdapter.getInstance();
+        mDb = GnuCashApplication.getActiveDb();
+    }
+
+    /**
+     * Returns the steps of the query plan which read a whole table instead of searching an index
+     */
+    private List<String> getFullTableScans(String sql, String... args) {
+        List<String> fullScans = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailColumn);
+                if (detail.startsWith("SCAN") && !detail.contains("INDEX")
+                        && !detail.startsWith("SCAN SUBQUERY") && !detail.startsWith("SCAN CONSTANT ROW")) {
+                    fullScans.add(detail);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return fullScans;
+    }
+
+    @Test
+    public void transactionsForAccountShouldUseIndexes() {
+        assertThat(getFullTableScans(mTransactionsDbAdapter.allTransactionsForAccountSql(), "account")).isEmpty();
+        assertThat(getFullTableScans(mTransactionsDbAdapter.registerForAccountSql(100), "account")).isEmpty();
+        assertThat(getFullTableScans(mTransactionsDbAdapter.deleteTransactionsForAccountSubtreeSql(), "account"))
+                .isEmpty();
+    }
+
+    @Test
+    public void splitsForTransactionShouldUseIndexes() {
+        String sql = mSplitsDbAdapter.splitsWithCurrenciesSql(
+                SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = ?");
+        assertThat(getFullTableScans(sql, "transaction")).isEmpty();
+    }
+
+    @Test
+    public void splitBalanceShouldUseIndexes() {
+        String subtree = SplitsDbAdapter.ACCOUNT_SUBTREE_SELECTION;
+        assertThat(getFullTableScans(mSplitsDbAdapter.splitBalanceSql(subtree, true), "account", "0", "1"))
+                .isEmpty();
+        assertThat(getFullTableScans(mSplitsDbAdapter.splitBalanceSql(subtree, false), "account", "0")).isEmpty();
+        assertThat(getFullTableScans(mSplitsDbAdapter.accountBalancesSql(subtree), "account")).isEmpty();
+        assertThat(getFullTableScans(mSplitsDbAdapter.balanceAsOfSql(subtree, System.currentTimeMillis()),
+                "account", "account")).isEmpty();
+    }
+
+    @Test
+    public void accountHierarchyQueriesShouldUseIndexes() {
+        assertThat(getFullTableScans(mAccountsDbAdapter.subAccountCountSql(), "account")).isEmpty();
+        assertThat(getFullTableScans(mAccountsDbAdapter.descendantAccountsSql(null), "account")).isEmpty();
+    }
+}
@@ -15,18 +15,25 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteException;
 
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.LocalDate;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -34,7 +41,9 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -99,6 +108,37 @@ public class SplitsDbAdapterTest {
         assertThat(splits.get(0).getMUID()).isEqualTo(split.getMUID());
     }
 
+    /**
+     * Splits of several transactions are loaded together, with the currencies of their transaction and account
+     */
+    @Test
+    public void shouldLoadSplitsOfSeveralTransactions(){
+        Account euroAccount = new Account("Euro account", Commodity.EUR);
+        mAccountsDbAdapter.addRecord(euroAccount);
+
+        Transaction transaction = new Transaction("Purchase");
+        transaction.setMCommodity(Commodity.USD);
+        transaction.addSplit(new Split(new Money("10", "USD"), new Money("8", "EUR"), euroAccount.getMUID()));
+        transaction.addSplit(new Split(new Money("10", "USD"), mAccount.getMUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        Transaction emptyTransaction = new Transaction("Empty");
+        mTransactionsDbAdapter.addRecord(emptyTransaction);
+
+        Map<String, List<Split>> splitsMap = mSplitsDbAdapter.getSplitsForTransactions(
+                Arrays.asList(transaction.getMUID(), emptyTransaction.getMUID()));
+        assertThat(splitsMap).hasSize(2);
+        assertThat(splitsMap.get(emptyTransaction.getMUID())).isEmpty();
+
+        List<Split> splits = splitsMap.get(transaction.getMUID());
+        assertThat(splits).hasSize(2);
+        Split euroSplit = splits.get(0);
+        assertThat(euroSplit.getMAccountUID()).isEqualTo(euroAccount.getMUID());
+        assertThat(euroSplit.getMTransactionUID()).isEqualTo(transaction.getMUID());
+        assertThat(euroSplit.getMValue().getMCommodity().getMMnemonic()).isEqualTo("USD");
+        assertThat(euroSplit.getMQuantity().getMCommodity().getMMnemonic()).isEqualTo("EUR");
+    }
+
     /**
      * When a split is added or modified to a transaction, we should set the
      */
@@ -119,6 +159,197 @@ public class SplitsDbAdapterTest {
         assertThat(Boolean.parseBoolean(isExported)).isFalse();
     }
 
+    /**
+     * The maintained account balance should follow additions, replacements and deletions of splits
+     */
+    @Test
+    public void accountBalanceShouldFollowSplitChanges(){
+        Account account = new Account("Asset", Commodity.USD);
+        account.setMAccountType(AccountType.ASSET);
+        mAccountsDbAdapter.addRecord(account);
+
+        Transaction transaction = new Transaction("");
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        Split split = new Split(new Money("12.50", "USD"), account.getMUID());
+        split.setMTransactionUID(transaction.getMUID());
+        split.setMSplitType(TransactionType.DEBIT);
+        mSplitsDbAdapter.addRecord(split);
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID())).isEqualTo(new Money("12.50", "USD"));
+
+        split.setMSplitType(TransactionType.CREDIT);
+        mSplitsDbAdapter.addRecord(split);
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID())).isEqualTo(new Money("-12.50", "USD"));
+
+        Transaction template = new Transaction("template");
+        template.setMIsTemplate(true);
+        mTransactionsDbAdapter.addRecord(template);
+        Split templateSplit = new Split(new Money("100", "USD"), account.getMUID());
+        templateSplit.setMTransactionUID(template.getMUID());
+        mSplitsDbAdapter.addRecord(templateSplit);
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID())).isEqualTo(new Money("-12.50", "USD"));
+
+        mSplitsDbAdapter.rebuildAccountBalances();
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID())).isEqualTo(new Money("-12.50", "USD"));
+
+        mTransactionsDbAdapter.deleteRecord(transaction.getMUID());
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID()).isAmountZero()).isTrue();
+    }
+
+    /**
+     * Returns the account and transaction row IDs recorded in the split
+     */
+    private long[] getSplitRowIdKeys(String splitUID) {
+        Cursor cursor = GnuCashApplication.getActiveDb().query(DatabaseSchema.SplitEntry.TABLE_NAME,
+                new String[]{DatabaseSchema.SplitEntry.COLUMN_ACCOUNT_ID, DatabaseSchema.SplitEntry.COLUMN_TRANSACTION_ID},
+                DatabaseSchema.SplitEntry.COLUMN_UID + " = ?", new String[]{splitUID}, null, null, null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The integer account and transaction keys of a split follow its account and transaction
+     */
+    @Test
+    public void splitRowIdKeysShouldFollowAccountAndTransaction(){
+        Account otherAccount = new Account("Other account");
+        mAccountsDbAdapter.addRecord(otherAccount);
+        //replacing an account keeps its row ID
+        long otherAccountId = mAccountsDbAdapter.getID(otherAccount.getMUID());
+        otherAccount.setMName("Renamed account");
+        mAccountsDbAdapter.addRecord(otherAccount);
+        assertThat(mAccountsDbAdapter.getID(otherAccount.getMUID())).isEqualTo(otherAccountId);
+
+        Transaction transaction = new Transaction("Purchase");
+        Split split = new Split(new Money("10", "USD"), mAccount.getMUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(otherAccount.getMUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        long[] keys = getSplitRowIdKeys(split.getMUID());
+        assertThat(keys[0]).isEqualTo(mAccountsDbAdapter.getID(mAccount.getMUID()));
+        assertThat(keys[1]).isEqualTo(mTransactionsDbAdapter.getID(transaction.getMUID()));
+
+        //replacing the transaction keeps its row ID
+        long transactionId = keys[1];
+        transaction.setMDescription("Edited purchase");
+        mTransactionsDbAdapter.addRecord(transaction);
+        assertThat(mTransactionsDbAdapter.getID(transaction.getMUID())).isEqualTo(transactionId);
+        keys = getSplitRowIdKeys(split.getMUID());
+        assertThat(keys[1]).isEqualTo(transactionId);
+
+        mSplitsDbAdapter.updateRecord(split.getMUID(), DatabaseSchema.SplitEntry.COLUMN_ACCOUNT_UID, otherAccount.getMUID());
+        keys = getSplitRowIdKeys(split.getMUID());
+        assertThat(keys[0]).isEqualTo(mAccountsDbAdapter.getID(otherAccount.getMUID()));
+        assertThat(mTransactionsDbAdapter.getAllTransactionsForAccount(otherAccount.getMUID())).hasSize(1);
+    }
+
+    /**
+     * Returns the number of balance checkpoints of the account
+     */
+    private long getBalanceSnapshotCount(String accountUID) {
+        return DatabaseUtils.queryNumEntries(GnuCashApplication.getActiveDb(),
+                DatabaseSchema.BalanceSnapshotEntry.TABLE_NAME,
+                DatabaseSchema.BalanceSnapshotEntry.COLUMN_ACCOUNT_UID + " = ?", new String[]{accountUID});
+    }
+
+    private void addTransaction(Account account, String amount, TransactionType type, long timestamp) {
+        Transaction transaction = new Transaction("");
+        transaction.setMTimestamp(timestamp);
+        Split split = new Split(new Money(amount, "USD"), account.getMUID());
+        split.setMSplitType(type);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(mAccount.getMUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+    }
+
+    /**
+     * Balances at a date are computed from monthly checkpoints when they exist, without writing any,
+     * and the checkpoints are deleted by back-dated changes
+     */
+    @Test
+    public void balanceAtDateShouldUseCheckpoints(){
+        Account account = new Account("Asset", Commodity.USD);
+        account.setMAccountType(AccountType.ASSET);
+        mAccountsDbAdapter.addRecord(account);
+
+        long monthStart = new LocalDate().withDayOfMonth(1).toDate().getTime();
+        long threeMonthsAgo = new LocalDate().withDayOfMonth(1).minusMonths(3).toDate().getTime();
+        addTransaction(account, "10", TransactionType.DEBIT, threeMonthsAgo);
+        addTransaction(account, "4", TransactionType.CREDIT, monthStart);
+
+        long now = System.currentTimeMillis();
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, now)).isEqualTo(new Money("6", "USD"));
+        //reading the balances does not create checkpoints
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isZero();
+
+        mSplitsDbAdapter.updateBalanceCheckpoints();
+        //one checkpoint for each month after the first transaction
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isEqualTo(3);
+        //the checkpoint of the month does not include the transaction of the month
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, now)).isEqualTo(new Money("6", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, monthStart - 1))
+                .isEqualTo(new Money("10", "USD"));
+
+        //a back-dated transaction deletes the checkpoints after it
+        addTransaction(account, "1.25", TransactionType.DEBIT, threeMonthsAgo + 1000);
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isZero();
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, now)).isEqualTo(new Money("7.25", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, threeMonthsAgo))
+                .isEqualTo(new Money("10", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, now))
+                .isEqualTo(mAccountsDbAdapter.getAccountBalance(account.getMUID()));
+    }
+
+    /**
+     * The checkpoints deleted by a back-dated edit are created again from the latest checkpoint left,
+     * and the past balances read from them include the edit
+     */
+    @Test
+    public void backDatedEditShouldRebuildPastCheckpoints(){
+        Account account = new Account("Asset", Commodity.USD);
+        account.setMAccountType(AccountType.ASSET);
+        mAccountsDbAdapter.addRecord(account);
+
+        LocalDate monthStart = new LocalDate().withDayOfMonth(1);
+        long fiveMonthsAgo = monthStart.minusMonths(5).toDate().getTime();
+        long threeMonthsAgo = monthStart.minusMonths(3).toDate().getTime();
+        long twoMonthsAgo = monthStart.minusMonths(2).toDate().getTime();
+        addTransaction(account, "10", TransactionType.DEBIT, fiveMonthsAgo);
+
+        Transaction transaction = new Transaction("Old purchase");
+        transaction.setMTimestamp(threeMonthsAgo + 1000);
+        Split split = new Split(new Money("2", "USD"), account.getMUID());
+        split.setMSplitType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(mAccount.getMUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        mSplitsDbAdapter.updateBalanceCheckpoints();
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isEqualTo(5);
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, twoMonthsAgo))
+                .isEqualTo(new Money("12", "USD"));
+
+        //editing the old split deletes the checkpoints of the following months
+        mSplitsDbAdapter.updateRecord(split.getMUID(), DatabaseSchema.SplitEntry.COLUMN_QUANTITY_NUM, "500");
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isEqualTo(2);
+
+        mSplitsDbAdapter.updateBalanceCheckpoints();
+        assertThat(getBalanceSnapshotCount(account.getMUID())).isEqualTo(5);
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, threeMonthsAgo))
+                .isEqualTo(new Money("10", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, twoMonthsAgo))
+                .isEqualTo(new Money("15", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, monthStart.toDate().getTime() - 1))
+                .isEqualTo(new Money("15", "USD"));
+        assertThat(mAccountsDbAdapter.getAccountBalance(account.getMUID(), -1, System.currentTimeMillis()))
+                .isEqualTo(mAccountsDbAdapter.getAccountBalance(account.getMUID()));
+    }
+
     @After
     public void tearDown(){
         mAccountsDbAdapter.deleteAllRecords();
@@ -15,17 +15,29 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.database.Cursor;
+
 import org.assertj.core.data.Index;
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionSummaryEntry;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.RegisterCursor;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.GroupInterval;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.report.ReportCache;
+import org.gnucash.android.ui.report.ReportType;
+import org.joda.time.LocalDate;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -34,6 +46,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -143,6 +156,207 @@ public class TransactionsDbAdapterTest {
 		assertThat(savedBalance.getMCommodity()).isEqualTo(secondSplitAmount.getMCommodity());
 	}
 
+	@Test
+	public void readerShouldAssembleTransactionsWithTheirSplits(){
+		Transaction t1 = new Transaction("First");
+		t1.setMTimestamp(System.currentTimeMillis() - 10000);
+		Split split = new Split(new Money("4.99", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		t1.addSplit(split);
+		t1.addSplit(split.createPair(bravoAccount.getMUID()));
+
+		Transaction t2 = new Transaction("Second");
+		t2.setMTimestamp(System.currentTimeMillis());
+		Split split2 = new Split(new Money("23.50", DEFAULT_CURRENCY.getMMnemonic()), bravoAccount.getMUID());
+		t2.addSplit(split2);
+		t2.addSplit(split2.createPair(alphaAccount.getMUID()));
+
+		Transaction noSplits = new Transaction("No splits");
+		mTransactionsDbAdapter.addRecord(t1);
+		mTransactionsDbAdapter.addRecord(t2);
+		mTransactionsDbAdapter.addRecord(noSplits);
+
+		List<Transaction> transactions = mTransactionsDbAdapter.getAllRecords();
+		assertThat(transactions).hasSize(3);
+		assertThat(transactions).contains(t1, t2, noSplits);
+		for (Transaction transaction : transactions) {
+			if (transaction.equals(noSplits)) {
+				assertThat(transaction.getMSplitList()).isEmpty();
+			} else {
+				assertThat(transaction.getMSplitList()).hasSize(2);
+				assertThat(transaction.getMSplitList()).extracting("mTransactionUID")
+						.containsOnly(transaction.getMUID());
+			}
+		}
+
+		List<Transaction> accountTransactions = mTransactionsDbAdapter.getAllTransactionsForAccount(alphaAccount.getMUID());
+		assertThat(accountTransactions).containsExactly(t2, t1);
+		assertThat(accountTransactions.get(1).getMSplitList()).containsExactlyElementsOf(t1.getMSplitList());
+	}
+
+	/**
+	 * Returns a column of the summary of the transaction, or null if it has no summary
+	 */
+	private String getSummaryValue(String transactionUID, String column){
+		Cursor cursor = GnuCashApplication.getActiveDb().query(TransactionSummaryEntry.TABLE_NAME,
+				new String[]{column}, TransactionSummaryEntry.COLUMN_TRANSACTION_UID + " = ?",
+				new String[]{transactionUID}, null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void transactionSummaryShouldFollowSplits(){
+		Transaction transaction = new Transaction("Purchase");
+		Split split = new Split(new Money("10", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		split.setMMemo("Groceries");
+		transaction.addSplit(split);
+		Split pair = split.createPair(bravoAccount.getMUID());
+		pair.setMMemo(null);
+		transaction.addSplit(pair);
+		mTransactionsDbAdapter.addRecord(transaction);
+
+		String transactionUID = transaction.getMUID();
+		assertThat(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_SPLIT_COUNT)).isEqualTo("2");
+		//the account of the split without memo is the main account
+		assertThat(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_MAIN_ACCOUNT_UID))
+				.isEqualTo(bravoAccount.getMUID());
+		assertThat(Double.parseDouble(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_IMBALANCE))).isZero();
+		assertThat(mTransactionsDbAdapter.getNumCurrencies(transactionUID)).isEqualTo(1);
+
+		Account euroAccount = new Account("Euro account", Commodity.EUR);
+		mAccountsDbAdapter.addRecord(euroAccount);
+		Split fee = new Split(new Money("2", DEFAULT_CURRENCY.getMMnemonic()), euroAccount.getMUID());
+		fee.setMTransactionUID(transactionUID);
+		mSplitsDbAdapter.addRecord(fee);
+
+		assertThat(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_SPLIT_COUNT)).isEqualTo("3");
+		assertThat(Double.parseDouble(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_IMBALANCE))).isNotZero();
+		assertThat(mTransactionsDbAdapter.getNumCurrencies(transactionUID)).isEqualTo(2);
+		assertThat(mAccountsDbAdapter.getTransactionMaxSplitNum(alphaAccount.getMUID())).isEqualTo(3);
+
+		mTransactionsDbAdapter.deleteRecord(transactionUID);
+		assertThat(getSummaryValue(transactionUID, TransactionSummaryEntry.COLUMN_SPLIT_COUNT)).isNull();
+	}
+
+	@Test
+	public void registerShouldHaveAmountsAndRunningBalances(){
+		Transaction t1 = new Transaction("Salary");
+		t1.setMTimestamp(System.currentTimeMillis() - 10000);
+		Split split = new Split(new Money("10", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		split.setMSplitType(TransactionType.DEBIT);
+		t1.addSplit(split);
+		t1.addSplit(split.createPair(bravoAccount.getMUID()));
+
+		Transaction t2 = new Transaction("Coffee");
+		t2.setMTimestamp(System.currentTimeMillis());
+		Split split2 = new Split(new Money("3.50", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		split2.setMSplitType(TransactionType.CREDIT);
+		t2.addSplit(split2);
+		t2.addSplit(split2.createPair(bravoAccount.getMUID()));
+
+		mTransactionsDbAdapter.addRecord(t1);
+		mTransactionsDbAdapter.addRecord(t2);
+
+		RegisterCursor cursor = mTransactionsDbAdapter.fetchRegisterForAccount(alphaAccount.getMUID());
+		try {
+			assertThat(cursor.getCount()).isEqualTo(2);
+
+			//newest first, with the balance after each transaction
+			assertThat(cursor.moveToNext()).isTrue();
+			assertThat(cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID))).isEqualTo(t2.getMUID());
+			assertThat(cursor.getAmount()).isEqualTo(new Money("-3.50", DEFAULT_CURRENCY.getMMnemonic()));
+			assertThat(cursor.getRunningBalance()).isEqualTo(mAccountsDbAdapter.getAccountBalance(alphaAccount.getMUID()));
+			assertThat(cursor.getLong(cursor.getColumnIndexOrThrow(RegisterCursor.COLUMN_RUNNING_BALANCE))).isEqualTo(650L);
+			assertThat(cursor.getInt(cursor.getColumnIndexOrThrow(TransactionSummaryEntry.COLUMN_SPLIT_COUNT))).isEqualTo(2);
+			assertThat(cursor.getString(cursor.getColumnIndexOrThrow(RegisterCursor.COLUMN_TRANSFER_ACCOUNT_NAME)))
+					.isEqualTo(mAccountsDbAdapter.getFullyQualifiedAccountName(bravoAccount.getMUID()));
+
+			assertThat(cursor.moveToNext()).isTrue();
+			assertThat(cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID))).isEqualTo(t1.getMUID());
+			assertThat(cursor.getAmount()).isEqualTo(new Money("10", DEFAULT_CURRENCY.getMMnemonic()));
+			assertThat(cursor.getRunningBalance()).isEqualTo(new Money("10", DEFAULT_CURRENCY.getMMnemonic()));
+		} finally {
+			cursor.close();
+		}
+
+		//the other account sees the same transactions with the opposite sign
+		cursor = mTransactionsDbAdapter.fetchRegisterForAccount(bravoAccount.getMUID());
+		try {
+			assertThat(cursor.moveToFirst()).isTrue();
+			assertThat(cursor.getAmount()).isEqualTo(new Money("3.50", DEFAULT_CURRENCY.getMMnemonic()));
+			assertThat(cursor.getRunningBalance()).isEqualTo(new Money("-6.50", DEFAULT_CURRENCY.getMMnemonic()));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * The register amounts are summed up in integers, so they stay exact beyond the precision of a double
+	 */
+	@Test
+	public void registerAmountsShouldBeExactForLargeQuantities(){
+		Transaction transaction = new Transaction("Large transfer");
+		Split split = new Split(new Money("90071992547409.93", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		split.setMSplitType(TransactionType.DEBIT);
+		transaction.addSplit(split);
+		transaction.addSplit(split.createPair(bravoAccount.getMUID()));
+		mTransactionsDbAdapter.addRecord(transaction);
+
+		RegisterCursor cursor = mTransactionsDbAdapter.fetchRegisterForAccount(alphaAccount.getMUID());
+		try {
+			assertThat(cursor.moveToFirst()).isTrue();
+			assertThat(cursor.getLong(cursor.getColumnIndexOrThrow(RegisterCursor.COLUMN_AMOUNT)))
+					.isEqualTo(9007199254740993L);
+			assertThat(cursor.getRunningBalance())
+					.isEqualTo(new Money("90071992547409.93", DEFAULT_CURRENCY.getMMnemonic()));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void reportCacheShouldBeInvalidatedByBookChanges(){
+		long changeCount = mTransactionsDbAdapter.getBookChangeCount();
+		ReportCache.Key key = new ReportCache.Key("book", ReportType.PIE_CHART, AccountType.EXPENSE, -1, -1,
+				GroupInterval.MONTH, DEFAULT_CURRENCY.getMMnemonic(), "", LocalDate.now());
+		Object reportData = new Object();
+		ReportCache.INSTANCE.put(key, changeCount, reportData);
+		assertThat(ReportCache.INSTANCE.get(key, mTransactionsDbAdapter.getBookChangeCount())).isSameAs(reportData);
+
+		Transaction transaction = new Transaction("Purchase");
+		Split split = new Split(new Money("10", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+		transaction.addSplit(split);
+		transaction.addSplit(split.createPair(bravoAccount.getMUID()));
+		mTransactionsDbAdapter.addRecord(transaction);
+
+		long newChangeCount = mTransactionsDbAdapter.getBookChangeCount();
+		assertThat(newChangeCount).isGreaterThan(changeCount);
+		//reading does not change the book
+		mTransactionsDbAdapter.getAllTransactionsForAccount(alphaAccount.getMUID());
+		assertThat(mAccountsDbAdapter.getBookChangeCount()).isEqualTo(newChangeCount);
+		assertThat(ReportCache.INSTANCE.get(key, newChangeCount)).isNull();
+	}
+
+	@Test
+	public void bulkWritesShouldCountFewBookChanges(){
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Transaction transaction = new Transaction("Purchase " + i);
+			Split split = new Split(new Money("10", DEFAULT_CURRENCY.getMMnemonic()), alphaAccount.getMUID());
+			transaction.addSplit(split);
+			transaction.addSplit(split.createPair(bravoAccount.getMUID()));
+			transactions.add(transaction);
+		}
+		long changeCount = mTransactionsDbAdapter.getBookChangeCount();
+		mTransactionsDbAdapter.bulkAddRecords(transactions);
+
+		//the counter is incremented per call, not per row written
+		assertThat(mTransactionsDbAdapter.getBookChangeCount() - changeCount).isPositive().isLessThan(10);
+	}
+
 	@After
 	public void tearDown() throws Exception {
 		mAccountsDbAdapter.deleteAllRecords();
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Merges GnuCash XML files into books which were imported before
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class BookMergerTest {
+
+    @Before
+    public void setUp() throws Exception {
+        BooksDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    private String readResource(String filename) {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(filename);
+        return new Scanner(inputStream, "UTF-8").useDelimiter("\\A").next();
+    }
+
+    private String importBook(String xml) throws Exception {
+        return GncXmlImporter.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    private void merge(String xml, String bookUID, boolean deleteMissing) throws Exception {
+        GncXmlImporter.merge(new ByteArrayInputStream(xml.getBytes("UTF-8")), bookUID, deleteMissing);
+    }
+
+    /**
+     * Returns the row IDs of the records of a table by GUID. A record which is written again gets a new row ID
+     */
+    private static Map<String, Long> readRowIds(String bookUID, String tableName) {
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), bookUID);
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        Map<String, Long> rowIds = new HashMap<>();
+        Cursor cursor = db.query(tableName, new String[]{"uid", "_id"}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                rowIds.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+            databaseHelper.close();
+        }
+        return rowIds;
+    }
+
+    private static String readTransactionDescription(String bookUID, String transactionUID) {
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), bookUID);
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        Cursor cursor = db.query(TransactionEntry.TABLE_NAME, new String[]{TransactionEntry.COLUMN_DESCRIPTION},
+                TransactionEntry.COLUMN_UID + " = ?", new String[]{transactionUID}, null, null, null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+            databaseHelper.close();
+        }
+    }
+
+    /**
+     * Returns the file without its transactions, other than the template transactions
+     */
+    private static String removeTransactions(String xml) {
+        int start = xml.indexOf("<gnc:transaction ");
+        int templates = xml.indexOf("<gnc:template-transactions>");
+        int end = xml.lastIndexOf("</gnc:transaction>", templates < 0 ? xml.length() : templates)
+                + "</gnc:transaction>".length();
+        return xml.substring(0, start) + xml.substring(end);
+    }
+
+    @Test
+    public void mergingTheSameFile_shouldNotWriteAnything() throws Exception {
+        String xml = readResource("multiCurrencyTransactionImport.xml");
+        String bookUID = importBook(xml);
+        Map<String, Long> accounts = readRowIds(bookUID, AccountEntry.TABLE_NAME);
+        Map<String, Long> transactions = readRowIds(bookUID, TransactionEntry.TABLE_NAME);
+        Map<String, Long> splits = readRowIds(bookUID, SplitEntry.TABLE_NAME);
+        Map<String, Long> prices = readRowIds(bookUID, PriceEntry.TABLE_NAME);
+
+        merge(xml, bookUID, true);
+
+        assertThat(readRowIds(bookUID, AccountEntry.TABLE_NAME)).isEqualTo(accounts);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME)).isEqualTo(transactions);
+        assertThat(readRowIds(bookUID, SplitEntry.TABLE_NAME)).isEqualTo(splits);
+        assertThat(readRowIds(bookUID, PriceEntry.TABLE_NAME)).isEqualTo(prices);
+    }
+
+    @Test
+    public void mergingScheduledActions_shouldNotDuplicateThem() throws Exception {
+        String xml = readResource("bug562_scheduledTransactionImportedWithImbalancedSplits.xml");
+        String bookUID = importBook(xml);
+        Map<String, Long> accounts = readRowIds(bookUID, AccountEntry.TABLE_NAME);
+        Map<String, Long> scheduledActions = readRowIds(bookUID, ScheduledActionEntry.TABLE_NAME);
+        int transactionCount = readRowIds(bookUID, TransactionEntry.TABLE_NAME).size();
+
+        merge(xml, bookUID, false);
+        merge(xml, bookUID, false);
+
+        //the imbalance account created by the import is found again
+        assertThat(readRowIds(bookUID, AccountEntry.TABLE_NAME)).isEqualTo(accounts);
+        assertThat(readRowIds(bookUID, ScheduledActionEntry.TABLE_NAME)).isEqualTo(scheduledActions);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME)).hasSize(transactionCount);
+    }
+
+    @Test
+    public void mergingAChangedTransaction_shouldOnlyRewriteIt() throws Exception {
+        String xml = readResource("simpleTransactionImport.xml");
+        String bookUID = importBook(xml);
+        Map<String, Long> accounts = readRowIds(bookUID, AccountEntry.TABLE_NAME);
+        Map<String, Long> transactions = readRowIds(bookUID, TransactionEntry.TABLE_NAME);
+        Map<String, Long> splits = readRowIds(bookUID, SplitEntry.TABLE_NAME);
+
+        merge(xml.replace("<trn:description>Kahuna Burger</trn:description>",
+                "<trn:description>Big Kahuna Burger</trn:description>"), bookUID, false);
+
+        assertThat(readRowIds(bookUID, AccountEntry.TABLE_NAME)).isEqualTo(accounts);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME).keySet()).isEqualTo(transactions.keySet());
+        assertThat(readRowIds(bookUID, SplitEntry.TABLE_NAME).keySet()).isEqualTo(splits.keySet());
+        String transactionUID = transactions.keySet().iterator().next();
+        assertThat(readTransactionDescription(bookUID, transactionUID)).isEqualTo("Big Kahuna Burger");
+    }
+
+    @Test
+    public void mergingWithoutDeletion_shouldKeepMissingRecords() throws Exception {
+        String xml = readResource("multiCurrencyTransactionImport.xml");
+        String bookUID = importBook(xml);
+        Map<String, Long> transactions = readRowIds(bookUID, TransactionEntry.TABLE_NAME);
+        assertThat(transactions).isNotEmpty();
+
+        merge(removeTransactions(xml), bookUID, false);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME)).isEqualTo(transactions);
+
+        merge(removeTransactions(xml), bookUID, true);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME)).isEmpty();
+        assertThat(readRowIds(bookUID, SplitEntry.TABLE_NAME)).isEmpty();
+        assertThat(readRowIds(bookUID, PriceEntry.TABLE_NAME)).hasSize(1);
+    }
+
+    @Test
+    public void mergingAnotherBook_shouldFailAndKeepTheBook() throws Exception {
+        String bookUID = importBook(readResource("accountsImport.xml"));
+        Map<String, Long> accounts = readRowIds(bookUID, AccountEntry.TABLE_NAME);
+
+        //the same file, as if it were another book with another ROOT account
+        String otherBook = readResource("simpleTransactionImport.xml")
+                .replace("308ade8cf0be2b0b05c5eec3114a65fa", "0123456789abcdef0123456789abcdef");
+        try {
+            merge(otherBook, bookUID, true);
+            fail("A file with another ROOT account should not be merged");
+        } catch (SAXException e) {
+            assertThat(e.getMessage()).contains("ROOT");
+        }
+
+        assertThat(BooksDbAdapter.getInstance().getRecordsCount()).isEqualTo(1);
+        assertThat(readRowIds(bookUID, AccountEntry.TABLE_NAME)).isEqualTo(accounts);
+        assertThat(readRowIds(bookUID, TransactionEntry.TABLE_NAME)).isEmpty();
+    }
+}
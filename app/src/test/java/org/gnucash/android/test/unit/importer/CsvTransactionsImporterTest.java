@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.BookDbHelper;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.csv.CsvTransactionsExporter;
+import org.gnucash.android.importer.CsvTransactionsImporter;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.util.TimestampHelper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class CsvTransactionsImporterTest {
+    private static final String HEADERS = "Date,Transaction ID,Number,Description,Notes,Commodity/Currency,Void Reason,"
+            + "Action,Memo,Full Account Name,Account Name,Amount With Sym.,Amount Num,Reconcile,Reconcile Date,Rate/Price\n";
+
+    private SQLiteDatabase mDb;
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        BookDbHelper bookDbHelper = new BookDbHelper(GnuCashApplication.Companion.getAppContext());
+        BooksDbAdapter booksDbAdapter = new BooksDbAdapter(bookDbHelper.getWritableDatabase());
+        Book testBook = new Book("testRootAccountUID");
+        booksDbAdapter.addRecord(testBook);
+        DatabaseHelper databaseHelper =
+                new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), testBook.getMUID());
+        mDb = databaseHelper.getWritableDatabase();
+        mTransactionsDbAdapter = new TransactionsDbAdapter(mDb, new SplitsDbAdapter(mDb));
+        mAccountsDbAdapter = new AccountsDbAdapter(mDb, mTransactionsDbAdapter);
+    }
+
+    private String exportTransactions() {
+        ExportParams exportParameters = new ExportParams(ExportFormat.CSVT);
+        exportParameters.setExportStartTime(TimestampHelper.getTimestampFromEpochZero());
+        exportParameters.setExportTarget(ExportParams.ExportTarget.SD_CARD);
+        exportParameters.setDeleteTransactionsAfterExport(false);
+        List<String> exportedFiles = new CsvTransactionsExporter(exportParameters, mDb).generateExport();
+        assertThat(exportedFiles).hasSize(1);
+        return exportedFiles.get(0);
+    }
+
+    private int importTransactions(CsvTransactionsImporter importer, String csv) throws IOException {
+        return importer.importTransactions(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void exportedTransactions_shouldBeImportedAgain() throws Exception {
+        String cashUID = mAccountsDbAdapter.createAccountHierarchy("Assets:Cash", AccountType.CASH);
+        String foodUID = mAccountsDbAdapter.createAccountHierarchy("Expenses:Food", AccountType.EXPENSE);
+        String currencyCode = Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        Transaction transaction = new Transaction("Pizza, \"large\"");
+        transaction.setMNotes("Friday\nwith friends");
+        Split split = new Split(new Money("12", currencyCode), foodUID);
+        split.setMSplitType(TransactionType.DEBIT);
+        split.setMMemo("dinner");
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(cashUID));
+        mTransactionsDbAdapter.addRecord(transaction);
+        String csvFile = exportTransactions();
+        mTransactionsDbAdapter.deleteAllRecords();
+
+        CsvTransactionsImporter importer = new CsvTransactionsImporter(mDb);
+        InputStream inputStream = new FileInputStream(csvFile);
+        try {
+            assertThat(importer.importTransactions(inputStream)).isEqualTo(1);
+        } finally {
+            inputStream.close();
+        }
+
+        Transaction imported = mTransactionsDbAdapter.getRecord(transaction.getMUID());
+        assertThat(imported.getMDescription()).isEqualTo(transaction.getMDescription());
+        assertThat(imported.getMNotes()).isEqualTo(transaction.getMNotes());
+        assertThat(imported.getMSplitList()).hasSize(2);
+        for (Split importedSplit : imported.getMSplitList()) {
+            assertThat(importedSplit.getMValue()).isEqualTo(split.getMValue());
+            if (importedSplit.getMAccountUID().equals(foodUID)) {
+                assertThat(importedSplit.getMSplitType()).isEqualTo(TransactionType.DEBIT);
+                assertThat(importedSplit.getMMemo()).isEqualTo("dinner");
+            } else {
+                assertThat(importedSplit.getMAccountUID()).isEqualTo(cashUID);
+                assertThat(importedSplit.getMSplitType()).isEqualTo(TransactionType.CREDIT);
+            }
+        }
+
+        //the transactions which are in the book are not imported again
+        inputStream = new FileInputStream(csvFile);
+        try {
+            assertThat(importer.importTransactions(inputStream)).isZero();
+        } finally {
+            inputStream.close();
+        }
+        assertThat(importer.getSkippedCount()).isEqualTo(1);
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void missingAccounts_shouldBeCreated() throws Exception {
+        String currency = "CURRENCY::" + Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        String csv = HEADERS
+                + "2018-12-31,,,Salary,,"  + currency + ",,,,Income:Salary,Salary,,-1000,n,,1\n"
+                + ",,,,,,,,,Assets:Bank,Bank,,1000,n,,1\n"
+                + "2019-01-02,,,Rent,," + currency + ",,,,Expenses:Rent,Rent,,800,n,,1\n"
+                + ",,,,,,,,,Assets:Bank,Bank,,-800,n,,1\n"
+                + "2019-01-03,,,Cash withdrawal,," + currency + ",,,,Assets:Bank,Bank,,-50,n,,1\n";
+
+        //smaller batches than the file
+        CsvTransactionsImporter importer = new CsvTransactionsImporter(mDb, ',', 2);
+        assertThat(importTransactions(importer, csv)).isEqualTo(3);
+
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(3);
+        String bankUID = mAccountsDbAdapter.findAccountUidByFullName("Assets:Bank");
+        assertThat(bankUID).isNotNull();
+        assertThat(mAccountsDbAdapter.findAccountUidByFullName("Assets")).isNotNull();
+        assertThat(mAccountsDbAdapter.findAccountUidByFullName("Income:Salary")).isNotNull();
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(bankUID)).isEqualTo(3);
+        //the transaction with one split is balanced with the imbalance account
+        String imbalanceUID = mAccountsDbAdapter.getImbalanceAccountUID(Commodity.DEFAULT_COMMODITY);
+        assertThat(imbalanceUID).isNotNull();
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(imbalanceUID)).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidLines_shouldNotImportAnything() throws Exception {
+        String currency = "CURRENCY::" + Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        String csv = HEADERS
+                + "2019-01-02,,,Rent,," + currency + ",,,,Expenses:Rent,Rent,,800,n,,1\n"
+                + ",,,,,,,,,Assets:Bank,Bank,,-800,n,,1\n"
+                + "2019-01-03,,,Cash withdrawal,," + currency + ",,,,Assets:Bank,Bank,,fifty,n,,1\n";
+
+        try {
+            importTransactions(new CsvTransactionsImporter(mDb), csv);
+            fail("An invalid amount should fail the import");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("line 4");
+        }
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isZero();
+        assertThat(mAccountsDbAdapter.findAccountUidByFullName("Assets:Bank")).isNull();
+    }
+
+    /**
+     * A file exported on a device with a decimal comma is imported on a device with a decimal point
+     */
+    @Test
+    public void exportedAmounts_shouldNotDependOnTheLocale() throws Exception {
+        String cashUID = mAccountsDbAdapter.createAccountHierarchy("Assets:Cash", AccountType.CASH);
+        String rentUID = mAccountsDbAdapter.createAccountHierarchy("Expenses:Rent", AccountType.EXPENSE);
+        String currencyCode = Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        Transaction transaction = new Transaction("Rent");
+        Split split = new Split(new Money("1234.56", currencyCode), rentUID);
+        split.setMSplitType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(cashUID));
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        Locale defaultLocale = Locale.getDefault();
+        String csvFile;
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            csvFile = exportTransactions();
+            mTransactionsDbAdapter.deleteAllRecords();
+            Locale.setDefault(Locale.US);
+            InputStream inputStream = new FileInputStream(csvFile);
+            try {
+                assertThat(new CsvTransactionsImporter(mDb).importTransactions(inputStream)).isEqualTo(1);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+        assertThat(mAccountsDbAdapter.getAccountBalance(rentUID)).isEqualTo(new Money("1234.56", currencyCode));
+    }
+
+    @Test
+    public void groupedAmounts_shouldBeRejected() throws Exception {
+        String currency = "CURRENCY::" + Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        String csv = HEADERS
+                + "2019-01-02,,,Rent,," + currency + ",,,,Expenses:Rent,Rent,,\"1,234\",n,,1\n"
+                + ",,,,,,,,,Assets:Bank,Bank,,-1234,n,,1\n";
+
+        try {
+            importTransactions(new CsvTransactionsImporter(mDb), csv);
+            fail("An amount with a grouping separator should fail the import");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("line 2");
+        }
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isZero();
+    }
+}
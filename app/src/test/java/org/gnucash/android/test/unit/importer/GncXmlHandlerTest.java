@@ -29,6 +29,7 @@ import org.gnucash.android.export.xml.GncXmlHelper;
 import org.gnucash.android.importer.GncXmlHandler;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.ScheduledAction;
 import org.gnucash.android.model.Split;
@@ -46,11 +47,13 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Scanner;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -95,6 +98,31 @@ public class GncXmlHandlerTest {
         return handler.getBookUID();
     }
 
+    /**
+     * Returns the simple transaction import file with the transaction repeated, under new GUIDs.
+     * Every other transaction is imbalanced, so that an imbalance split is created for it.
+     * @param count Number of transactions
+     */
+    private String createTransactionsXml(int count) {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("simpleTransactionImport.xml");
+        String xml = new Scanner(inputStream, "UTF-8").useDelimiter("\\A").next();
+        int start = xml.indexOf("<gnc:transaction ");
+        int end = xml.indexOf("</gnc:transaction>") + "</gnc:transaction>".length();
+        String transaction = xml.substring(start, end);
+        StringBuilder transactions = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String copy = transaction
+                    .replace("b33c8a6160494417558fd143731fc26a", String.format("%032x", 3 * i))
+                    .replace("ad2cbc774fc4e71885d17e6932448e8e", String.format("%032x", 3 * i + 1))
+                    .replace("61d4d604bc00a59cabff4e8875d00bee", String.format("%032x", 3 * i + 2));
+            if (i % 2 == 1) {
+                copy = copy.replace("<split:value>-1000/100</split:value>", "<split:value>-900/100</split:value>");
+            }
+            transactions.append(copy).append('\n');
+        }
+        return xml.substring(0, start) + transactions + xml.substring(end);
+    }
+
     private void setUpDbAdapters(String bookUID) {
         DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), bookUID);
         SQLiteDatabase mainDb = databaseHelper.getReadableDatabase();
@@ -406,4 +434,53 @@ public class GncXmlHandlerTest {
         //assertThat(split2.getQuantity()).isEqualTo(new Money("20", "USD"));
         assertThat(split2.isPairOf(split1)).isTrue();
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks that a book written to the database in several chunks is imported completely,
+     * with one imbalance account for the imbalanced transactions of all the chunks.
+     */
+    @Test
+    public void chunkedImport_shouldImportAllTransactions() throws Exception {
+        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+        XMLReader reader = parser.getXMLReader();
+        GncXmlHandler handler = new GncXmlHandler(3);
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(createTransactionsXml(10).getBytes("UTF-8"))));
+        setUpDbAdapters(handler.getBookUID());
+
+        assertThat(mBooksDbAdapter.getRecordsCount()).isEqualTo(1);
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(10);
+        assertThat(mAccountsDbAdapter.getRecordsCount()).isEqualTo(6); // 4 accounts + root + Imbalance-USD
+        String imbalanceAccountUID = mAccountsDbAdapter.getImbalanceAccountUID(Commodity.USD);
+        assertThat(imbalanceAccountUID).isNotNull();
+        for (int i = 0; i < 10; i++) {
+            Transaction transaction = mTransactionsDbAdapter.getRecord(String.format("%032x", 3 * i));
+            assertThat(transaction.getMSplitList()).hasSize(i % 2 == 1 ? 3 : 2);
+            if (i % 2 == 1) {
+                assertThat(transaction.getMSplitList(imbalanceAccountUID)).hasSize(1);
+            }
+        }
+    }
+
+    /**
+     * Checks that nothing of a book is kept when its file cannot be imported completely
+     */
+    @Test
+    public void failedImport_shouldNotKeepTheBook() throws Exception {
+        String[] databases = GnuCashApplication.Companion.getAppContext().databaseList();
+        String xml = createTransactionsXml(6);
+        //cut off after the first transactions, some of which have been written to the database
+        String truncated = xml.substring(0, xml.lastIndexOf("<gnc:transaction "));
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        GncXmlHandler handler = new GncXmlHandler(2);
+        reader.setContentHandler(handler);
+        try {
+            reader.parse(new InputSource(new ByteArrayInputStream(truncated.getBytes("UTF-8"))));
+            fail("Truncated file should not be imported");
+        } catch (SAXException e) {
+            handler.abortImport();
+        }
+        assertThat(mBooksDbAdapter.getRecordsCount()).isZero();
+        assertThat(GnuCashApplication.Companion.getAppContext().databaseList()).containsOnly(databases);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.GncXmlHandler;
+import org.gnucash.android.importer.GncXmlPullImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.BUNDLED_FILES;
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.readResource;
+import static org.gnucash.android.test.unit.testutil.GncXmlTestFiles.scaleUp;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports GnuCash XML files with the pull parser importer and checks they give the same books as the SAX handler.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class GncXmlPullImporterTest {
+    private BooksDbAdapter mBooksDbAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        mBooksDbAdapter = BooksDbAdapter.getInstance();
+        mBooksDbAdapter.deleteAllRecords();
+        assertThat(mBooksDbAdapter.getRecordsCount()).isZero();
+    }
+
+    private String importWithSax(String xml) throws Exception {
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        GncXmlHandler handler = new GncXmlHandler();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml.getBytes("UTF-8"))));
+        return handler.getBookUID();
+    }
+
+    private String importWithPullParser(String xml) throws Exception {
+        GncXmlPullImporter importer = new GncXmlPullImporter();
+        importer.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        return importer.getBookUID();
+    }
+
+    private String importPipelined(byte[] input, int chunkSize, int queueCapacity) throws Exception {
+        GncXmlPullImporter importer = new GncXmlPullImporter(chunkSize);
+        importer.parsePipelined(new ByteArrayInputStream(input), queueCapacity);
+        return importer.getBookUID();
+    }
+
+    private static byte[] gzip(String xml) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream outputStream = new GZIPOutputStream(bytes);
+        outputStream.write(xml.getBytes("UTF-8"));
+        outputStream.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads back an imported book, in an order which does not depend on the order of insertion
+     */
+    private static class ImportedBook {
+        final List<Account> accounts;
+        final List<Transaction> transactions;
+        final List<ScheduledAction> scheduledActions;
+        final long priceCount;
+
+        ImportedBook(String bookUID) {
+            DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), bookUID);
+            SQLiteDatabase db = databaseHelper.getReadableDatabase();
+            TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, new SplitsDbAdapter(db));
+            AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db, transactionsDbAdapter);
+            ScheduledActionDbAdapter scheduledActionDbAdapter = new ScheduledActionDbAdapter(db, new RecurrenceDbAdapter(db));
+            accounts = new ArrayList<>(accountsDbAdapter.getAllRecords());
+            transactions = new ArrayList<>(transactionsDbAdapter.getAllRecords());
+            scheduledActions = new ArrayList<>(scheduledActionDbAdapter.getAllRecords());
+            priceCount = new PricesDbAdapter(db).getRecordsCount();
+            accounts.sort(Comparator.comparing(Account::getMName));
+            transactions.sort(Comparator.comparing(Transaction::getMDescription)
+                    .thenComparing(Transaction::getMTimestamp).thenComparing(Transaction::getMIsTemplate));
+            scheduledActions.sort(Comparator.comparing(ScheduledAction::getMUID));
+            databaseHelper.close();
+        }
+    }
+
+    /**
+     * Checks that two books have the same contents. Imbalance accounts and the objects generated
+     * from scheduled actions get new GUIDs with each import, so they are compared by their other attributes
+     */
+    private static void assertSameBook(ImportedBook actual, ImportedBook expected) {
+        assertThat(actual.accounts).hasSameSizeAs(expected.accounts);
+        for (int i = 0; i < expected.accounts.size(); i++) {
+            Account account = actual.accounts.get(i);
+            Account expectedAccount = expected.accounts.get(i);
+            assertThat(account.getMName()).isEqualTo(expectedAccount.getMName());
+            assertThat(account.getMFullName()).isEqualTo(expectedAccount.getMFullName());
+            assertThat(account.getMAccountType()).isEqualTo(expectedAccount.getMAccountType());
+            assertThat(account.getMCommodity()).isEqualTo(expectedAccount.getMCommodity());
+            assertThat(account.getMDescription()).isEqualTo(expectedAccount.getMDescription());
+            assertThat(account.getMColor()).isEqualTo(expectedAccount.getMColor());
+            assertThat(account.isPlaceholderAccount()).isEqualTo(expectedAccount.isPlaceholderAccount());
+            assertThat(account.isHidden()).isEqualTo(expectedAccount.isHidden());
+            assertThat(account.isFavorite()).isEqualTo(expectedAccount.isFavorite());
+        }
+
+        assertThat(actual.transactions).hasSameSizeAs(expected.transactions);
+        for (int i = 0; i < expected.transactions.size(); i++) {
+            Transaction transaction = actual.transactions.get(i);
+            Transaction expectedTransaction = expected.transactions.get(i);
+            if (!expectedTransaction.getMIsTemplate() && expectedTransaction.getMScheduledActionUID() == null) {
+                assertThat(transaction.getMUID()).isEqualTo(expectedTransaction.getMUID());
+            }
+            assertThat(transaction.getMTimestamp()).isEqualTo(expectedTransaction.getMTimestamp());
+            assertThat(transaction.getMCommodity()).isEqualTo(expectedTransaction.getMCommodity());
+            assertThat(transaction.getMNotes()).isEqualTo(expectedTransaction.getMNotes());
+            assertThat(transaction.getMIsExported()).isEqualTo(expectedTransaction.getMIsExported());
+            assertThat(transaction.getMIsTemplate()).isEqualTo(expectedTransaction.getMIsTemplate());
+            List<Split> splits = transaction.getMSplitList();
+            List<Split> expectedSplits = expectedTransaction.getMSplitList();
+            assertThat(splits).hasSameSizeAs(expectedSplits);
+            for (int j = 0; j < expectedSplits.size(); j++) {
+                assertThat(splits.get(j).getMSplitType()).isEqualTo(expectedSplits.get(j).getMSplitType());
+                assertThat(splits.get(j).getMValue()).isEqualTo(expectedSplits.get(j).getMValue());
+                assertThat(splits.get(j).getMQuantity()).isEqualTo(expectedSplits.get(j).getMQuantity());
+                assertThat(splits.get(j).getMMemo()).isEqualTo(expectedSplits.get(j).getMMemo());
+            }
+        }
+
+        assertThat(actual.scheduledActions).hasSameSizeAs(expected.scheduledActions);
+        for (int i = 0; i < expected.scheduledActions.size(); i++) {
+            ScheduledAction scheduledAction = actual.scheduledActions.get(i);
+            ScheduledAction expectedAction = expected.scheduledActions.get(i);
+            assertThat(scheduledAction.getMUID()).isEqualTo(expectedAction.getMUID());
+            assertThat(scheduledAction.getMStartTime()).isEqualTo(expectedAction.getMStartTime());
+            assertThat(scheduledAction.getMRecurrence().ruleString())
+                    .isEqualTo(expectedAction.getMRecurrence().ruleString());
+        }
+        assertThat(actual.priceCount).isEqualTo(expected.priceCount);
+    }
+
+    @Test
+    public void bundledFiles_shouldImportLikeSaxHandler() throws Exception {
+        for (String filename : BUNDLED_FILES) {
+            String xml = readResource(filename);
+            ImportedBook expected = new ImportedBook(importWithSax(xml));
+            ImportedBook actual = new ImportedBook(importWithPullParser(xml));
+            assertSameBook(actual, expected);
+        }
+    }
+
+    /**
+     * Checks that nothing of a book is kept when its file cannot be imported completely
+     */
+    @Test
+    public void failedImport_shouldNotKeepTheBook() throws Exception {
+        String[] databases = GnuCashApplication.Companion.getAppContext().databaseList();
+        String xml = scaleUp(readResource("simpleTransactionImport.xml"), 6);
+        //cut off after the first transactions, some of which have been written to the database
+        String truncated = xml.substring(0, xml.lastIndexOf("<gnc:transaction "));
+        GncXmlPullImporter importer = new GncXmlPullImporter(2);
+        try {
+            importer.parse(new ByteArrayInputStream(truncated.getBytes("UTF-8")));
+            fail("Truncated file should not be imported");
+        } catch (XmlPullParserException e) {
+            //expected
+        }
+        assertThat(mBooksDbAdapter.getRecordsCount()).isZero();
+        assertThat(GnuCashApplication.Companion.getAppContext().databaseList()).containsOnly(databases);
+    }
+
+    @Test
+    public void pipelinedImport_shouldImportLikeSaxHandler() throws Exception {
+        for (String filename : BUNDLED_FILES) {
+            String xml = readResource(filename);
+            ImportedBook expected = new ImportedBook(importWithSax(xml));
+            ImportedBook actual = new ImportedBook(
+                    importPipelined(xml.getBytes("UTF-8"), GncXmlHandler.DEFAULT_CHUNK_SIZE, 8));
+            assertSameBook(actual, expected);
+        }
+    }
+
+    /**
+     * Checks that a gzipped book which does not fit into the queue is imported completely,
+     * with the parser waiting for the writes
+     */
+    @Test
+    public void pipelinedImport_shouldWaitForTheWrites() throws Exception {
+        String xml = scaleUp(readResource("transactionWithNonDefaultSplitsImport.xml"), 3000);
+        ImportedBook expected = new ImportedBook(importWithSax(xml));
+        ImportedBook actual = new ImportedBook(importPipelined(gzip(xml), 100, 1));
+        assertThat(actual.transactions).hasSize(3000);
+        assertThat(actual.transactions).hasSameSizeAs(expected.transactions);
+        assertThat(actual.accounts).hasSameSizeAs(expected.accounts);
+    }
+
+    /**
+     * Checks that a parser error stops the writes, and nothing of the book is kept
+     */
+    @Test
+    public void pipelinedImport_parserErrorShouldRollBack() throws Exception {
+        String[] databases = GnuCashApplication.Companion.getAppContext().databaseList();
+        String xml = scaleUp(readResource("simpleTransactionImport.xml"), 3000);
+        //cut off after most of the transactions, some of which have been written to the database
+        String truncated = xml.substring(0, xml.lastIndexOf("<gnc:transaction "));
+        try {
+            importPipelined(truncated.getBytes("UTF-8"), 100, 1);
+            fail("Truncated file should not be imported");
+        } catch (XmlPullParserException e) {
+            //expected
+        }
+        assertThat(mBooksDbAdapter.getRecordsCount()).isZero();
+        assertThat(GnuCashApplication.Companion.getAppContext().databaseList()).containsOnly(databases);
+    }
+
+    /**
+     * Checks that the bundled files with their transactions repeated give the same books with the SAX handler,
+     * the pull parser importer and the pipelined import. Their throughput is measured by GncXmlImportBenchmark
+     */
+    @Test
+    public void scaledUpFiles_shouldImportLikeSaxHandler() throws Exception {
+        for (String filename : BUNDLED_FILES) {
+            String xml = scaleUp(readResource(filename), 20);
+            ImportedBook expected = new ImportedBook(importWithSax(xml));
+            String[] bookUIDs = {importWithPullParser(xml),
+                    importPipelined(xml.getBytes("UTF-8"), GncXmlHandler.DEFAULT_CHUNK_SIZE, 8)};
+            for (String bookUID : bookUIDs) {
+                ImportedBook actual = new ImportedBook(bookUID);
+                assertThat(actual.transactions).hasSameSizeAs(expected.transactions);
+                assertThat(actual.accounts).hasSameSizeAs(expected.accounts);
+                assertThat(actual.scheduledActions).hasSameSizeAs(expected.scheduledActions);
+                assertThat(actual.priceCount).isEqualTo(expected.priceCount);
+            }
+        }
+    }
+}
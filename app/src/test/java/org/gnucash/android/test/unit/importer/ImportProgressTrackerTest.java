@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.importer.ImportProgress;
+import org.gnucash.android.importer.ImportProgressTracker;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ImportProgressTrackerTest {
+
+    @Before
+    public void setUp() throws Exception {
+        BooksDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    private byte[] readGzippedResource(String filename) throws Exception {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(filename);
+        String xml = new Scanner(inputStream, "UTF-8").useDelimiter("\\A").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream outputStream = new GZIPOutputStream(bytes);
+        outputStream.write(xml.getBytes("UTF-8"));
+        outputStream.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void progressShouldCountTheCompressedBytes() throws Exception {
+        byte[] input = readGzippedResource("multiCurrencyTransactionImport.xml");
+        final List<ImportProgress> events = Collections.synchronizedList(new ArrayList<ImportProgress>());
+        ImportProgressTracker tracker = new ImportProgressTracker(input.length, events::add);
+
+        GncXmlImporter.parse(new ByteArrayInputStream(input), tracker);
+
+        List<ImportProgress.Phase> phases = new ArrayList<>();
+        for (ImportProgress progress : events) {
+            phases.add(progress.getPhase());
+        }
+        assertThat(phases).contains(ImportProgress.Phase.INSERT_ACCOUNTS, ImportProgress.Phase.INSERT_TRANSACTIONS,
+                ImportProgress.Phase.INSERT_PRICES, ImportProgress.Phase.COMMIT);
+        ImportProgress last = events.get(events.size() - 1);
+        assertThat(last.getPhase()).isEqualTo(ImportProgress.Phase.DONE);
+        assertThat(last.getBytesRead()).isEqualTo(input.length);
+        assertThat(last.getPermille()).isEqualTo(1000);
+        assertThat(last.getEtaMillis()).isZero();
+        // accounts, the transaction and the price
+        assertThat(last.getEntityCount()).isGreaterThan(2);
+    }
+
+    @Test
+    public void pipelinedImportShouldPublishProgress() throws Exception {
+        byte[] input = readGzippedResource("simpleTransactionImport.xml");
+        final List<ImportProgress> events = Collections.synchronizedList(new ArrayList<ImportProgress>());
+        ImportProgressTracker tracker = new ImportProgressTracker(-1, events::add);
+
+        GncXmlImporter.parsePipelined(new ByteArrayInputStream(input), tracker);
+
+        ImportProgress last = events.get(events.size() - 1);
+        assertThat(last.getPhase()).isEqualTo(ImportProgress.Phase.DONE);
+        assertThat(last.getBytesRead()).isEqualTo(input.length);
+        assertThat(last.getPermille()).isEqualTo(-1);
+        assertThat(last.getEtaMillis()).isEqualTo(-1);
+    }
+
+    @Test
+    public void etaShouldFollowTheRateOfReading() {
+        ImportProgress progress = new ImportProgress(ImportProgress.Phase.PARSE, 250, 1000, 500, 2000);
+        assertThat(progress.getPermille()).isEqualTo(250);
+        assertThat(progress.getEtaMillis()).isEqualTo(6000);
+        assertThat(progress.getEntitiesPerSecond()).isEqualTo(250);
+        assertThat(progress.toLogString()).isEqualTo(
+                "phase=PARSE bytes=250 total_bytes=1000 entities=500 entities_per_s=250 elapsed_ms=2000 eta_ms=6000");
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.BookDbHelper;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.importer.QifImporter;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.util.TimestampHelper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class QifImporterTest {
+    private SQLiteDatabase mDb;
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        BookDbHelper bookDbHelper = new BookDbHelper(GnuCashApplication.Companion.getAppContext());
+        BooksDbAdapter booksDbAdapter = new BooksDbAdapter(bookDbHelper.getWritableDatabase());
+        Book testBook = new Book("testRootAccountUID");
+        booksDbAdapter.addRecord(testBook);
+        DatabaseHelper databaseHelper =
+                new DatabaseHelper(GnuCashApplication.Companion.getAppContext(), testBook.getMUID());
+        mDb = databaseHelper.getWritableDatabase();
+        mTransactionsDbAdapter = new TransactionsDbAdapter(mDb, new SplitsDbAdapter(mDb));
+        mAccountsDbAdapter = new AccountsDbAdapter(mDb, mTransactionsDbAdapter);
+    }
+
+    private void addTransaction(String description, String fromAccountUID, String... toAccountsAndAmounts) {
+        String currencyCode = Commodity.DEFAULT_COMMODITY.getMMnemonic();
+        Transaction transaction = new Transaction(description);
+        Money total = Money.createZeroInstance(currencyCode);
+        for (int i = 0; i < toAccountsAndAmounts.length; i += 2) {
+            Money amount = new Money(toAccountsAndAmounts[i + 1], currencyCode);
+            Split split = new Split(amount, toAccountsAndAmounts[i]);
+            split.setMSplitType(TransactionType.DEBIT);
+            transaction.addSplit(split);
+            total = total.add(amount);
+        }
+        Split split = new Split(total, fromAccountUID);
+        split.setMSplitType(TransactionType.CREDIT);
+        transaction.addSplit(split);
+        mTransactionsDbAdapter.addRecord(transaction);
+    }
+
+    private int importTransactions(QifImporter importer, String qif) throws IOException {
+        return importer.importTransactions(new ByteArrayInputStream(qif.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void exportedTransactions_shouldBeImportedAgain() throws Exception {
+        String bankUID = mAccountsDbAdapter.createAccountHierarchy("Assets:Bank", AccountType.BANK);
+        String cashUID = mAccountsDbAdapter.createAccountHierarchy("Assets:Cash", AccountType.CASH);
+        String foodUID = mAccountsDbAdapter.createAccountHierarchy("Expenses:Food", AccountType.EXPENSE);
+        addTransaction("Groceries", bankUID, foodUID, "12");
+        addTransaction("Withdrawal", bankUID, cashUID, "50");
+        addTransaction("Market", bankUID, foodUID, "10", cashUID, "20");
+        Money bankBalance = mAccountsDbAdapter.getAccountBalance(bankUID);
+        Money cashBalance = mAccountsDbAdapter.getAccountBalance(cashUID);
+        Money foodBalance = mAccountsDbAdapter.getAccountBalance(foodUID);
+
+        ExportParams exportParameters = new ExportParams(ExportFormat.QIF);
+        exportParameters.setExportStartTime(TimestampHelper.getTimestampFromEpochZero());
+        exportParameters.setExportTarget(ExportParams.ExportTarget.SD_CARD);
+        exportParameters.setDeleteTransactionsAfterExport(false);
+        List<String> exportedFiles = new QifExporter(exportParameters, mDb).generateExport();
+        assertThat(exportedFiles).hasSize(1);
+        mTransactionsDbAdapter.deleteAllRecords();
+
+        QifImporter importer = new QifImporter(mDb);
+        InputStream inputStream = new FileInputStream(exportedFiles.get(0));
+        try {
+            assertThat(importer.importTransactions(inputStream)).isEqualTo(3);
+        } finally {
+            inputStream.close();
+        }
+
+        //each transaction is exported once, in the section of its main account
+        assertThat(importer.getSkippedCount()).isZero();
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(bankUID)).isEqualTo(3);
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(cashUID)).isEqualTo(2);
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(foodUID)).isEqualTo(2);
+        assertThat(mAccountsDbAdapter.getAccountBalance(bankUID)).isEqualTo(bankBalance);
+        assertThat(mAccountsDbAdapter.getAccountBalance(cashUID)).isEqualTo(cashBalance);
+        assertThat(mAccountsDbAdapter.getAccountBalance(foodUID)).isEqualTo(foodBalance);
+    }
+
+    @Test
+    public void quickenFile_shouldCreateTheMissingAccounts() throws Exception {
+        String qif = "!Type:Bank\n"
+                + "D1/5'19\nT-1,234.50\nPLandlord\nLHousing:Rent\nC*\n^\n"
+                + "D12/31/18\nT2,500.00\nPEmployer\nLSalary\n^\n"
+                + "D1/6'19\nT-100.00\nPATM\nL[Savings]\n^\n"
+                + "D1/7'19\nT-60.00\nPShop\nSFood:Groceries\nEWeekly\n$-40.00\nSHousehold\n$-20.00\n^\n"
+                + "!Type:Cat\nNFood\nDFood\nE\n^\n"
+                + "!Account\nNSavings\nTBank\n^\n"
+                + "!Type:Bank\n"
+                + "D1/6'19\nT100.00\nPATM\nL[" + QifImporter.DEFAULT_ACCOUNT_NAME + "]\n^\n";
+
+        //smaller batches than the file
+        QifImporter importer = new QifImporter(mDb, QifImporter.DEFAULT_ACCOUNT_NAME, 2);
+        assertThat(importTransactions(importer, qif)).isEqualTo(4);
+
+        //the transfer is listed in both accounts
+        assertThat(importer.getSkippedCount()).isEqualTo(1);
+        String accountUID = mAccountsDbAdapter.findAccountUidByFullName(QifImporter.DEFAULT_ACCOUNT_NAME);
+        assertThat(mAccountsDbAdapter.getAccountType(accountUID)).isEqualTo(AccountType.BANK);
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(accountUID)).isEqualTo(4);
+        assertThat(mAccountsDbAdapter.findAccountUidByFullName("Housing")).isNotNull();
+        String rentUID = mAccountsDbAdapter.findAccountUidByFullName("Housing:Rent");
+        assertThat(mAccountsDbAdapter.getAccountType(rentUID)).isEqualTo(AccountType.EXPENSE);
+        String salaryUID = mAccountsDbAdapter.findAccountUidByFullName("Salary");
+        assertThat(mAccountsDbAdapter.getAccountType(salaryUID)).isEqualTo(AccountType.INCOME);
+        String savingsUID = mAccountsDbAdapter.findAccountUidByFullName("Savings");
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(savingsUID)).isEqualTo(1);
+        assertThat(mTransactionsDbAdapter.getTransactionsCount(
+                mAccountsDbAdapter.findAccountUidByFullName("Food:Groceries"))).isEqualTo(1);
+        assertThat(mAccountsDbAdapter.getAccountBalance(savingsUID))
+                .isEqualTo(new Money("100", Commodity.DEFAULT_COMMODITY.getMMnemonic()));
+    }
+
+    @Test
+    public void invalidEntries_shouldNotImportAnything() throws Exception {
+        String qif = "!Type:Bank\n"
+                + "D1/5'19\nT-12.00\nPShop\nLFood\n^\n"
+                + "D13/45'19\nT-12.00\nPShop\nLFood\n^\n";
+
+        try {
+            importTransactions(new QifImporter(mDb), qif);
+            fail("An invalid date should fail the import");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("line 7");
+        }
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isZero();
+        assertThat(mAccountsDbAdapter.findAccountUidByFullName("Food")).isNull();
+    }
+}
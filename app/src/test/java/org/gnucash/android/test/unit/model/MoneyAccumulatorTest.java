@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.model;
+
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyAccumulator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class MoneyAccumulatorTest {
+
+	@Test
+	public void shouldSumAmountsPerCommodity(){
+		MoneyAccumulator accumulator = new MoneyAccumulator();
+		accumulator.add(1250, 100, "USD");
+		accumulator.add(new Money("4.75", "USD"));
+		accumulator.subtract(3, 1, "USD");
+		accumulator.add(new Money("100", "JPY"));
+		accumulator.subtract(new Money("20", "JPY"));
+
+		assertThat(accumulator.getMoney("USD")).isEqualTo(new Money("14.25", "USD"));
+		assertThat(accumulator.getMoney("JPY")).isEqualTo(new Money("80", "JPY"));
+		assertThat(accumulator.getMoney("EUR")).isEqualTo(Money.createZeroInstance("EUR"));
+		assertThat(accumulator.getCommodityCodes()).containsExactly("USD", "JPY");
+	}
+
+	@Test
+	public void shouldKeepTheScaleOfTheMostPreciseAmount(){
+		MoneyAccumulator accumulator = new MoneyAccumulator();
+		accumulator.add(5, 1, "USD");
+		accumulator.add(12345, 10000, "USD");
+		accumulator.add(25, 100, "USD");
+
+		assertThat(accumulator.getAmount("USD")).isEqualTo(new BigDecimal("6.4845"));
+		//rounded half even to the cents of the currency
+		assertThat(accumulator.getMoney("USD")).isEqualTo(new Money("6.48", "USD"));
+	}
+
+	@Test
+	public void overflowShouldFallBackToBigDecimal(){
+		MoneyAccumulator accumulator = new MoneyAccumulator();
+		accumulator.add(Long.MAX_VALUE, 100, "USD");
+		accumulator.add(Long.MAX_VALUE, 100, "USD");
+		BigDecimal expected = BigDecimal.valueOf(Long.MAX_VALUE, 2).multiply(BigDecimal.valueOf(2));
+		assertThat(accumulator.getAmount("USD")).isEqualTo(expected);
+
+		accumulator.subtract(Long.MAX_VALUE, 100, "USD");
+		accumulator.subtract(Long.MIN_VALUE, 100, "USD");
+		expected = expected.subtract(BigDecimal.valueOf(Long.MAX_VALUE, 2)).subtract(BigDecimal.valueOf(Long.MIN_VALUE, 2));
+		assertThat(accumulator.getAmount("USD")).isEqualTo(expected);
+
+		//rescaling a large sum to a finer denominator overflows too
+		MoneyAccumulator rescaled = new MoneyAccumulator();
+		rescaled.add(Long.MAX_VALUE / 10, 1, "USD");
+		rescaled.add(1, 1000, "USD");
+		assertThat(rescaled.getAmount("USD"))
+				.isEqualTo(BigDecimal.valueOf(Long.MAX_VALUE / 10).add(new BigDecimal("0.001")));
+	}
+
+	@Test
+	public void addAllShouldMergeAccumulators(){
+		MoneyAccumulator first = new MoneyAccumulator();
+		first.add(1000, 100, "USD");
+		MoneyAccumulator second = new MoneyAccumulator();
+		second.add(250, 100, "USD");
+		second.add(7, 1, "EUR");
+
+		first.addAll(second, true);
+		assertThat(first.getMoney("USD")).isEqualTo(new Money("7.50", "USD"));
+		assertThat(first.getMoney("EUR")).isEqualTo(new Money("-7", "EUR"));
+		first.addAll(second);
+		assertThat(first.getMoney("USD")).isEqualTo(new Money("10", "USD"));
+		assertThat(first.getMoney("EUR").isAmountZero()).isTrue();
+	}
+
+	@Test
+	public void shouldSumLikeMoneyAddition(){
+		Money moneyTotal = Money.createZeroInstance("USD");
+		MoneyAccumulator accumulator = new MoneyAccumulator();
+		for (int i = 0; i < 2000; i++) {
+			moneyTotal = moneyTotal.add(new Money(i % 1000, 100, "USD"));
+			accumulator.add(i % 1000, 100, "USD");
+		}
+		assertThat(accumulator.getMoney("USD")).isEqualTo(moneyTotal);
+	}
+}
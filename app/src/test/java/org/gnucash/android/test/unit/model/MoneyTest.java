@@ -18,6 +18,7 @@ package org.gnucash.android.test.unit.model;
 
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.MoneyFormatter;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
 import org.junit.Before;
@@ -168,6 +169,33 @@ public class MoneyTest{
 		assertEquals("9.75", some.asString());
 	}
 
+	@Test
+	public void cachedFormatsShouldMatchCommodityAndThread() throws Exception {
+		final String formattedDE = mMoneyInEur.formattedString(Locale.GERMANY);
+		Money yen = new Money("1500", "JPY");
+		assertThat(yen.formattedString(Locale.GERMANY)).doesNotContain(",");
+		//the digits set for the yen must not leak into the next euro amount
+		assertThat(mMoneyInEur.formattedString(Locale.GERMANY)).isEqualTo(formattedDE);
+
+		Commodity euro = Commodity.getInstance(CURRENCY_CODE);
+		assertThat(MoneyFormatter.format(1575L, euro, Locale.US)).isEqualTo(mMoneyInEur.formattedString(Locale.US));
+		assertThat(MoneyFormatter.format(-1575L, euro, Locale.US))
+				.isEqualTo(mMoneyInEur.negate().formattedString(Locale.US));
+		assertThat(MoneyFormatter.format(Long.MAX_VALUE, euro, Locale.US))
+				.isEqualTo(new Money(BigDecimal.valueOf(Long.MAX_VALUE, 2), euro).formattedString(Locale.US));
+
+		final String[] formattedInThread = new String[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				formattedInThread[0] = mMoneyInEur.formattedString(Locale.GERMANY);
+			}
+		});
+		thread.start();
+		thread.join();
+		assertThat(formattedInThread[0]).isEqualTo(formattedDE);
+	}
+
 	public void validateImmutability(){
 		assertEquals(mHashcode, mMoneyInEur.hashCode());
 		assertEquals(amountString, mMoneyInEur.toPlainString());
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.testutil;
+
+import org.junit.Assume;
+
+/**
+ * Gate of the benchmarks, which are skipped unless the build is run with -Dgnucash.benchmarks=true
+ */
+public class Benchmarks {
+    public static final String ENABLED_PROPERTY = "gnucash.benchmarks";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling test unless the benchmarks were requested
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks are only run with -D" + ENABLED_PROPERTY + "=true",
+                Boolean.getBoolean(ENABLED_PROPERTY));
+    }
+}
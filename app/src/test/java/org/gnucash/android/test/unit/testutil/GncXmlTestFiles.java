@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 Xilin Jia https://github.com/XilinJia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.testutil;
+
+import java.io.InputStream;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the GnuCash XML files bundled with the tests, and makes larger books out of them
+ */
+public class GncXmlTestFiles {
+    /**
+     * Files of the test resources which can be imported
+     */
+    public static final String[] BUNDLED_FILES = {
+            "accountsImport.xml",
+            "simpleTransactionImport.xml",
+            "transactionWithNonDefaultSplitsImport.xml",
+            "multiCurrencyTransactionImport.xml",
+            "importingScheduledAction_shouldSetByDays.xml",
+            "bug562_scheduledTransactionImportedWithImbalancedSplits.xml"
+    };
+
+    private static final Pattern ID_PREFIX = Pattern.compile("(<(?:trn|split):id type=\"guid\">)[0-9a-f]{8}");
+
+    private GncXmlTestFiles() {
+    }
+
+    public static String readResource(String filename) {
+        InputStream inputStream = GncXmlTestFiles.class.getClassLoader().getResourceAsStream(filename);
+        return new Scanner(inputStream, "UTF-8").useDelimiter("\\A").next();
+    }
+
+    /**
+     * Returns the file with its transactions, other than the template transactions, repeated under new GUIDs
+     * @param copies Number of copies of each transaction
+     */
+    public static String scaleUp(String xml, int copies) {
+        int start = xml.indexOf("<gnc:transaction ");
+        if (start < 0) {
+            return xml;
+        }
+        int templates = xml.indexOf("<gnc:template-transactions>");
+        int end = xml.lastIndexOf("</gnc:transaction>", templates < 0 ? xml.length() : templates)
+                + "</gnc:transaction>".length();
+        String transactions = xml.substring(start, end);
+        StringBuilder scaled = new StringBuilder(xml.length() + transactions.length() * copies);
+        scaled.append(xml, 0, start);
+        for (int i = 0; i < copies; i++) {
+            Matcher matcher = ID_PREFIX.matcher(transactions);
+            scaled.append(matcher.replaceAll("$1" + String.format("%08x", i))).append('\n');
+        }
+        scaled.append(xml, end, xml.length());
+        return scaled.toString();
+    }
+}